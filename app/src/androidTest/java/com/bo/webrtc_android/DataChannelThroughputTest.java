@@ -0,0 +1,164 @@
+package com.bo.webrtc_android;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.webrtc.DataChannel;
+import org.webrtc.IceCandidate;
+import org.webrtc.MediaConstraints;
+import org.webrtc.PeerConnection;
+import org.webrtc.PeerConnectionFactory;
+import org.webrtc.SessionDescription;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+// 本机两个 PeerConnection 直连, 测量 bulk 通道在背压下的吞吐; 需要 WebRTC 的 native 库, 只能在设备上运行
+@RunWith(AndroidJUnit4.class)
+public class DataChannelThroughputTest {
+    private static final String TAG = "boDataChannelBench";
+    private static final int TOTAL_BYTES = 32 * 1024 * 1024;
+    private static final int ROUNDS = 3;
+
+    private PeerConnectionFactory factory;
+    private PeerConnection sender;
+    private PeerConnection receiver;
+    private PeerDataChannels senderChannels;
+    private PeerDataChannels receiverChannels;
+
+    private final CountDownLatch opened = new CountDownLatch(2);
+    private final AtomicLong receivedBytes = new AtomicLong();
+    private volatile CountDownLatch received;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        CountDownLatch ready = new CountDownLatch(1);
+        MediaEngine.get(context).whenReady(engine -> ready.countDown());
+        assertTrue(ready.await(10, TimeUnit.SECONDS));
+        factory = MediaEngine.get(context).getPeerConnectionFactory();
+
+        PeerConnection.RTCConfiguration config = new PeerConnection.RTCConfiguration(new ArrayList<>());
+        config.sdpSemantics = PeerConnection.SdpSemantics.UNIFIED_PLAN;
+        sender = factory.createPeerConnection(config, new PeerConnectionAdapter("BenchSender") {
+            @Override
+            public void onIceCandidate(IceCandidate iceCandidate) {
+                receiver.addIceCandidate(iceCandidate);
+            }
+        });
+        receiver = factory.createPeerConnection(config, new PeerConnectionAdapter("BenchReceiver") {
+            @Override
+            public void onIceCandidate(IceCandidate iceCandidate) {
+                sender.addIceCandidate(iceCandidate);
+            }
+        });
+        senderChannels = new PeerDataChannels("receiver", sender, new CountingListener());
+        receiverChannels = new PeerDataChannels("sender", receiver, new CountingListener());
+        negotiate();
+        assertTrue("data channels did not open", opened.await(10, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void tearDown() {
+        senderChannels.close();
+        receiverChannels.close();
+        sender.dispose();
+        receiver.dispose();
+    }
+
+    @Test
+    public void bulkThroughput() throws Exception {
+        // direct buffer, 发送端按切片直接交给 DataChannel
+        ByteBuffer data = ByteBuffer.allocateDirect(TOTAL_BYTES);
+        for (int round = 0; round < ROUNDS; round++) {
+            receivedBytes.set(0);
+            received = new CountDownLatch(1);
+            CountDownLatch sent = new CountDownLatch(1);
+            long start = System.nanoTime();
+            senderChannels.sendBulk(data.duplicate(), new PeerDataChannels.BulkCallback() {
+                @Override
+                public void onProgress(int transferId, long sentBytes, long totalBytes) {
+                }
+
+                @Override
+                public void onComplete(int transferId) {
+                    sent.countDown();
+                }
+
+                @Override
+                public void onFailed(int transferId) {
+                }
+            });
+            assertTrue("send did not complete", sent.await(60, TimeUnit.SECONDS));
+            assertTrue("receive did not complete", received.await(60, TimeUnit.SECONDS));
+            double seconds = (System.nanoTime() - start) / 1e9;
+            assertEquals(TOTAL_BYTES, receivedBytes.get());
+            Log.i(TAG, String.format(Locale.US, "round %d: %d MB in %.2fs, %.1f MB/s",
+                    round, TOTAL_BYTES >> 20, seconds, TOTAL_BYTES / 1048576.0 / seconds));
+        }
+    }
+
+    private void negotiate() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        sender.createOffer(new SdpAdapter("BenchOffer") {
+            @Override
+            public void onCreateSuccess(SessionDescription offer) {
+                sender.setLocalDescription(new SdpAdapter("BenchSenderLocal"), offer);
+                receiver.setRemoteDescription(new SdpAdapter("BenchReceiverRemote"), offer);
+                receiver.createAnswer(new SdpAdapter("BenchAnswer") {
+                    @Override
+                    public void onCreateSuccess(SessionDescription answer) {
+                        receiver.setLocalDescription(new SdpAdapter("BenchReceiverLocal"), answer);
+                        sender.setRemoteDescription(new SdpAdapter("BenchSenderRemote") {
+                            @Override
+                            public void onSetSuccess() {
+                                done.countDown();
+                            }
+                        }, answer);
+                    }
+                }, new MediaConstraints());
+            }
+        }, new MediaConstraints());
+        assertTrue("negotiation timed out", done.await(10, TimeUnit.SECONDS));
+    }
+
+    private class CountingListener implements PeerDataChannels.Listener {
+        @Override
+        public void onChannelStateChange(String socketId, String label, DataChannel.State state) {
+            if (PeerDataChannels.BULK.equals(label) && state == DataChannel.State.OPEN) {
+                opened.countDown();
+            }
+        }
+
+        @Override
+        public void onMessage(String socketId, String label, ByteBuffer data, boolean binary) {
+        }
+
+        @Override
+        public void onBulkStart(String socketId, int transferId, long totalBytes) {
+        }
+
+        @Override
+        public void onBulkChunk(String socketId, int transferId, ByteBuffer chunk, long offset) {
+            receivedBytes.addAndGet(chunk.remaining());
+        }
+
+        @Override
+        public void onBulkComplete(String socketId, int transferId) {
+            received.countDown();
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.bo.webrtc_android;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.webrtc.IceCandidate;
+import org.webrtc.MediaStream;
+import org.webrtc.PeerConnection;
+import org.webrtc.PeerConnectionFactory;
+import org.webrtc.RtpReceiver;
+import org.webrtc.RtpTransceiver;
+import org.webrtc.SessionDescription;
+import org.webrtc.VideoSource;
+import org.webrtc.VideoTrack;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+// 三个客户端经过 LocalSfu 互相订阅: 每个客户端只有一路上行和一路下行, 下行里的流id是发布端的id
+@RunWith(AndroidJUnit4.class)
+public class LocalSfuTest {
+    private static final String ROOM = "sfu";
+    private static final int CLIENTS = 3;
+
+    private PeerConnectionFactory factory;
+    private LoopbackSignalingServer server;
+    private LocalSfu sfu;
+    private VideoSource videoSource;
+    private final List<Client> clients = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        CountDownLatch ready = new CountDownLatch(1);
+        MediaEngine.get(context).whenReady(engine -> ready.countDown());
+        assertTrue(ready.await(10, TimeUnit.SECONDS));
+        factory = MediaEngine.get(context).getPeerConnectionFactory();
+        // SFU 的两个端点也占房间的名额
+        server = new LoopbackSignalingServer(new BinarySignalingCodec(), CLIENTS + 2);
+        sfu = new LocalSfu(server, ROOM, factory);
+        sfu.start();
+        videoSource = factory.createVideoSource(false);
+    }
+
+    @After
+    public void tearDown() {
+        for (Client client : clients) {
+            client.release();
+        }
+        sfu.stop();
+        videoSource.dispose();
+        server.shutdown();
+    }
+
+    @Test
+    public void everyClientReceivesEveryOtherPublisher() throws InterruptedException {
+        for (int i = 0; i < CLIENTS; i++) {
+            Client client = new Client(i);
+            clients.add(client);
+            client.start();
+        }
+        for (Client client : clients) {
+            assertTrue("client " + client.transport.id() + " missing streams " + client.remoteStreams,
+                    client.allStreams.await(20, TimeUnit.SECONDS));
+            List<String> expected = new ArrayList<>();
+            for (Client other : clients) {
+                if (other != client) {
+                    expected.add(other.transport.id());
+                }
+            }
+            List<String> actual = new ArrayList<>(client.remoteStreams);
+            Collections.sort(expected);
+            Collections.sort(actual);
+            assertEquals(expected, actual);
+            assertEquals(CLIENTS - 1, client.published.size());
+        }
+        assertEquals(CLIENTS, sfu.getRoom().getPublisherCount());
+    }
+
+    // 只做 SFU 模式客户端的最小部分: 一路上行发布一个视频轨道, 一路下行接收
+    private class Client implements SignalingTransport.Listener, PeerNegotiator.Signaling {
+        final SignalingTransport transport = server.newTransport();
+        final VideoTrack track;
+        final List<String> remoteStreams = Collections.synchronizedList(new ArrayList<>());
+        final List<String> published = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch allStreams = new CountDownLatch(CLIENTS - 1);
+        PeerNegotiator upstream;
+        PeerNegotiator downstream;
+        PeerConnection upstreamConnection;
+        PeerConnection downstreamConnection;
+
+        Client(int index){
+            track = factory.createVideoTrack("video" + index, videoSource);
+        }
+
+        void start() {
+            transport.connect(ROOM, this);
+        }
+
+        void release() {
+            transport.disconnect();
+            if (upstreamConnection != null) {
+                upstreamConnection.dispose();
+            }
+            if (downstreamConnection != null) {
+                downstreamConnection.dispose();
+            }
+            track.dispose();
+        }
+
+        private PeerConnection create(PeerNegotiator negotiator, String endpoint, boolean down) {
+            PeerConnection.RTCConfiguration rtcConfig = new PeerConnection.RTCConfiguration(new ArrayList<>());
+            rtcConfig.sdpSemantics = PeerConnection.SdpSemantics.UNIFIED_PLAN;
+            return factory.createPeerConnection(rtcConfig, new PeerConnectionAdapter("Client" + endpoint) {
+                @Override
+                public void onSignalingChange(PeerConnection.SignalingState signalingState) {
+                    negotiator.onSignalingChange(signalingState);
+                }
+
+                @Override
+                public void onRenegotiationNeeded() {
+                    negotiator.onRenegotiationNeeded();
+                }
+
+                @Override
+                public void onIceCandidate(IceCandidate iceCandidate) {
+                    transport.send(SignalingMessage.candidates(Collections.singletonList(iceCandidate),
+                            transport.id(), endpoint));
+                }
+
+                @Override
+                public void onAddTrack(RtpReceiver rtpReceiver, MediaStream[] mediaStreams) {
+                    if (down && mediaStreams.length > 0 && !remoteStreams.contains(mediaStreams[0].getId())) {
+                        remoteStreams.add(mediaStreams[0].getId());
+                        allStreams.countDown();
+                    }
+                }
+            });
+        }
+
+        // 在 LoopbackSignalingServer 的投递线程调用
+        private void startSfu() {
+            transport.send(SignalingMessage.control(SignalingMessage.PUBLISH, transport.id(), SignalingMessage.SFU_UPSTREAM));
+            upstream = new PeerNegotiator(SignalingMessage.SFU_UPSTREAM, false, this);
+            upstreamConnection = create(upstream, SignalingMessage.SFU_UPSTREAM, false);
+            upstreamConnection.addTransceiver(track, new RtpTransceiver.RtpTransceiverInit(
+                    RtpTransceiver.RtpTransceiverDirection.SEND_ONLY, Collections.singletonList(transport.id())));
+            upstream.setPeerConnection(upstreamConnection);
+            downstream = new PeerNegotiator(SignalingMessage.SFU_DOWNSTREAM, true, this);
+            downstreamConnection = create(downstream, SignalingMessage.SFU_DOWNSTREAM, true);
+            downstream.setPeerConnection(downstreamConnection);
+            transport.send(SignalingMessage.control(SignalingMessage.SUBSCRIBE, transport.id(), SignalingMessage.SFU_DOWNSTREAM));
+        }
+
+        @Override
+        public void sendSessionDescription(SessionDescription sdp, String to) {
+            transport.send(SignalingMessage.sessionDescription(sdp, transport.id(), to));
+        }
+
+        @Override
+        public void requestNegotiation(String to) {
+            transport.send(SignalingMessage.control(SignalingMessage.NEGOTIATE, transport.id(), to));
+        }
+
+        @Override
+        public void requestIceRestart(String to) {
+            transport.send(SignalingMessage.control(SignalingMessage.ICE_RESTART, transport.id(), to));
+        }
+
+        @Override
+        public void requestResync(String to) {
+            transport.send(SignalingMessage.control(SignalingMessage.RESYNC, transport.id(), to));
+        }
+
+        @Override
+        public void onConnected() {
+        }
+
+        @Override
+        public void onDisconnected() {
+        }
+
+        @Override
+        public void onCreated() {
+            startSfu();
+        }
+
+        @Override
+        public void onFull() {
+        }
+
+        @Override
+        public void onSelfJoined() {
+            startSfu();
+        }
+
+        @Override
+        public void onPeerJoined(String socketId) {
+        }
+
+        @Override
+        public void onPeerLeave(String socketId) {
+        }
+
+        @Override
+        public void onMessage(SignalingMessage message) {
+            PeerNegotiator negotiator = SignalingMessage.SFU_UPSTREAM.equals(message.from) ? upstream
+                    : SignalingMessage.SFU_DOWNSTREAM.equals(message.from) ? downstream : null;
+            if (SignalingMessage.PUBLISH.equals(message.type)) {
+                published.add(message.from);
+            } else if (negotiator == null) {
+                return;
+            } else if (SignalingMessage.OFFER.equals(message.type) || SignalingMessage.ANSWER.equals(message.type)) {
+                negotiator.onRemoteDescription(message.toSessionDescription());
+            } else if (SignalingMessage.CANDIDATE.equals(message.type)) {
+                for (IceCandidate iceCandidate : message.candidates) {
+                    negotiator.addIceCandidate(iceCandidate);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.bo.webrtc_android;
+
+import android.util.Log;
+
+import org.webrtc.RTCStats;
+import org.webrtc.RTCStatsReport;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// 从 getStats 估计每个对端传过来的音频的延迟
+// 抖动缓冲延迟 = 两次统计之间 jitterBufferDelay 的增量 / jitterBufferEmittedCount 的增量(按样本平均);
+// 口到耳延迟 = 采集缓冲 + 打包时长(ptime) + 单向网络延迟(RTT/2) + 抖动缓冲 + 播放缓冲, 对端的编码和本端的解码耗时忽略不计
+public class AudioLatencyMonitor implements StatsPoller.Listener {
+    private static final String TAG = "boAudioLatency";
+    // WebRTC 每次从麦克风取 10ms 的数据
+    static final double CAPTURE_MS = 10;
+
+    public static class Estimate {
+        public final double jitterBufferMs;
+        public final double rttMs;
+        public final double mouthToEarMs;
+
+        Estimate(double jitterBufferMs, double rttMs, double mouthToEarMs){
+            this.jitterBufferMs = jitterBufferMs;
+            this.rttMs = rttMs;
+            this.mouthToEarMs = mouthToEarMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "jitterBuffer=%.1fms rtt=%.1fms mouthToEar=%.1fms",
+                    jitterBufferMs, rttMs, mouthToEarMs);
+        }
+    }
+
+    private final AudioPipeline audioPipeline;
+    // 上一次统计时每个对端的累计抖动缓冲延迟(秒)和样本数
+    private final HashMap<String, double[]> lastJitterBuffer = new HashMap<>();
+    private final HashMap<String, Estimate> estimates = new HashMap<>();
+
+    public AudioLatencyMonitor(AudioPipeline audioPipeline){
+        this.audioPipeline = audioPipeline;
+    }
+
+    @Override
+    public void onStats(String socketId, RTCStatsReport report) {
+        double jitterBufferDelay = -1;
+        double emittedCount = -1;
+        double rtt = -1;
+        for (RTCStats stats : report.getStatsMap().values()) {
+            Map<String, Object> members = stats.getMembers();
+            String type = stats.getType();
+            Object kind = members.containsKey("kind") ? members.get("kind") : members.get("mediaType");
+            if (("inbound-rtp".equals(type) || "track".equals(type)) && "audio".equals(kind)) {
+                // 较老的版本只在 track 统计里给出这两个值, 新版本移到了 inbound-rtp
+                Object delay = members.get("jitterBufferDelay");
+                Object emitted = members.get("jitterBufferEmittedCount");
+                if (delay instanceof Number && emitted instanceof Number) {
+                    jitterBufferDelay = ((Number) delay).doubleValue();
+                    emittedCount = ((Number) emitted).doubleValue();
+                }
+            } else if ("candidate-pair".equals(type) && Boolean.TRUE.equals(members.get("nominated"))
+                    && "succeeded".equals(members.get("state"))) {
+                Object currentRtt = members.get("currentRoundTripTime");
+                if (currentRtt instanceof Number) {
+                    rtt = ((Number) currentRtt).doubleValue();
+                }
+            }
+        }
+        Estimate estimate = update(socketId, jitterBufferDelay, emittedCount, rtt,
+                audioPipeline.getOpusSettings().ptimeMs, audioPipeline.getPlayoutDelayMs());
+        if (estimate != null) {
+            Log.d(TAG, socketId + " " + estimate);
+        }
+    }
+
+    // 参数都是 getStats 里的原始值(秒), 没有对应统计时传负数
+    synchronized Estimate update(String socketId, double jitterBufferDelay, double emittedCount, double rtt,
+                                 int ptimeMs, double playoutDelayMs) {
+        Estimate previous = estimates.get(socketId);
+        double jitterBufferMs = previous != null ? previous.jitterBufferMs : 0;
+        if (emittedCount >= 0) {
+            double[] last = lastJitterBuffer.put(socketId, new double[]{jitterBufferDelay, emittedCount});
+            // 样本数变小说明轨道重建了, 这一轮只记录起点
+            if (last != null && emittedCount > last[1]) {
+                jitterBufferMs = (jitterBufferDelay - last[0]) * 1000 / (emittedCount - last[1]);
+            } else if (last == null && emittedCount > 0) {
+                jitterBufferMs = jitterBufferDelay * 1000 / emittedCount;
+            }
+        }
+        double rttMs = rtt >= 0 ? rtt * 1000 : previous != null ? previous.rttMs : 0;
+        if (emittedCount < 0 && rtt < 0 && previous == null) {
+            return null;
+        }
+        double mouthToEarMs = CAPTURE_MS + ptimeMs + rttMs / 2 + jitterBufferMs + playoutDelayMs;
+        Estimate estimate = new Estimate(jitterBufferMs, rttMs, mouthToEarMs);
+        estimates.put(socketId, estimate);
+        return estimate;
+    }
+
+    public synchronized Estimate getEstimate(String socketId) {
+        return estimates.get(socketId);
+    }
+
+    public synchronized void removePeer(String socketId) {
+        lastJitterBuffer.remove(socketId);
+        estimates.remove(socketId);
+    }
+}
@@ -0,0 +1,189 @@
+package com.bo.webrtc_android;
+
+import android.content.Context;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.MediaRecorder;
+import android.util.Log;
+
+import org.webrtc.MediaConstraints;
+import org.webrtc.audio.JavaAudioDeviceModule;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// 音频链路: 进程级别的 JavaAudioDeviceModule, 本地音频源的约束预设, 以及通过 SDP 协商的 Opus 参数
+// 设备支持时使用硬件回声消除和降噪, 这时软件 AEC/NS 可以关掉以节省 CPU;
+// 播放按设备原生采样率输出, 让 AudioTrack 走系统的低延迟(fast)通路, 避免重采样带来的额外缓冲
+public class AudioPipeline {
+    private static final String TAG = "boAudio";
+    // 没有查到设备原生参数时的默认值
+    private static final int DEFAULT_SAMPLE_RATE = 48000;
+    private static final int DEFAULT_FRAMES_PER_BUFFER = 480;
+
+    // createAudioSource 的约束预设
+    public enum Preset {
+        // 通话: 回声消除, 自动增益, 降噪, 高通滤波全开
+        VOICE,
+        // 低 CPU: 只保留硬件做不了的处理
+        LOW_CPU,
+        // 音乐: 关掉所有语音处理, 保留原始声音
+        MUSIC
+    }
+
+    // 通过 SDP 协商的 Opus 参数, fmtp 写在本地描述里, 由对端的编码器采用
+    public static class OpusSettings {
+        // 静音时不发包, 只定期发舒适噪声
+        public boolean dtx = true;
+        // 带内前向纠错, 丢包时用下一个包里的冗余恢复
+        public boolean fec = true;
+        // 每个包的时长(毫秒), 越大包头开销越小, 延迟越大
+        public int ptimeMs = 20;
+        // 最大平均码率(bps), 0 为不限制
+        public int maxAverageBitrate = 32000;
+        public boolean stereo = false;
+    }
+
+    private final JavaAudioDeviceModule audioDeviceModule;
+    private final boolean hardwareAec;
+    private final boolean hardwareNs;
+    private final int outputSampleRate;
+    private final int outputFramesPerBuffer;
+    private volatile OpusSettings opusSettings = new OpusSettings();
+
+    public AudioPipeline(Context context){
+        AudioManager audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+        outputSampleRate = parseProperty(audioManager, AudioManager.PROPERTY_OUTPUT_SAMPLE_RATE, DEFAULT_SAMPLE_RATE);
+        outputFramesPerBuffer = parseProperty(audioManager, AudioManager.PROPERTY_OUTPUT_FRAMES_PER_BUFFER,
+                DEFAULT_FRAMES_PER_BUFFER);
+        hardwareAec = JavaAudioDeviceModule.isBuiltInAcousticEchoCancelerSupported();
+        hardwareNs = JavaAudioDeviceModule.isBuiltInNoiseSuppressorSupported();
+        audioDeviceModule = JavaAudioDeviceModule.builder(context).
+                setAudioSource(MediaRecorder.AudioSource.VOICE_COMMUNICATION).
+                setAudioFormat(AudioFormat.ENCODING_PCM_16BIT).
+                setInputSampleRate(DEFAULT_SAMPLE_RATE).
+                // 与设备原生采样率一致才能走低延迟的播放通路
+                setOutputSampleRate(outputSampleRate).
+                setUseStereoInput(false).
+                setUseStereoOutput(false).
+                setUseHardwareAcousticEchoCanceler(hardwareAec).
+                setUseHardwareNoiseSuppressor(hardwareNs).
+                setAudioRecordErrorCallback(recordErrorCallback).
+                setAudioTrackErrorCallback(trackErrorCallback).
+                createAudioDeviceModule();
+        Log.d(TAG, "output " + outputSampleRate + "Hz/" + outputFramesPerBuffer + " frames, hardware aec="
+                + hardwareAec + " ns=" + hardwareNs);
+    }
+
+    private static int parseProperty(AudioManager audioManager, String key, int defaultValue) {
+        String value = audioManager == null ? null : audioManager.getProperty(key);
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            e.printStackTrace();
+            return defaultValue;
+        }
+    }
+
+    // 交给 PeerConnectionFactory.Builder.setAudioDeviceModule
+    public JavaAudioDeviceModule getAudioDeviceModule() {
+        return audioDeviceModule;
+    }
+
+    public boolean isHardwareAec() {
+        return hardwareAec;
+    }
+
+    public boolean isHardwareNs() {
+        return hardwareNs;
+    }
+
+    // 播放缓冲一个 burst 的时长, 作为播放端延迟的估计
+    public double getPlayoutDelayMs() {
+        return outputFramesPerBuffer * 1000.0 / outputSampleRate;
+    }
+
+    public MediaConstraints createConstraints(Preset preset) {
+        return createConstraints(preset, hardwareAec, hardwareNs);
+    }
+
+    static MediaConstraints createConstraints(Preset preset, boolean hardwareAec, boolean hardwareNs) {
+        boolean voice = preset != Preset.MUSIC;
+        boolean lowCpu = preset == Preset.LOW_CPU;
+        MediaConstraints constraints = new MediaConstraints();
+        // 硬件已经做了回声消除/降噪时, 低 CPU 预设不再做一遍软件处理
+        addConstraint(constraints, "googEchoCancellation", voice && !(lowCpu && hardwareAec));
+        addConstraint(constraints, "googNoiseSuppression", voice && !(lowCpu && hardwareNs));
+        addConstraint(constraints, "googAutoGainControl", voice);
+        addConstraint(constraints, "googHighpassFilter", voice && !lowCpu);
+        return constraints;
+    }
+
+    private static void addConstraint(MediaConstraints constraints, String key, boolean value) {
+        constraints.mandatory.add(new MediaConstraints.KeyValuePair(key, String.valueOf(value)));
+    }
+
+    // 从下一次协商开始生效
+    public void setOpusSettings(OpusSettings settings) {
+        opusSettings = settings;
+    }
+
+    public OpusSettings getOpusSettings() {
+        return opusSettings;
+    }
+
+    // 作为 PeerNegotiator 的本地 SDP 变换, 把 Opus 参数写进本地描述
+    public void applyTo(SdpModel sdp) {
+        applyTo(sdp, opusSettings);
+    }
+
+    static SdpModel applyTo(SdpModel sdp, OpusSettings settings) {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("usedtx", settings.dtx ? "1" : "0");
+        params.put("useinbandfec", settings.fec ? "1" : "0");
+        params.put("stereo", settings.stereo ? "1" : "0");
+        if (settings.maxAverageBitrate > 0) {
+            params.put("maxaveragebitrate", String.valueOf(settings.maxAverageBitrate));
+        }
+        params.put("minptime", String.valueOf(Math.min(10, settings.ptimeMs)));
+        return sdp.setFmtpParameters("audio", "opus", params).setPtime("audio", settings.ptimeMs);
+    }
+
+    private final JavaAudioDeviceModule.AudioRecordErrorCallback recordErrorCallback =
+            new JavaAudioDeviceModule.AudioRecordErrorCallback() {
+        @Override
+        public void onWebRtcAudioRecordInitError(String errorMessage) {
+            Log.e(TAG, "record init error: " + errorMessage);
+        }
+
+        @Override
+        public void onWebRtcAudioRecordStartError(JavaAudioDeviceModule.AudioRecordStartErrorCode errorCode,
+                                                   String errorMessage) {
+            Log.e(TAG, "record start error " + errorCode + ": " + errorMessage);
+        }
+
+        @Override
+        public void onWebRtcAudioRecordError(String errorMessage) {
+            Log.e(TAG, "record error: " + errorMessage);
+        }
+    };
+
+    private final JavaAudioDeviceModule.AudioTrackErrorCallback trackErrorCallback =
+            new JavaAudioDeviceModule.AudioTrackErrorCallback() {
+        @Override
+        public void onWebRtcAudioTrackInitError(String errorMessage) {
+            Log.e(TAG, "playout init error: " + errorMessage);
+        }
+
+        @Override
+        public void onWebRtcAudioTrackStartError(JavaAudioDeviceModule.AudioTrackStartErrorCode errorCode,
+                                                  String errorMessage) {
+            Log.e(TAG, "playout start error " + errorCode + ": " + errorMessage);
+        }
+
+        @Override
+        public void onWebRtcAudioTrackError(String errorMessage) {
+            Log.e(TAG, "playout error: " + errorMessage);
+        }
+    };
+}
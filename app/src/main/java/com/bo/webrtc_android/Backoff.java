@@ -0,0 +1,38 @@
+package com.bo.webrtc_android;
+
+import java.util.Random;
+
+// 带随机抖动的指数退避: 第 n 次重试的上限为 initialMs * 2^n (不超过 maxMs), 实际等待时间在上限的一半到上限之间随机,
+// 避免服务器恢复时所有客户端在同一时刻重连
+public class Backoff {
+    private final long initialMs;
+    private final long maxMs;
+    private final Random random;
+    private int attempts;
+
+    public Backoff(long initialMs, long maxMs){
+        this(initialMs, maxMs, new Random());
+    }
+
+    Backoff(long initialMs, long maxMs, Random random){
+        this.initialMs = initialMs;
+        this.maxMs = maxMs;
+        this.random = random;
+    }
+
+    public synchronized long nextDelayMs() {
+        long cap = Math.min(maxMs, initialMs << Math.min(attempts, 20));
+        attempts++;
+        long half = cap / 2;
+        return half + (long) (random.nextDouble() * (cap - half));
+    }
+
+    // 连接成功后从头开始
+    public synchronized void reset() {
+        attempts = 0;
+    }
+
+    public synchronized int getAttempts() {
+        return attempts;
+    }
+}
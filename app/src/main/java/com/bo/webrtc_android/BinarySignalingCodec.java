@@ -0,0 +1,139 @@
+package com.bo.webrtc_android;
+
+import org.webrtc.IceCandidate;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// 紧凑的二进制格式, 所有字段都带长度前缀:
+// [1字节类型][from][to][sdp][2字节候选个数]{[sdpMid][2字节mLineIndex][candidate]}
+// 字符串为 2 字节长度 + UTF-8, sdp 为 4 字节长度 + UTF-8, 长度 -1 表示 null
+public class BinarySignalingCodec implements SignalingCodec {
+    private static final String[] TYPES = {
+            SignalingMessage.OFFER,
+            SignalingMessage.ANSWER,
+            SignalingMessage.CANDIDATE,
+            SignalingMessage.JOIN,
+            SignalingMessage.CREATED,
+            SignalingMessage.JOINED,
+            SignalingMessage.PEER_JOINED,
+            SignalingMessage.FULL,
+            SignalingMessage.BYE,
+            SignalingMessage.LAYER,
+            SignalingMessage.NEGOTIATE,
+            SignalingMessage.RESUME,
+            SignalingMessage.ICE_RESTART,
+            SignalingMessage.PUBLISH,
+            SignalingMessage.UNPUBLISH,
+            SignalingMessage.SUBSCRIBE,
+            SignalingMessage.RESYNC,
+            SignalingMessage.ICE_CONFIG,
+            SignalingMessage.ICE_CONFIG_REQUEST
+    };
+
+    @Override
+    public byte[] encode(SignalingMessage message) {
+        int typeCode = typeCode(message.type);
+        if (typeCode < 0) {
+            return null;
+        }
+        byte[] from = utf8(message.from);
+        byte[] to = utf8(message.to);
+        byte[] sdp = utf8(message.sdp);
+        int size = 1 + stringSize(from) + stringSize(to) + 4 + (sdp == null ? 0 : sdp.length) + 2;
+        int count = message.candidates.size();
+        byte[][] candidateFields = new byte[count * 2][];
+        for (int i = 0; i < count; i++) {
+            IceCandidate iceCandidate = message.candidates.get(i);
+            candidateFields[i * 2] = utf8(iceCandidate.sdpMid);
+            candidateFields[i * 2 + 1] = utf8(iceCandidate.sdp);
+            size += stringSize(candidateFields[i * 2]) + 2 + stringSize(candidateFields[i * 2 + 1]);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put((byte) typeCode);
+        putString(buffer, from);
+        putString(buffer, to);
+        buffer.putInt(sdp == null ? -1 : sdp.length);
+        if (sdp != null) {
+            buffer.put(sdp);
+        }
+        buffer.putShort((short) count);
+        for (int i = 0; i < count; i++) {
+            putString(buffer, candidateFields[i * 2]);
+            buffer.putShort((short) message.candidates.get(i).sdpMLineIndex);
+            putString(buffer, candidateFields[i * 2 + 1]);
+        }
+        return buffer.array();
+    }
+
+    @Override
+    public SignalingMessage decode(byte[] data, int offset, int length) {
+        ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+        try {
+            int typeCode = buffer.get();
+            if (typeCode < 0 || typeCode >= TYPES.length) {
+                return null;
+            }
+            String from = getString(buffer);
+            String to = getString(buffer);
+            int sdpLength = buffer.getInt();
+            String sdp = null;
+            if (sdpLength >= 0) {
+                sdp = new String(data, buffer.position(), sdpLength, StandardCharsets.UTF_8);
+                buffer.position(buffer.position() + sdpLength);
+            }
+            int count = buffer.getShort() & 0xffff;
+            List<IceCandidate> candidates = null;
+            if (count > 0) {
+                candidates = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    String sdpMid = getString(buffer);
+                    int sdpMLineIndex = buffer.getShort();
+                    candidates.add(new IceCandidate(sdpMid, sdpMLineIndex, getString(buffer)));
+                }
+            }
+            return new SignalingMessage(TYPES[typeCode], from, to, sdp, candidates);
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static int typeCode(String type) {
+        for (int i = 0; i < TYPES.length; i++) {
+            if (TYPES[i].equals(type)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] utf8(String str) {
+        return str == null ? null : str.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int stringSize(byte[] bytes) {
+        return 2 + (bytes == null ? 0 : bytes.length);
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        buffer.putShort((short) (bytes == null ? -1 : bytes.length));
+        if (bytes != null) {
+            buffer.put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        String str = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return str;
+    }
+}
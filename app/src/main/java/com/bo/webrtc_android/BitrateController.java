@@ -0,0 +1,268 @@
+package com.bo.webrtc_android;
+
+import android.util.Log;
+
+import org.webrtc.MediaStreamTrack;
+import org.webrtc.PeerConnection;
+import org.webrtc.RTCStats;
+import org.webrtc.RTCStatsReport;
+import org.webrtc.RtpParameters;
+import org.webrtc.RtpSender;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// 根据 getStats 的结果为每个对端选择视频质量档位, 设置发送端的码率/分辨率缩放/帧率,
+// 并按所有对端中最高的档位调整摄像头的采集格式
+// 对端上报的画面大小作为档位的上限, 画面不可见时暂停向它发送视频
+public class BitrateController implements StatsPoller.Listener {
+    private static final String TAG = "boBitrate";
+    // 连续多少次采样都满足条件才升档, 避免来回抖动
+    private static final int UPGRADE_SAMPLES = 3;
+    private static final double MAX_LOSS = 0.10;
+    private static final double GOOD_LOSS = 0.02;
+    private static final double MAX_RTT_SECONDS = 0.4;
+    private static final double GOOD_RTT_SECONDS = 0.25;
+
+    // 质量档位, 按从高到低排列; scale 相对于初始采集分辨率
+    static final Level[] LEVELS = {
+            new Level(1_000_000, 1.0, 30),
+            new Level(600_000, 1.5, 24),
+            new Level(300_000, 2.0, 15),
+            new Level(150_000, 4.0, 10)
+    };
+
+    static class Level {
+        final int maxBitrateBps;
+        final double scaleDownBy;
+        final int maxFramerate;
+
+        Level(int maxBitrateBps, double scaleDownBy, int maxFramerate){
+            this.maxBitrateBps = maxBitrateBps;
+            this.scaleDownBy = scaleDownBy;
+            this.maxFramerate = maxFramerate;
+        }
+    }
+
+    private static class PeerState {
+        // 按带宽和 CPU 得出的档位
+        int level = 0;
+        int goodSamples = 0;
+        // 按对端画面大小得出的档位下限
+        int tileLevel = 0;
+        // 对端画面不可见
+        boolean paused;
+
+        int effectiveLevel() {
+            return Math.max(level, tileLevel);
+        }
+    }
+
+    private final PeerSessionManager sessionManager;
+    private final int captureWidth;
+    private final int captureHeight;
+    private final int captureFps;
+    private final HashMap<String, PeerState> peerStates = new HashMap<>();
+    // 当前采集格式对应的档位
+    private int captureLevel = 0;
+
+    public BitrateController(PeerSessionManager sessionManager, int captureWidth, int captureHeight, int captureFps){
+        this.sessionManager = sessionManager;
+        this.captureWidth = captureWidth;
+        this.captureHeight = captureHeight;
+        this.captureFps = captureFps;
+    }
+
+    @Override
+    public void onStats(String socketId, RTCStatsReport report) {
+        Double availableBitrate = null;
+        Double rtt = null;
+        Double fractionLost = null;
+        String limitationReason = null;
+        for (RTCStats stats : report.getStatsMap().values()) {
+            Map<String, Object> members = stats.getMembers();
+            switch (stats.getType()) {
+                case "candidate-pair":
+                    // 只看当前选中的候选对
+                    if (Boolean.TRUE.equals(members.get("nominated")) && "succeeded".equals(members.get("state"))) {
+                        availableBitrate = asDouble(members.get("availableOutgoingBitrate"));
+                        rtt = asDouble(members.get("currentRoundTripTime"));
+                    }
+                    break;
+                case "remote-inbound-rtp":
+                    if (isVideo(members)) {
+                        fractionLost = asDouble(members.get("fractionLost"));
+                    }
+                    break;
+                case "outbound-rtp":
+                    if (isVideo(members)) {
+                        Object reason = members.get("qualityLimitationReason");
+                        limitationReason = reason == null ? null : reason.toString();
+                    }
+                    break;
+            }
+        }
+
+        synchronized (this) {
+            PeerState state = getState(socketId);
+            boolean congested = (fractionLost != null && fractionLost > MAX_LOSS)
+                    || (rtt != null && rtt > MAX_RTT_SECONDS)
+                    || (availableBitrate != null && availableBitrate < LEVELS[state.level].maxBitrateBps * 0.8)
+                    || "cpu".equals(limitationReason);
+            boolean healthy = (fractionLost == null || fractionLost < GOOD_LOSS)
+                    && (rtt == null || rtt < GOOD_RTT_SECONDS)
+                    && (limitationReason == null || "none".equals(limitationReason))
+                    && state.level > 0
+                    && (availableBitrate == null || availableBitrate > LEVELS[state.level - 1].maxBitrateBps * 1.2);
+            if (congested) {
+                state.goodSamples = 0;
+                state.level = Math.min(state.level + 1, LEVELS.length - 1);
+            } else if (healthy && ++state.goodSamples >= UPGRADE_SAMPLES) {
+                state.goodSamples = 0;
+                state.level--;
+            } else if (!healthy) {
+                state.goodSamples = 0;
+            }
+        }
+        apply(socketId);
+    }
+
+    // 对端显示本端画面的大小, 宽高为 0 表示不可见
+    public void setTileSize(String socketId, int width, int height) {
+        synchronized (this) {
+            PeerState state = getState(socketId);
+            state.paused = width <= 0 || height <= 0;
+            if (!state.paused) {
+                // 按长边计算需要的缩放倍数, 选不低于该分辨率的最低档
+                double scale = (double) Math.max(captureWidth, captureHeight) / Math.max(width, height);
+                int tileLevel = 0;
+                for (int i = 0; i < LEVELS.length; i++) {
+                    if (LEVELS[i].scaleDownBy <= scale) {
+                        tileLevel = i;
+                    }
+                }
+                state.tileLevel = tileLevel;
+            }
+        }
+        apply(socketId);
+    }
+
+    // getStats 的回调和 setTileSize 都不在释放线程, 连接可能正在被 dispose;
+    // 放到释放线程上执行, 再确认对端还在
+    private void apply(String socketId) {
+        sessionManager.execute(() -> {
+            int level;
+            boolean paused;
+            synchronized (this) {
+                PeerState state = peerStates.get(socketId);
+                if (state == null) {
+                    return;
+                }
+                level = state.effectiveLevel();
+                paused = state.paused;
+            }
+            updateCaptureFormat();
+            PeerConnection peerConnection = sessionManager.get(socketId);
+            if (peerConnection != null) {
+                applyLevel(peerConnection, level, paused);
+            }
+        });
+    }
+
+    private PeerState getState(String socketId) {
+        PeerState state = peerStates.get(socketId);
+        if (state == null) {
+            state = new PeerState();
+            peerStates.put(socketId, state);
+        }
+        return state;
+    }
+
+    public synchronized void removePeer(String socketId) {
+        peerStates.remove(socketId);
+    }
+
+    private void applyLevel(PeerConnection peerConnection, int level, boolean paused) {
+        Level target = LEVELS[level];
+        double captureScale;
+        synchronized (this) {
+            captureScale = LEVELS[captureLevel].scaleDownBy;
+        }
+        // 采集分辨率已经降低的部分不需要再由编码器缩放
+        double scale = Math.max(1.0, target.scaleDownBy / captureScale);
+        for (RtpSender sender : peerConnection.getSenders()) {
+            MediaStreamTrack track = sender.track();
+            // 屏幕共享的编码参数由 ScreenShare 设置, 不按摄像头的档位调整
+            if (track == null || !MediaStreamTrack.VIDEO_TRACK_KIND.equals(track.kind())
+                    || ScreenShare.TRACK_ID.equals(track.id())) {
+                continue;
+            }
+            RtpParameters parameters = sender.getParameters();
+            // 协商出多层联播时只激活最接近目标的一层, 否则直接调整唯一的一层
+            String activeRid = parameters.encodings.size() > 1 ? Simulcast.ridForScale(target.scaleDownBy) : null;
+            boolean changed = false;
+            for (RtpParameters.Encoding encoding : parameters.encodings) {
+                boolean active = !paused && (activeRid == null || activeRid.equals(encoding.rid));
+                if (encoding.active != active) {
+                    encoding.active = active;
+                    changed = true;
+                }
+                if (!active) {
+                    continue;
+                }
+                if (encoding.maxBitrateBps == null || encoding.maxBitrateBps != target.maxBitrateBps
+                        || encoding.scaleResolutionDownBy == null || encoding.scaleResolutionDownBy != scale
+                        || encoding.maxFramerate == null || encoding.maxFramerate != target.maxFramerate) {
+                    encoding.maxBitrateBps = target.maxBitrateBps;
+                    encoding.scaleResolutionDownBy = scale;
+                    encoding.maxFramerate = target.maxFramerate;
+                    changed = true;
+                }
+            }
+            if (changed && !sender.setParameters(parameters)) {
+                Log.e(TAG, "setParameters failed for level " + level);
+            }
+        }
+    }
+
+    // 采集格式跟随质量最高的对端, 所有对端都降档时降低采集分辨率和帧率, 减轻发热
+    private void updateCaptureFormat() {
+        int best;
+        synchronized (this) {
+            best = LEVELS.length - 1;
+            boolean anyActive = false;
+            for (PeerState state : peerStates.values()) {
+                if (!state.paused) {
+                    best = Math.min(best, state.effectiveLevel());
+                    anyActive = true;
+                }
+            }
+            // 没有对端或所有对端都看不到本端画面时保持最高档, 本地预览仍然需要
+            if (!anyActive) {
+                best = 0;
+            }
+            if (best == captureLevel) {
+                return;
+            }
+            captureLevel = best;
+        }
+        Level level = LEVELS[best];
+        int width = (int) (captureWidth / level.scaleDownBy);
+        int height = (int) (captureHeight / level.scaleDownBy);
+        int fps = Math.min(captureFps, level.maxFramerate);
+        Log.d(TAG, "change capture format " + width + "x" + height + "@" + fps);
+        sessionManager.changeCaptureFormat(width, height, fps);
+    }
+
+    private static boolean isVideo(Map<String, Object> members) {
+        Object kind = members.get("kind");
+        if (kind == null) {
+            kind = members.get("mediaType");
+        }
+        return "video".equals(kind);
+    }
+
+    private static Double asDouble(Object value) {
+        return value instanceof Number ? ((Number) value).doubleValue() : null;
+    }
+}
@@ -0,0 +1,64 @@
+package com.bo.webrtc_android;
+
+import android.opengl.GLES20;
+
+import org.webrtc.GlGenericDrawer;
+import org.webrtc.GlShader;
+
+// 高斯模糊, 单次 9 点采样; GlGenericDrawer 会为 OES 和 RGB 纹理分别生成 shader, sample() 按纹理类型采样
+public class BlurFilter extends GpuFilter {
+    private static final String FRAGMENT_SHADER = "uniform vec2 texelSize;\n"
+            + "void main() {\n"
+            + "  vec4 color = sample(tc) * 0.25;\n"
+            + "  color += sample(tc + vec2(texelSize.x, 0.0)) * 0.125;\n"
+            + "  color += sample(tc - vec2(texelSize.x, 0.0)) * 0.125;\n"
+            + "  color += sample(tc + vec2(0.0, texelSize.y)) * 0.125;\n"
+            + "  color += sample(tc - vec2(0.0, texelSize.y)) * 0.125;\n"
+            + "  color += sample(tc + texelSize) * 0.0625;\n"
+            + "  color += sample(tc - texelSize) * 0.0625;\n"
+            + "  color += sample(tc + vec2(texelSize.x, -texelSize.y)) * 0.0625;\n"
+            + "  color += sample(tc + vec2(-texelSize.x, texelSize.y)) * 0.0625;\n"
+            + "  gl_FragColor = color;\n"
+            + "}\n";
+
+    // 采样间隔, 单位为输入的像素
+    private final float radius;
+    private GlGenericDrawer drawer;
+    private int texelSizeLocation;
+
+    public BlurFilter(float radius){
+        this.radius = radius;
+    }
+
+    @Override
+    public String getName() {
+        return "blur";
+    }
+
+    @Override
+    public void draw(Input input, int outputWidth, int outputHeight) {
+        if (drawer == null) {
+            drawer = new GlGenericDrawer(FRAGMENT_SHADER, new GlGenericDrawer.ShaderCallbacks() {
+                @Override
+                public void onNewShader(GlShader shader) {
+                    texelSizeLocation = shader.getUniformLocation("texelSize");
+                }
+
+                @Override
+                public void onPrepareShader(GlShader shader, float[] texMatrix, int frameWidth, int frameHeight,
+                                            int viewportWidth, int viewportHeight) {
+                    GLES20.glUniform2f(texelSizeLocation, radius / frameWidth, radius / frameHeight);
+                }
+            });
+        }
+        drawTexture(drawer, input, input.texMatrix, outputWidth, outputHeight);
+    }
+
+    @Override
+    public void release() {
+        if (drawer != null) {
+            drawer.release();
+            drawer = null;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.bo.webrtc_android;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// 记录每个对端从加入到出现第一帧画面的各个阶段耗时
+// mark 只做一次时间戳写入, 可以在 WebRTC 回调线程里直接调用; 直方图统计所有通话, 每个通话另外写一份 trace 文件
+public class CallSetupRecorder {
+    private static final String TAG = "boSetup";
+
+    public enum Stage {
+        JOIN,
+        OFFER_CREATED,
+        ANSWER_CREATED,
+        LOCAL_DESCRIPTION_SET,
+        REMOTE_DESCRIPTION_SET,
+        FIRST_LOCAL_CANDIDATE,
+        FIRST_REMOTE_CANDIDATE,
+        ICE_CONNECTED,
+        FIRST_FRAME
+    }
+
+    private static class CallTrace {
+        final long startNanos = System.nanoTime();
+        final long startWallMs = System.currentTimeMillis();
+        // 各阶段相对 startNanos 的时间, -1 表示还没到达
+        final long[] stageNanos = new long[Stage.values().length];
+        boolean written;
+
+        CallTrace() {
+            for (int i = 0; i < stageNanos.length; i++) {
+                stageNanos[i] = -1;
+            }
+        }
+    }
+
+    // 每个 PeerConnection/SDP 回调都会调用 get 检查日志开关, 类加载时创建, get 不需要加锁
+    private static final CallSetupRecorder INSTANCE = new CallSetupRecorder();
+
+    private final ConcurrentHashMap<String, CallTrace> calls = new ConcurrentHashMap<>();
+    // 每个阶段距离 JOIN 的耗时分布
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+    private volatile File traceDir;
+    private volatile boolean logEnabled;
+
+    public CallSetupRecorder(){
+        for (Stage stage : Stage.values()) {
+            histograms[stage.ordinal()] = new LatencyHistogram(stage.name());
+        }
+    }
+
+    public static CallSetupRecorder get() {
+        return INSTANCE;
+    }
+
+    // 设置后每个通话建立完成或结束时在该目录下写一份 trace 文件
+    public void setTraceDir(File traceDir) {
+        this.traceDir = traceDir;
+    }
+
+    // 打开后每个阶段都会输出一条日志
+    public void setLogEnabled(boolean logEnabled) {
+        this.logEnabled = logEnabled;
+    }
+
+    public boolean isLogEnabled() {
+        return logEnabled;
+    }
+
+    // 记录socketId到达某个阶段, 同一阶段只记第一次
+    public void mark(String socketId, Stage stage) {
+        if (socketId == null) {
+            return;
+        }
+        CallTrace trace = calls.get(socketId);
+        if (trace == null) {
+            CallTrace created = new CallTrace();
+            trace = calls.putIfAbsent(socketId, created);
+            if (trace == null) {
+                trace = created;
+            }
+        }
+        long elapsedNanos = System.nanoTime() - trace.startNanos;
+        synchronized (trace) {
+            if (trace.stageNanos[stage.ordinal()] >= 0) {
+                return;
+            }
+            trace.stageNanos[stage.ordinal()] = elapsedNanos;
+        }
+        long elapsedMs = elapsedNanos / 1000000;
+        histograms[stage.ordinal()].record(elapsedMs);
+        if (logEnabled) {
+            Log.d(TAG, socketId + " " + stage + " +" + elapsedMs + "ms");
+        }
+        if (stage == Stage.FIRST_FRAME) {
+            writeTrace(socketId, trace);
+        }
+    }
+
+    // 某阶段距离 JOIN 的毫秒数, 未到达时返回 -1
+    public long getStageMs(String socketId, Stage stage) {
+        CallTrace trace = calls.get(socketId);
+        if (trace == null) {
+            return -1;
+        }
+        synchronized (trace) {
+            long nanos = trace.stageNanos[stage.ordinal()];
+            return nanos < 0 ? -1 : nanos / 1000000;
+        }
+    }
+
+    // 对端离开, 还没写过 trace 的通话(例如没出画面)在这里写出
+    public void finish(String socketId) {
+        CallTrace trace = calls.remove(socketId);
+        if (trace != null) {
+            writeTrace(socketId, trace);
+        }
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    public List<LatencyHistogram> getHistograms() {
+        List<LatencyHistogram> list = new ArrayList<>();
+        for (LatencyHistogram histogram : histograms) {
+            list.add(histogram);
+        }
+        return list;
+    }
+
+    public String dumpHistograms() {
+        StringBuilder builder = new StringBuilder();
+        for (LatencyHistogram histogram : histograms) {
+            builder.append(histogram).append('\n');
+        }
+        return builder.toString();
+    }
+
+    // 把直方图写到 trace 目录下的 histograms.txt
+    public void exportHistograms() {
+        File dir = traceDir;
+        if (dir == null) {
+            return;
+        }
+        String content = dumpHistograms();
+        writer.execute(() -> write(new File(dir, "histograms.txt"), content));
+    }
+
+    private void writeTrace(String socketId, CallTrace trace) {
+        File dir = traceDir;
+        if (dir == null) {
+            return;
+        }
+        StringBuilder builder = new StringBuilder();
+        synchronized (trace) {
+            if (trace.written) {
+                return;
+            }
+            trace.written = true;
+            builder.append("socketId ").append(socketId).append('\n');
+            builder.append("start ").append(trace.startWallMs).append('\n');
+            for (Stage stage : Stage.values()) {
+                long nanos = trace.stageNanos[stage.ordinal()];
+                builder.append(stage).append(' ').append(nanos < 0 ? "-" : String.valueOf(nanos / 1000000)).append('\n');
+            }
+        }
+        String content = builder.toString();
+        File file = new File(dir, "call-" + socketId + "-" + trace.startWallMs + ".txt");
+        writer.execute(() -> write(file, content));
+    }
+
+    private static void write(File file, String content) {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            return;
+        }
+        try (Writer out = new FileWriter(file)) {
+            out.write(content);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
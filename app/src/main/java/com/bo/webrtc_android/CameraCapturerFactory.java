@@ -0,0 +1,86 @@
+package com.bo.webrtc_android;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.webrtc.Camera1Enumerator;
+import org.webrtc.Camera2Enumerator;
+import org.webrtc.CameraEnumerationAndroid;
+import org.webrtc.CameraEnumerator;
+import org.webrtc.CameraVideoCapturer;
+import org.webrtc.Size;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// 创建摄像头采集器: 优先用 Camera2, 输出 OES 纹理, 经 SurfaceTextureHelper 直接交给硬件编码器和 SurfaceViewRenderer,
+// 全程不经过 CPU 内存拷贝和 YUV 转换; 设备不支持 Camera2 时才退回 Camera1 (同样使用纹理模式)
+public class CameraCapturerFactory {
+    private static final String TAG = "boCamera";
+
+    // 选中的摄像头和最接近请求的采集格式
+    public static class Selection {
+        public final CameraVideoCapturer capturer;
+        public final boolean camera2;
+        // 与请求的方向一致(竖屏请求返回竖屏宽高)
+        public final int width;
+        public final int height;
+        public final int fps;
+
+        Selection(CameraVideoCapturer capturer, boolean camera2, int width, int height, int fps){
+            this.capturer = capturer;
+            this.camera2 = camera2;
+            this.width = width;
+            this.height = height;
+            this.fps = fps;
+        }
+    }
+
+    private CameraCapturerFactory() {
+    }
+
+    // isFront==true 获取前置摄像头, 反之获取后置摄像头; 没有可用的摄像头时返回 null
+    public static Selection create(Context context, boolean isFront, int width, int height, int fps) {
+        boolean camera2 = Camera2Enumerator.isSupported(context);
+        CameraEnumerator enumerator = camera2 ? new Camera2Enumerator(context) : new Camera1Enumerator(true);
+        for (String deviceName : enumerator.getDeviceNames()) {
+            if (!(isFront ? enumerator.isFrontFacing(deviceName) : enumerator.isBackFacing(deviceName))) {
+                continue;
+            }
+            CameraVideoCapturer capturer = enumerator.createCapturer(deviceName, null);
+            if (capturer == null) {
+                continue;
+            }
+            Selection selection = selectFormat(capturer, camera2, enumerator.getSupportedFormats(deviceName), width, height, fps);
+            Log.d(TAG, (camera2 ? "camera2 " : "camera1 ") + deviceName + " " + selection.width + "x"
+                    + selection.height + "@" + selection.fps);
+            return selection;
+        }
+        return null;
+    }
+
+    // 摄像头的格式都是横向的, 按长边和短边匹配, 再换回请求的方向
+    private static Selection selectFormat(CameraVideoCapturer capturer, boolean camera2,
+                                          List<CameraEnumerationAndroid.CaptureFormat> formats,
+                                          int width, int height, int fps) {
+        if (formats == null || formats.isEmpty()) {
+            return new Selection(capturer, camera2, width, height, fps);
+        }
+        boolean portrait = height > width;
+        List<Size> sizes = new ArrayList<>();
+        List<CameraEnumerationAndroid.CaptureFormat.FramerateRange> ranges = new ArrayList<>();
+        for (CameraEnumerationAndroid.CaptureFormat format : formats) {
+            sizes.add(new Size(format.width, format.height));
+            ranges.add(format.framerate);
+        }
+        Size size = CameraEnumerationAndroid.getClosestSupportedSize(sizes,
+                Math.max(width, height), Math.min(width, height));
+        // 帧率范围以 1/1000 fps 为单位
+        CameraEnumerationAndroid.CaptureFormat.FramerateRange range =
+                CameraEnumerationAndroid.getClosestSupportedFramerateRange(ranges, fps);
+        int selectedFps = Math.min(fps, Math.max(1, range.max / 1000));
+        int selectedWidth = portrait ? size.height : size.width;
+        int selectedHeight = portrait ? size.width : size.height;
+        return new Selection(capturer, camera2, selectedWidth, selectedHeight, selectedFps);
+    }
+}
@@ -0,0 +1,317 @@
+package com.bo.webrtc_android;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.webrtc.DefaultVideoDecoderFactory;
+import org.webrtc.EglBase;
+import org.webrtc.HardwareVideoEncoderFactory;
+import org.webrtc.RTCStats;
+import org.webrtc.RTCStatsReport;
+import org.webrtc.SoftwareVideoEncoderFactory;
+import org.webrtc.VideoCodecInfo;
+import org.webrtc.VideoCodecStatus;
+import org.webrtc.VideoEncoder;
+import org.webrtc.VideoEncoderFactory;
+import org.webrtc.VideoEncoderFallback;
+import org.webrtc.VideoFrame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// 视频编码选择策略: 列出本机编解码器工厂支持的硬件/软件编码, 硬件编码排在软件编码前面, 同类之间按实测的单帧编码耗时排序,
+// 通过修改本地 SDP 让双方都支持时优先使用硬件 H.264/VP8; 硬件编码器反复出错后暂时降级并通知重新协商
+// 实测耗时来自 getStats 的 totalEncodeTime/framesEncoded, 按设备保存在 SharedPreferences 里;
+// 硬件编码器是异步的, 这个值是帧在 MediaCodec 里排队加编码的延迟, 不代表 CPU 和电量的开销, 所以不拿它和软件编码比较
+public class CodecPolicy implements StatsPoller.Listener {
+    private static final String TAG = "boCodecPolicy";
+    private static final String PREFS = "codec_policy";
+    // 没有实测数据时的估计耗时(毫秒/帧), 硬件编码远低于软件编码
+    private static final double HARDWARE_COST_MS = 2;
+    private static final double SOFTWARE_COST_MS = 10;
+    // 同样耗时时的先后顺序
+    private static final List<String> DEFAULT_ORDER = Arrays.asList("H264", "VP8", "VP9");
+    // 新样本的权重
+    private static final double SMOOTHING = 0.2;
+    // 少于这么多帧的样本不计入
+    private static final long MIN_FRAMES = 30;
+    // 在这段时间内出错这么多次才降级, 偶尔一次出错由 VideoEncoderFallback 兜底
+    static final int MAX_FAILURES = 3;
+    static final long FAILURE_WINDOW_MS = 10 * 60 * 1000;
+    // 降级的有效期, 过期后重新尝试硬件编码(例如系统更新修好了驱动)
+    static final long DEMOTION_MS = 7 * 24 * 60 * 60 * 1000L;
+
+    public interface Listener {
+        // 某个编码的硬件编码器出错, 已经降级, 需要重新协商才能让对端改用新的编码顺序
+        void onCodecDemoted(String codecName);
+    }
+
+    private final SharedPreferences prefs;
+    private final HardwareVideoEncoderFactory hardwareFactory;
+    private final SoftwareVideoEncoderFactory softwareFactory = new SoftwareVideoEncoderFactory();
+    private final Set<String> hardwareCodecs = new LinkedHashSet<>();
+    private final Set<String> softwareCodecs = new LinkedHashSet<>();
+    private final Set<String> decoderCodecs = new LinkedHashSet<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    // 上一次统计时每个对端的累计编码时间和帧数
+    private final HashMap<String, double[]> lastEncodeStats = new HashMap<>();
+    // 每个编码最近几次出错的时间, 只在内存里
+    private final HashMap<String, List<Long>> failures = new HashMap<>();
+
+    public CodecPolicy(Context context, EglBase.Context eglBaseContext){
+        prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        hardwareFactory = new HardwareVideoEncoderFactory(eglBaseContext, true, true);
+        for (VideoCodecInfo info : hardwareFactory.getSupportedCodecs()) {
+            hardwareCodecs.add(normalize(info.name));
+        }
+        for (VideoCodecInfo info : softwareFactory.getSupportedCodecs()) {
+            softwareCodecs.add(normalize(info.name));
+        }
+        for (VideoCodecInfo info : new DefaultVideoDecoderFactory(eglBaseContext).getSupportedCodecs()) {
+            decoderCodecs.add(normalize(info.name));
+        }
+        Log.d(TAG, "hardware=" + hardwareCodecs + " software=" + softwareCodecs + " decoders=" + decoderCodecs
+                + " ranking=" + rank());
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    // CodecPolicy 属于整个进程, Activity 销毁时要移除自己的监听
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // 本端能编码也能解码的编码, 按估计耗时从低到高排列
+    public List<String> rank() {
+        List<String> codecs = new ArrayList<>();
+        Set<String> all = new LinkedHashSet<>(DEFAULT_ORDER);
+        all.addAll(hardwareCodecs);
+        all.addAll(softwareCodecs);
+        for (String codec : all) {
+            if (decoderCodecs.contains(codec) && (usesHardware(codec) || softwareCodecs.contains(codec))) {
+                codecs.add(codec);
+            }
+        }
+        Collections.sort(codecs, (a, b) -> {
+            int result = Boolean.compare(usesHardware(b), usesHardware(a));
+            if (result == 0) {
+                result = Double.compare(cost(a), cost(b));
+            }
+            return result != 0 ? result : Integer.compare(defaultIndex(a), defaultIndex(b));
+        });
+        return codecs;
+    }
+
+    // 作为 PeerNegotiator 的本地 SDP 变换, 直接修改已解析的描述
+    public void applyTo(SdpModel sdp) {
+        sdp.reorderCodecs("video", rank());
+    }
+
+    public boolean usesHardware(String codec) {
+        return hardwareCodecs.contains(codec)
+                && !isDemoted(prefs.getLong(demotedKey(codec), 0), System.currentTimeMillis());
+    }
+
+    static boolean isDemoted(long demotedAtMs, long nowMs) {
+        return demotedAtMs > 0 && nowMs >= demotedAtMs && nowMs - demotedAtMs < DEMOTION_MS;
+    }
+
+    // 记下一次出错, 返回 true 表示 FAILURE_WINDOW_MS 内已经出错 MAX_FAILURES 次
+    static boolean recordFailure(List<Long> times, long nowMs) {
+        times.add(nowMs);
+        while (!times.isEmpty() && nowMs - times.get(0) > FAILURE_WINDOW_MS) {
+            times.remove(0);
+        }
+        return times.size() >= MAX_FAILURES;
+    }
+
+    private double cost(String codec) {
+        boolean hardware = usesHardware(codec);
+        float measured = prefs.getFloat(costKey(codec, hardware), -1);
+        if (measured >= 0) {
+            return measured;
+        }
+        return hardware ? HARDWARE_COST_MS : SOFTWARE_COST_MS;
+    }
+
+    private static int defaultIndex(String codec) {
+        int index = DEFAULT_ORDER.indexOf(codec);
+        return index < 0 ? DEFAULT_ORDER.size() : index;
+    }
+
+    // 硬件编码器初始化或编码返回错误; 短时间内反复出错时, DEMOTION_MS 内该编码只用软件实现, 并排到后面
+    public void onHardwareEncoderFailure(String codec, VideoCodecStatus status) {
+        Log.e(TAG, "hardware " + codec + " encoder failed: " + status);
+        long now = System.currentTimeMillis();
+        synchronized (failures) {
+            if (!usesHardware(codec)) {
+                return;
+            }
+            List<Long> times = failures.get(codec);
+            if (times == null) {
+                times = new ArrayList<>();
+                failures.put(codec, times);
+            }
+            if (!recordFailure(times, now)) {
+                return;
+            }
+            times.clear();
+            prefs.edit().putLong(demotedKey(codec), now).apply();
+        }
+        Log.e(TAG, "demoted hardware " + codec);
+        for (Listener listener : listeners) {
+            listener.onCodecDemoted(codec);
+        }
+    }
+
+    @Override
+    public void onStats(String socketId, RTCStatsReport report) {
+        Map<String, RTCStats> statsMap = report.getStatsMap();
+        for (RTCStats stats : statsMap.values()) {
+            Map<String, Object> members = stats.getMembers();
+            if (!"outbound-rtp".equals(stats.getType())
+                    || !"video".equals(members.containsKey("kind") ? members.get("kind") : members.get("mediaType"))) {
+                continue;
+            }
+            Object totalEncodeTime = members.get("totalEncodeTime");
+            Object framesEncoded = members.get("framesEncoded");
+            RTCStats codecStats = statsMap.get(String.valueOf(members.get("codecId")));
+            if (!(totalEncodeTime instanceof Number) || !(framesEncoded instanceof Number) || codecStats == null) {
+                continue;
+            }
+            // mimeType 形如 video/VP8
+            String mimeType = String.valueOf(codecStats.getMembers().get("mimeType"));
+            String codec = normalize(mimeType.substring(mimeType.indexOf('/') + 1));
+            String key = socketId + "/" + stats.getId();
+            double seconds = ((Number) totalEncodeTime).doubleValue();
+            double frames = ((Number) framesEncoded).doubleValue();
+            double[] last;
+            synchronized (lastEncodeStats) {
+                last = lastEncodeStats.get(key);
+                // 帧数不够时保留上一次的起点, 等积累够了再算
+                if (last == null || frames - last[1] >= MIN_FRAMES || frames < last[1]) {
+                    lastEncodeStats.put(key, new double[]{seconds, frames});
+                }
+            }
+            if (last != null && frames - last[1] >= MIN_FRAMES) {
+                recordCost(codec, (seconds - last[0]) * 1000 / (frames - last[1]));
+            }
+        }
+    }
+
+    public void removePeer(String socketId) {
+        synchronized (lastEncodeStats) {
+            lastEncodeStats.keySet().removeIf(key -> key.startsWith(socketId + "/"));
+        }
+    }
+
+    private synchronized void recordCost(String codec, double costMs) {
+        boolean hardware = usesHardware(codec);
+        String key = costKey(codec, hardware);
+        float previous = prefs.getFloat(key, -1);
+        double smoothed = previous < 0 ? costMs : previous * (1 - SMOOTHING) + costMs * SMOOTHING;
+        prefs.edit().putFloat(key, (float) smoothed).apply();
+    }
+
+    // 替代 DefaultVideoEncoderFactory: 硬件编码器外面包一层出错监控, 有软件实现时仍然用 VideoEncoderFallback 兜底
+    public VideoEncoderFactory createEncoderFactory() {
+        return new VideoEncoderFactory() {
+            @Override
+            public VideoEncoder createEncoder(VideoCodecInfo info) {
+                String codec = normalize(info.name);
+                VideoEncoder software = softwareFactory.createEncoder(info);
+                VideoEncoder hardware = usesHardware(codec) ? hardwareFactory.createEncoder(info) : null;
+                if (hardware == null) {
+                    return software;
+                }
+                VideoEncoder monitored = new MonitoredEncoder(codec, hardware);
+                return software == null ? monitored : new VideoEncoderFallback(software, monitored);
+            }
+
+            @Override
+            public VideoCodecInfo[] getSupportedCodecs() {
+                LinkedHashMap<String, VideoCodecInfo> codecs = new LinkedHashMap<>();
+                for (VideoCodecInfo info : softwareFactory.getSupportedCodecs()) {
+                    codecs.put(info.name + info.params, info);
+                }
+                for (VideoCodecInfo info : hardwareFactory.getSupportedCodecs()) {
+                    codecs.put(info.name + info.params, info);
+                }
+                return codecs.values().toArray(new VideoCodecInfo[0]);
+            }
+        };
+    }
+
+    private static String normalize(String codec) {
+        return codec.toUpperCase(Locale.US);
+    }
+
+    private static String costKey(String codec, boolean hardware) {
+        return "cost_" + codec + (hardware ? "_hw" : "_sw");
+    }
+
+    private static String demotedKey(String codec) {
+        return "demoted_" + codec;
+    }
+
+    // 转发给硬件编码器, 初始化或编码返回错误时通知 CodecPolicy
+    private class MonitoredEncoder implements VideoEncoder {
+        private final String codec;
+        private final VideoEncoder delegate;
+
+        MonitoredEncoder(String codec, VideoEncoder delegate){
+            this.codec = codec;
+            this.delegate = delegate;
+        }
+
+        private VideoCodecStatus check(VideoCodecStatus status) {
+            // UNINITIALIZED 在编码器重新初始化期间是正常的, 不算出错
+            if (status == VideoCodecStatus.ERROR || status == VideoCodecStatus.FALLBACK_SOFTWARE) {
+                onHardwareEncoderFailure(codec, status);
+            }
+            return status;
+        }
+
+        @Override
+        public VideoCodecStatus initEncode(Settings settings, Callback encodeCallback) {
+            return check(delegate.initEncode(settings, encodeCallback));
+        }
+
+        @Override
+        public VideoCodecStatus release() {
+            return delegate.release();
+        }
+
+        @Override
+        public VideoCodecStatus encode(VideoFrame frame, EncodeInfo info) {
+            return check(delegate.encode(frame, info));
+        }
+
+        @Override
+        public VideoCodecStatus setRateAllocation(BitrateAllocation allocation, int framerate) {
+            return delegate.setRateAllocation(allocation, framerate);
+        }
+
+        @Override
+        public ScalingSettings getScalingSettings() {
+            return delegate.getScalingSettings();
+        }
+
+        @Override
+        public String getImplementationName() {
+            return delegate.getImplementationName();
+        }
+    }
+}
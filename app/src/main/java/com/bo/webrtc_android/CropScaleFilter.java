@@ -0,0 +1,63 @@
+package com.bo.webrtc_android;
+
+import android.graphics.Matrix;
+
+import org.webrtc.GlRectDrawer;
+
+// 居中裁剪到目标宽高比, 再缩小到不超过目标大小, 在编码之前完成而不是交给编码器缩放
+// 宽高按未旋转的 buffer 方向给出, 例如竖屏 480x640 的摄像头画面在 buffer 里是 640x480
+public class CropScaleFilter extends GpuFilter {
+    private final int targetWidth;
+    private final int targetHeight;
+    private GlRectDrawer drawer;
+
+    public CropScaleFilter(int targetWidth, int targetHeight){
+        this.targetWidth = targetWidth;
+        this.targetHeight = targetHeight;
+    }
+
+    @Override
+    public String getName() {
+        return "crop-scale";
+    }
+
+    private int cropWidth(Input input) {
+        // 输入比目标更宽时裁掉左右
+        return Math.min(input.width, input.height * targetWidth / targetHeight);
+    }
+
+    private int cropHeight(Input input) {
+        return Math.min(input.height, input.width * targetHeight / targetWidth);
+    }
+
+    @Override
+    public int getOutputWidth(Input input) {
+        return Math.min(cropWidth(input), targetWidth) & ~1;
+    }
+
+    @Override
+    public int getOutputHeight(Input input) {
+        return Math.min(cropHeight(input), targetHeight) & ~1;
+    }
+
+    @Override
+    public void draw(Input input, int outputWidth, int outputHeight) {
+        if (drawer == null) {
+            drawer = new GlRectDrawer();
+        }
+        float scaleX = (float) cropWidth(input) / input.width;
+        float scaleY = (float) cropHeight(input) / input.height;
+        Matrix transform = new Matrix();
+        transform.preTranslate((1 - scaleX) / 2, (1 - scaleY) / 2);
+        transform.preScale(scaleX, scaleY);
+        drawTransformed(drawer, input, transform, outputWidth, outputHeight);
+    }
+
+    @Override
+    public void release() {
+        if (drawer != null) {
+            drawer.release();
+            drawer = null;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.bo.webrtc_android;
+
+import android.graphics.Matrix;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Handler;
+import android.util.Log;
+
+import org.webrtc.GlTextureFrameBuffer;
+import org.webrtc.RendererCommon;
+import org.webrtc.TextureBufferImpl;
+import org.webrtc.VideoFrame;
+import org.webrtc.VideoProcessor;
+import org.webrtc.VideoSink;
+import org.webrtc.YuvConverter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// 采集器和 VideoSource 之间的处理管线, 通过 VideoSource.setVideoProcessor 接入
+// 帧在 SurfaceTextureHelper 的线程上依次经过每个 GpuFilter, 每个阶段画到自己的纹理里, 全程不离开显存;
+// 最后一个阶段的纹理从一个小池子里取, 编码器和渲染器用完释放帧后才回到池子里
+// 没有滤镜或者输入不是纹理时原样透传
+public class FrameProcessingPipeline implements VideoProcessor {
+    private static final String TAG = "boFramePipeline";
+    // 同时在编码器/渲染器手里的输出帧个数上限, 超过时丢帧
+    private static final int MAX_OUTPUT_BUFFERS = 3;
+    // 耗时统计的平滑系数
+    private static final double SMOOTHING = 0.1;
+    // 等待一帧绘制完成的上限, 超时也照样送出, 不让采集线程卡住
+    private static final long FENCE_TIMEOUT_NS = 33_000_000;
+
+    private static class Stage {
+        final GpuFilter filter;
+        // 中间阶段的输出, 下一个阶段同步读取后就可以复用
+        GlTextureFrameBuffer frameBuffer;
+        volatile double averageMs = -1;
+        volatile long frames;
+
+        Stage(GpuFilter filter){
+            this.filter = filter;
+        }
+    }
+
+    // 一个阶段的耗时
+    public static class StageTiming {
+        public final String name;
+        public final double averageMs;
+        public final long frames;
+
+        StageTiming(String name, double averageMs, long frames){
+            this.name = name;
+            this.averageMs = averageMs;
+            this.frames = frames;
+        }
+
+        @Override
+        public String toString() {
+            return name + " " + String.format(Locale.US, "%.2f", averageMs) + "ms/frame (" + frames + ")";
+        }
+    }
+
+    // SurfaceTextureHelper 的线程
+    private final Handler handler;
+    private final List<Stage> stages = new CopyOnWriteArrayList<>();
+    // 空闲的输出纹理, 只在 handler 线程访问
+    private final ArrayDeque<GlTextureFrameBuffer> idleOutputs = new ArrayDeque<>();
+    private int outputCount;
+    private YuvConverter yuvConverter;
+    private volatile VideoSink sink;
+    // 打开后每个阶段结束都 glFinish, 测到的是 GPU 实际耗时, 否则只是提交命令的耗时
+    private volatile boolean accurateTiming;
+    private long droppedFrames;
+    private boolean released;
+    // 当前上下文是否支持 ES 3.0 的同步对象, 第一次处理帧时检查
+    private Boolean fenceSupported;
+
+    public FrameProcessingPipeline(Handler surfaceTextureHelperHandler){
+        this.handler = surfaceTextureHelperHandler;
+    }
+
+    // 可以在任意线程调用, 从下一帧开始生效
+    public void addFilter(GpuFilter filter) {
+        stages.add(new Stage(filter));
+    }
+
+    public void removeFilter(GpuFilter filter) {
+        for (Stage stage : stages) {
+            if (stage.filter == filter) {
+                stages.remove(stage);
+                handler.post(() -> releaseStage(stage));
+            }
+        }
+    }
+
+    public void setAccurateTiming(boolean accurateTiming) {
+        this.accurateTiming = accurateTiming;
+    }
+
+    public List<StageTiming> getStageTimings() {
+        List<StageTiming> timings = new ArrayList<>();
+        for (Stage stage : stages) {
+            timings.add(new StageTiming(stage.filter.getName(), Math.max(0, stage.averageMs), stage.frames));
+        }
+        return timings;
+    }
+
+    @Override
+    public void setSink(VideoSink sink) {
+        this.sink = sink;
+    }
+
+    @Override
+    public void onCapturerStarted(boolean success) {
+    }
+
+    @Override
+    public void onCapturerStopped() {
+    }
+
+    @Override
+    public void onFrameCaptured(VideoFrame frame) {
+        VideoSink currentSink = sink;
+        if (currentSink == null) {
+            return;
+        }
+        if (stages.isEmpty() || released || !(frame.getBuffer() instanceof VideoFrame.TextureBuffer)) {
+            currentSink.onFrame(frame);
+            return;
+        }
+        VideoFrame processed = process(frame);
+        if (processed != null) {
+            currentSink.onFrame(processed);
+            processed.release();
+        }
+    }
+
+    private VideoFrame process(VideoFrame frame) {
+        VideoFrame.TextureBuffer buffer = (VideoFrame.TextureBuffer) frame.getBuffer();
+        GpuFilter.Input input = new GpuFilter.Input(buffer.getTextureId(), buffer.getType(),
+                RendererCommon.convertMatrixFromAndroidGraphicsMatrix(buffer.getTransformMatrix()),
+                buffer.getWidth(), buffer.getHeight(), frame.getRotation());
+        GlTextureFrameBuffer output = null;
+        List<Stage> current = new ArrayList<>(stages);
+        for (int i = 0; i < current.size(); i++) {
+            Stage stage = current.get(i);
+            int width = Math.max(2, stage.filter.getOutputWidth(input));
+            int height = Math.max(2, stage.filter.getOutputHeight(input));
+            GlTextureFrameBuffer target;
+            if (i == current.size() - 1) {
+                target = obtainOutput();
+                if (target == null) {
+                    // 下游还没有释放之前的帧, 丢掉这一帧而不是阻塞采集线程
+                    droppedFrames++;
+                    if (droppedFrames % 30 == 1) {
+                        Log.w(TAG, "output buffers exhausted, dropped " + droppedFrames);
+                    }
+                    return null;
+                }
+                output = target;
+            } else {
+                if (stage.frameBuffer == null) {
+                    stage.frameBuffer = new GlTextureFrameBuffer(GLES20.GL_RGBA);
+                }
+                target = stage.frameBuffer;
+            }
+            long start = System.nanoTime();
+            target.setSize(width, height);
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, target.getFrameBufferId());
+            stage.filter.draw(input, width, height);
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+            if (accurateTiming) {
+                GLES20.glFinish();
+            }
+            recordTiming(stage, (System.nanoTime() - start) / 1e6);
+            input = new GpuFilter.Input(target.getTextureId(), VideoFrame.TextureBuffer.Type.RGB,
+                    RendererCommon.identityMatrix(), width, height, stage.filter.getOutputRotation(input));
+        }
+        // 编码器和渲染器在各自的线程用共享上下文读取这个纹理, 必须等绘制完成
+        waitForDraw();
+        if (yuvConverter == null) {
+            yuvConverter = new YuvConverter();
+        }
+        GlTextureFrameBuffer finalOutput = output;
+        TextureBufferImpl outputBuffer = new TextureBufferImpl(input.width, input.height,
+                VideoFrame.TextureBuffer.Type.RGB, output.getTextureId(), new Matrix(), handler, yuvConverter,
+                () -> handler.post(() -> recycleOutput(finalOutput)));
+        return new VideoFrame(outputBuffer, input.rotation, frame.getTimestampNs());
+    }
+
+    // 只等这一帧的绘制命令执行完, 不像 glFinish 那样清空整个驱动队列; WebRTC 创建的是 ES 2.0 上下文,
+    // 驱动不支持同步对象时才退回 glFinish
+    private void waitForDraw() {
+        if (fenceSupported == null) {
+            String version = GLES20.glGetString(GLES20.GL_VERSION);
+            fenceSupported = version != null && !version.startsWith("OpenGL ES 2");
+        }
+        if (!fenceSupported) {
+            GLES20.glFinish();
+            return;
+        }
+        long fence = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        GLES30.glClientWaitSync(fence, GLES30.GL_SYNC_FLUSH_COMMANDS_BIT, FENCE_TIMEOUT_NS);
+        GLES30.glDeleteSync(fence);
+    }
+
+    private static void recordTiming(Stage stage, double ms) {
+        stage.averageMs = stage.averageMs < 0 ? ms : stage.averageMs * (1 - SMOOTHING) + ms * SMOOTHING;
+        stage.frames++;
+    }
+
+    private GlTextureFrameBuffer obtainOutput() {
+        GlTextureFrameBuffer output = idleOutputs.poll();
+        if (output == null && outputCount < MAX_OUTPUT_BUFFERS) {
+            output = new GlTextureFrameBuffer(GLES20.GL_RGBA);
+            outputCount++;
+        }
+        return output;
+    }
+
+    private void recycleOutput(GlTextureFrameBuffer output) {
+        if (released) {
+            output.release();
+        } else {
+            idleOutputs.push(output);
+        }
+    }
+
+    private static void releaseStage(Stage stage) {
+        stage.filter.release();
+        if (stage.frameBuffer != null) {
+            stage.frameBuffer.release();
+            stage.frameBuffer = null;
+        }
+    }
+
+    // 在 SurfaceTextureHelper.dispose 之前调用, GL 资源在它的线程上释放
+    public void release() {
+        handler.post(() -> {
+            released = true;
+            for (Stage stage : stages) {
+                releaseStage(stage);
+            }
+            stages.clear();
+            for (GlTextureFrameBuffer output : idleOutputs) {
+                output.release();
+            }
+            idleOutputs.clear();
+            if (yuvConverter != null) {
+                yuvConverter.release();
+                yuvConverter = null;
+            }
+            Log.d(TAG, "released, dropped frames " + droppedFrames);
+        });
+    }
+}
@@ -0,0 +1,68 @@
+package com.bo.webrtc_android;
+
+import android.graphics.Matrix;
+
+import org.webrtc.RendererCommon;
+import org.webrtc.VideoFrame;
+
+// FrameProcessingPipeline 中的一个 GPU 处理阶段, 所有方法都在 SurfaceTextureHelper 的线程调用, 当前线程已有 EGL 上下文
+// draw 时目标 framebuffer 和 viewport 已经设置好, 滤镜只需要把输入纹理画满 outputWidth x outputHeight
+public abstract class GpuFilter {
+    // 一个阶段的输入纹理
+    public static class Input {
+        public final int textureId;
+        public final VideoFrame.TextureBuffer.Type type;
+        // 纹理坐标变换矩阵, 列主序 4x4, 可直接传给 GlDrawer
+        public final float[] texMatrix;
+        public final int width;
+        public final int height;
+        // 画面还需要顺时针旋转多少度才是正向
+        public final int rotation;
+
+        public Input(int textureId, VideoFrame.TextureBuffer.Type type, float[] texMatrix, int width, int height, int rotation){
+            this.textureId = textureId;
+            this.type = type;
+            this.texMatrix = texMatrix;
+            this.width = width;
+            this.height = height;
+            this.rotation = rotation;
+        }
+    }
+
+    public abstract String getName();
+
+    public int getOutputWidth(Input input) {
+        return input.width;
+    }
+
+    public int getOutputHeight(Input input) {
+        return input.height;
+    }
+
+    // 滤镜把旋转直接画进画面时, 输出帧需要的旋转相应减少
+    public int getOutputRotation(Input input) {
+        return input.rotation;
+    }
+
+    public abstract void draw(Input input, int outputWidth, int outputHeight);
+
+    // 释放 GL 资源
+    public abstract void release();
+
+    // 在输入的纹理矩阵上再叠加 transform (作用于输出的纹理坐标, 范围 0~1) 后绘制
+    protected static void drawTransformed(RendererCommon.GlDrawer drawer, Input input, Matrix transform,
+                                          int outputWidth, int outputHeight) {
+        Matrix matrix = RendererCommon.convertMatrixToAndroidGraphicsMatrix(input.texMatrix);
+        matrix.preConcat(transform);
+        drawTexture(drawer, input, RendererCommon.convertMatrixFromAndroidGraphicsMatrix(matrix), outputWidth, outputHeight);
+    }
+
+    protected static void drawTexture(RendererCommon.GlDrawer drawer, Input input, float[] texMatrix,
+                                      int outputWidth, int outputHeight) {
+        if (input.type == VideoFrame.TextureBuffer.Type.OES) {
+            drawer.drawOes(input.textureId, texMatrix, input.width, input.height, 0, 0, outputWidth, outputHeight);
+        } else {
+            drawer.drawRgb(input.textureId, texMatrix, input.width, input.height, 0, 0, outputWidth, outputHeight);
+        }
+    }
+}
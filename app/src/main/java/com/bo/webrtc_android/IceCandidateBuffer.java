@@ -0,0 +1,119 @@
+package com.bo.webrtc_android;
+
+import org.webrtc.IceCandidate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 单个对端的远端候选缓冲区
+// setRemoteDescription 还没回调 onSetSuccess 时加入的候选可能会被丢弃, 所以在远端描述生效前先存起来,
+// 生效后一次性取出补加; 同时统计缓冲的候选个数和等待时间
+public class IceCandidateBuffer {
+    // 所有对端累计的统计
+    private static final AtomicLong totalBuffered = new AtomicLong();
+    private static final AtomicLong totalWaitMs = new AtomicLong();
+    private static final AtomicLong maxWaitMs = new AtomicLong();
+
+    private static class Entry {
+        final IceCandidate candidate;
+        final long bufferedAt;
+
+        Entry(IceCandidate candidate, long bufferedAt) {
+            this.candidate = candidate;
+            this.bufferedAt = bufferedAt;
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+    // 是否有已经生效的远端描述
+    private boolean hasRemoteDescription;
+    // 是否有正在设置的远端描述
+    private boolean remoteDescriptionPending;
+    private int bufferedCount;
+    private long waitMs;
+
+    // 调用 setRemoteDescription 之前调用, 之后到达的候选会等这次设置完成
+    public synchronized void onRemoteDescriptionPending() {
+        remoteDescriptionPending = true;
+    }
+
+    // 远端描述未生效时存下候选并返回 true, 否则返回 false, 由调用者直接加到 PeerConnection
+    public synchronized boolean offer(IceCandidate candidate) {
+        if (hasRemoteDescription && !remoteDescriptionPending) {
+            return false;
+        }
+        entries.add(new Entry(candidate, System.nanoTime()));
+        return true;
+    }
+
+    // 远端描述设置成功, 取出全部缓冲的候选
+    public List<IceCandidate> onRemoteDescriptionSet() {
+        List<Entry> drained;
+        synchronized (this) {
+            hasRemoteDescription = true;
+            remoteDescriptionPending = false;
+            if (entries.isEmpty()) {
+                return new ArrayList<>();
+            }
+            drained = new ArrayList<>(entries);
+            entries.clear();
+        }
+        long now = System.nanoTime();
+        List<IceCandidate> candidates = new ArrayList<>(drained.size());
+        long batchWaitMs = 0;
+        for (Entry entry : drained) {
+            long wait = (now - entry.bufferedAt) / 1000000;
+            batchWaitMs += wait;
+            updateMax(wait);
+            candidates.add(entry.candidate);
+        }
+        synchronized (this) {
+            bufferedCount += drained.size();
+            waitMs += batchWaitMs;
+        }
+        totalBuffered.addAndGet(drained.size());
+        totalWaitMs.addAndGet(batchWaitMs);
+        return candidates;
+    }
+
+    // 设置失败时之前生效的远端描述仍然有效, 缓冲的候选留给下一次设置
+    public synchronized void onRemoteDescriptionFailed() {
+        remoteDescriptionPending = false;
+    }
+
+    private static void updateMax(long wait) {
+        long max;
+        do {
+            max = maxWaitMs.get();
+        } while (wait > max && !maxWaitMs.compareAndSet(max, wait));
+    }
+
+    // 该对端已经补加过的缓冲候选个数
+    public synchronized int getBufferedCount() {
+        return bufferedCount;
+    }
+
+    // 该对端缓冲候选的平均等待时间
+    public synchronized long getAverageWaitMs() {
+        return bufferedCount == 0 ? 0 : waitMs / bufferedCount;
+    }
+
+    // 当前还在缓冲区里的候选个数
+    public synchronized int getPendingCount() {
+        return entries.size();
+    }
+
+    public static long getTotalBuffered() {
+        return totalBuffered.get();
+    }
+
+    public static long getTotalAverageWaitMs() {
+        long count = totalBuffered.get();
+        return count == 0 ? 0 : totalWaitMs.get() / count;
+    }
+
+    public static long getMaxWaitMs() {
+        return maxWaitMs.get();
+    }
+}
@@ -0,0 +1,143 @@
+package com.bo.webrtc_android;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.webrtc.PeerConnection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// STUN/TURN 服务器列表和 ICE 策略, 格式与浏览器的 RTCConfiguration 相同:
+// {"iceServers":[{"urls":["turn:host:3478?transport=udp"],"username":"u","credential":"p"}],
+//  "iceTransportPolicy":"all|relay", "iceCandidatePoolSize":2, "ttl":86400}
+// ttl 是 TURN 临时凭证的有效期(秒), 例如 coturn 的 REST API 凭证(username 为 "过期时间:用户名", credential 为服务器算出的 HMAC),
+// 没有 ttl 表示长期有效
+public class IceConfig {
+    // 每个 PeerConnection 创建时就预先收集的候选数, setLocalDescription 时可以直接使用
+    static final int DEFAULT_CANDIDATE_POOL_SIZE = 2;
+
+    public static class Server {
+        public final List<String> urls;
+        public final String username;
+        public final String credential;
+
+        public Server(List<String> urls, String username, String credential){
+            this.urls = Collections.unmodifiableList(new ArrayList<>(urls));
+            this.username = username;
+            this.credential = credential;
+        }
+
+        public boolean isTurn() {
+            for (String url : urls) {
+                if (url.startsWith("turn:") || url.startsWith("turns:")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final List<Server> servers;
+    private final boolean relayOnly;
+    private final int candidatePoolSize;
+    // 凭证过期的时间(System.currentTimeMillis), 0 表示不过期
+    private final long expiresAtMs;
+
+    public IceConfig(List<Server> servers, boolean relayOnly, int candidatePoolSize, long expiresAtMs){
+        this.servers = Collections.unmodifiableList(new ArrayList<>(servers));
+        this.relayOnly = relayOnly;
+        this.candidatePoolSize = candidatePoolSize;
+        this.expiresAtMs = expiresAtMs;
+    }
+
+    // 为空或格式错误时返回 null, nowMs 用来把 ttl 换算成过期时间
+    public static IceConfig parse(String json, long nowMs) {
+        if (json == null || json.isEmpty()) {
+            return null;
+        }
+        try {
+            JSONObject jo = new JSONObject(json);
+            JSONArray array = jo.getJSONArray("iceServers");
+            List<Server> servers = new ArrayList<>();
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject server = array.getJSONObject(i);
+                List<String> urls = new ArrayList<>();
+                JSONArray urlArray = server.optJSONArray("urls");
+                if (urlArray != null) {
+                    for (int j = 0; j < urlArray.length(); j++) {
+                        urls.add(urlArray.getString(j));
+                    }
+                } else {
+                    urls.add(server.getString("urls"));
+                }
+                servers.add(new Server(urls, server.optString("username", null), server.optString("credential", null)));
+            }
+            boolean relayOnly = "relay".equals(jo.optString("iceTransportPolicy", "all"));
+            int poolSize = jo.optInt("iceCandidatePoolSize", DEFAULT_CANDIDATE_POOL_SIZE);
+            long ttl = jo.optLong("ttl", 0);
+            return new IceConfig(servers, relayOnly, poolSize, ttl > 0 ? nowMs + ttl * 1000 : 0);
+        } catch (JSONException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public List<Server> getServers() {
+        return servers;
+    }
+
+    public boolean isRelayOnly() {
+        return relayOnly;
+    }
+
+    public int getCandidatePoolSize() {
+        return candidatePoolSize;
+    }
+
+    public long getExpiresAtMs() {
+        return expiresAtMs;
+    }
+
+    public boolean isExpired(long nowMs) {
+        return expiresAtMs > 0 && nowMs >= expiresAtMs;
+    }
+
+    public List<PeerConnection.IceServer> toIceServers() {
+        List<PeerConnection.IceServer> iceServers = new ArrayList<>();
+        for (Server server : servers) {
+            PeerConnection.IceServer.Builder builder = PeerConnection.IceServer.builder(server.urls);
+            if (server.username != null) {
+                builder.setUsername(server.username);
+            }
+            if (server.credential != null) {
+                builder.setPassword(server.credential);
+            }
+            iceServers.add(builder.createIceServer());
+        }
+        return iceServers;
+    }
+
+    // relayOnly 为 true 时不管配置怎么写都只用中继候选
+    public PeerConnection.RTCConfiguration createRtcConfiguration(boolean relayOnly) {
+        PeerConnection.RTCConfiguration rtcConfig = new PeerConnection.RTCConfiguration(toIceServers());
+        tune(rtcConfig, relayOnly);
+        return rtcConfig;
+    }
+
+    void tune(PeerConnection.RTCConfiguration rtcConfig, boolean relayOnly) {
+        // Unified Plan: 每个轨道对应一个 transceiver, 远端轨道通过 onAddTrack 回调
+        rtcConfig.sdpSemantics = PeerConnection.SdpSemantics.UNIFIED_PLAN;
+        rtcConfig.iceTransportsType = relayOnly || this.relayOnly
+                ? PeerConnection.IceTransportsType.RELAY : PeerConnection.IceTransportsType.ALL;
+        // 所有 m-line 共用一个传输通道: 只收集一组候选, 走中继时只占用一个 TURN 分配
+        rtcConfig.bundlePolicy = PeerConnection.BundlePolicy.MAXBUNDLE;
+        rtcConfig.rtcpMuxPolicy = PeerConnection.RtcpMuxPolicy.REQUIRE;
+        rtcConfig.iceCandidatePoolSize = candidatePoolSize;
+        // 网络变化(例如 Wi-Fi 切到 4G)后继续收集新网卡上的候选, 不必等 ICE restart
+        rtcConfig.continualGatheringPolicy = PeerConnection.ContinualGatheringPolicy.GATHER_CONTINUALLY;
+        // 已经有可用的中继候选对时释放同一服务器的其他 TURN 端口
+        rtcConfig.pruneTurnPorts = true;
+    }
+}
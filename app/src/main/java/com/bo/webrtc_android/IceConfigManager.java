@@ -0,0 +1,168 @@
+package com.bo.webrtc_android;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.webrtc.PeerConnection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// 当前使用的 ICE 配置: 启动时读取 res/raw/ice_servers.json, 之后信令服务器下发的配置(临时 TURN 凭证)会替换它
+// 带 ttl 的配置在有效期过去 REFRESH_FRACTION 时向服务器请求新的凭证, 新配置通过 Listener 应用到已有的连接
+// 候选池大小始终用初始配置的值: setLocalDescription 之后 setConfiguration 改变池大小会失败, 新配置也就应用不上
+public class IceConfigManager {
+    private static final String TAG = "boIce";
+    // 有效期过去这么多时刷新, 留出信令往返和应用到每个连接的时间
+    static final double REFRESH_FRACTION = 0.8;
+    // 服务器没有响应时的重试间隔
+    static final long RETRY_MS = 30000;
+
+    public interface Listener {
+        // 在刷新线程或信令线程回调
+        void onIceConfigChanged(IceConfig config);
+    }
+
+    // 向信令服务器请求新配置, 结果通过 onSignalingConfig 回来
+    private final Runnable refresher;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private volatile IceConfig current;
+    private final int candidatePoolSize;
+    private volatile boolean relayOnly;
+    private ScheduledFuture<?> refreshFuture;
+
+    public IceConfigManager(IceConfig initial, Runnable refresher){
+        this.refresher = refresher;
+        current = initial;
+        candidatePoolSize = initial.getCandidatePoolSize();
+    }
+
+    public static IceConfigManager fromResource(Context context, int rawId, Runnable refresher) {
+        String json = readRaw(context, rawId);
+        IceConfig config = json == null ? null : IceConfig.parse(json, System.currentTimeMillis());
+        if (config == null) {
+            Log.e(TAG, "invalid ice config resource, no ice servers");
+            config = new IceConfig(Collections.<IceConfig.Server>emptyList(), false,
+                    IceConfig.DEFAULT_CANDIDATE_POOL_SIZE, 0);
+        }
+        return new IceConfigManager(config, refresher);
+    }
+
+    private static String readRaw(Context context, int rawId) {
+        try (InputStream in = context.getResources().openRawResource(rawId)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public IceConfig getCurrent() {
+        return current;
+    }
+
+    // 打开后只使用 TURN 中继, 不暴露本机和公网地址; 只影响之后创建或重新配置的连接
+    public void setRelayOnly(boolean relayOnly) {
+        this.relayOnly = relayOnly;
+        notifyChanged(current);
+    }
+
+    public boolean isRelayOnly() {
+        return relayOnly;
+    }
+
+    public PeerConnection.RTCConfiguration createRtcConfiguration() {
+        IceConfig config = current;
+        if (config.isExpired(System.currentTimeMillis())) {
+            Log.w(TAG, "turn credentials expired, waiting for refresh");
+        }
+        PeerConnection.RTCConfiguration rtcConfig = config.createRtcConfiguration(relayOnly);
+        rtcConfig.iceCandidatePoolSize = candidatePoolSize;
+        return rtcConfig;
+    }
+
+    // 信令服务器下发的配置, 格式错误时保留当前配置并稍后重试
+    public void onSignalingConfig(String json) {
+        long now = System.currentTimeMillis();
+        IceConfig config = IceConfig.parse(json, now);
+        if (config == null) {
+            scheduleRefresh(RETRY_MS);
+            return;
+        }
+        Log.d(TAG, "ice config from signaling, " + config.getServers().size() + " servers, expires " + config.getExpiresAtMs());
+        current = config;
+        if (config.getExpiresAtMs() > 0) {
+            scheduleRefresh(refreshDelayMs(config, now));
+        } else {
+            cancelRefresh();
+        }
+        notifyChanged(config);
+    }
+
+    // 距离下一次刷新的毫秒数
+    static long refreshDelayMs(IceConfig config, long nowMs) {
+        long remaining = config.getExpiresAtMs() - nowMs;
+        return Math.max(0, (long) (remaining * REFRESH_FRACTION));
+    }
+
+    // 立即向服务器请求, 例如加入房间之后
+    public void refresh() {
+        scheduleRefresh(0);
+    }
+
+    private synchronized void scheduleRefresh(long delayMs) {
+        if (scheduler.isShutdown()) {
+            return;
+        }
+        if (refreshFuture != null) {
+            refreshFuture.cancel(false);
+        }
+        refreshFuture = scheduler.schedule(() -> {
+            // 凭证会过期时, 服务器没有回应就继续重试; 先排好重试再请求, 收到新配置时 onSignalingConfig 会取消它
+            if (current.getExpiresAtMs() > 0) {
+                scheduleRefresh(RETRY_MS);
+            }
+            refresher.run();
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void cancelRefresh() {
+        if (refreshFuture != null) {
+            refreshFuture.cancel(false);
+            refreshFuture = null;
+        }
+    }
+
+    private void notifyChanged(IceConfig config) {
+        for (Listener listener : listeners) {
+            listener.onIceConfigChanged(config);
+        }
+    }
+
+    public synchronized void release() {
+        scheduler.shutdownNow();
+    }
+}
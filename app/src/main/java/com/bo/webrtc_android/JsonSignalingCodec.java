@@ -0,0 +1,110 @@
+package com.bo.webrtc_android;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.webrtc.IceCandidate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// socket.io 使用的 JSON 格式, encode 的结果就是 socket.io 实际发出的 "message" 事件帧
+public class JsonSignalingCodec implements SignalingCodec {
+    // socket.io 协议: 4 为 engine.io 的 message 包, 2 为 socket.io 的 EVENT 包
+    private static final String EVENT_PREFIX = "42";
+
+    @Override
+    public byte[] encode(SignalingMessage message) {
+        try {
+            JSONArray packet = new JSONArray();
+            packet.put("message");
+            packet.put(toJson(message));
+            return (EVENT_PREFIX + packet.toString()).getBytes(StandardCharsets.UTF_8);
+        } catch (JSONException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public SignalingMessage decode(byte[] data, int offset, int length) {
+        String frame = new String(data, offset, length, StandardCharsets.UTF_8);
+        if (!frame.startsWith(EVENT_PREFIX)) {
+            return null;
+        }
+        try {
+            JSONArray packet = new JSONArray(frame.substring(EVENT_PREFIX.length()));
+            return fromJson(packet.getJSONObject(1));
+        } catch (JSONException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public static JSONObject toJson(SignalingMessage message) throws JSONException {
+        JSONObject jo = new JSONObject();
+        if (SignalingMessage.CANDIDATE.equals(message.type)) {
+            if (message.candidates.size() == 1) {
+                // 只有一个候选时保持原来的消息格式
+                putCandidate(jo, message.candidates.get(0));
+                jo.put("type", "candidate");
+            } else {
+                JSONArray array = new JSONArray();
+                for (IceCandidate iceCandidate : message.candidates) {
+                    array.put(putCandidate(new JSONObject(), iceCandidate));
+                }
+                jo.put("type", "candidates");
+                jo.put("candidates", array);
+            }
+        } else {
+            jo.put("type", message.type);
+            jo.put("sdp", message.sdp);
+        }
+        jo.put("from", message.from);
+        jo.put("to", message.to);
+        return jo;
+    }
+
+    // 不认识的消息类型返回 null
+    public static SignalingMessage fromJson(JSONObject data) {
+        String type = data.optString("type");
+        String from = data.optString("from");
+        String to = data.optString("to");
+        if (SignalingMessage.OFFER.equals(type) || SignalingMessage.ANSWER.equals(type)
+                || SignalingMessage.LAYER.equals(type) || SignalingMessage.NEGOTIATE.equals(type)
+                || SignalingMessage.ICE_RESTART.equals(type) || SignalingMessage.PUBLISH.equals(type)
+                || SignalingMessage.UNPUBLISH.equals(type) || SignalingMessage.SUBSCRIBE.equals(type)
+                || SignalingMessage.RESYNC.equals(type) || SignalingMessage.ICE_CONFIG.equals(type)
+                || SignalingMessage.ICE_CONFIG_REQUEST.equals(type)) {
+            return new SignalingMessage(type, from, to, data.optString("sdp"), null);
+        }
+        List<IceCandidate> candidates = new ArrayList<>();
+        if ("candidate".equals(type)) {
+            candidates.add(toIceCandidate(data));
+        } else if ("candidates".equals(type)) {
+            JSONArray array = data.optJSONArray("candidates");
+            for (int i = 0; array != null && i < array.length(); i++) {
+                candidates.add(toIceCandidate(array.optJSONObject(i)));
+            }
+        } else {
+            return null;
+        }
+        return new SignalingMessage(SignalingMessage.CANDIDATE, from, to, null, candidates);
+    }
+
+    private static JSONObject putCandidate(JSONObject jo, IceCandidate iceCandidate) throws JSONException {
+        jo.put("label", iceCandidate.sdpMLineIndex);
+        jo.put("id", iceCandidate.sdpMid);
+        jo.put("candidate", iceCandidate.sdp);
+        return jo;
+    }
+
+    private static IceCandidate toIceCandidate(JSONObject data) {
+        return new IceCandidate(
+                data.optString("id"),
+                data.optInt("label"),
+                data.optString("candidate")
+        );
+    }
+}
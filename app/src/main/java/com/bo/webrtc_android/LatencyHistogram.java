@@ -0,0 +1,84 @@
+package com.bo.webrtc_android;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// 毫秒耗时直方图, 桶的上界按 2 倍递增, 记录时只做一次原子加, 可以在任意线程调用
+public class LatencyHistogram {
+    // 各个桶的上界(毫秒), 最后一个桶收集所有更大的值
+    private static final long[] BOUNDS = {10, 20, 50, 100, 200, 400, 800, 1600, 3200, 6400, 12800, 25600};
+
+    private final String name;
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram(String name){
+        this.name = name;
+    }
+
+    public void record(long ms) {
+        int index = 0;
+        while (index < BOUNDS.length && ms > BOUNDS[index]) {
+            index++;
+        }
+        buckets.incrementAndGet(index);
+        count.incrementAndGet();
+        sum.addAndGet(ms);
+        long current;
+        do {
+            current = max.get();
+        } while (ms > current && !max.compareAndSet(current, ms));
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : sum.get() / n;
+    }
+
+    // 百分位数, 返回所在桶的上界, 落在最后一个桶时返回最大值
+    public long getPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(n * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            seen += buckets.get(i);
+            if (seen >= target) {
+                return Math.min(BOUNDS[i], max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(name)
+                .append(" count=").append(getCount())
+                .append(" mean=").append(getMean())
+                .append(" p50=").append(getPercentile(50))
+                .append(" p95=").append(getPercentile(95))
+                .append(" max=").append(getMax())
+                .append(" buckets=");
+        for (int i = 0; i <= BOUNDS.length; i++) {
+            builder.append(i < BOUNDS.length ? "<=" + BOUNDS[i] : ">" + BOUNDS[BOUNDS.length - 1])
+                    .append(':').append(buckets.get(i)).append(i < BOUNDS.length ? "," : "");
+        }
+        return builder.toString();
+    }
+}
@@ -4,50 +4,102 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 
 import android.app.Activity;
+import android.content.Intent;
 import android.content.PeriodicSync;
 import android.content.pm.PackageManager;
+import android.media.projection.MediaProjectionManager;
+import android.net.ConnectivityManager;
+import android.net.Network;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
+import android.widget.Button;
 
-import org.json.JSONObject;
 import org.webrtc.AudioSource;
 import org.webrtc.AudioTrack;
 import org.webrtc.Camera1Capturer;
-import org.webrtc.Camera1Enumerator;
-import org.webrtc.CameraEnumerator;
-import org.webrtc.DefaultVideoDecoderFactory;
-import org.webrtc.DefaultVideoEncoderFactory;
+import org.webrtc.DataChannel;
 import org.webrtc.EglBase;
 import org.webrtc.IceCandidate;
 import org.webrtc.MediaConstraints;
 import org.webrtc.MediaStream;
+import org.webrtc.MediaStreamTrack;
 import org.webrtc.PeerConnection;
 import org.webrtc.PeerConnectionFactory;
-import org.webrtc.SessionDescription;
-import org.webrtc.SurfaceTextureHelper;
+import org.webrtc.RtpReceiver;
+import org.webrtc.RtpTransceiver;
 import org.webrtc.SurfaceViewRenderer;
-import org.webrtc.VideoCapturer;
-import org.webrtc.VideoSource;
 import org.webrtc.VideoTrack;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collections;
 import java.util.List;
-
-public class MainActivity extends AppCompatActivity implements SignalingClient.Callback {
+import java.util.concurrent.ConcurrentHashMap;
+
+public class MainActivity extends AppCompatActivity implements SignalingClient.Callback, NegotiationController.PeerHost {
+    // 打开后通过 RtpTransceiver 发布三层联播编码
+    private static final boolean SIMULCAST = false;
+    // 打开后不再与每个对端建立连接, 只向 SFU 发布一路上行(联播)并通过一路下行接收所有人的画面
+    private static final boolean SFU = false;
+    // 打开后只使用 TURN 中继候选, 不向对端暴露本机和公网地址
+    private static final boolean RELAY_ONLY = false;
+    // 打开后把本地画面和每一路远端画面分别录成分段的 MP4, 存在 files/recordings 下
+    private static final boolean RECORD = false;
+    // 每一路录像占用一个硬件编码器实例, 设备能同时打开的实例很少; 用完之后通话自己的编码器会初始化失败并被 CodecPolicy 降级,
+    // 所以远端画面最多同时录这么多路, 其余的不录
+    private static final int MAX_REMOTE_RECORDINGS = 2;
+    // 屏幕共享默认替换摄像头画面, 不需要重协商; 打开后作为第二路视频发送, 对端在单独的格子里显示
+    // SFU 每个发布端只转发一路视频, 总是替换
+    private static final boolean SHARE_AS_SECOND_TRACK = false;
+    // 请求的摄像头采集格式(竖屏)
+    private static final int CAPTURE_WIDTH = 480;
+    private static final int CAPTURE_HEIGHT = 640;
+    private static final int CAPTURE_FPS = 30;
+    // DISCONNECTED 经常能自己恢复, 等这么久还没恢复才 ICE restart
+    private static final long ICE_DISCONNECTED_GRACE_MS = 2000;
+    // 连续 ICE restart 这么多次仍未恢复, 放弃该对端
+    private static final int MAX_ICE_RESTARTS = 5;
+
+    EglBase eglBase;
     EglBase.Context eglBaseContext;
     PeerConnectionFactory peerConnectionFactory;
     SurfaceViewRenderer localView;
     MediaStream mediaStream;
-    //存储ICE服务器
-    List<PeerConnection.IceServer> iceServers;
+    //STUN/TURN 服务器和 ICE 策略, 信令服务器下发的临时凭证会替换 res/raw 里的默认配置
+    IceConfigManager iceConfigManager;
 
-    //peerConnectionHashMap存储其他客户端的socketId和对应的PeerConnection
-    HashMap<String, PeerConnection> peerConnectionHashMap;
+    //sessionManager存储其他客户端的socketId和对应的PeerConnection, 并负责释放所有 native 对象
+    PeerSessionManager sessionManager;
     //视频数据在 native 层处理完毕后会抛出到 VideoRenderer.Callbacks#renderFrame 回调中，在这里也就是 SurfaceViewRenderer#renderFrame，而 SurfaceViewRenderer 又会把数据交给 EglRenderer 进行渲染
-    //remoteViews 三个远端客户端画面的渲染
-    SurfaceViewRenderer[] remoteViews;
-    int remoteViewsIndex = 0;
+    //rendererPool 按socketId为每个远端客户端分配渲染器
+    RemoteRendererPool rendererPool;
+    //信令回调按socketId串行执行, 不同对端并行建立连接, 不占用 UI 线程
+    SignalingDispatcher dispatcher = new SignalingDispatcher();
+    //每个对端的 offer/answer 状态机, 连接由本 Activity 创建和释放
+    NegotiationController negotiation = new NegotiationController(this, dispatcher);
+    //定时获取每个对端的统计数据, 由 bitrateController 调整编码参数和采集格式
+    StatsPoller statsPoller;
+    BitrateController bitrateController;
+    //按实测编码耗时排序视频编码, 优先硬件编码
+    CodecPolicy codecPolicy;
+    //音频设备模块和 Opus 参数, 以及从统计数据估计的音频延迟
+    AudioPipeline audioPipeline;
+    AudioLatencyMonitor audioLatencyMonitor;
+    //每个对端的连接质量, 可显示在画面上, 退出时导出为 NDJSON
+    StatsCollector statsCollector;
+    StatsOverlay statsOverlay;
+    //RECORD 打开时每一路画面的录像, 本地画面的 key 为 "local", 远端为socketId
+    ConcurrentHashMap<String, VideoRecorder> recorders = new ConcurrentHashMap<>();
+    //屏幕共享, 以及每个对端发来的第二路屏幕画面的 RtpReceiver id
+    ScreenShare screenShare;
+    Button shareButton;
+    ConcurrentHashMap<String, String> screenReceivers = new ConcurrentHashMap<>();
+    Handler mainHandler = new Handler(Looper.getMainLooper());
+    //默认网络变化(例如 Wi-Fi 切到 4G)时立即重连信令, 媒体由 ICE restart 恢复
+    ConnectivityManager.NetworkCallback networkCallback;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -57,119 +109,425 @@ public class MainActivity extends AppCompatActivity implements SignalingClient.C
         // create PeerConnectionFactory
 
         // 此处初始化类成员
-        peerConnectionHashMap = new HashMap<>();
-        iceServers = new ArrayList<>();
-        iceServers.add(PeerConnection.IceServer.builder("turn:bocode.xyz:3478").setUsername("bo_turn").setPassword("123654").createIceServer());
+        iceConfigManager = IceConfigManager.fromResource(this, R.raw.ice_servers, () -> SignalingClient.get().requestIceConfig());
+        iceConfigManager.setRelayOnly(RELAY_ONLY);
 
-        //创建EglBase对象, WebRTC 把 EGL 的操作封装在了 EglBase 中，并针对 EGL10 和 EGL14 提供了不同的实现
-        eglBaseContext = EglBase.create().getEglBaseContext();
+        // 只有 adb shell setprop log.tag.boSetup DEBUG 之后才输出每个回调的日志
+        CallSetupRecorder.get().setLogEnabled(Log.isLoggable("boSetup", Log.DEBUG));
+        CallSetupRecorder.get().setTraceDir(new File(getFilesDir(), "call_traces"));
 
-        // create PeerConnectionFactory
-        // PeerConnectionFactory负责创建PeerConnection、VideoTrack、AudioTrack等重要对象
-        PeerConnectionFactory.initialize(PeerConnectionFactory.
-                InitializationOptions.
-                builder(this).
-                createInitializationOptions());
-        PeerConnectionFactory.Options options = new PeerConnectionFactory.Options();
-        DefaultVideoEncoderFactory defaultVideoEncoderFactory = new DefaultVideoEncoderFactory(eglBaseContext,
-                true,
-                true);
-        DefaultVideoDecoderFactory defaultVideoDecoderFactory = new DefaultVideoDecoderFactory(eglBaseContext);
-        peerConnectionFactory = PeerConnectionFactory.
-                builder().
-                setOptions(options).
-                setVideoEncoderFactory(defaultVideoEncoderFactory).
-                setVideoDecoderFactory(defaultVideoDecoderFactory).
-                createPeerConnectionFactory();
-
-        // SurfaceTextureHelper 负责创建 SurfaceTexture，接收 SurfaceTexture 数据，相机线程的管理
-        SurfaceTextureHelper surfaceTextureHelper = SurfaceTextureHelper.create("CaptureThread", eglBaseContext);
-        // create VideoCapturer
-        // 获取前置摄像头
-        VideoCapturer videoCapturer = createCameraCapturer(true);
-        VideoSource videoSource = peerConnectionFactory.createVideoSource(videoCapturer.isScreencast());
-        videoCapturer.initialize(surfaceTextureHelper, getApplicationContext(), videoSource.getCapturerObserver());
-        videoCapturer.startCapture(480, 640, 30);
+        // EGL 和 PeerConnectionFactory 在进程内共享, 在后台初始化, 旋转屏幕后直接复用
+        MediaEngine.get(this).whenReady(this::onEngineReady);
+    }
+
+    private void onEngineReady(MediaEngine engine) {
+        if (isDestroyed()) {
+            return;
+        }
+        eglBase = engine.getEglBase();
+        eglBaseContext = engine.getEglBaseContext();
+        peerConnectionFactory = engine.getPeerConnectionFactory();
+        codecPolicy = engine.getCodecPolicy();
+        audioPipeline = engine.getAudioPipeline();
 
         localView = findViewById(R.id.localView);
         localView.setMirror(true);
+        // 本地画面悬浮在远端画面之上
+        localView.setZOrderMediaOverlay(true);
         localView.init(eglBaseContext, null);
 
-        // create VideoTrack
-        VideoTrack videoTrack = peerConnectionFactory.createVideoTrack("100", videoSource);
-//        // display in localView
-        videoTrack.addSink(localView);
-
-        // SurfaceViewRenderer 数组
-        remoteViews = new SurfaceViewRenderer[]{
-                findViewById(R.id.remoteView),
-                findViewById(R.id.remoteView2),
-                findViewById(R.id.remoteView3)
-        };
+        rendererPool = new RemoteRendererPool(findViewById(R.id.remoteContainer), eglBaseContext);
+        // 把每路远端画面的显示大小告诉对应的发布端, 发布端据此选择编码档位
+        // SFU 模式下由 SFU 按订阅端选择联播层, 不直接通知发布端
+        if (!SFU) {
+            rendererPool.setTileListener((tileId, width, height) -> {
+                // 屏幕画面不按显示大小降档
+                if (!ScreenShare.isScreenTile(tileId)) {
+                    SignalingClient.get().sendLayerRequest(width, height, tileId);
+                }
+            });
+        }
+        rendererPool.setFirstFrameListener(socketId ->
+                CallSetupRecorder.get().mark(socketId, CallSetupRecorder.Stage.FIRST_FRAME));
+        sessionManager = new PeerSessionManager(eglBase, peerConnectionFactory, rendererPool);
 
-        for (SurfaceViewRenderer remoteView : remoteViews){
-            remoteView.setMirror(false);
-            remoteView.init(eglBaseContext, null);
+        // create VideoCapturer
+        // 获取前置摄像头, 没有时用后置摄像头, Camera2 纹理输出, 选择最接近 480x640@30 的格式
+        CameraCapturerFactory.Selection camera = CameraCapturerFactory.create(getApplicationContext(), true,
+                CAPTURE_WIDTH, CAPTURE_HEIGHT, CAPTURE_FPS);
+        if (camera == null) {
+            camera = CameraCapturerFactory.create(getApplicationContext(), false, CAPTURE_WIDTH, CAPTURE_HEIGHT, CAPTURE_FPS);
+        }
+        if (camera != null) {
+            mediaStream = sessionManager.startLocalVideo(getApplicationContext(), camera.capturer, camera.width, camera.height, camera.fps);
+            // 摄像头没有请求的格式时, 在 GPU 上裁剪到请求的宽高比并缩小到请求的大小, 编码器不用再缩放; 宽高按横向的 buffer 方向
+            // 格式一致时不加滤镜, 纹理帧直接交给编码器
+            if (camera.width != CAPTURE_WIDTH || camera.height != CAPTURE_HEIGHT) {
+                sessionManager.getFramePipeline().addFilter(new CropScaleFilter(Math.max(CAPTURE_WIDTH, CAPTURE_HEIGHT),
+                        Math.min(CAPTURE_WIDTH, CAPTURE_HEIGHT)));
+            }
+        } else {
+            // 没有可用的摄像头, 只发送音频, 仍然接收对端的画面
+            Log.w("bo", "no camera, receive-only video");
+            mediaStream = sessionManager.startLocalStream();
+        }
+//        // display in localView
+        sessionManager.setLocalSink(localView);
+        if (RECORD && camera != null) {
+            VideoRecorder.Config config = new VideoRecorder.Config();
+            // 宽高按横向的 buffer 方向, 竖屏时画面两边补黑
+            config.width = Math.max(camera.width, camera.height);
+            config.height = Math.min(camera.width, camera.height);
+            startRecording("local", sessionManager.getVideoTrack(), config);
         }
 
-//        AudioSource audioSource = peerConnectionFactory.createAudioSource(new MediaConstraints());
-//        AudioTrack audioTrack = peerConnectionFactory.createAudioTrack("101", audioSource);
+        statsPoller = new StatsPoller(sessionManager, 2000);
+        // 没有摄像头时不会有视频发送端, 按请求的格式创建即可
+        bitrateController = camera != null
+                ? new BitrateController(sessionManager, camera.width, camera.height, camera.fps)
+                : new BitrateController(sessionManager, CAPTURE_WIDTH, CAPTURE_HEIGHT, CAPTURE_FPS);
+        statsPoller.addListener(bitrateController);
+        statsPoller.addListener(codecPolicy);
+        codecPolicy.addListener(codecPolicyListener);
+        audioLatencyMonitor = new AudioLatencyMonitor(audioPipeline);
+        statsPoller.addListener(audioLatencyMonitor);
+        statsCollector = new StatsCollector();
+        // adb shell setprop log.tag.boStats DEBUG 之后每个采样输出一条日志
+        statsCollector.setLogEnabled(Log.isLoggable("boStats", Log.DEBUG));
+        statsOverlay = new StatsOverlay(findViewById(R.id.statsOverlay));
+        statsCollector.addListener(statsOverlay);
+        statsPoller.addListener(statsCollector);
+        localView.setOnLongClickListener(v -> {
+            statsOverlay.toggle();
+            return true;
+        });
+        statsPoller.start();
+
+        screenShare = new ScreenShare(this, eglBaseContext, peerConnectionFactory, sessionManager, new ScreenShare.Config());
+        screenShare.setListener(this::stopScreenShare);
+        shareButton = findViewById(R.id.shareButton);
+        shareButton.setOnClickListener(v -> {
+            if (screenShare.isSharing()) {
+                stopScreenShare();
+            } else {
+                MediaProjectionManager projectionManager = getSystemService(MediaProjectionManager.class);
+                startActivityForResult(projectionManager.createScreenCaptureIntent(), REQUEST_SCREEN_CAPTURE);
+            }
+        });
+
+        // 通话预设: 设备有硬件回声消除/降噪时由 AudioPipeline 决定是否还需要软件处理
+        sessionManager.startLocalAudio(audioPipeline.createConstraints(AudioPipeline.Preset.VOICE));
 
-        mediaStream = peerConnectionFactory.createLocalMediaStream("mediaStream");
-        mediaStream.addTrack(videoTrack);
-//        mediaStream.addTrack(audioTrack);
+        // 新的凭证只用于之后的候选收集(网络变化, ICE restart), 已经建立的中继分配不受影响
+        iceConfigManager.addListener(config -> sessionManager.forEachPeer((socketId, peerConnection) -> {
+            if (!peerConnection.setConfiguration(iceConfigManager.createRtcConfiguration())) {
+                Log.e("bo", "setConfiguration failed for " + socketId);
+            }
+        }));
 
         SignalingClient.get().init(this);
+        registerNetworkCallback();
     }
 
-    // 获取或创建其他客户端的peerConnection
-    private synchronized PeerConnection getOrCreatePeerConnection(String socketId){
-        PeerConnection peerConnection = peerConnectionHashMap.get(socketId);
-        if (peerConnection != null){
-            return peerConnection;
-        }
-        peerConnection = peerConnectionFactory.createPeerConnection(iceServers, new PeerConnectionAdapter("PC" + socketId){
+    private void registerNetworkCallback() {
+        ConnectivityManager connectivityManager = getSystemService(ConnectivityManager.class);
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            private Network current;
+
+            @Override
+            public void onAvailable(Network network) {
+                // 注册时会先回调一次当前网络, 不需要重连
+                if (current != null && !current.equals(network)) {
+                    Log.d("bo", "default network changed " + current + " -> " + network);
+                    SignalingClient.get().onNetworkChanged();
+                }
+                current = network;
+            }
+        };
+        connectivityManager.registerDefaultNetworkCallback(networkCallback);
+    }
+
+    @Override
+    public PeerNegotiator createNegotiator(String socketId) {
+        // SFU 的上行连接由本端发起 offer, 下行连接由 SFU 发起
+        boolean downstream = SignalingMessage.SFU_DOWNSTREAM.equals(socketId);
+        PeerNegotiator negotiator = SFU
+                ? new PeerNegotiator(socketId, downstream, SignalingClient.get())
+                : new PeerNegotiator(socketId, SignalingClient.get().id(), SignalingClient.get());
+        negotiator.addLocalSdpTransform(codecPolicy::applyTo);
+        negotiator.addLocalSdpTransform(audioPipeline::applyTo);
+        // 网状模式下两端都是本客户端, 重协商只发送变化的部分; SFU 不认识增量格式
+        negotiator.setSdpDeltas(!SFU);
+        return negotiator;
+    }
+
+    // 创建其他客户端的peerConnection, 只在 dispatcher 里该socketId的队列上调用
+    @Override
+    public SdpEndpoint createPeer(String socketId, PeerNegotiator negotiator){
+        CallSetupRecorder.get().mark(socketId, CallSetupRecorder.Stage.JOIN);
+        boolean downstream = SignalingMessage.SFU_DOWNSTREAM.equals(socketId);
+        // Unified Plan, max-bundle, 预收集候选, 网络变化后继续收集
+        PeerConnection.RTCConfiguration rtcConfig = iceConfigManager.createRtcConfiguration();
+        PeerConnection peerConnection = peerConnectionFactory.createPeerConnection(rtcConfig, new PeerConnectionAdapter("PC", socketId){
+            @Override
+            public void onSignalingChange(PeerConnection.SignalingState signalingState) {
+                super.onSignalingChange(signalingState);
+                negotiator.onSignalingChange(signalingState);
+                // 对端移除第二路屏幕画面只体现在协商结果里, 不会有回调
+                String receiverId = screenReceivers.get(socketId);
+                if (signalingState == PeerConnection.SignalingState.STABLE && receiverId != null) {
+                    PeerConnection pc = sessionManager.get(socketId);
+                    if (pc != null && !ScreenShare.isReceiving(pc, receiverId)) {
+                        screenReceivers.remove(socketId);
+                        stopRecording(ScreenShare.tileId(socketId));
+                        runOnUiThread(() -> rendererPool.release(ScreenShare.tileId(socketId)));
+                    }
+                }
+            }
+
+            @Override
+            public void onRenegotiationNeeded() {
+                super.onRenegotiationNeeded();
+                negotiator.onRenegotiationNeeded();
+            }
+
             @Override
             // RTCPeerConnection 的属性 onIceCandidate （是一个事件触发器 EventHandler） 能够让函数在事件icecandidate发生在实例  RTCPeerConnection 上时被调用。 只要本地代理ICE 需要通过信令服务器传递信息给其他对等端时就会触发。
             public void onIceCandidate(IceCandidate iceCandidate) {
                 super.onIceCandidate(iceCandidate);
+                CallSetupRecorder.get().mark(socketId, CallSetupRecorder.Stage.FIRST_LOCAL_CANDIDATE);
                 SignalingClient.get().sendIceCandidate(iceCandidate, socketId);
             }
 
             @Override
-            public void onAddStream(MediaStream mediaStream) {
-                super.onAddStream(mediaStream);
-                VideoTrack remoteVideoTrack = mediaStream.videoTracks.get(0);
-                runOnUiThread(()->{
-                    remoteVideoTrack.addSink(remoteViews[remoteViewsIndex++]);
-                });
+            public void onIceGatheringChange(PeerConnection.IceGatheringState iceGatheringState) {
+                super.onIceGatheringChange(iceGatheringState);
+                // 收集完成后不再等待窗口, 立即发出剩余的候选
+                if (iceGatheringState == PeerConnection.IceGatheringState.COMPLETE) {
+                    SignalingClient.get().flushIceCandidates(socketId);
+                }
+            }
+
+            @Override
+            public void onIceConnectionChange(PeerConnection.IceConnectionState iceConnectionState) {
+                super.onIceConnectionChange(iceConnectionState);
+                negotiator.onIceConnectionChange(iceConnectionState);
+                if (iceConnectionState == PeerConnection.IceConnectionState.CONNECTED) {
+                    CallSetupRecorder.get().mark(socketId, CallSetupRecorder.Stage.ICE_CONNECTED);
+                }
+                // 网络切换后连接会断开, 先尝试 ICE restart, 多次失败才释放该对端的所有资源
+                if (iceConnectionState == PeerConnection.IceConnectionState.DISCONNECTED) {
+                    mainHandler.postDelayed(() -> dispatcher.execute(socketId, () -> restartIce(socketId)),
+                            ICE_DISCONNECTED_GRACE_MS);
+                } else if (iceConnectionState == PeerConnection.IceConnectionState.FAILED) {
+                    dispatcher.execute(socketId, () -> restartIce(socketId));
+                }
+            }
+
+            @Override
+            public void onDataChannel(DataChannel dataChannel) {
+                super.onDataChannel(dataChannel);
+                // 三个主要通道是 negotiated 的, 不会走这里; 对端带内创建的通道也交给同一个对象管理
+                PeerDataChannels dataChannels = sessionManager.getDataChannels(socketId);
+                if (dataChannels != null) {
+                    dataChannels.onDataChannel(dataChannel);
+                }
+            }
+
+            @Override
+            public void onAddTrack(RtpReceiver rtpReceiver, MediaStream[] mediaStreams) {
+                super.onAddTrack(rtpReceiver, mediaStreams);
+                if (!(rtpReceiver.track() instanceof VideoTrack)) {
+                    return;
+                }
+                // 对端复用 transceiver 重新发送时会再次回调, 渲染器池会替换同一个格子里的轨道
+                VideoTrack remoteVideoTrack = (VideoTrack) rtpReceiver.track();
+                sessionManager.addRemoteTrack(socketId, remoteVideoTrack);
+                // SFU 的下行连接里每个发布端一路画面, 流id为发布端的socketId; 对端的第二路屏幕画面单独一个格子
+                String streamId = mediaStreams.length > 0 ? mediaStreams[0].getId() : null;
+                String tileId = downstream && streamId != null ? streamId : socketId;
+                if (!downstream && ScreenShare.STREAM_ID.equals(streamId)) {
+                    tileId = ScreenShare.tileId(socketId);
+                    screenReceivers.put(socketId, rtpReceiver.id());
+                }
+                if (RECORD) {
+                    startRemoteRecording(tileId, remoteVideoTrack);
+                }
+                String boundTileId = tileId;
+                runOnUiThread(() -> rendererPool.bind(boundTileId, remoteVideoTrack));
             }
         });
-        peerConnection.addStream(mediaStream);
-        peerConnectionHashMap.put(socketId, peerConnection);
-        return peerConnection;
+        List<String> streamIds = Collections.singletonList(mediaStream.getId());
+        VideoTrack localVideoTrack = sessionManager.getVideoTrack();
+        if (downstream) {
+            // 下行连接只接收, transceiver 由 SFU 的 offer 创建
+        } else if (localVideoTrack == null) {
+            // 没有摄像头: 网状模式下保留一个只接收的视频 m-line, 本端发起的 offer 也能收到对端画面
+            if (!SFU) {
+                peerConnection.addTransceiver(MediaStreamTrack.MediaType.MEDIA_TYPE_VIDEO,
+                        new RtpTransceiver.RtpTransceiverInit(RtpTransceiver.RtpTransceiverDirection.RECV_ONLY));
+            }
+        } else if (SFU) {
+            // 只有一路上行, 发布三层联播, 由 SFU 为每个订阅端选择
+            peerConnection.addTransceiver(localVideoTrack, new RtpTransceiver.RtpTransceiverInit(
+                    RtpTransceiver.RtpTransceiverDirection.SEND_ONLY,
+                    streamIds,
+                    Simulcast.createSendEncodings()));
+        } else if (SIMULCAST) {
+            peerConnection.addTransceiver(localVideoTrack, new RtpTransceiver.RtpTransceiverInit(
+                    RtpTransceiver.RtpTransceiverDirection.SEND_RECV,
+                    streamIds,
+                    Simulcast.createSendEncodings()));
+        } else {
+            PeerNegotiator.attachTrack(peerConnection, localVideoTrack, streamIds);
+        }
+        // SFU 只转发视频, 音频只在直连时发送
+        if (!SFU) {
+            PeerNegotiator.attachTrack(peerConnection, sessionManager.getAudioTrack(), streamIds);
+        }
+        sessionManager.put(socketId, peerConnection);
+        // negotiated 的数据通道在第一次 offer 之前创建, 包含在同一次协商里; SFU 不转发数据通道
+        if (!SFU) {
+            sessionManager.setDataChannels(socketId, new PeerDataChannels(socketId, peerConnection, dataChannelListener));
+        }
+        // 共享期间加入的对端也收到屏幕画面
+        screenShare.attachPeer(socketId);
+        return SdpEndpoint.wrap(peerConnection);
     }
 
-    // isFront==true 获取前置摄像头, 反之获取后置摄像头
-    private VideoCapturer createCameraCapturer(boolean isFront){
-        Camera1Enumerator enumerator = new Camera1Enumerator(false);
-        final String[] deviceNames = enumerator.getDeviceNames();
+    // 硬件编码器出错降级后, 与所有对端重新协商, 让新的编码顺序生效
+    private final CodecPolicy.Listener codecPolicyListener = codecName -> negotiation.renegotiateAll();
 
-        // First, try to find front facing cammera
-        for (String deviceName : deviceNames){
-            if (isFront ? enumerator.isFrontFacing(deviceName) : enumerator.isBackFacing(deviceName)){
-                VideoCapturer videoCapturer = enumerator.createCapturer(deviceName, null);
+    private final PeerDataChannels.Listener dataChannelListener = new PeerDataChannels.Listener() {
+        @Override
+        public void onChannelStateChange(String socketId, String label, DataChannel.State state) {
+        }
 
-                if (videoCapturer != null){
-                    return videoCapturer;
-                }
+        @Override
+        public void onMessage(String socketId, String label, ByteBuffer data, boolean binary) {
+            if (!binary) {
+                Log.d("boDataChannel", socketId + " " + label + ": " + Charset.forName("UTF-8").decode(data));
             }
         }
 
-        return null;
+        @Override
+        public void onBulkStart(String socketId, int transferId, long totalBytes) {
+            Log.d("boDataChannel", socketId + " bulk " + transferId + " start " + totalBytes + " bytes");
+        }
+
+        @Override
+        public void onBulkChunk(String socketId, int transferId, ByteBuffer chunk, long offset) {
+        }
+
+        @Override
+        public void onBulkComplete(String socketId, int transferId) {
+            Log.d("boDataChannel", socketId + " bulk " + transferId + " complete");
+        }
+    };
+
+    // 在 dispatcher 里该socketId的队列上调用
+    private void restartIce(String socketId) {
+        PeerNegotiator negotiator = negotiation.get(socketId);
+        if (negotiator == null || !negotiator.needsIceRestart()) {
+            return;
+        }
+        if (negotiator.getIceRestartCount() >= MAX_ICE_RESTARTS) {
+            Log.e("bo", "ice restart gave up " + socketId);
+            negotiation.remove(socketId);
+            return;
+        }
+        negotiator.restartIce();
+    }
+
+    @Override
+    public void disposePeer(String socketId) {
+        CallSetupRecorder.get().finish(socketId);
+        codecPolicy.removePeer(socketId);
+        bitrateController.removePeer(socketId);
+        audioLatencyMonitor.removePeer(socketId);
+        statsCollector.removePeer(socketId);
+        statsOverlay.removePeer(socketId);
+        stopRecording(socketId);
+        stopRecording(ScreenShare.tileId(socketId));
+        if (screenReceivers.remove(socketId) != null) {
+            runOnUiThread(() -> rendererPool.release(ScreenShare.tileId(socketId)));
+        }
+        sessionManager.removePeer(socketId);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode != REQUEST_SCREEN_CAPTURE || resultCode != RESULT_OK || screenShare == null) {
+            return;
+        }
+        ScreenShare.Mode mode = SHARE_AS_SECOND_TRACK && !SFU ? ScreenShare.Mode.SECOND_TRACK : ScreenShare.Mode.REPLACE;
+        // 前台服务启动之后才能开始采集
+        ScreenShareService.start(this, () -> {
+            if (isDestroyed()) {
+                ScreenShareService.stop(this);
+                return;
+            }
+            if (screenShare.isSharing()) {
+                return;
+            }
+            screenShare.start(data, mode);
+            // 摄像头暂停时本地画面显示正在共享的屏幕
+            if (mode == ScreenShare.Mode.REPLACE) {
+                sessionManager.setLocalSink(null);
+                localView.setMirror(false);
+                screenShare.getVideoTrack().addSink(localView);
+            }
+            shareButton.setText(R.string.stop_share);
+        });
+    }
+
+    private void stopScreenShare() {
+        VideoTrack track = screenShare.getVideoTrack();
+        if (track != null) {
+            track.removeSink(localView);
+        }
+        screenShare.stop();
+        // 恢复本地摄像头画面
+        ScreenShareService.stop(this);
+        localView.setMirror(true);
+        sessionManager.setLocalSink(localView);
+        shareButton.setText(R.string.share_screen);
+    }
+
+    private void startRecording(String key, VideoTrack track, VideoRecorder.Config config) {
+        VideoRecorder recorder = new VideoRecorder(eglBaseContext, new File(getFilesDir(), "recordings"),
+                key + "-" + System.currentTimeMillis(), config, file -> Log.d("bo", "recorded " + file));
+        // 对端重新发送时同一个socketId会再次回调, 换成新的轨道
+        stopRecording(key);
+        recorders.put(key, recorder);
+        recorder.start(track);
+    }
+
+    // 同一个 key 换轨道时替换原来的录像, 不占新的名额
+    private void startRemoteRecording(String key, VideoTrack track) {
+        int remote = 0;
+        for (String recording : recorders.keySet()) {
+            if (!"local".equals(recording) && !key.equals(recording)) {
+                remote++;
+            }
+        }
+        if (remote >= MAX_REMOTE_RECORDINGS) {
+            Log.w("bo", "skip recording " + key + ", already recording " + remote + " remote tracks");
+            return;
+        }
+        startRecording(key, track, new VideoRecorder.Config());
+    }
+
+    private void stopRecording(String key) {
+        VideoRecorder recorder = recorders.remove(key);
+        if (recorder != null) {
+            recorder.stop();
+        }
     }
 
     private static final int REQUEST_ALL = 1;
+    private static final int REQUEST_SCREEN_CAPTURE = 2;
 
     private static String[] PERMISSIONS_ALL = {
             "android.permission.CAMERA",
@@ -201,74 +559,139 @@ public class MainActivity extends AppCompatActivity implements SignalingClient.C
 
     @Override
     public void onCreateRoom() {
+        // 自己是房间里的第一个人, 清理上一次留下的对端
+        negotiation.disconnectAll();
+        sessionManager.removeAllPeers();
+        iceConfigManager.refresh();
+        if (SFU) {
+            startSfu();
+        }
+    }
+
+    // 加入房间后向 SFU 发布本地画面并订阅其他人
+    private void startSfu() {
+        SignalingClient.get().publish();
+        negotiation.connect(SignalingMessage.SFU_UPSTREAM);
+        SignalingClient.get().subscribe();
+    }
 
+    private static boolean isSfuEndpoint(String socketId) {
+        return SignalingMessage.SFU_UPSTREAM.equals(socketId) || SignalingMessage.SFU_DOWNSTREAM.equals(socketId);
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        dispatcher.shutdown();
+        mainHandler.removeCallbacksAndMessages(null);
+        if (networkCallback != null) {
+            getSystemService(ConnectivityManager.class).unregisterNetworkCallback(networkCallback);
+        }
+        iceConfigManager.release();
+        // 引擎还没就绪时 Activity 就被销毁, 只创建了 localView
+        if (sessionManager == null) {
+            return;
+        }
         SignalingClient.get().destroy();
+        statsPoller.stop();
+        codecPolicy.removeListener(codecPolicyListener);
+        CallSetupRecorder.get().exportHistograms();
+        statsCollector.export(new File(getFilesDir(), "stats/stats-" + System.currentTimeMillis() + ".ndjson"));
+        if (screenShare.isSharing()) {
+            stopScreenShare();
+        }
+        // 录像在释放轨道之前从轨道上摘下, 已经排队的帧写完后关闭文件
+        for (String key : recorders.keySet()) {
+            stopRecording(key);
+        }
+        // 先摘掉所有渲染器, 再释放 PeerConnection/轨道/采集器; EGL 和工厂由 MediaEngine 保留给下一个 Activity
+        rendererPool.releaseAll();
+        sessionManager.release();
+        localView.release();
     }
 
     @Override
     public void onPeerJoined(String socketId) {
-        PeerConnection peerConnection = getOrCreatePeerConnection(socketId);
-        peerConnection.createOffer(new SdpAdapter("createOfferSdp" + socketId){
-            @Override
-            public void onCreateSuccess(SessionDescription sessionDescription) {
-                super.onCreateSuccess(sessionDescription);
-                //设置本地的
-                peerConnection.setLocalDescription(new SdpAdapter("setLocalSdp" + socketId), sessionDescription);
-                // 向加入房间的用户发送SDP
-                SignalingClient.get().sendSessionDescription(sessionDescription, socketId);
-            }
-        }, new MediaConstraints());
+        // SFU 模式下不与其他客户端直接连接
+        if (SFU) {
+            return;
+        }
+        CallSetupRecorder.get().mark(socketId, CallSetupRecorder.Stage.JOIN);
+        // 加入本地轨道会触发 onRenegotiationNeeded, 由状态机决定本端发起 offer 还是请求对端发起
+        negotiation.connect(socketId);
     }
 
     @Override
     public void onSelfJoined() {
-
+        // 断线后没能 resume, 以新的id重新加入: 旧的连接对其他人已经没有对应的客户端, 全部丢掉, 由房间里的人重新发起
+        negotiation.disconnectAll();
+        iceConfigManager.refresh();
+        if (SFU) {
+            startSfu();
+        }
     }
 
     @Override
     public void onPeerLeave(String msg) {
+        // SFU 模式下其他客户端离开由 SFU 通过 unpublish 通知
+        if (SFU && !isSfuEndpoint(msg)) {
+            return;
+        }
+        // msg 为离开的客户端的socketId, 释放它的渲染器和 PeerConnection
+        negotiation.disconnect(msg);
+    }
 
+    @Override
+    public void onOfferReceived(SignalingMessage message) {
+        negotiation.onRemoteDescription(message);
     }
 
     @Override
-    public void onOfferReceived(JSONObject data) {
-        runOnUiThread(() -> {
-            String socketId = data.optString("from");
-            PeerConnection peerConnection = getOrCreatePeerConnection(socketId);
-            peerConnection.setRemoteDescription(new SdpAdapter("setRemoteSdp" + socketId),
-                    new SessionDescription(SessionDescription.Type.OFFER, data.optString("sdp")));
-            peerConnection.createAnswer(new SdpAdapter("localAnswerSdp") {
-                @Override
-                public void onCreateSuccess(SessionDescription sdp) {
-                    super.onCreateSuccess(sdp);
-                    peerConnection.setLocalDescription(new SdpAdapter("setLocalSdp"), sdp);
-                    SignalingClient.get().sendSessionDescription(sdp, socketId);
-                }
-            }, new MediaConstraints());
-        });
+    public void onAnswerReceived(SignalingMessage message) {
+        negotiation.onRemoteDescription(message);
+    }
+
+    @Override
+    public void onIceCandidateReceived(SignalingMessage message) {
+        negotiation.onIceCandidates(message);
+    }
+
+    @Override
+    public void onNegotiationRequested(SignalingMessage message) {
+        negotiation.onNegotiationRequested(message);
+    }
+
+    @Override
+    public void onIceRestartRequested(SignalingMessage message) {
+        negotiation.onIceRestartRequested(message);
+    }
+
+    @Override
+    public void onResyncRequested(SignalingMessage message) {
+        negotiation.onResyncRequested(message);
+    }
+
+    @Override
+    public void onIceConfig(SignalingMessage message) {
+        iceConfigManager.onSignalingConfig(message.sdp);
+    }
+
+    @Override
+    public void onPublished(SignalingMessage message) {
+        // 画面随后通过下行连接的 onAddTrack 到达
+        Log.d("bo", "published " + message.from);
     }
 
     @Override
-    public void onAnswerReceived(JSONObject data) {
-        String socketId = data.optString("from");
-        PeerConnection peerConnection = getOrCreatePeerConnection(socketId);
-        peerConnection.setRemoteDescription(new SdpAdapter("setRemoteSdp" + socketId),
-                new SessionDescription(SessionDescription.Type.ANSWER, data.optString("sdp")));
+    public void onUnpublished(SignalingMessage message) {
+        // SFU 的远端录像按发布端的流id保存
+        stopRecording(message.from);
+        runOnUiThread(() -> rendererPool.release(message.from));
     }
 
     @Override
-    public void onIceCandidateReceived(JSONObject data) {
-        String socketId = data.optString("from");
-        PeerConnection peerConnection = getOrCreatePeerConnection(socketId);
-        peerConnection.addIceCandidate(new IceCandidate(
-                data.optString("id"),
-                data.optInt("label"),
-                data.optString("candidate")
-        ));
+    public void onLayerRequested(SignalingMessage message) {
+        int[] size = message.layerSize();
+        dispatcher.execute(message.from, () -> bitrateController.setTileSize(message.from, size[0], size[1]));
     }
 }
@@ -0,0 +1,140 @@
+package com.bo.webrtc_android;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.webrtc.DefaultVideoDecoderFactory;
+import org.webrtc.EglBase;
+import org.webrtc.PeerConnectionFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// 进程级别的 WebRTC 引擎: 共享的 EGL 上下文和 PeerConnectionFactory
+// 在后台线程初始化, Application 启动时就可以预热; Activity 旋转或重新进入时直接复用, 不再重建也不会泄漏 EGL 上下文
+public class MediaEngine {
+    private static final String TAG = "boMediaEngine";
+
+    public interface ReadyCallback {
+        // 在主线程回调, Activity 可能已经销毁, 由调用者自己判断
+        void onReady(MediaEngine engine);
+    }
+
+    private static MediaEngine instance;
+
+    private final Context context;
+    private final ExecutorService initExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<ReadyCallback> callbacks = new ArrayList<>();
+    private boolean started;
+    private volatile boolean ready;
+
+    private EglBase eglBase;
+    private PeerConnectionFactory peerConnectionFactory;
+    private CodecPolicy codecPolicy;
+    private AudioPipeline audioPipeline;
+
+    private MediaEngine(Context context){
+        this.context = context.getApplicationContext();
+    }
+
+    public static synchronized MediaEngine get(Context context) {
+        if (instance == null) {
+            instance = new MediaEngine(context);
+        }
+        return instance;
+    }
+
+    // 提前在后台初始化, 重复调用没有影响
+    public synchronized void prewarm() {
+        if (started) {
+            return;
+        }
+        started = true;
+        initExecutor.execute(this::initialize);
+    }
+
+    // 初始化完成后在主线程回调, 已经完成时也会异步回调, 调用者不需要区分两种情况
+    public void whenReady(ReadyCallback callback) {
+        synchronized (this) {
+            if (!ready) {
+                callbacks.add(callback);
+                prewarm();
+                return;
+            }
+        }
+        mainHandler.post(() -> callback.onReady(this));
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    private void initialize() {
+        long start = SystemClock.elapsedRealtime();
+        //创建EglBase对象, WebRTC 把 EGL 的操作封装在了 EglBase 中，并针对 EGL10 和 EGL14 提供了不同的实现
+        EglBase egl = EglBase.create();
+
+        // PeerConnectionFactory负责创建PeerConnection、VideoTrack、AudioTrack等重要对象
+        PeerConnectionFactory.initialize(PeerConnectionFactory.
+                InitializationOptions.
+                builder(context).
+                createInitializationOptions());
+        PeerConnectionFactory.Options options = new PeerConnectionFactory.Options();
+        // 编码器工厂由 CodecPolicy 提供, 监控硬件编码器是否出错
+        CodecPolicy policy = new CodecPolicy(context, egl.getEglBaseContext());
+        // 音频设备模块在工厂之前创建, 整个进程共用一个
+        AudioPipeline audio = new AudioPipeline(context);
+        DefaultVideoDecoderFactory defaultVideoDecoderFactory = new DefaultVideoDecoderFactory(egl.getEglBaseContext());
+        PeerConnectionFactory factory = PeerConnectionFactory.
+                builder().
+                setOptions(options).
+                setAudioDeviceModule(audio.getAudioDeviceModule()).
+                setVideoEncoderFactory(policy.createEncoderFactory()).
+                setVideoDecoderFactory(defaultVideoDecoderFactory).
+                createPeerConnectionFactory();
+
+        List<ReadyCallback> pending;
+        synchronized (this) {
+            eglBase = egl;
+            peerConnectionFactory = factory;
+            codecPolicy = policy;
+            audioPipeline = audio;
+            ready = true;
+            pending = new ArrayList<>(callbacks);
+            callbacks.clear();
+        }
+        Log.d(TAG, "initialized in " + (SystemClock.elapsedRealtime() - start) + "ms");
+        mainHandler.post(() -> {
+            for (ReadyCallback callback : pending) {
+                callback.onReady(this);
+            }
+        });
+    }
+
+    // 以下方法只能在 whenReady 回调之后调用
+    public EglBase getEglBase() {
+        return eglBase;
+    }
+
+    public EglBase.Context getEglBaseContext() {
+        return eglBase.getEglBaseContext();
+    }
+
+    public PeerConnectionFactory getPeerConnectionFactory() {
+        return peerConnectionFactory;
+    }
+
+    public CodecPolicy getCodecPolicy() {
+        return codecPolicy;
+    }
+
+    public AudioPipeline getAudioPipeline() {
+        return audioPipeline;
+    }
+}
@@ -0,0 +1,188 @@
+package com.bo.webrtc_android;
+
+import android.util.Log;
+
+import org.webrtc.IceCandidate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// 房间级别的协商: 按socketId管理每个对端的 PeerNegotiator, 把收到的信令消息按对端串行地交给它
+// 创建和释放连接由 PeerHost 负责, Activity 里是真正的 PeerConnection, JVM 测试里是假的实现
+// 只有 connect、offer 和 polite 一方的连接请求(negotiate)会创建连接; 未知对端的 answer/candidate 直接丢弃,
+// 离开房间的对端迟到的消息也不会再为它创建连接
+public class NegotiationController {
+    private static final String TAG = "boNegotiation";
+
+    public interface PeerHost {
+        // 为对端创建状态机, 决定 polite/impolite
+        PeerNegotiator createNegotiator(String socketId);
+
+        // 创建连接并加入本地轨道, 在 dispatcher 里该socketId的队列上调用
+        SdpEndpoint createPeer(String socketId, PeerNegotiator negotiator);
+
+        // 释放该对端的所有资源, 在 dispatcher 里该socketId的队列上调用
+        void disposePeer(String socketId);
+    }
+
+    private final PeerHost host;
+    private final SignalingDispatcher dispatcher;
+    private final ConcurrentHashMap<String, PeerNegotiator> negotiators = new ConcurrentHashMap<>();
+    // 已经离开房间的对端
+    private final Set<String> departed = ConcurrentHashMap.newKeySet();
+
+    public NegotiationController(PeerHost host, SignalingDispatcher dispatcher){
+        this.host = host;
+        this.dispatcher = dispatcher;
+    }
+
+    public SignalingDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    public PeerNegotiator get(String socketId) {
+        return negotiators.get(socketId);
+    }
+
+    public List<String> getPeerIds() {
+        return new ArrayList<>(negotiators.keySet());
+    }
+
+    public int getPeerCount() {
+        return negotiators.size();
+    }
+
+    // 获取或创建对端的状态机和连接, 只在 dispatcher 里该socketId的队列上调用
+    public PeerNegotiator getOrCreate(String socketId) {
+        PeerNegotiator negotiator = negotiators.get(socketId);
+        if (negotiator != null) {
+            return negotiator;
+        }
+        negotiator = host.createNegotiator(socketId);
+        SdpEndpoint endpoint = host.createPeer(socketId, negotiator);
+        negotiators.put(socketId, negotiator);
+        // 加入本地轨道触发的重协商在这里开始
+        negotiator.setEndpoint(endpoint);
+        return negotiator;
+    }
+
+    // 主动与对端建立连接, 由状态机决定本端发起 offer 还是请求对端发起
+    public void connect(String socketId) {
+        departed.remove(socketId);
+        dispatcher.execute(socketId, () -> getOrCreate(socketId));
+    }
+
+    // 对端离开房间, 排在该对端尚未处理完的消息之后释放
+    public void disconnect(String socketId) {
+        departed.add(socketId);
+        dispatcher.execute(socketId, () -> remove(socketId));
+    }
+
+    // 本端换了身份重新加入房间: 释放所有连接, 房间里的人会以新的身份重新连接过来
+    public void disconnectAll() {
+        departed.clear();
+        for (String socketId : negotiators.keySet()) {
+            dispatcher.execute(socketId, () -> remove(socketId));
+        }
+    }
+
+    // 只在 dispatcher 里该socketId的队列上调用
+    public void remove(String socketId) {
+        negotiators.remove(socketId);
+        host.disposePeer(socketId);
+    }
+
+    // 收到发给本端的协商消息, 其他类型的消息忽略
+    public void onMessage(SignalingMessage message) {
+        if (SignalingMessage.OFFER.equals(message.type) || SignalingMessage.ANSWER.equals(message.type)) {
+            onRemoteDescription(message);
+        } else if (SignalingMessage.CANDIDATE.equals(message.type)) {
+            onIceCandidates(message);
+        } else if (SignalingMessage.NEGOTIATE.equals(message.type)) {
+            onNegotiationRequested(message);
+        } else if (SignalingMessage.ICE_RESTART.equals(message.type)) {
+            onIceRestartRequested(message);
+        } else if (SignalingMessage.RESYNC.equals(message.type)) {
+            onResyncRequested(message);
+        }
+    }
+
+    // offer 可以来自还没有连接的对端, answer 只属于本端发出 offer 的连接
+    public void onRemoteDescription(SignalingMessage message) {
+        boolean offer = SignalingMessage.OFFER.equals(message.type);
+        dispatcher.execute(message.from, () -> {
+            PeerNegotiator negotiator = find(message, offer);
+            if (negotiator != null) {
+                negotiator.onRemoteDescription(message.toSessionDescription());
+            }
+        });
+    }
+
+    public void onIceCandidates(SignalingMessage message) {
+        dispatcher.execute(message.from, () -> {
+            PeerNegotiator negotiator = find(message, false);
+            if (negotiator == null) {
+                return;
+            }
+            // 单个候选和批量候选在解码时已统一为列表, 远端描述设置好之前到达的候选由 negotiator 暂存
+            for (IceCandidate iceCandidate : message.candidates) {
+                negotiator.addIceCandidate(iceCandidate);
+            }
+        });
+    }
+
+    // polite 一方不发 offer, 新加入房间时用 negotiate 请求本端发起连接
+    public void onNegotiationRequested(SignalingMessage message) {
+        dispatcher.execute(message.from, () -> {
+            PeerNegotiator negotiator = find(message, true);
+            if (negotiator != null) {
+                negotiator.onNegotiationRequested();
+            }
+        });
+    }
+
+    // 只在 dispatcher 里该socketId的队列上调用, create 为 false 或对端已经离开时只返回已有的连接
+    private PeerNegotiator find(SignalingMessage message, boolean create) {
+        if (create && !departed.contains(message.from)) {
+            return getOrCreate(message.from);
+        }
+        PeerNegotiator negotiator = negotiators.get(message.from);
+        if (negotiator == null) {
+            Log.d(TAG, "drop " + message.type + " from unknown peer " + message.from);
+        }
+        return negotiator;
+    }
+
+    public void onIceRestartRequested(SignalingMessage message) {
+        dispatcher.execute(message.from, () -> {
+            PeerNegotiator negotiator = negotiators.get(message.from);
+            if (negotiator != null) {
+                negotiator.onIceRestartRequested();
+            }
+        });
+    }
+
+    // 对端无法还原我们发出的 SDP 增量
+    public void onResyncRequested(SignalingMessage message) {
+        dispatcher.execute(message.from, () -> {
+            PeerNegotiator negotiator = negotiators.get(message.from);
+            if (negotiator != null) {
+                negotiator.onResyncRequested();
+            }
+        });
+    }
+
+    // 与所有对端重新协商, 例如编码顺序变化之后
+    public void renegotiateAll() {
+        for (String socketId : negotiators.keySet()) {
+            dispatcher.execute(socketId, () -> {
+                PeerNegotiator negotiator = negotiators.get(socketId);
+                if (negotiator != null) {
+                    negotiator.onRenegotiationNeeded();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.bo.webrtc_android;
+
+import android.util.Log;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+// 基于 TCP 长连接的信令传输, 每帧为 4 字节长度 + BinarySignalingCodec 编码的消息
+// 加入房间和房间事件也作为控制消息走同一条连接
+public class NioSignalingTransport implements SignalingTransport {
+    // 单帧最大长度, 防止异常数据导致分配过大的缓冲区
+    private static final int MAX_FRAME_SIZE = 1 << 20;
+
+    private final String host;
+    private final int port;
+    private final SignalingCodec codec = new BinarySignalingCodec();
+    private final Object writeLock = new Object();
+    private volatile SocketChannel channel;
+    private volatile String id;
+    private Thread readThread;
+    // 主动关闭或已经通知过断开
+    private volatile boolean closed;
+
+    public NioSignalingTransport(String host, int port){
+        this.host = host;
+        this.port = port;
+    }
+
+    @Override
+    public void connect(String room, Listener listener) {
+        open(room, null, listener);
+    }
+
+    @Override
+    public void resume(String room, String id, Listener listener) {
+        open(room, id, listener);
+    }
+
+    private void open(String room, String resumeId, Listener listener) {
+        readThread = new Thread(() -> {
+            try {
+                channel = SocketChannel.open(new InetSocketAddress(host, port));
+                channel.socket().setTcpNoDelay(true);
+                if (resumeId == null) {
+                    send(SignalingMessage.control(SignalingMessage.JOIN, null, room));
+                } else {
+                    send(SignalingMessage.control(SignalingMessage.RESUME, resumeId, room));
+                }
+                listener.onConnected();
+                readLoop(listener);
+            } catch (IOException e) {
+                if (!closed) {
+                    Log.e("bo", "signaling connection closed " + e);
+                    closed = true;
+                    listener.onDisconnected();
+                }
+            }
+        }, "NioSignaling");
+        readThread.start();
+    }
+
+    private void readLoop(Listener listener) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(4);
+        while (!Thread.currentThread().isInterrupted()) {
+            header.clear();
+            readFully(header);
+            int length = header.getInt(0);
+            if (length <= 0 || length > MAX_FRAME_SIZE) {
+                throw new IOException("bad frame length " + length);
+            }
+            ByteBuffer body = ByteBuffer.allocate(length);
+            readFully(body);
+            SignalingMessage message = codec.decode(body.array(), 0, length);
+            if (message == null) {
+                continue;
+            }
+            if (SignalingMessage.JOINED.equals(message.type) || SignalingMessage.CREATED.equals(message.type)
+                    || SignalingMessage.RESUMED.equals(message.type)) {
+                // 服务器在房间事件里告诉本端分配到的id, resume 确认之后才沿用原来的id
+                id = message.from;
+            }
+            message.deliver(listener);
+        }
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    @Override
+    public String id() {
+        return id;
+    }
+
+    @Override
+    public void send(SignalingMessage message) {
+        byte[] body = codec.encode(message);
+        if (body == null) {
+            return;
+        }
+        ByteBuffer frame = ByteBuffer.allocate(4 + body.length);
+        frame.putInt(body.length).put(body).flip();
+        synchronized (writeLock) {
+            SocketChannel current = channel;
+            if (current == null) {
+                Log.e("bo", "signaling not connected, drop " + message.type);
+                return;
+            }
+            try {
+                while (frame.hasRemaining()) {
+                    current.write(frame);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void disconnect() {
+        send(SignalingMessage.control(SignalingMessage.BYE, id, null));
+        close();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        SocketChannel current = channel;
+        channel = null;
+        if (readThread != null) {
+            readThread.interrupt();
+        }
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
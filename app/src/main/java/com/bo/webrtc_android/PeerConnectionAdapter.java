@@ -10,68 +10,86 @@ import org.webrtc.RtpReceiver;
 
 public class PeerConnectionAdapter implements PeerConnection.Observer {
 
-    private String tag;
+    private final String name;
+    private final String id;
 
     public PeerConnectionAdapter(String tag){
-        this.tag = "bo" + tag;
+        this(tag, "");
+    }
+
+    // tag 为 "bo" + name + id, 输出日志时才拼接
+    public PeerConnectionAdapter(String name, String id){
+        this.name = name;
+        this.id = id;
+    }
+
+    private String tag() {
+        return "bo" + name + id;
     }
 
     public void log(String str){
-        Log.d(this.tag, str);
+        Log.d(tag(), str);
+    }
+
+    // 日志关闭时不拼接任何字符串
+    public void log(String event, Object arg){
+        if (CallSetupRecorder.get().isLogEnabled()) {
+            Log.d(tag(), event + arg);
+        }
     }
 
     @Override
     public void onSignalingChange(PeerConnection.SignalingState signalingState) {
-        log("onSignalingChange" + signalingState);
+        log("onSignalingChange", signalingState);
     }
 
     @Override
     public void onIceConnectionChange(PeerConnection.IceConnectionState iceConnectionState) {
-        log("onIceConnectionChange" + iceConnectionState);
+        log("onIceConnectionChange", iceConnectionState);
     }
 
     @Override
     public void onIceConnectionReceivingChange(boolean b) {
-        log("onIceConnectionReceivingChange" + b);
+        log("onIceConnectionReceivingChange", b);
     }
 
     @Override
     public void onIceGatheringChange(PeerConnection.IceGatheringState iceGatheringState) {
-        log("onIceGatheringChange" + iceGatheringState);
+        log("onIceGatheringChange", iceGatheringState);
     }
 
     @Override
     public void onIceCandidate(IceCandidate iceCandidate) {
-        log("onIceCandidate" + iceCandidate);
+        log("onIceCandidate", iceCandidate);
     }
 
     @Override
     public void onIceCandidatesRemoved(IceCandidate[] iceCandidates) {
-        log("onIceCandidatesRemoved" + iceCandidates);
+        log("onIceCandidatesRemoved", iceCandidates);
     }
 
     @Override
     public void onAddStream(MediaStream mediaStream) {
-        log("onAddStream" + mediaStream);
+        log("onAddStream", mediaStream);
     }
 
     @Override
     public void onRemoveStream(MediaStream mediaStream) {
-        log("onRemoveStream" + mediaStream);
+        log("onRemoveStream", mediaStream);
     }
 
     @Override
     public void onDataChannel(DataChannel dataChannel) {
-        log("onDataChannel" + dataChannel);
+        log("onDataChannel", dataChannel);
     }
 
     @Override
     public void onRenegotiationNeeded() {
-        log("onRenegotiationNeeded");
+        log("onRenegotiationNeeded", "");
     }
 
     @Override
     public void onAddTrack(RtpReceiver rtpReceiver, MediaStream[] mediaStreams) {
-        log("onAddTrack" + mediaStreams);
+        log("onAddTrack", mediaStreams);
     }
 }
@@ -0,0 +1,324 @@
+package com.bo.webrtc_android;
+
+import android.util.Log;
+
+import org.webrtc.DataChannel;
+import org.webrtc.PeerConnection;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 一个对端的 DataChannel: 可靠有序通道(聊天等), 不可靠无序通道(遥测等), 以及专门用于大块数据传输的通道
+// 三个通道都用 negotiated 方式, 双方各自按相同的 id 创建, 不依赖谁先发 offer
+// 大块数据按 bufferedAmount 做背压: 超过高水位暂停, onBufferedAmountChange 降到低水位以下再继续
+// 收发都直接使用 ByteBuffer 的切片, 本层不做拷贝; 接收回调里的 ByteBuffer 只在回调期间有效
+public class PeerDataChannels {
+    private static final String TAG = "boDataChannel";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static final String RELIABLE = "reliable";
+    public static final String UNRELIABLE = "unreliable";
+    public static final String BULK = "bulk";
+    private static final int RELIABLE_ID = 0;
+    private static final int UNRELIABLE_ID = 1;
+    private static final int BULK_ID = 2;
+
+    // SCTP 消息大小在各浏览器之间能互通的上限
+    static final int CHUNK_SIZE = 16 * 1024;
+    static final long HIGH_WATER_MARK = 1024 * 1024;
+    static final long LOW_WATER_MARK = 256 * 1024;
+    // close 等待正在发送的一块结束的上限, send 会等信令线程
+    private static final long CLOSE_TIMEOUT_MS = 1000;
+
+    public interface Listener {
+        // 通道打开或关闭
+        void onChannelStateChange(String socketId, String label, DataChannel.State state);
+
+        // data 只在回调期间有效, 需要保留时自己拷贝
+        void onMessage(String socketId, String label, ByteBuffer data, boolean binary);
+
+        void onBulkStart(String socketId, int transferId, long totalBytes);
+
+        // chunk 只在回调期间有效, offset 为这一块在整个传输中的位置
+        void onBulkChunk(String socketId, int transferId, ByteBuffer chunk, long offset);
+
+        void onBulkComplete(String socketId, int transferId);
+    }
+
+    public interface BulkCallback {
+        void onProgress(int transferId, long sentBytes, long totalBytes);
+
+        void onComplete(int transferId);
+
+        void onFailed(int transferId);
+    }
+
+    private static class Transfer {
+        final int id;
+        final ByteBuffer data;
+        final BulkCallback callback;
+        boolean headerSent;
+
+        Transfer(int id, ByteBuffer data, BulkCallback callback){
+            this.id = id;
+            this.data = data;
+            this.callback = callback;
+        }
+    }
+
+    // 正在接收的大块传输
+    private static class Incoming {
+        int id = -1;
+        long total;
+        long received;
+    }
+
+    private static final AtomicInteger nextTransferId = new AtomicInteger();
+
+    private final String socketId;
+    private final Listener listener;
+    private final ConcurrentHashMap<String, DataChannel> channels = new ConcurrentHashMap<>();
+    // DataChannel 的方法会等待信令线程, 而它的回调也在信令线程, 发送都放到这个线程上, 不在锁里调用
+    private final ExecutorService sendExecutor = Executors.newSingleThreadExecutor();
+    // 以下只在 sendExecutor 上访问
+    private final ArrayDeque<Transfer> transfers = new ArrayDeque<>();
+    private boolean paused;
+    // 只在信令线程访问
+    private final Incoming incoming = new Incoming();
+    private volatile boolean closed;
+
+    public PeerDataChannels(String socketId, PeerConnection peerConnection, Listener listener){
+        this.socketId = socketId;
+        this.listener = listener;
+        DataChannel.Init reliable = new DataChannel.Init();
+        reliable.negotiated = true;
+        reliable.id = RELIABLE_ID;
+        register(peerConnection.createDataChannel(RELIABLE, reliable));
+
+        DataChannel.Init unreliable = new DataChannel.Init();
+        unreliable.negotiated = true;
+        unreliable.id = UNRELIABLE_ID;
+        unreliable.ordered = false;
+        unreliable.maxRetransmits = 0;
+        register(peerConnection.createDataChannel(UNRELIABLE, unreliable));
+
+        DataChannel.Init bulk = new DataChannel.Init();
+        bulk.negotiated = true;
+        bulk.id = BULK_ID;
+        register(peerConnection.createDataChannel(BULK, bulk));
+    }
+
+    // PeerConnection.Observer.onDataChannel, 对端在带内创建的其他通道
+    public void onDataChannel(DataChannel dataChannel) {
+        register(dataChannel);
+    }
+
+    private void register(DataChannel dataChannel) {
+        if (dataChannel == null) {
+            return;
+        }
+        String label = dataChannel.label();
+        channels.put(label, dataChannel);
+        dataChannel.registerObserver(new DataChannel.Observer() {
+            @Override
+            public void onBufferedAmountChange(long previousAmount) {
+                if (BULK.equals(label)) {
+                    schedulePump();
+                }
+            }
+
+            @Override
+            public void onStateChange() {
+                DataChannel.State state = dataChannel.state();
+                Log.d(TAG, socketId + " " + label + " " + state);
+                listener.onChannelStateChange(socketId, label, state);
+                if (BULK.equals(label) && state == DataChannel.State.OPEN) {
+                    schedulePump();
+                }
+            }
+
+            @Override
+            public void onMessage(DataChannel.Buffer buffer) {
+                if (BULK.equals(label)) {
+                    onBulkMessage(buffer);
+                } else {
+                    listener.onMessage(socketId, label, buffer.data, buffer.binary);
+                }
+            }
+        });
+    }
+
+    public boolean isOpen(String label) {
+        DataChannel dataChannel = channels.get(label);
+        return dataChannel != null && dataChannel.state() == DataChannel.State.OPEN;
+    }
+
+    // 直接发送 data 的剩余部分, 不改变 data 的 position
+    public boolean send(String label, ByteBuffer data, boolean binary) {
+        DataChannel dataChannel = channels.get(label);
+        if (dataChannel == null || closed) {
+            return false;
+        }
+        return dataChannel.send(new DataChannel.Buffer(data.slice(), binary));
+    }
+
+    public boolean sendText(String label, String text) {
+        return send(label, ByteBuffer.wrap(text.getBytes(UTF_8)), false);
+    }
+
+    // 在 bulk 通道上按顺序发送一大块数据, 返回传输 id; data 在完成回调之前不能修改
+    public int sendBulk(ByteBuffer data, BulkCallback callback) {
+        Transfer transfer = new Transfer(nextTransferId.incrementAndGet(), data.slice(), callback);
+        if (closed) {
+            callback.onFailed(transfer.id);
+            return transfer.id;
+        }
+        try {
+            sendExecutor.execute(() -> {
+                if (closed) {
+                    callback.onFailed(transfer.id);
+                    return;
+                }
+                transfers.add(transfer);
+                pump();
+            });
+        } catch (RejectedExecutionException e) {
+            // 和 close 同时发生
+            callback.onFailed(transfer.id);
+        }
+        return transfer.id;
+    }
+
+    private void schedulePump() {
+        if (closed) {
+            return;
+        }
+        try {
+            sendExecutor.execute(this::pump);
+        } catch (RejectedExecutionException e) {
+            // close 之后的回调, 忽略
+        }
+    }
+
+    // 在 sendExecutor 上执行, 一直发到缓冲区超过高水位或没有数据为止
+    // 每一块之前都检查 closed, close 等这个线程停下来才释放通道
+    private void pump() {
+        DataChannel dataChannel = channels.get(BULK);
+        if (closed || dataChannel == null || dataChannel.state() != DataChannel.State.OPEN) {
+            return;
+        }
+        long buffered = dataChannel.bufferedAmount();
+        if (paused) {
+            if (buffered > LOW_WATER_MARK) {
+                return;
+            }
+            paused = false;
+        }
+        while (!transfers.isEmpty()) {
+            Transfer transfer = transfers.peek();
+            if (!transfer.headerSent) {
+                // 文本消息作为传输头: "id:总字节数"
+                String header = transfer.id + ":" + transfer.data.remaining();
+                if (!dataChannel.send(new DataChannel.Buffer(ByteBuffer.wrap(header.getBytes(UTF_8)), false))) {
+                    paused = true;
+                    return;
+                }
+                transfer.headerSent = true;
+            }
+            ByteBuffer data = transfer.data;
+            while (data.hasRemaining()) {
+                if (closed) {
+                    return;
+                }
+                if (buffered >= HIGH_WATER_MARK) {
+                    paused = true;
+                    return;
+                }
+                int size = Math.min(CHUNK_SIZE, data.remaining());
+                ByteBuffer chunk = data.slice();
+                chunk.limit(size);
+                if (!dataChannel.send(new DataChannel.Buffer(chunk, true))) {
+                    // 缓冲区满时 send 会失败, 等 onBufferedAmountChange 再试
+                    paused = true;
+                    return;
+                }
+                data.position(data.position() + size);
+                buffered += size;
+                transfer.callback.onProgress(transfer.id, data.position(), data.limit());
+            }
+            transfers.poll();
+            transfer.callback.onComplete(transfer.id);
+        }
+    }
+
+    private void onBulkMessage(DataChannel.Buffer buffer) {
+        if (!buffer.binary) {
+            String header = UTF_8.decode(buffer.data).toString();
+            int colon = header.indexOf(':');
+            try {
+                incoming.id = Integer.parseInt(header.substring(0, colon));
+                incoming.total = Long.parseLong(header.substring(colon + 1));
+                incoming.received = 0;
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                incoming.id = -1;
+                return;
+            }
+            listener.onBulkStart(socketId, incoming.id, incoming.total);
+            if (incoming.total == 0) {
+                listener.onBulkComplete(socketId, incoming.id);
+                incoming.id = -1;
+            }
+            return;
+        }
+        if (incoming.id < 0) {
+            return;
+        }
+        int size = buffer.data.remaining();
+        listener.onBulkChunk(socketId, incoming.id, buffer.data, incoming.received);
+        incoming.received += size;
+        if (incoming.received >= incoming.total) {
+            listener.onBulkComplete(socketId, incoming.id);
+            incoming.id = -1;
+        }
+    }
+
+    // 在 PeerConnection.dispose 之前调用, 不能在 WebRTC 的回调线程里调用; 重复调用无效果
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        // 还没发完的传输通知失败
+        sendExecutor.execute(() -> {
+            for (Transfer transfer : transfers) {
+                transfer.callback.onFailed(transfer.id);
+            }
+            transfers.clear();
+        });
+        sendExecutor.shutdown();
+        // 正在发送的一块结束之后才能释放通道
+        try {
+            if (!sendExecutor.awaitTermination(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, socketId + " send executor did not stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (DataChannel dataChannel : channels.values()) {
+            dataChannel.unregisterObserver();
+            dataChannel.close();
+            dataChannel.dispose();
+        }
+        channels.clear();
+    }
+}
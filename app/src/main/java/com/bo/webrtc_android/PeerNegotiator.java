@@ -0,0 +1,449 @@
+package com.bo.webrtc_android;
+
+import android.util.Log;
+
+import org.webrtc.IceCandidate;
+import org.webrtc.MediaConstraints;
+import org.webrtc.MediaStreamTrack;
+import org.webrtc.PeerConnection;
+import org.webrtc.RtpSender;
+import org.webrtc.RtpTransceiver;
+import org.webrtc.SessionDescription;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// 单个对端的 offer/answer 状态机, 按 "perfect negotiation" 的规则处理重协商和冲突
+// 双方按socketId大小区分 polite/impolite; 当前 WebRTC 版本不支持 ROLLBACK, polite 一方无法撤回自己的 offer,
+// 所以只由 impolite 一方发起 offer, polite 一方需要重协商时通过信令请求对方发起, 从根本上避免 offer 冲突
+public class PeerNegotiator {
+    private static final String TAG = "boNegotiator";
+
+    public interface Signaling {
+        void sendSessionDescription(SessionDescription sdp, String to);
+
+        // 请求对端发起一次 offer
+        void requestNegotiation(String to);
+
+        // 请求对端发起一次 ICE restart
+        void requestIceRestart(String to);
+
+        // 收到的 SDP 增量无法还原, 请求对端重发完整描述
+        void requestResync(String to);
+    }
+
+    // 在 setLocalDescription 之前修改本地 SDP, 例如调整编码顺序; 所有变换共用一次解析的结果
+    public interface SdpTransform {
+        void apply(SdpModel sdp);
+    }
+
+    private final String socketId;
+    private final boolean polite;
+    private final Signaling signaling;
+    private volatile SdpEndpoint peerConnection;
+
+    // 由 onSignalingChange 维护, 不在锁内调用 PeerConnection.signalingState(), 它会阻塞等待信令线程
+    private PeerConnection.SignalingState signalingState = PeerConnection.SignalingState.STABLE;
+    // perfect negotiation 的状态
+    private boolean makingOffer;
+    private boolean ignoreOffer;
+    private boolean settingRemoteAnswerPending;
+    // 正在协商时又需要重协商, 等回到 stable 后再发起
+    private boolean negotiationPending;
+    // 下一次 offer 带上 IceRestart, offer 被推迟时保留到真正发出为止
+    private boolean iceRestartPending;
+    private PeerConnection.IceConnectionState iceConnectionState = PeerConnection.IceConnectionState.NEW;
+    // 连续 ICE restart 的次数, 连接恢复后清零
+    private int iceRestarts;
+    // 远端描述生效之前到达的候选先存起来, onSetSuccess 之后一次性补加
+    private final IceCandidateBuffer candidateBuffer = new IceCandidateBuffer();
+    private final List<SdpTransform> localTransforms = new CopyOnWriteArrayList<>();
+    // 按对端缓存解析过的描述: 最近一次的本地描述(也是下一次增量的基准)和远端描述
+    private SdpModel localDescription;
+    private SessionDescription.Type localType;
+    private SdpModel remoteDescription;
+    // 打开后重协商只发送与上一次描述不同的部分, 需要对端也使用 PeerNegotiator
+    private volatile boolean sdpDeltas;
+
+    public PeerNegotiator(String socketId, String localId, Signaling signaling){
+        // socketId 较小的一方为 polite
+        this(socketId, localId != null && localId.compareTo(socketId) < 0, signaling);
+    }
+
+    // 角色固定的连接, 例如 SFU 模式下客户端总是发起上行连接的 offer, 下行连接的 offer 总是由 SFU 发起
+    public PeerNegotiator(String socketId, boolean polite, Signaling signaling){
+        this.socketId = socketId;
+        this.signaling = signaling;
+        this.polite = polite;
+    }
+
+    public boolean isPolite() {
+        return polite;
+    }
+
+    // PeerConnection 创建并加入本地轨道之后调用, 创建过程中触发的重协商会在这里补上
+    public void setPeerConnection(PeerConnection peerConnection) {
+        setEndpoint(SdpEndpoint.wrap(peerConnection));
+    }
+
+    // 与 setPeerConnection 相同, 测试时传入假的实现
+    public void setEndpoint(SdpEndpoint peerConnection) {
+        boolean pending;
+        synchronized (this) {
+            this.peerConnection = peerConnection;
+            pending = negotiationPending;
+            negotiationPending = false;
+        }
+        if (pending) {
+            onRenegotiationNeeded();
+        }
+    }
+
+    public void addLocalSdpTransform(SdpTransform transform) {
+        localTransforms.add(transform);
+    }
+
+    public void setSdpDeltas(boolean sdpDeltas) {
+        this.sdpDeltas = sdpDeltas;
+    }
+
+    // 最近一次发出的本地描述, 还没有时返回 null
+    public synchronized SdpModel getLocalDescription() {
+        return localDescription;
+    }
+
+    // 最近一次收到的远端描述, 还没有时返回 null
+    public synchronized SdpModel getRemoteDescription() {
+        return remoteDescription;
+    }
+
+    // 只解析一次, 依次应用所有变换, 再序列化一次
+    private SdpModel transformLocal(SessionDescription sessionDescription) {
+        SdpModel sdp = SdpModel.parse(sessionDescription.description);
+        for (SdpTransform transform : localTransforms) {
+            transform.apply(sdp);
+        }
+        return sdp;
+    }
+
+    // 发送本地描述, 能发增量时只发增量
+    private void sendLocal(SessionDescription.Type type, SdpModel sdp) {
+        SdpModel base;
+        synchronized (this) {
+            base = localDescription;
+            localDescription = sdp;
+            localType = type;
+        }
+        String delta = sdpDeltas && base != null ? SdpDelta.encode(base, sdp) : null;
+        signaling.sendSessionDescription(new SessionDescription(type, delta != null ? delta : sdp.toString()), socketId);
+    }
+
+    // 对端无法还原增量, 重发最近一次的完整描述, 之后的增量以它为基准
+    public void onResyncRequested() {
+        SdpModel sdp;
+        SessionDescription.Type type;
+        synchronized (this) {
+            sdp = localDescription;
+            type = localType;
+        }
+        if (sdp != null) {
+            Log.d(TAG, "resync " + socketId);
+            signaling.sendSessionDescription(new SessionDescription(type, sdp.toString()), socketId);
+        }
+    }
+
+    // PeerConnection.Observer.onSignalingChange
+    public synchronized void onSignalingChange(PeerConnection.SignalingState state) {
+        signalingState = state;
+    }
+
+    // PeerConnection.Observer.onRenegotiationNeeded
+    public void onRenegotiationNeeded() {
+        synchronized (this) {
+            if (peerConnection == null) {
+                negotiationPending = true;
+                return;
+            }
+        }
+        if (polite) {
+            signaling.requestNegotiation(socketId);
+        } else {
+            makeOffer(new MediaConstraints());
+        }
+    }
+
+    // 收到 polite 一方的重协商请求
+    public void onNegotiationRequested() {
+        if (!polite) {
+            makeOffer(new MediaConstraints());
+        }
+    }
+
+    // PeerConnection.Observer.onIceConnectionChange
+    public synchronized void onIceConnectionChange(PeerConnection.IceConnectionState state) {
+        iceConnectionState = state;
+        if (state == PeerConnection.IceConnectionState.CONNECTED
+                || state == PeerConnection.IceConnectionState.COMPLETED) {
+            iceRestarts = 0;
+        }
+    }
+
+    // 连接断开或失败, 还没有恢复
+    public synchronized boolean needsIceRestart() {
+        return iceConnectionState == PeerConnection.IceConnectionState.DISCONNECTED
+                || iceConnectionState == PeerConnection.IceConnectionState.FAILED;
+    }
+
+    public synchronized int getIceRestartCount() {
+        return iceRestarts;
+    }
+
+    // 只重新收集候选并协商新的 ICE 凭据, 保留 PeerConnection, 轨道和编码器; 网络切换后比重建连接快得多
+    public void restartIce() {
+        synchronized (this) {
+            iceRestarts++;
+            if (!polite) {
+                iceRestartPending = true;
+            }
+        }
+        Log.d(TAG, "ice restart " + socketId + (polite ? " requested" : ""));
+        if (polite) {
+            signaling.requestIceRestart(socketId);
+        } else {
+            makeOffer(new MediaConstraints());
+        }
+    }
+
+    // 收到 polite 一方的 ICE restart 请求
+    public void onIceRestartRequested() {
+        if (!polite) {
+            synchronized (this) {
+                iceRestartPending = true;
+            }
+            makeOffer(new MediaConstraints());
+        }
+    }
+
+    public void makeOffer(MediaConstraints constraints) {
+        SdpEndpoint pc;
+        boolean iceRestart;
+        synchronized (this) {
+            pc = peerConnection;
+            if (pc == null || makingOffer || signalingState != PeerConnection.SignalingState.STABLE) {
+                negotiationPending = true;
+                return;
+            }
+            makingOffer = true;
+            iceRestart = iceRestartPending;
+            iceRestartPending = false;
+        }
+        if (iceRestart) {
+            constraints.mandatory.add(new MediaConstraints.KeyValuePair("IceRestart", "true"));
+        }
+        pc.createOffer(new SdpAdapter("createOfferSdp", socketId) {
+            @Override
+            public void onCreateSuccess(SessionDescription created) {
+                super.onCreateSuccess(created);
+                SdpModel sdp = transformLocal(created);
+                SessionDescription sessionDescription = new SessionDescription(created.type, sdp.toString());
+                CallSetupRecorder.get().mark(socketId, CallSetupRecorder.Stage.OFFER_CREATED);
+                //设置本地的
+                pc.setLocalDescription(new SdpAdapter("setLocalSdp", socketId) {
+                    @Override
+                    public void onSetSuccess() {
+                        super.onSetSuccess();
+                        CallSetupRecorder.get().mark(socketId, CallSetupRecorder.Stage.LOCAL_DESCRIPTION_SET);
+                        // 向对端发送SDP
+                        sendLocal(sessionDescription.type, sdp);
+                        offerDone();
+                    }
+
+                    @Override
+                    public void onSetFailure(String s) {
+                        super.onSetFailure(s);
+                        offerDone();
+                    }
+                }, sessionDescription);
+            }
+
+            @Override
+            public void onCreateFailure(String s) {
+                super.onCreateFailure(s);
+                offerDone();
+            }
+        }, constraints);
+    }
+
+    private synchronized void offerDone() {
+        makingOffer = false;
+    }
+
+    // 收到对端的 offer 或 answer, 可能是相对上一次的增量
+    public void onRemoteDescription(SessionDescription received) {
+        SdpModel sdp;
+        synchronized (this) {
+            SdpModel base = remoteDescription;
+            if (SdpDelta.isDelta(received.description)) {
+                sdp = base == null ? null : SdpDelta.decode(base, received.description);
+            } else {
+                sdp = SdpModel.parse(received.description);
+            }
+            // 即使随后被忽略也记下来, 对端下一次的增量以它为基准
+            if (sdp != null) {
+                remoteDescription = sdp;
+            }
+        }
+        if (sdp == null) {
+            Log.e(TAG, "cannot apply sdp delta from " + socketId + ", requesting full description");
+            signaling.requestResync(socketId);
+            return;
+        }
+        SessionDescription description = received.description.equals(sdp.toString()) ? received
+                : new SessionDescription(received.type, sdp.toString());
+        SdpEndpoint pc;
+        boolean isOffer = description.type == SessionDescription.Type.OFFER;
+        synchronized (this) {
+            pc = peerConnection;
+            if (pc == null) {
+                return;
+            }
+            boolean readyForOffer = !makingOffer
+                    && (signalingState == PeerConnection.SignalingState.STABLE || settingRemoteAnswerPending);
+            boolean offerCollision = isOffer && !readyForOffer;
+            ignoreOffer = !polite && offerCollision;
+            if (ignoreOffer) {
+                Log.d(TAG, "ignore colliding offer from " + socketId);
+                return;
+            }
+            if (offerCollision) {
+                // polite 一方从不主动 offer, 只有消息乱序时才会走到这里, 此时没有 ROLLBACK 可用, 丢弃本地的 offer 状态等待重试
+                Log.e(TAG, "offer collision on polite side " + socketId);
+                negotiationPending = true;
+                return;
+            }
+            settingRemoteAnswerPending = !isOffer;
+            candidateBuffer.onRemoteDescriptionPending();
+        }
+        pc.setRemoteDescription(new SdpAdapter("setRemoteSdp", socketId) {
+            @Override
+            public void onSetSuccess() {
+                super.onSetSuccess();
+                synchronized (PeerNegotiator.this) {
+                    settingRemoteAnswerPending = false;
+                }
+                CallSetupRecorder.get().mark(socketId, CallSetupRecorder.Stage.REMOTE_DESCRIPTION_SET);
+                flushCandidates(pc);
+                if (isOffer) {
+                    answer(pc);
+                } else {
+                    runPendingNegotiation();
+                }
+            }
+
+            @Override
+            public void onSetFailure(String s) {
+                super.onSetFailure(s);
+                synchronized (PeerNegotiator.this) {
+                    settingRemoteAnswerPending = false;
+                }
+                candidateBuffer.onRemoteDescriptionFailed();
+            }
+        }, description);
+    }
+
+    private void answer(SdpEndpoint pc) {
+        pc.createAnswer(new SdpAdapter("localAnswerSdp", socketId) {
+            @Override
+            public void onCreateSuccess(SessionDescription created) {
+                super.onCreateSuccess(created);
+                SdpModel sdp = transformLocal(created);
+                CallSetupRecorder.get().mark(socketId, CallSetupRecorder.Stage.ANSWER_CREATED);
+                pc.setLocalDescription(new SdpAdapter("setLocalSdp", socketId) {
+                    @Override
+                    public void onSetSuccess() {
+                        super.onSetSuccess();
+                        CallSetupRecorder.get().mark(socketId, CallSetupRecorder.Stage.LOCAL_DESCRIPTION_SET);
+                        sendLocal(created.type, sdp);
+                        runPendingNegotiation();
+                    }
+                }, new SessionDescription(created.type, sdp.toString()));
+            }
+        }, new MediaConstraints());
+    }
+
+    private void runPendingNegotiation() {
+        boolean pending;
+        synchronized (this) {
+            pending = negotiationPending;
+            negotiationPending = false;
+        }
+        if (pending) {
+            onRenegotiationNeeded();
+        }
+    }
+
+    public void addIceCandidate(IceCandidate iceCandidate) {
+        CallSetupRecorder.get().mark(socketId, CallSetupRecorder.Stage.FIRST_REMOTE_CANDIDATE);
+        SdpEndpoint pc = peerConnection;
+        if (pc == null || candidateBuffer.offer(iceCandidate)) {
+            return;
+        }
+        boolean ignoring;
+        synchronized (this) {
+            ignoring = ignoreOffer;
+        }
+        // 被忽略的 offer 对应的候选加不上是正常的
+        if (!pc.addIceCandidate(iceCandidate) && !ignoring) {
+            Log.e(TAG, "addIceCandidate failed " + socketId);
+        }
+    }
+
+    // 远端描述生效后把缓冲的候选一次性加到 PeerConnection
+    private void flushCandidates(SdpEndpoint pc) {
+        List<IceCandidate> candidates = candidateBuffer.onRemoteDescriptionSet();
+        if (candidates.isEmpty()) {
+            return;
+        }
+        int failed = 0;
+        for (IceCandidate iceCandidate : candidates) {
+            if (!pc.addIceCandidate(iceCandidate)) {
+                failed++;
+            }
+        }
+        Log.d(TAG, "flushed " + candidates.size() + " candidates for " + socketId + ", failed " + failed
+                + ", avg wait " + candidateBuffer.getAverageWaitMs() + "ms");
+    }
+
+    public IceCandidateBuffer getCandidateBuffer() {
+        return candidateBuffer;
+    }
+
+    // 把本地轨道加到 PeerConnection 上, 优先复用同类型的空闲 transceiver, 避免每次重协商都新增 m-line
+    public static RtpSender attachTrack(PeerConnection peerConnection, MediaStreamTrack track, List<String> streamIds) {
+        MediaStreamTrack.MediaType mediaType = MediaStreamTrack.VIDEO_TRACK_KIND.equals(track.kind())
+                ? MediaStreamTrack.MediaType.MEDIA_TYPE_VIDEO : MediaStreamTrack.MediaType.MEDIA_TYPE_AUDIO;
+        for (RtpTransceiver transceiver : peerConnection.getTransceivers()) {
+            if (transceiver.isStopped() || transceiver.getMediaType() != mediaType
+                    || transceiver.getSender().track() != null) {
+                continue;
+            }
+            RtpSender sender = transceiver.getSender();
+            // Java 层的 setTrack 就是 replaceTrack, 不触发重协商; 轨道由调用者持有
+            sender.setTrack(track, false);
+            // 复用的 transceiver 可能属于别的流, 按新轨道的流重新设置
+            sender.setStreams(streamIds);
+            if (transceiver.getDirection() == RtpTransceiver.RtpTransceiverDirection.RECV_ONLY) {
+                transceiver.setDirection(RtpTransceiver.RtpTransceiverDirection.SEND_RECV);
+            } else if (transceiver.getDirection() == RtpTransceiver.RtpTransceiverDirection.INACTIVE) {
+                transceiver.setDirection(RtpTransceiver.RtpTransceiverDirection.SEND_ONLY);
+            }
+            return sender;
+        }
+        return peerConnection.addTrack(track, streamIds);
+    }
+
+    // 停止发送某个本地轨道, transceiver 保留下来供 attachTrack 复用
+    public static void detachTrack(PeerConnection peerConnection, RtpSender sender) {
+        peerConnection.removeTrack(sender);
+    }
+}
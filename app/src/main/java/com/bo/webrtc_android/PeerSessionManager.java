@@ -0,0 +1,374 @@
+package com.bo.webrtc_android;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.webrtc.AudioSource;
+import org.webrtc.AudioTrack;
+import org.webrtc.EglBase;
+import org.webrtc.MediaConstraints;
+import org.webrtc.MediaStream;
+import org.webrtc.MediaStreamTrack;
+import org.webrtc.PeerConnection;
+import org.webrtc.PeerConnectionFactory;
+import org.webrtc.SurfaceTextureHelper;
+import org.webrtc.VideoCapturer;
+import org.webrtc.VideoSink;
+import org.webrtc.VideoSource;
+import org.webrtc.VideoTrack;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+// 持有一次通话中所有的 native 对象: 本地采集和轨道, 以及每个对端的 PeerConnection 和远端轨道, 工厂和 EGL 由 MediaEngine 持有
+// 对端离开, ICE 失败和 Activity 销毁时按固定顺序释放, 避免 native 内存随会话时长增长
+public class PeerSessionManager {
+    private static final String TAG = "boSession";
+
+    private final EglBase eglBase;
+    private final PeerConnectionFactory peerConnectionFactory;
+    private final RemoteRendererPool rendererPool;
+    // 渲染器只能在主线程操作
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // PeerConnection.dispose 不能在 WebRTC 的回调线程里调用, 否则会死锁, 统一放到这个线程
+    private final ExecutorService teardownExecutor = Executors.newSingleThreadExecutor();
+    // released 和 teardownExecutor.shutdown 在这个锁里一起改变, 提交任务时不会遇到已经关闭的线程池
+    private final Object executorLock = new Object();
+
+    //peerConnectionHashMap存储其他客户端的socketId和对应的PeerSession
+    private final HashMap<String, PeerSession> peerConnectionHashMap = new HashMap<>();
+    // 已经移除但还没有 dispose 的对端, release 时一起关闭
+    private final List<PeerSession> pendingDisposal = new ArrayList<>();
+
+    private SurfaceTextureHelper surfaceTextureHelper;
+    private VideoCapturer videoCapturer;
+    private VideoSource videoSource;
+    private FrameProcessingPipeline framePipeline;
+    private VideoTrack videoTrack;
+    private AudioSource audioSource;
+    private AudioTrack audioTrack;
+    private MediaStream mediaStream;
+    private VideoSink localSink;
+    private volatile boolean released;
+    // 当前的采集格式, 恢复采集时使用; 屏幕共享替换掉摄像头画面时暂停摄像头
+    private final Object captureLock = new Object();
+    private int captureWidth;
+    private int captureHeight;
+    private int captureFps;
+    private boolean capturePaused;
+
+    public interface PeerVisitor {
+        void visit(String socketId, PeerConnection peerConnection);
+    }
+
+    private static class PeerSession {
+        final PeerConnection peerConnection;
+        // 远端轨道由 PeerConnection 持有, 随 PeerConnection 一起释放, 这里只用于计数
+        final List<MediaStreamTrack> remoteTracks = new ArrayList<>();
+        // 该对端的 DataChannel, 要在 PeerConnection 之前关闭
+        PeerDataChannels dataChannels;
+        // 只在释放线程访问, 避免同一个连接被 dispose 两次
+        boolean closed;
+
+        PeerSession(PeerConnection peerConnection){
+            this.peerConnection = peerConnection;
+        }
+    }
+
+    public PeerSessionManager(EglBase eglBase, PeerConnectionFactory peerConnectionFactory, RemoteRendererPool rendererPool){
+        this.eglBase = eglBase;
+        this.peerConnectionFactory = peerConnectionFactory;
+        this.rendererPool = rendererPool;
+    }
+
+    // 创建本地视频轨道并开始采集, 返回要加到每个 PeerConnection 上的本地流
+    public MediaStream startLocalVideo(Context context, VideoCapturer capturer, int width, int height, int fps) {
+        // SurfaceTextureHelper 负责创建 SurfaceTexture，接收 SurfaceTexture 数据，相机线程的管理
+        surfaceTextureHelper = SurfaceTextureHelper.create("CaptureThread", eglBase.getEglBaseContext());
+        videoCapturer = capturer;
+        videoSource = peerConnectionFactory.createVideoSource(capturer.isScreencast());
+        // 采集到的帧先经过 GPU 处理管线再进入 VideoSource
+        framePipeline = new FrameProcessingPipeline(surfaceTextureHelper.getHandler());
+        videoSource.setVideoProcessor(framePipeline);
+        capturer.initialize(surfaceTextureHelper, context, videoSource.getCapturerObserver());
+        capturer.startCapture(width, height, fps);
+        synchronized (captureLock) {
+            captureWidth = width;
+            captureHeight = height;
+            captureFps = fps;
+        }
+
+        // create VideoTrack
+        videoTrack = peerConnectionFactory.createVideoTrack("100", videoSource);
+        startLocalStream().addTrack(videoTrack);
+        return mediaStream;
+    }
+
+    // 没有摄像头时不调用 startLocalVideo, 只创建本地流, 之后只加入音频轨道
+    public MediaStream startLocalStream() {
+        mediaStream = peerConnectionFactory.createLocalMediaStream("mediaStream");
+        return mediaStream;
+    }
+
+    // 创建本地音频轨道加到本地流里, 在 startLocalVideo 之后调用; 采集由 MediaEngine 的音频设备模块负责
+    public AudioTrack startLocalAudio(MediaConstraints constraints) {
+        audioSource = peerConnectionFactory.createAudioSource(constraints);
+        audioTrack = peerConnectionFactory.createAudioTrack("101", audioSource);
+        mediaStream.addTrack(audioTrack);
+        return audioTrack;
+    }
+
+    public AudioTrack getAudioTrack() {
+        return audioTrack;
+    }
+
+    // 本地画面的显示, 只支持一个
+    public void setLocalSink(VideoSink sink) {
+        if (localSink != null && videoTrack != null) {
+            videoTrack.removeSink(localSink);
+        }
+        localSink = sink;
+        if (sink != null && videoTrack != null) {
+            videoTrack.addSink(sink);
+        }
+    }
+
+    // 改变采集格式, 暂停期间只记下来, 恢复时使用
+    public void changeCaptureFormat(int width, int height, int fps) {
+        synchronized (captureLock) {
+            captureWidth = width;
+            captureHeight = height;
+            captureFps = fps;
+            if (videoCapturer != null && !capturePaused) {
+                videoCapturer.changeCaptureFormat(width, height, fps);
+            }
+        }
+    }
+
+    // 停止摄像头采集, 本地轨道保留; stopCapture 会等待相机线程, 放到释放线程执行
+    public void pauseLocalVideo() {
+        execute(() -> {
+            synchronized (captureLock) {
+                if (videoCapturer == null || capturePaused) {
+                    return;
+                }
+                capturePaused = true;
+                try {
+                    videoCapturer.stopCapture();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    public void resumeLocalVideo() {
+        execute(() -> {
+            synchronized (captureLock) {
+                if (videoCapturer == null || !capturePaused) {
+                    return;
+                }
+                capturePaused = false;
+                videoCapturer.startCapture(captureWidth, captureHeight, captureFps);
+            }
+        });
+    }
+
+    public synchronized PeerConnection get(String socketId) {
+        PeerSession session = peerConnectionHashMap.get(socketId);
+        return session == null ? null : session.peerConnection;
+    }
+
+    // 在释放线程上遍历所有对端, 遍历期间不会有 PeerConnection 被 dispose
+    public void forEachPeer(PeerVisitor visitor) {
+        submit(() -> {
+            List<String> socketIds;
+            List<PeerSession> sessions;
+            synchronized (this) {
+                socketIds = new ArrayList<>(peerConnectionHashMap.keySet());
+                sessions = new ArrayList<>(peerConnectionHashMap.values());
+            }
+            for (int i = 0; i < socketIds.size(); i++) {
+                visitor.visit(socketIds.get(i), sessions.get(i).peerConnection);
+            }
+        });
+    }
+
+    // 在释放线程上执行, 期间不会有 PeerConnection 被 dispose; 通过 get 取到的连接在任务结束前都有效
+    public void execute(Runnable task) {
+        submit(task);
+    }
+
+    // 所有提交到释放线程的任务都经过这里, release 之后提交的任务直接丢弃
+    private boolean submit(Runnable task) {
+        synchronized (executorLock) {
+            if (released) {
+                return false;
+            }
+            try {
+                teardownExecutor.execute(task);
+                return true;
+            } catch (RejectedExecutionException e) {
+                return false;
+            }
+        }
+    }
+
+    public FrameProcessingPipeline getFramePipeline() {
+        return framePipeline;
+    }
+
+    public VideoCapturer getVideoCapturer() {
+        return videoCapturer;
+    }
+
+    public VideoTrack getVideoTrack() {
+        return videoTrack;
+    }
+
+    public synchronized void put(String socketId, PeerConnection peerConnection) {
+        peerConnectionHashMap.put(socketId, new PeerSession(peerConnection));
+    }
+
+    public synchronized void setDataChannels(String socketId, PeerDataChannels dataChannels) {
+        PeerSession session = peerConnectionHashMap.get(socketId);
+        if (session != null) {
+            session.dataChannels = dataChannels;
+        }
+    }
+
+    public synchronized PeerDataChannels getDataChannels(String socketId) {
+        PeerSession session = peerConnectionHashMap.get(socketId);
+        return session == null ? null : session.dataChannels;
+    }
+
+    public synchronized void addRemoteTrack(String socketId, MediaStreamTrack track) {
+        PeerSession session = peerConnectionHashMap.get(socketId);
+        if (session != null) {
+            session.remoteTracks.add(track);
+        }
+    }
+
+    // 对端离开或连接失败: 先在主线程回收渲染器(摘掉 sink), 再在释放线程关闭 PeerConnection
+    public void removePeer(String socketId) {
+        PeerSession session;
+        synchronized (this) {
+            session = peerConnectionHashMap.remove(socketId);
+            if (session == null) {
+                return;
+            }
+            pendingDisposal.add(session);
+        }
+        mainHandler.post(() -> {
+            rendererPool.release(socketId);
+            // Activity 已经销毁时由 release 关闭
+            submit(() -> disposePeer(socketId, session));
+        });
+    }
+
+    public void removeAllPeers() {
+        String[] socketIds;
+        synchronized (this) {
+            socketIds = peerConnectionHashMap.keySet().toArray(new String[0]);
+        }
+        for (String socketId : socketIds) {
+            removePeer(socketId);
+        }
+    }
+
+    private void disposePeer(String socketId, PeerSession session) {
+        closeSession(session);
+        synchronized (this) {
+            pendingDisposal.remove(session);
+        }
+        Log.d(TAG, "disposed " + socketId + ", peerConnections=" + getPeerConnectionCount()
+                + " tracks=" + getTrackCount() + " sinks=" + getSinkCount());
+    }
+
+    private static void closeSession(PeerSession session) {
+        if (session.closed) {
+            return;
+        }
+        session.closed = true;
+        if (session.dataChannels != null) {
+            session.dataChannels.close();
+        }
+        session.peerConnection.dispose();
+    }
+
+    // Activity 销毁时在主线程调用, 渲染器已经由调用者释放
+    public void release() {
+        if (released) {
+            return;
+        }
+        setLocalSink(null);
+        final List<PeerSession> sessions;
+        synchronized (this) {
+            sessions = new ArrayList<>(peerConnectionHashMap.values());
+            sessions.addAll(pendingDisposal);
+            peerConnectionHashMap.clear();
+            pendingDisposal.clear();
+        }
+        Runnable releaseTask = () -> {
+            for (PeerSession session : sessions) {
+                closeSession(session);
+            }
+            if (videoCapturer != null) {
+                try {
+                    // 暂停时已经停止, 再次 stopCapture 没有影响
+                    videoCapturer.stopCapture();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+                videoCapturer.dispose();
+            }
+            // MediaStream.dispose 会同时释放其中的轨道
+            if (mediaStream != null) {
+                mediaStream.dispose();
+            }
+            if (framePipeline != null) {
+                framePipeline.release();
+            }
+            if (audioSource != null) {
+                audioSource.dispose();
+            }
+            if (videoSource != null) {
+                videoSource.dispose();
+            }
+            if (surfaceTextureHelper != null) {
+                surfaceTextureHelper.dispose();
+            }
+            // PeerConnectionFactory 和 EGL 上下文属于 MediaEngine, 在整个进程内复用, 这里不释放
+            Log.d(TAG, "session released");
+        };
+        synchronized (executorLock) {
+            teardownExecutor.execute(releaseTask);
+            released = true;
+            teardownExecutor.shutdown();
+        }
+    }
+
+    public synchronized int getPeerConnectionCount() {
+        return peerConnectionHashMap.size();
+    }
+
+    // 本地轨道加上所有对端的远端轨道
+    public synchronized int getTrackCount() {
+        int count = (videoTrack != null && !released ? 1 : 0) + (audioTrack != null && !released ? 1 : 0);
+        for (PeerSession session : peerConnectionHashMap.values()) {
+            count += session.remoteTracks.size();
+        }
+        return count;
+    }
+
+    // 本地画面加上当前挂在远端轨道上的渲染器
+    public int getSinkCount() {
+        return (localSink != null ? 1 : 0) + rendererPool.getAttachedCount();
+    }
+}
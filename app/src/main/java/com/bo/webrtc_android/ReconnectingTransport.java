@@ -0,0 +1,410 @@
+package com.bo.webrtc_android;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// 在普通的信令传输外面加上断线重连: 连接断开后按指数退避重建连接, 并用第一次加入房间时分配到的id resume,
+// 房间内其他客户端看到的始终是同一个对端, PeerConnection 不需要重建
+// 服务器在超时之前没有确认 resume(例如线上服务器不支持), 就放弃原来的id按新客户端加入房间, 上层在 created/joined 里
+// 丢掉所有旧的连接, 由其他客户端对新的id重新发起连接
+// 断线期间发送的消息按顺序排队, resume 成功后先于新消息发出, 换成新身份时丢弃; 连接已断但还没检测到时发出的消息会丢失,
+// 由 ICE restart 等上层机制恢复
+public class ReconnectingTransport implements SignalingTransport {
+    private static final String TAG = "boReconnect";
+    // 断线期间最多排队的消息数, 超过时丢弃最早的
+    private static final int MAX_QUEUED = 512;
+    private static final long RESUME_TIMEOUT_MS = 5000;
+
+    public interface Factory {
+        // 每次(重新)连接都创建一个新的底层传输
+        SignalingTransport create();
+    }
+
+    private final Factory factory;
+    private final Backoff backoff;
+    private final long resumeTimeoutMs;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Object lock = new Object();
+    // 以下在 lock 内访问
+    private final ArrayDeque<SignalingMessage> queue = new ArrayDeque<>();
+    private SignalingTransport current;
+    // 每建立一次连接加一, 旧连接迟到的回调直接忽略
+    private int generation;
+    private boolean connected;
+    private boolean closed;
+    private ScheduledFuture<?> pendingReconnect;
+    // 已经连上, 在等服务器确认 resume
+    private boolean resuming;
+    private ScheduledFuture<?> pendingResumeTimeout;
+    private String room;
+    private Listener listener;
+    private int reconnectCount;
+    private long droppedCount;
+    // 逻辑上的身份, 第一次加入房间时由服务器分配, 之后每次重连都沿用
+    private volatile String id;
+
+    public ReconnectingTransport(Factory factory){
+        this(factory, new Backoff(500, 30000));
+    }
+
+    public ReconnectingTransport(Factory factory, Backoff backoff){
+        this(factory, backoff, RESUME_TIMEOUT_MS);
+    }
+
+    public ReconnectingTransport(Factory factory, Backoff backoff, long resumeTimeoutMs){
+        this.factory = factory;
+        this.backoff = backoff;
+        this.resumeTimeoutMs = resumeTimeoutMs;
+    }
+
+    @Override
+    public void connect(String room, Listener listener) {
+        synchronized (lock) {
+            this.room = room;
+            this.listener = listener;
+            open();
+        }
+    }
+
+    @Override
+    public void resume(String room, String id, Listener listener) {
+        this.id = id;
+        connect(room, listener);
+    }
+
+    // 在 lock 内调用
+    private void open() {
+        int currentGeneration = ++generation;
+        SignalingTransport transport = factory.create();
+        current = transport;
+        connected = false;
+        resuming = false;
+        cancelResumeTimeout();
+        Listener forwarder = new Forwarder(currentGeneration, transport);
+        if (id == null) {
+            transport.connect(room, forwarder);
+        } else {
+            transport.resume(room, id, forwarder);
+        }
+    }
+
+    // 在 lock 内调用
+    private void scheduleReconnect() {
+        if (closed || pendingReconnect != null) {
+            return;
+        }
+        long delay = backoff.nextDelayMs();
+        Log.d(TAG, "reconnect in " + delay + "ms, attempt " + backoff.getAttempts());
+        pendingReconnect = scheduler.schedule(this::reconnect, delay, TimeUnit.MILLISECONDS);
+    }
+
+    // 在 lock 内调用
+    private void cancelResumeTimeout() {
+        if (pendingResumeTimeout != null) {
+            pendingResumeTimeout.cancel(false);
+            pendingResumeTimeout = null;
+        }
+    }
+
+    // 服务器没有确认 resume, 按新客户端重新加入; 排队的消息都是以旧身份发给旧连接的, 一并丢弃
+    private void onResumeTimeout(int resumeGeneration) {
+        synchronized (lock) {
+            pendingResumeTimeout = null;
+            if (closed || !resuming || resumeGeneration != generation) {
+                return;
+            }
+            Log.w(TAG, "resume of " + id + " not confirmed, join as a new client");
+            id = null;
+            droppedCount += queue.size();
+            queue.clear();
+            current.close();
+            open();
+        }
+    }
+
+    private void reconnect() {
+        synchronized (lock) {
+            pendingReconnect = null;
+            if (closed) {
+                return;
+            }
+            reconnectCount++;
+            current.close();
+            open();
+        }
+    }
+
+    // 网络切换(例如 Wi-Fi 到 4G)后旧连接多半已经失效, 不等心跳超时, 立即用新网络重连
+    public void reconnectNow() {
+        synchronized (lock) {
+            if (closed || current == null) {
+                return;
+            }
+            if (pendingReconnect != null) {
+                pendingReconnect.cancel(false);
+                pendingReconnect = null;
+            }
+            backoff.reset();
+            reconnectCount++;
+            current.close();
+            open();
+        }
+    }
+
+    @Override
+    public String id() {
+        String logicalId = id;
+        if (logicalId != null) {
+            return logicalId;
+        }
+        synchronized (lock) {
+            return current == null ? null : current.id();
+        }
+    }
+
+    @Override
+    public void send(SignalingMessage message) {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            if (connected) {
+                current.send(message);
+                return;
+            }
+            if (queue.size() >= MAX_QUEUED) {
+                queue.poll();
+                droppedCount++;
+            }
+            queue.add(message);
+        }
+    }
+
+    @Override
+    public void disconnect() {
+        shutdown(true);
+    }
+
+    @Override
+    public void close() {
+        shutdown(false);
+    }
+
+    private void shutdown(boolean notifyRoom) {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (pendingReconnect != null) {
+                pendingReconnect.cancel(false);
+                pendingReconnect = null;
+            }
+            cancelResumeTimeout();
+            if (!queue.isEmpty()) {
+                Log.d(TAG, "discard " + queue.size() + " queued messages");
+                queue.clear();
+            }
+            if (current != null) {
+                if (notifyRoom) {
+                    current.disconnect();
+                } else {
+                    current.close();
+                }
+            }
+        }
+        scheduler.shutdownNow();
+    }
+
+    public boolean isConnected() {
+        synchronized (lock) {
+            return connected;
+        }
+    }
+
+    public int getQueuedCount() {
+        synchronized (lock) {
+            return queue.size();
+        }
+    }
+
+    public int getReconnectCount() {
+        synchronized (lock) {
+            return reconnectCount;
+        }
+    }
+
+    public long getDroppedCount() {
+        synchronized (lock) {
+            return droppedCount;
+        }
+    }
+
+    // 只转发当前这条连接的回调
+    private class Forwarder implements Listener {
+        private final int generation;
+        private final SignalingTransport transport;
+
+        Forwarder(int generation, SignalingTransport transport){
+            this.generation = generation;
+            this.transport = transport;
+        }
+
+        // 在 lock 内调用
+        private boolean isCurrent() {
+            return !closed && generation == ReconnectingTransport.this.generation;
+        }
+
+        private Listener current() {
+            synchronized (lock) {
+                return isCurrent() ? listener : null;
+            }
+        }
+
+        @Override
+        public void onConnected() {
+            Listener target;
+            synchronized (lock) {
+                if (!isCurrent()) {
+                    return;
+                }
+                // 连上之后服务器立即断开时不应该从头退避, 退避要等 resume 确认或者加入房间之后才重置
+                if (id != null) {
+                    // 以原来的身份发出的消息要等服务器确认之后才能发
+                    resuming = true;
+                    int resumeGeneration = generation;
+                    pendingResumeTimeout = scheduler.schedule(() -> onResumeTimeout(resumeGeneration),
+                            resumeTimeoutMs, TimeUnit.MILLISECONDS);
+                    return;
+                }
+                target = markConnected();
+            }
+            target.onConnected();
+        }
+
+        // 在 lock 内调用
+        private Listener markConnected() {
+            connected = true;
+            if (!queue.isEmpty()) {
+                Log.d(TAG, "flush " + queue.size() + " queued messages");
+            }
+            // 排队的消息先发, 保持与调用 send 的顺序一致
+            while (!queue.isEmpty()) {
+                transport.send(queue.poll());
+            }
+            return listener;
+        }
+
+        private void onResumed() {
+            Listener target;
+            synchronized (lock) {
+                if (!isCurrent() || !resuming) {
+                    return;
+                }
+                resuming = false;
+                cancelResumeTimeout();
+                backoff.reset();
+                target = markConnected();
+            }
+            target.onConnected();
+        }
+
+        @Override
+        public void onDisconnected() {
+            Listener target;
+            synchronized (lock) {
+                if (!isCurrent()) {
+                    return;
+                }
+                connected = false;
+                resuming = false;
+                cancelResumeTimeout();
+                scheduleReconnect();
+                target = listener;
+            }
+            target.onDisconnected();
+        }
+
+        @Override
+        public void onCreated() {
+            rememberId();
+            Listener target = current();
+            if (target != null) {
+                target.onCreated();
+            }
+        }
+
+        @Override
+        public void onFull() {
+            Listener target = current();
+            if (target != null) {
+                target.onFull();
+            }
+        }
+
+        @Override
+        public void onSelfJoined() {
+            rememberId();
+            Listener target = current();
+            if (target != null) {
+                target.onSelfJoined();
+            }
+        }
+
+        @Override
+        public void onPeerJoined(String socketId) {
+            Listener target = current();
+            if (target != null) {
+                target.onPeerJoined(socketId);
+            }
+        }
+
+        @Override
+        public void onPeerLeave(String socketId) {
+            Listener target = current();
+            if (target != null) {
+                target.onPeerLeave(socketId);
+            }
+        }
+
+        @Override
+        public void onMessage(SignalingMessage message) {
+            if (SignalingMessage.RESUMED.equals(message.type)) {
+                onResumed();
+                return;
+            }
+            Listener target = current();
+            if (target != null) {
+                target.onMessage(message);
+            }
+        }
+
+        // 第一次加入房间后记下服务器分配的id, 之后的重连都用它 resume
+        // 等待 resume 确认时收到 created/joined, 说明服务器把本端当作了新客户端, 换成新的id
+        private void rememberId() {
+            synchronized (lock) {
+                if (!isCurrent()) {
+                    return;
+                }
+                backoff.reset();
+                if (resuming) {
+                    Log.w(TAG, "resume of " + id + " rejected, joined as " + transport.id());
+                    resuming = false;
+                    cancelResumeTimeout();
+                    droppedCount += queue.size();
+                    queue.clear();
+                    id = null;
+                    markConnected();
+                }
+                if (id == null) {
+                    id = transport.id();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.bo.webrtc_android;
+
+// 按时长切分录像文件: 到时间后请求一个关键帧, 新文件从关键帧开始, 每个文件的时间戳从 0 开始
+// 画帧的线程请求关键帧, 写文件的线程处理编码器的输出, 方法之间互斥
+class RecordingSegmenter {
+    // <= 0 表示不切分
+    private final long segmentUs;
+    private long segmentStartUs = -1;
+    private boolean keyFrameRequested;
+    private int index = -1;
+
+    RecordingSegmenter(long segmentMs){
+        segmentUs = segmentMs * 1000;
+    }
+
+    // 编码器输出一帧, 返回 true 表示这一帧开始一个新文件; 第一个关键帧之前的帧没有文件可写
+    synchronized boolean onSample(long ptsUs, boolean keyFrame) {
+        if (!keyFrame) {
+            return false;
+        }
+        if (segmentStartUs >= 0 && (segmentUs <= 0 || ptsUs - segmentStartUs < segmentUs)) {
+            return false;
+        }
+        segmentStartUs = ptsUs;
+        keyFrameRequested = false;
+        index++;
+        return true;
+    }
+
+    // 当前文件已经够长, 需要让编码器立即输出关键帧; 每个文件只请求一次
+    synchronized boolean needsKeyFrame(long ptsUs) {
+        if (segmentUs <= 0 || segmentStartUs < 0 || keyFrameRequested || ptsUs - segmentStartUs < segmentUs) {
+            return false;
+        }
+        keyFrameRequested = true;
+        return true;
+    }
+
+    synchronized boolean isStarted() {
+        return segmentStartUs >= 0;
+    }
+
+    // 相对当前文件开头的时间戳
+    synchronized long rebase(long ptsUs) {
+        return Math.max(0, ptsUs - segmentStartUs);
+    }
+
+    // 当前文件的序号, 从 0 开始
+    synchronized int getIndex() {
+        return index;
+    }
+}
@@ -0,0 +1,201 @@
+package com.bo.webrtc_android;
+
+import android.graphics.Rect;
+import android.widget.GridLayout;
+
+import org.webrtc.EglBase;
+import org.webrtc.EglRenderer;
+import org.webrtc.SurfaceViewRenderer;
+import org.webrtc.VideoTrack;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// 远端画面的渲染器池, 按socketId分配 SurfaceViewRenderer, 对端离开后回收复用
+// 滚出屏幕的画面会从 VideoTrack 上摘掉 sink, 不再绘制; 所有方法都必须在主线程调用
+public class RemoteRendererPool {
+    // 最多保留的空闲渲染器个数, 多余的直接释放
+    private static final int MAX_IDLE = 2;
+
+    private final GridLayout container;
+    private final EglBase.Context eglBaseContext;
+    private final int tileHeight;
+    private final LinkedHashMap<String, Tile> tiles = new LinkedHashMap<>();
+    private final ArrayDeque<SurfaceViewRenderer> idleRenderers = new ArrayDeque<>();
+    private final Rect visibleRect = new Rect();
+    private volatile int attachedCount;
+
+    // 画面大小或可见性变化时回调, 不可见时宽高为 0
+    public interface TileListener {
+        void onTileChanged(String socketId, int width, int height);
+    }
+
+    private TileListener tileListener;
+
+    // 每次 bind 之后第一帧画面渲染出来时回调, 在渲染线程调用
+    public interface FirstFrameListener {
+        void onFirstFrame(String socketId);
+    }
+
+    private FirstFrameListener firstFrameListener;
+
+    private static class Tile {
+        final SurfaceViewRenderer renderer;
+        VideoTrack track;
+        // 当前 renderer 是否挂在 track 上
+        boolean attached;
+        // 等待第一帧的监听, 回调一次后 EglRenderer 会自动移除
+        EglRenderer.FrameListener frameListener;
+        // 上一次通知 tileListener 的大小
+        int reportedWidth = -1;
+        int reportedHeight = -1;
+
+        Tile(SurfaceViewRenderer renderer){
+            this.renderer = renderer;
+        }
+    }
+
+    public RemoteRendererPool(GridLayout container, EglBase.Context eglBaseContext){
+        this.container = container;
+        this.eglBaseContext = eglBaseContext;
+        this.tileHeight = container.getResources().getDimensionPixelSize(R.dimen.remote_tile_height);
+        // 滚动和重新布局后都要重新判断哪些画面在屏幕内
+        container.getViewTreeObserver().addOnScrollChangedListener(this::updateVisibility);
+        container.getViewTreeObserver().addOnGlobalLayoutListener(this::updateVisibility);
+    }
+
+    public void setTileListener(TileListener tileListener) {
+        this.tileListener = tileListener;
+    }
+
+    public void setFirstFrameListener(FirstFrameListener firstFrameListener) {
+        this.firstFrameListener = firstFrameListener;
+    }
+
+    // 为socketId显示远端视频, 已有格子时替换其中的track
+    public void bind(String socketId, VideoTrack track) {
+        Tile tile = tiles.get(socketId);
+        if (tile == null) {
+            tile = new Tile(obtainRenderer());
+            tiles.put(socketId, tile);
+            container.addView(tile.renderer, newLayoutParams());
+        } else if (tile.track != null && tile.attached) {
+            detach(tile);
+        }
+        tile.track = track;
+        watchFirstFrame(socketId, tile);
+        updateVisibility();
+    }
+
+    // 对端离开时调用, 渲染器回到空闲队列
+    public void release(String socketId) {
+        Tile tile = tiles.remove(socketId);
+        if (tile == null) {
+            return;
+        }
+        if (tile.track != null && tile.attached) {
+            detach(tile);
+        }
+        // 渲染器会被别的对端复用, 没触发的监听要摘掉
+        if (tile.frameListener != null) {
+            tile.renderer.removeFrameListener(tile.frameListener);
+            tile.frameListener = null;
+        }
+        container.removeView(tile.renderer);
+        tile.renderer.clearImage();
+        if (idleRenderers.size() < MAX_IDLE) {
+            idleRenderers.push(tile.renderer);
+        } else {
+            tile.renderer.release();
+        }
+    }
+
+    public void releaseAll() {
+        for (String socketId : tiles.keySet().toArray(new String[0])) {
+            release(socketId);
+        }
+        for (SurfaceViewRenderer renderer : idleRenderers) {
+            renderer.release();
+        }
+        idleRenderers.clear();
+    }
+
+    public int size() {
+        return tiles.size();
+    }
+
+    // 当前挂在远端轨道上的渲染器个数, 统计用, 可以在任意线程调用
+    public int getAttachedCount() {
+        return attachedCount;
+    }
+
+    public void updateVisibility() {
+        for (Map.Entry<String, Tile> entry : tiles.entrySet()) {
+            Tile tile = entry.getValue();
+            if (tile.track == null) {
+                continue;
+            }
+            // getLocalVisibleRect 在 view 完全被滚出屏幕时返回 false
+            boolean visible = tile.renderer.isShown() && tile.renderer.getLocalVisibleRect(visibleRect);
+            if (visible && !tile.attached) {
+                tile.track.addSink(tile.renderer);
+                tile.attached = true;
+                attachedCount++;
+            } else if (!visible && tile.attached) {
+                detach(tile);
+                tile.renderer.clearImage();
+            }
+            reportTile(entry.getKey(), tile, visible);
+        }
+    }
+
+    private void watchFirstFrame(String socketId, Tile tile) {
+        FirstFrameListener listener = firstFrameListener;
+        if (listener == null) {
+            return;
+        }
+        if (tile.frameListener != null) {
+            tile.renderer.removeFrameListener(tile.frameListener);
+        }
+        // scale 为 0 时不生成 Bitmap, 只通知有一帧画面
+        tile.frameListener = bitmap -> listener.onFirstFrame(socketId);
+        tile.renderer.addFrameListener(tile.frameListener, 0f);
+    }
+
+    private void reportTile(String socketId, Tile tile, boolean visible) {
+        int width = visible ? tile.renderer.getWidth() : 0;
+        int height = visible ? tile.renderer.getHeight() : 0;
+        if (tileListener == null || (width == tile.reportedWidth && height == tile.reportedHeight)) {
+            return;
+        }
+        tile.reportedWidth = width;
+        tile.reportedHeight = height;
+        tileListener.onTileChanged(socketId, width, height);
+    }
+
+    private void detach(Tile tile) {
+        tile.track.removeSink(tile.renderer);
+        tile.attached = false;
+        attachedCount--;
+    }
+
+    private SurfaceViewRenderer obtainRenderer() {
+        SurfaceViewRenderer renderer = idleRenderers.poll();
+        if (renderer == null) {
+            renderer = new SurfaceViewRenderer(container.getContext());
+            renderer.setMirror(false);
+            renderer.init(eglBaseContext, null);
+        }
+        return renderer;
+    }
+
+    private GridLayout.LayoutParams newLayoutParams() {
+        // 宽度按列均分
+        GridLayout.LayoutParams params = new GridLayout.LayoutParams(
+                GridLayout.spec(GridLayout.UNDEFINED), GridLayout.spec(GridLayout.UNDEFINED, 1f));
+        params.width = 0;
+        params.height = tileHeight;
+        return params;
+    }
+}
@@ -0,0 +1,70 @@
+package com.bo.webrtc_android;
+
+import android.graphics.Matrix;
+
+import org.webrtc.GlRectDrawer;
+
+// 把旋转直接画进画面, 输出帧的 rotation 相应减少; 对端不支持 CVO 扩展或后续滤镜需要正向画面时使用
+public class RotateFilter extends GpuFilter {
+    // 小于 0 表示按帧自身的 rotation 转正
+    private final int degrees;
+    private GlRectDrawer drawer;
+
+    // degrees 为顺时针角度, 只支持 90 的倍数
+    public RotateFilter(int degrees){
+        this.degrees = ((degrees % 360) + 360) % 360;
+    }
+
+    private RotateFilter(){
+        this.degrees = -1;
+    }
+
+    // 按每一帧的 rotation 转成正向
+    public static RotateFilter upright() {
+        return new RotateFilter();
+    }
+
+    private int degrees(Input input) {
+        return degrees < 0 ? input.rotation : degrees;
+    }
+
+    @Override
+    public String getName() {
+        return "rotate";
+    }
+
+    @Override
+    public int getOutputWidth(Input input) {
+        return degrees(input) % 180 == 0 ? input.width : input.height;
+    }
+
+    @Override
+    public int getOutputHeight(Input input) {
+        return degrees(input) % 180 == 0 ? input.height : input.width;
+    }
+
+    @Override
+    public int getOutputRotation(Input input) {
+        return (input.rotation - degrees(input) + 360) % 360;
+    }
+
+    @Override
+    public void draw(Input input, int outputWidth, int outputHeight) {
+        if (drawer == null) {
+            drawer = new GlRectDrawer();
+        }
+        Matrix transform = new Matrix();
+        transform.preTranslate(0.5f, 0.5f);
+        transform.preRotate(degrees(input));
+        transform.preTranslate(-0.5f, -0.5f);
+        drawTransformed(drawer, input, transform, outputWidth, outputHeight);
+    }
+
+    @Override
+    public void release() {
+        if (drawer != null) {
+            drawer.release();
+            drawer = null;
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package com.bo.webrtc_android;
+
+import android.content.Context;
+import android.content.Intent;
+import android.media.projection.MediaProjection;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.view.WindowManager;
+
+import org.webrtc.EglBase;
+import org.webrtc.MediaStreamTrack;
+import org.webrtc.PeerConnection;
+import org.webrtc.PeerConnectionFactory;
+import org.webrtc.RtpParameters;
+import org.webrtc.RtpReceiver;
+import org.webrtc.RtpSender;
+import org.webrtc.RtpTransceiver;
+import org.webrtc.ScreenCapturerAndroid;
+import org.webrtc.SurfaceTextureHelper;
+import org.webrtc.VideoSource;
+import org.webrtc.VideoTrack;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// 屏幕共享: ScreenCapturerAndroid 采集, VideoSource 以 screencast 方式创建, 编码器按屏幕内容配置
+// (分辨率优先, 画质下降时降帧率而不是降分辨率, 文字保持清晰), 再用低帧率, 高码率上限和静止画面跳帧减少带宽
+// REPLACE 用 RtpSender.setTrack 把摄像头画面换成屏幕, 不需要重协商, 摄像头暂停采集;
+// SECOND_TRACK 作为第二路视频加到每个连接上, 流id为 STREAM_ID, 加入和移除都会触发重协商
+// 开始和停止在主线程调用, 对每个连接的操作在 PeerSessionManager 的释放线程上执行
+public class ScreenShare {
+    private static final String TAG = "boScreenShare";
+    public static final String TRACK_ID = "102";
+    public static final String STREAM_ID = "screen";
+
+    public enum Mode { REPLACE, SECOND_TRACK }
+
+    public static class Config {
+        // 采集分辨率的长边上限, 不超过屏幕本身的分辨率
+        public int maxLongSide = 1920;
+        public int fps = 5;
+        public int maxBitrateBps = 1_500_000;
+        // 画面静止时至少隔这么久送出一帧
+        public long keepAliveMs = 1000;
+    }
+
+    public interface Listener {
+        // 用户在系统界面里停止或者 MediaProjection 被系统回收, 在主线程回调, 由调用者摘掉本地显示后调用 stop
+        void onProjectionStopped();
+    }
+
+    // 替换或加入屏幕轨道的发送端, 以及替换之前的编码参数
+    private static class Attached {
+        final RtpSender sender;
+        final List<EncodingState> saved;
+        // true 表示屏幕轨道是新加入的, 停止时移除; 否则换回摄像头
+        final boolean added;
+
+        Attached(RtpSender sender, List<EncodingState> saved, boolean added){
+            this.sender = sender;
+            this.saved = saved;
+            this.added = added;
+        }
+    }
+
+    private static class EncodingState {
+        final boolean active;
+        final Integer maxBitrateBps;
+        final Integer maxFramerate;
+        final Double scaleResolutionDownBy;
+
+        EncodingState(RtpParameters.Encoding encoding){
+            active = encoding.active;
+            maxBitrateBps = encoding.maxBitrateBps;
+            maxFramerate = encoding.maxFramerate;
+            scaleResolutionDownBy = encoding.scaleResolutionDownBy;
+        }
+
+        void restore(RtpParameters.Encoding encoding) {
+            encoding.active = active;
+            encoding.maxBitrateBps = maxBitrateBps;
+            encoding.maxFramerate = maxFramerate;
+            encoding.scaleResolutionDownBy = scaleResolutionDownBy;
+        }
+    }
+
+    private final Context context;
+    private final EglBase.Context eglBaseContext;
+    private final PeerConnectionFactory peerConnectionFactory;
+    private final PeerSessionManager sessionManager;
+    private final Config config;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private Listener listener;
+
+    // 以下在主线程访问
+    private SurfaceTextureHelper surfaceTextureHelper;
+    private ScreencastProcessor processor;
+    private ScreenCapturerAndroid capturer;
+    private VideoSource videoSource;
+    private volatile VideoTrack videoTrack;
+    private volatile Mode mode;
+
+    // 只在释放线程访问
+    private final Map<String, Attached> attached = new HashMap<>();
+
+    public ScreenShare(Context context, EglBase.Context eglBaseContext, PeerConnectionFactory peerConnectionFactory,
+                       PeerSessionManager sessionManager, Config config){
+        this.context = context.getApplicationContext();
+        this.eglBaseContext = eglBaseContext;
+        this.peerConnectionFactory = peerConnectionFactory;
+        this.sessionManager = sessionManager;
+        this.config = config;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public boolean isSharing() {
+        return videoTrack != null;
+    }
+
+    public VideoTrack getVideoTrack() {
+        return videoTrack;
+    }
+
+    // permissionData 为 MediaProjectionManager.createScreenCaptureIntent 的结果;
+    // Android 10 起必须在 mediaProjection 类型的前台服务启动之后调用
+    public void start(Intent permissionData, Mode mode) {
+        if (videoTrack != null) {
+            return;
+        }
+        int[] size = captureSize(context, config.maxLongSide);
+        surfaceTextureHelper = SurfaceTextureHelper.create("ScreenCaptureThread", eglBaseContext);
+        // isScreencast 为 true 时编码器按屏幕内容配置, 默认的降级策略是保持分辨率
+        videoSource = peerConnectionFactory.createVideoSource(true);
+        processor = new ScreencastProcessor(surfaceTextureHelper.getHandler(), config.fps, config.keepAliveMs);
+        videoSource.setVideoProcessor(processor);
+        capturer = new ScreenCapturerAndroid(permissionData, new MediaProjection.Callback() {
+            @Override
+            public void onStop() {
+                // 在采集线程回调
+                mainHandler.post(() -> {
+                    if (!isSharing()) {
+                        return;
+                    }
+                    if (listener != null) {
+                        listener.onProjectionStopped();
+                    } else {
+                        stop();
+                    }
+                });
+            }
+        });
+        capturer.initialize(surfaceTextureHelper, context, videoSource.getCapturerObserver());
+        capturer.startCapture(size[0], size[1], config.fps);
+        Log.d(TAG, "start " + mode + " " + size[0] + "x" + size[1] + "@" + config.fps);
+
+        this.mode = mode;
+        videoTrack = peerConnectionFactory.createVideoTrack(TRACK_ID, videoSource);
+        if (mode == Mode.REPLACE) {
+            sessionManager.pauseLocalVideo();
+        }
+        sessionManager.forEachPeer(this::attach);
+    }
+
+    // 共享期间新建的连接, 在本地轨道都加上之后调用
+    public void attachPeer(String socketId) {
+        if (!isSharing()) {
+            return;
+        }
+        sessionManager.execute(() -> {
+            PeerConnection peerConnection = sessionManager.get(socketId);
+            if (peerConnection != null) {
+                attach(socketId, peerConnection);
+            }
+        });
+    }
+
+    // 在释放线程调用
+    private void attach(String socketId, PeerConnection peerConnection) {
+        VideoTrack track = videoTrack;
+        // SFU 的下行连接只接收
+        if (track == null || attached.containsKey(socketId) || SignalingMessage.SFU_DOWNSTREAM.equals(socketId)) {
+            return;
+        }
+        RtpSender sender = null;
+        if (mode == Mode.REPLACE) {
+            for (RtpSender candidate : peerConnection.getSenders()) {
+                MediaStreamTrack current = candidate.track();
+                if (current != null && MediaStreamTrack.VIDEO_TRACK_KIND.equals(current.kind())
+                        && !TRACK_ID.equals(current.id())) {
+                    sender = candidate;
+                    break;
+                }
+            }
+        }
+        if (sender != null) {
+            List<EncodingState> saved = tune(sender);
+            if (!sender.setTrack(track, false)) {
+                Log.e(TAG, "setTrack failed for " + socketId);
+            }
+            attached.put(socketId, new Attached(sender, saved, false));
+        } else {
+            // SECOND_TRACK, 或者没有摄像头画面可以替换
+            sender = PeerNegotiator.attachTrack(peerConnection, track, Collections.singletonList(STREAM_ID));
+            attached.put(socketId, new Attached(sender, tune(sender), true));
+        }
+    }
+
+    // 屏幕内容的编码参数: 全分辨率, 低帧率, 码率上限高于摄像头; 联播时只保留最高一层
+    // 返回原来的参数, 停止共享时恢复
+    private List<EncodingState> tune(RtpSender sender) {
+        RtpParameters parameters = sender.getParameters();
+        List<EncodingState> saved = new ArrayList<>();
+        String topRid = parameters.encodings.size() > 1 ? Simulcast.RIDS[Simulcast.RIDS.length - 1] : null;
+        for (RtpParameters.Encoding encoding : parameters.encodings) {
+            saved.add(new EncodingState(encoding));
+            encoding.active = topRid == null || topRid.equals(encoding.rid);
+            encoding.maxFramerate = config.fps;
+            if (encoding.active) {
+                encoding.maxBitrateBps = config.maxBitrateBps;
+                encoding.scaleResolutionDownBy = 1.0;
+            }
+        }
+        if (!sender.setParameters(parameters)) {
+            Log.e(TAG, "setParameters failed");
+        }
+        return saved;
+    }
+
+    private static void restore(RtpSender sender, List<EncodingState> saved) {
+        RtpParameters parameters = sender.getParameters();
+        for (int i = 0; i < parameters.encodings.size() && i < saved.size(); i++) {
+            saved.get(i).restore(parameters.encodings.get(i));
+        }
+        if (!sender.setParameters(parameters)) {
+            Log.e(TAG, "restore parameters failed");
+        }
+    }
+
+    // 换回摄像头画面或移除第二路视频, 然后释放采集
+    public void stop() {
+        VideoTrack track = videoTrack;
+        if (track == null) {
+            return;
+        }
+        videoTrack = null;
+        Mode stoppedMode = mode;
+        ScreenCapturerAndroid stoppedCapturer = capturer;
+        VideoSource stoppedSource = videoSource;
+        SurfaceTextureHelper stoppedHelper = surfaceTextureHelper;
+        ScreencastProcessor stoppedProcessor = processor;
+        capturer = null;
+        videoSource = null;
+        surfaceTextureHelper = null;
+        processor = null;
+        sessionManager.execute(() -> {
+            for (Map.Entry<String, Attached> entry : attached.entrySet()) {
+                detach(entry.getKey(), entry.getValue());
+            }
+            attached.clear();
+            stoppedCapturer.stopCapture();
+            stoppedCapturer.dispose();
+            track.dispose();
+            stoppedSource.dispose();
+            // 编码器手里的保活帧释放和转 I420 都要用 SurfaceTextureHelper 的线程, 全部释放之后再结束它
+            stoppedProcessor.runWhenIdle(stoppedHelper::dispose);
+            Log.d(TAG, "stopped");
+        });
+        if (stoppedMode == Mode.REPLACE) {
+            sessionManager.resumeLocalVideo();
+        }
+    }
+
+    // 在释放线程调用; 对端已经离开时发送端随连接一起释放了, 不再访问
+    private void detach(String socketId, Attached entry) {
+        PeerConnection peerConnection = sessionManager.get(socketId);
+        if (peerConnection == null) {
+            return;
+        }
+        if (!entry.added) {
+            if (!entry.sender.setTrack(sessionManager.getVideoTrack(), false)) {
+                Log.e(TAG, "setTrack failed for " + socketId);
+            }
+            restore(entry.sender, entry.saved);
+        } else {
+            PeerNegotiator.detachTrack(peerConnection, entry.sender);
+        }
+    }
+
+    // 接收端显示对端第二路屏幕画面的格子
+    public static String tileId(String socketId) {
+        return socketId + "/" + STREAM_ID;
+    }
+
+    public static boolean isScreenTile(String tileId) {
+        return tileId.endsWith("/" + STREAM_ID);
+    }
+
+    // 对端移除第二路屏幕画面后, 对应的 transceiver 不再接收; 在信令线程调用
+    public static boolean isReceiving(PeerConnection peerConnection, String receiverId) {
+        for (RtpTransceiver transceiver : peerConnection.getTransceivers()) {
+            RtpReceiver receiver = transceiver.getReceiver();
+            if (receiver == null || !receiverId.equals(receiver.id())) {
+                continue;
+            }
+            RtpTransceiver.RtpTransceiverDirection direction = transceiver.getCurrentDirection();
+            return direction == RtpTransceiver.RtpTransceiverDirection.SEND_RECV
+                    || direction == RtpTransceiver.RtpTransceiverDirection.RECV_ONLY;
+        }
+        return false;
+    }
+
+    // 屏幕的实际分辨率按比例缩小到长边不超过 maxLongSide, 宽高取偶数
+    static int[] captureSize(Context context, int maxLongSide) {
+        DisplayMetrics metrics = new DisplayMetrics();
+        WindowManager windowManager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        windowManager.getDefaultDisplay().getRealMetrics(metrics);
+        return scaleToFit(metrics.widthPixels, metrics.heightPixels, maxLongSide);
+    }
+
+    static int[] scaleToFit(int width, int height, int maxLongSide) {
+        double scale = Math.min(1.0, (double) maxLongSide / Math.max(width, height));
+        return new int[] {Math.max(2, (int) (width * scale) & ~1), Math.max(2, (int) (height * scale) & ~1)};
+    }
+}
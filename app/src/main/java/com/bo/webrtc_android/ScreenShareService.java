@@ -0,0 +1,61 @@
+package com.bo.webrtc_android;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ServiceInfo;
+import android.os.Build;
+import android.os.IBinder;
+
+// 屏幕共享期间的前台服务: Android 10 起获取 MediaProjection 之前必须有 mediaProjection 类型的前台服务
+// 服务本身不做事, 进入前台之后在主线程执行 start 传入的任务
+public class ScreenShareService extends Service {
+    private static final String CHANNEL_ID = "screen_share";
+    private static final int NOTIFICATION_ID = 1;
+
+    // 只在主线程访问
+    private static Runnable pendingStart;
+
+    public static void start(Context context, Runnable onForeground) {
+        pendingStart = onForeground;
+        context.startForegroundService(new Intent(context, ScreenShareService.class));
+    }
+
+    public static void stop(Context context) {
+        pendingStart = null;
+        context.stopService(new Intent(context, ScreenShareService.class));
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        NotificationManager notificationManager = getSystemService(NotificationManager.class);
+        notificationManager.createNotificationChannel(new NotificationChannel(CHANNEL_ID,
+                getString(R.string.screen_share_channel), NotificationManager.IMPORTANCE_LOW));
+        Notification notification = new Notification.Builder(this, CHANNEL_ID)
+                .setContentTitle(getString(R.string.screen_share_notification))
+                // 自适应图标不能用作通知的小图标
+                .setSmallIcon(android.R.drawable.ic_menu_share)
+                .setOngoing(true)
+                .build();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            startForeground(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_MEDIA_PROJECTION);
+        } else {
+            startForeground(NOTIFICATION_ID, notification);
+        }
+        Runnable task = pendingStart;
+        pendingStart = null;
+        if (task != null) {
+            task.run();
+        }
+        // 进程被杀之后 MediaProjection 的授权也失效了, 不需要重启服务
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+}
@@ -0,0 +1,254 @@
+package com.bo.webrtc_android;
+
+import android.graphics.Matrix;
+import android.opengl.GLES20;
+import android.os.Handler;
+import android.util.Log;
+
+import org.webrtc.GlRectDrawer;
+import org.webrtc.GlTextureFrameBuffer;
+import org.webrtc.RendererCommon;
+import org.webrtc.TextureBufferImpl;
+import org.webrtc.VideoFrame;
+import org.webrtc.VideoProcessor;
+import org.webrtc.VideoSink;
+import org.webrtc.YuvConverter;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// 屏幕采集和 VideoSource 之间的处理, 通过 VideoSource.setVideoProcessor 接入
+// ScreenCapturerAndroid 忽略帧率参数, 画面变化多快就送多快, 这里按 StaticFrameDetector 限制帧率并丢掉没有变化的帧
+// 来得太早的帧先留着, 到下一个时间槽再处理: 纹理帧没释放之前 SurfaceTextureHelper 不会送出下一帧,
+// 所以留下的总是最新的画面, 画面停下来之后最后一次变化也不会丢
+// 屏幕完全静止时 VirtualDisplay 不再产生帧, 所以每次送出的帧都画一份到自己的纹理里(不占着采集的纹理),
+// 超过 keepAliveMs 没有送出新帧时由定时器重新送出这份拷贝
+public class ScreencastProcessor implements VideoProcessor {
+    private static final String TAG = "boScreencast";
+    // 比较用的缩略图相对采集分辨率的缩小倍数, 一个字符大小的变化仍然能落在采样点上
+    private static final int THUMBNAIL_SCALE = 4;
+
+    // SurfaceTextureHelper 的线程, 以下状态只在这个线程访问
+    private final Handler handler;
+    private final StaticFrameDetector detector;
+    private volatile VideoSink sink;
+    private final long keepAliveMs;
+    private final Runnable keepAlive = this::sendKeepAlive;
+    private VideoFrame pending;
+    private byte[] luma;
+    // 最后送出的一帧的拷贝
+    private Copy lastSent;
+    // 编码器手里还没释放的保活帧个数
+    private int keepAlivesInFlight;
+    private GlRectDrawer drawer;
+    private YuvConverter yuvConverter;
+    private boolean stopped;
+    // 采集停止之后, 最后一个保活帧释放时执行
+    private Runnable onIdle;
+
+    private static class Copy {
+        final GlTextureFrameBuffer frameBuffer = new GlTextureFrameBuffer(GLES20.GL_RGBA);
+        int rotation;
+        // 用这份拷贝送出、还没释放的保活帧个数
+        int refs;
+    }
+
+    public ScreencastProcessor(Handler surfaceTextureHelperHandler, int fps, long keepAliveMs){
+        this.handler = surfaceTextureHelperHandler;
+        this.keepAliveMs = keepAliveMs;
+        detector = new StaticFrameDetector(fps, keepAliveMs);
+    }
+
+    @Override
+    public void setSink(VideoSink sink) {
+        this.sink = sink;
+    }
+
+    @Override
+    public void onCapturerStarted(boolean success) {
+        stopped = false;
+    }
+
+    // ScreenCapturerAndroid 在采集线程回调, GL 资源在这里释放
+    @Override
+    public void onCapturerStopped() {
+        stopped = true;
+        handler.removeCallbacks(keepAlive);
+        dropPending();
+        Copy copy = lastSent;
+        lastSent = null;
+        if (copy != null && copy.refs == 0) {
+            copy.frameBuffer.release();
+        }
+        if (drawer != null) {
+            drawer.release();
+            drawer = null;
+        }
+        // 保活帧还在编码器手里时, 等最后一帧释放之后再释放
+        if (keepAlivesInFlight == 0) {
+            releaseYuvConverter();
+        }
+        Log.d(TAG, "sent " + detector.getSentFrames() + " frames, skipped static " + detector.getSkippedFrames());
+    }
+
+    @Override
+    public void onFrameCaptured(VideoFrame frame) {
+        if (sink == null) {
+            return;
+        }
+        long delayNs = detector.delayNs(System.nanoTime());
+        if (delayNs > 0) {
+            // 纹理帧最多只有一个在等待, 内存里的帧可能会被更新的一帧替换
+            dropPending();
+            frame.retain();
+            pending = frame;
+            handler.postDelayed(this::flushPending, TimeUnit.NANOSECONDS.toMillis(delayNs) + 1);
+            return;
+        }
+        check(frame);
+    }
+
+    private void flushPending() {
+        VideoFrame frame = pending;
+        if (frame == null) {
+            return;
+        }
+        long delayNs = detector.delayNs(System.nanoTime());
+        if (delayNs > 0) {
+            handler.postDelayed(this::flushPending, TimeUnit.NANOSECONDS.toMillis(delayNs) + 1);
+            return;
+        }
+        pending = null;
+        if (sink != null) {
+            check(frame);
+        }
+        frame.release();
+    }
+
+    private void dropPending() {
+        if (pending != null) {
+            pending.release();
+            pending = null;
+        }
+    }
+
+    private void check(VideoFrame frame) {
+        VideoFrame.Buffer buffer = frame.getBuffer();
+        // 宽高取偶数, I420 的色度平面才是整数大小
+        int width = Math.max(2, buffer.getWidth() / THUMBNAIL_SCALE & ~1);
+        int height = Math.max(2, buffer.getHeight() / THUMBNAIL_SCALE & ~1);
+        // 纹理帧在 GPU 上缩小后只读回缩略图
+        VideoFrame.Buffer scaled = buffer.cropAndScale(0, 0, buffer.getWidth(), buffer.getHeight(), width, height);
+        VideoFrame.I420Buffer i420 = scaled.toI420();
+        scaled.release();
+        if (luma == null || luma.length != width * height) {
+            luma = new byte[width * height];
+        }
+        ByteBuffer dataY = i420.getDataY();
+        int stride = i420.getStrideY();
+        for (int row = 0; row < height; row++) {
+            dataY.position(row * stride);
+            dataY.get(luma, row * width, width);
+        }
+        i420.release();
+        VideoSink currentSink = sink;
+        if (detector.shouldSend(luma, width, height, System.nanoTime()) && currentSink != null) {
+            currentSink.onFrame(frame);
+            copyLastSent(frame);
+            handler.removeCallbacks(keepAlive);
+            handler.postDelayed(keepAlive, keepAliveMs);
+        }
+    }
+
+    private void copyLastSent(VideoFrame frame) {
+        if (!(frame.getBuffer() instanceof VideoFrame.TextureBuffer)) {
+            return;
+        }
+        VideoFrame.TextureBuffer buffer = (VideoFrame.TextureBuffer) frame.getBuffer();
+        if (lastSent == null || lastSent.refs > 0) {
+            // 上一份拷贝还在编码器手里, 换一块新的纹理, 旧的在保活帧释放时回收
+            lastSent = new Copy();
+        }
+        if (drawer == null) {
+            drawer = new GlRectDrawer();
+        }
+        int width = buffer.getWidth();
+        int height = buffer.getHeight();
+        lastSent.frameBuffer.setSize(width, height);
+        lastSent.rotation = frame.getRotation();
+        float[] texMatrix = RendererCommon.convertMatrixFromAndroidGraphicsMatrix(buffer.getTransformMatrix());
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, lastSent.frameBuffer.getFrameBufferId());
+        if (buffer.getType() == VideoFrame.TextureBuffer.Type.OES) {
+            drawer.drawOes(buffer.getTextureId(), texMatrix, width, height, 0, 0, width, height);
+        } else {
+            drawer.drawRgb(buffer.getTextureId(), texMatrix, width, height, 0, 0, width, height);
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        // 拷贝至少 keepAliveMs 之后才会被编码器读取, 提交命令即可, 不需要等绘制完成
+        GLES20.glFlush();
+    }
+
+    private void sendKeepAlive() {
+        VideoSink currentSink = sink;
+        Copy copy = lastSent;
+        if (stopped || currentSink == null || copy == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        long delayNs = detector.keepAliveDelayNs(now);
+        if (delayNs > 0) {
+            // 期间有新帧送出
+            handler.postDelayed(keepAlive, TimeUnit.NANOSECONDS.toMillis(delayNs) + 1);
+            return;
+        }
+        if (yuvConverter == null) {
+            yuvConverter = new YuvConverter();
+        }
+        copy.refs++;
+        keepAlivesInFlight++;
+        TextureBufferImpl buffer = new TextureBufferImpl(copy.frameBuffer.getWidth(), copy.frameBuffer.getHeight(),
+                VideoFrame.TextureBuffer.Type.RGB, copy.frameBuffer.getTextureId(), new Matrix(), handler, yuvConverter,
+                () -> handler.post(() -> recycleKeepAlive(copy)));
+        VideoFrame frame = new VideoFrame(buffer, copy.rotation, now);
+        detector.onKeepAliveSent(now);
+        currentSink.onFrame(frame);
+        frame.release();
+        handler.postDelayed(keepAlive, keepAliveMs);
+    }
+
+    // 采集停止之后调用: 保活帧全部释放之后在 SurfaceTextureHelper 的线程执行 action, 用来释放 SurfaceTextureHelper;
+    // 在此之前不能让这个线程退出, 否则释放回调被丢掉, 纹理和 YuvConverter 泄漏, 编码器的 toI420 永远等不到结果
+    public void runWhenIdle(Runnable action) {
+        handler.post(() -> {
+            if (keepAlivesInFlight == 0) {
+                action.run();
+            } else {
+                onIdle = action;
+            }
+        });
+    }
+
+    private void recycleKeepAlive(Copy copy) {
+        copy.refs--;
+        keepAlivesInFlight--;
+        // 已经换了新的拷贝, 或者采集已经停止
+        if (copy != lastSent && copy.refs == 0) {
+            copy.frameBuffer.release();
+        }
+        if (stopped && keepAlivesInFlight == 0) {
+            releaseYuvConverter();
+            Runnable action = onIdle;
+            onIdle = null;
+            if (action != null) {
+                action.run();
+            }
+        }
+    }
+
+    private void releaseYuvConverter() {
+        if (yuvConverter != null) {
+            yuvConverter.release();
+            yuvConverter = null;
+        }
+    }
+}
@@ -7,24 +7,42 @@ import org.webrtc.SessionDescription;
 
 public class SdpAdapter implements SdpObserver {
 
-    private String tag;
+    private final String name;
+    private final String id;
 
     public SdpAdapter(String tag){
-        this.tag =  "bo" + tag;
+        this(tag, "");
+    }
+
+    // tag 为 "bo" + name + id, 输出日志时才拼接
+    public SdpAdapter(String name, String id){
+        this.name = name;
+        this.id = id;
+    }
+
+    private String tag() {
+        return "bo" + name + id;
     }
 
     public void log(String str){
-        Log.d(tag, str);
+        Log.d(tag(), str);
+    }
+
+    // 日志关闭时不拼接任何字符串
+    public void log(String event, Object arg){
+        if (CallSetupRecorder.get().isLogEnabled()) {
+            Log.d(tag(), event + arg);
+        }
     }
 
     @Override
     public void onCreateSuccess(SessionDescription sessionDescription) {
-        log("onCreateSuccess " + sessionDescription);
+        log("onCreateSuccess ", sessionDescription);
     }
 
     @Override
     public void onSetSuccess() {
-        log("onSetSuccess ");
+        log("onSetSuccess", "");
     }
 
     @Override
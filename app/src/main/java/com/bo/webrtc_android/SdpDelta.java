@@ -0,0 +1,111 @@
+package com.bo.webrtc_android;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// 重协商时只发送与上一次描述不同的部分: 没有变化的会话行和媒体段用一行引用代替
+// 格式(仍然放在 offer/answer 的 sdp 字段里):
+//   a=x-sdp-delta:<上一次描述文本的 hash>
+//   =s               会话行与上一次相同
+//   +s <n>           后面 n 行是新的会话行
+//   =<i>             与上一次的第 i 个媒体段相同
+//   +m <n>           后面 n 行是新的媒体段(含 m-line)
+// 接收端的上一次描述与 hash 不一致时无法还原, 需要请求对端重发完整描述
+public class SdpDelta {
+    static final String MARKER = "a=x-sdp-delta:";
+    private static final String CRLF = "\r\n";
+
+    private SdpDelta() {
+    }
+
+    public static boolean isDelta(String sdp) {
+        return sdp != null && sdp.startsWith(MARKER);
+    }
+
+    private static String baseHash(SdpModel base) {
+        return Integer.toHexString(base.toString().hashCode());
+    }
+
+    // 返回 next 相对 base 的增量, 不比完整描述短时返回 null
+    public static String encode(SdpModel base, SdpModel next) {
+        String full = next.toString();
+        StringBuilder builder = new StringBuilder(256);
+        builder.append(MARKER).append(baseHash(base)).append(CRLF);
+        if (next.sameSessionLines(base)) {
+            builder.append("=s").append(CRLF);
+        } else {
+            List<String> lines = next.getSessionLines();
+            builder.append("+s ").append(lines.size()).append(CRLF);
+            for (String line : lines) {
+                builder.append(line).append(CRLF);
+            }
+        }
+        List<SdpModel.Section> sections = next.getSections();
+        for (int i = 0; i < sections.size(); i++) {
+            SdpModel.Section section = sections.get(i);
+            int same = base.findSameSection(section, i);
+            if (same >= 0) {
+                builder.append('=').append(same).append(CRLF);
+            } else {
+                builder.append("+m ").append(section.lines.size() + 1).append(CRLF);
+                builder.append(section.getMLine()).append(CRLF);
+                for (String line : section.lines) {
+                    builder.append(line).append(CRLF);
+                }
+            }
+            if (builder.length() >= full.length()) {
+                return null;
+            }
+        }
+        return builder.toString();
+    }
+
+    // 用 base 还原完整描述, base 不是发送端用的那一份或格式错误时返回 null
+    public static SdpModel decode(SdpModel base, String delta) {
+        List<String> lines = splitLines(delta);
+        if (lines.isEmpty() || !lines.get(0).equals(MARKER + baseHash(base))) {
+            return null;
+        }
+        SdpModel model = SdpModel.empty();
+        List<SdpModel.Section> baseSections = base.getSections();
+        int i = 1;
+        try {
+            while (i < lines.size()) {
+                String line = lines.get(i++);
+                if (line.equals("=s")) {
+                    model.addSessionLines(base.getSessionLines());
+                } else if (line.startsWith("+s ")) {
+                    int count = Integer.parseInt(line.substring(3));
+                    model.addSessionLines(lines.subList(i, i + count));
+                    i += count;
+                } else if (line.startsWith("+m ")) {
+                    int count = Integer.parseInt(line.substring(3));
+                    model.addSection(lines.get(i), lines.subList(i + 1, i + count));
+                    i += count;
+                } else if (line.startsWith("=")) {
+                    model.addSection(baseSections.get(Integer.parseInt(line.substring(1))));
+                } else {
+                    return null;
+                }
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+        return model;
+    }
+
+    private static List<String> splitLines(String text) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf(CRLF, start);
+            if (end < 0) {
+                end = text.length();
+            }
+            lines.add(text.substring(start, end));
+            start = end + CRLF.length();
+        }
+        return lines;
+    }
+}
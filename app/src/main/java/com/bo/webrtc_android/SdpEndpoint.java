@@ -0,0 +1,50 @@
+package com.bo.webrtc_android;
+
+import org.webrtc.IceCandidate;
+import org.webrtc.MediaConstraints;
+import org.webrtc.PeerConnection;
+import org.webrtc.SdpObserver;
+import org.webrtc.SessionDescription;
+
+// PeerNegotiator 驱动的 offer/answer 操作, 与 PeerConnection 的同名方法一致
+// 抽出来以便在没有 native 库的 JVM 上用假的实现跑完整的协商流程
+public interface SdpEndpoint {
+    void createOffer(SdpObserver observer, MediaConstraints constraints);
+
+    void createAnswer(SdpObserver observer, MediaConstraints constraints);
+
+    void setLocalDescription(SdpObserver observer, SessionDescription sdp);
+
+    void setRemoteDescription(SdpObserver observer, SessionDescription sdp);
+
+    boolean addIceCandidate(IceCandidate candidate);
+
+    static SdpEndpoint wrap(PeerConnection peerConnection) {
+        return new SdpEndpoint() {
+            @Override
+            public void createOffer(SdpObserver observer, MediaConstraints constraints) {
+                peerConnection.createOffer(observer, constraints);
+            }
+
+            @Override
+            public void createAnswer(SdpObserver observer, MediaConstraints constraints) {
+                peerConnection.createAnswer(observer, constraints);
+            }
+
+            @Override
+            public void setLocalDescription(SdpObserver observer, SessionDescription sdp) {
+                peerConnection.setLocalDescription(observer, sdp);
+            }
+
+            @Override
+            public void setRemoteDescription(SdpObserver observer, SessionDescription sdp) {
+                peerConnection.setRemoteDescription(observer, sdp);
+            }
+
+            @Override
+            public boolean addIceCandidate(IceCandidate candidate) {
+                return peerConnection.addIceCandidate(candidate);
+            }
+        };
+    }
+}
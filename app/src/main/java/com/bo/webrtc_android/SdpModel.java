@@ -0,0 +1,535 @@
+package com.bo.webrtc_android;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+// 解析一次之后的 SDP: 会话级的行加上按 m-line 切开的媒体段, 各种修改都直接在行列表上进行, 最后只序列化一次
+// 没有修改过的描述 toString 原样返回解析时的文本; 行的内容不做规范化, 解析再序列化与原文逐字节相同
+public class SdpModel {
+    private static final String CRLF = "\r\n";
+    private static final String RTPMAP = "a=rtpmap:";
+    private static final String FMTP = "a=fmtp:";
+    private static final String RTCP_FB = "a=rtcp-fb:";
+
+    // 一个媒体段: m-line 和它后面直到下一个 m-line 之前的所有行
+    public static class Section {
+        private String mediaType;
+        private String port;
+        private String proto;
+        private final ArrayList<String> payloads = new ArrayList<>();
+        // m-line 之后的行, 不含 m-line
+        final ArrayList<String> lines = new ArrayList<>();
+
+        Section(String mLine){
+            // m=<media> <port> <proto> <payload>...
+            int start = 2;
+            int field = 0;
+            for (int i = start; i <= mLine.length(); i++) {
+                if (i < mLine.length() && mLine.charAt(i) != ' ') {
+                    continue;
+                }
+                if (i > start) {
+                    String value = mLine.substring(start, i);
+                    if (field == 0) {
+                        mediaType = value;
+                    } else if (field == 1) {
+                        port = value;
+                    } else if (field == 2) {
+                        proto = value;
+                    } else {
+                        payloads.add(value);
+                    }
+                    field++;
+                }
+                start = i + 1;
+            }
+        }
+
+        public String getMediaType() {
+            return mediaType;
+        }
+
+        // 端口为 0 表示这个媒体段被拒绝或已经停止
+        public boolean isRejected() {
+            return "0".equals(port);
+        }
+
+        public List<String> getPayloads() {
+            return Collections.unmodifiableList(payloads);
+        }
+
+        public List<String> getLines() {
+            return Collections.unmodifiableList(lines);
+        }
+
+        public String getMid() {
+            return getAttribute("a=mid:");
+        }
+
+        // 第一个以 prefix 开头的行去掉 prefix 之后的内容
+        public String getAttribute(String prefix) {
+            for (String line : lines) {
+                if (line.startsWith(prefix)) {
+                    return line.substring(prefix.length());
+                }
+            }
+            return null;
+        }
+
+        public String getMLine() {
+            StringBuilder builder = new StringBuilder(32 + payloads.size() * 4);
+            builder.append("m=").append(mediaType).append(' ').append(port).append(' ').append(proto);
+            for (String payload : payloads) {
+                builder.append(' ').append(payload);
+            }
+            return builder.toString();
+        }
+
+        // payload 对应的编码名(大写), 没有 rtpmap 时返回 null
+        public String getCodecName(String payload) {
+            String rtpmap = getAttribute(RTPMAP + payload + " ");
+            if (rtpmap == null) {
+                return null;
+            }
+            int slash = rtpmap.indexOf('/');
+            return (slash < 0 ? rtpmap : rtpmap.substring(0, slash)).toUpperCase(Locale.US);
+        }
+
+        // payload 的 fmtp 参数, 保持原来的顺序
+        public Map<String, String> getFmtp(String payload) {
+            LinkedHashMap<String, String> params = new LinkedHashMap<>();
+            String fmtp = getAttribute(FMTP + payload + " ");
+            if (fmtp == null) {
+                return params;
+            }
+            for (String param : fmtp.split(";")) {
+                int equals = param.indexOf('=');
+                if (equals > 0) {
+                    params.put(param.substring(0, equals).trim(), param.substring(equals + 1).trim());
+                }
+            }
+            return params;
+        }
+
+        // 编码名为 codecName 的所有 payload, 按 m-line 里的顺序; 只扫描一遍 rtpmap 行
+        public List<String> findPayloads(String codecName) {
+            Set<String> matched = null;
+            for (String line : lines) {
+                if (!line.startsWith(RTPMAP)) {
+                    continue;
+                }
+                int space = line.indexOf(' ', RTPMAP.length());
+                int slash = line.indexOf('/', space);
+                if (space > 0 && slash > space && slash - space - 1 == codecName.length()
+                        && line.regionMatches(true, space + 1, codecName, 0, codecName.length())) {
+                    if (matched == null) {
+                        matched = new HashSet<>();
+                    }
+                    matched.add(line.substring(RTPMAP.length(), space));
+                }
+            }
+            if (matched == null) {
+                return Collections.emptyList();
+            }
+            List<String> found = new ArrayList<>(matched.size());
+            for (String payload : payloads) {
+                if (matched.contains(payload)) {
+                    found.add(payload);
+                }
+            }
+            return found;
+        }
+
+        // 重传 payload 所保护的原始 payload(fmtp 里的 apt), 不是 rtx 时返回 null
+        String getRtxTarget(String payload) {
+            if (!"RTX".equals(getCodecName(payload))) {
+                return null;
+            }
+            return getFmtp(payload).get("apt");
+        }
+
+        int textLength() {
+            int length = getMLine().length() + CRLF.length();
+            for (String line : lines) {
+                length += line.length() + CRLF.length();
+            }
+            return length;
+        }
+
+        void appendTo(StringBuilder builder) {
+            builder.append(getMLine()).append(CRLF);
+            for (String line : lines) {
+                builder.append(line).append(CRLF);
+            }
+        }
+
+        boolean sameAs(Section other) {
+            return mediaType.equals(other.mediaType) && port.equals(other.port) && proto.equals(other.proto)
+                    && payloads.equals(other.payloads) && lines.equals(other.lines);
+        }
+
+        // 删除 payload 以及它的 rtpmap/fmtp/rtcp-fb 行
+        private void removePayload(String payload) {
+            payloads.remove(payload);
+            String rtpmap = RTPMAP + payload + " ";
+            String fmtp = FMTP + payload + " ";
+            String rtcpFb = RTCP_FB + payload + " ";
+            for (int i = lines.size() - 1; i >= 0; i--) {
+                String line = lines.get(i);
+                if (line.startsWith(rtpmap) || line.startsWith(fmtp) || line.startsWith(rtcpFb)) {
+                    lines.remove(i);
+                }
+            }
+        }
+
+        // 删除 payloads 以及指向它们的 rtx, 至少保留一个 payload
+        private boolean removePayloads(Set<String> removed) {
+            for (String payload : payloads) {
+                String target = getRtxTarget(payload);
+                if (target != null && removed.contains(target)) {
+                    removed.add(payload);
+                }
+            }
+            if (!removed.containsAll(payloads)) {
+                boolean changed = false;
+                for (String payload : removed) {
+                    if (payloads.contains(payload)) {
+                        removePayload(payload);
+                        changed = true;
+                    }
+                }
+                return changed;
+            }
+            return false;
+        }
+
+        // 最后一个以 prefix 开头的行的位置, 没有时返回 -1
+        private int lastIndexOf(String prefix) {
+            for (int i = lines.size() - 1; i >= 0; i--) {
+                if (lines.get(i).startsWith(prefix)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private final ArrayList<String> sessionLines = new ArrayList<>();
+    private final ArrayList<Section> sections = new ArrayList<>();
+    // 解析时的文本或最近一次序列化的结果, 修改后失效
+    private String text;
+
+    private SdpModel(){
+    }
+
+    public static SdpModel parse(String sdp) {
+        SdpModel model = new SdpModel();
+        Section section = null;
+        int start = 0;
+        int length = sdp.length();
+        while (start < length) {
+            int end = sdp.indexOf('\n', start);
+            if (end < 0) {
+                end = length;
+            }
+            int lineEnd = end > start && sdp.charAt(end - 1) == '\r' ? end - 1 : end;
+            if (lineEnd > start) {
+                String line = sdp.substring(start, lineEnd);
+                if (line.startsWith("m=")) {
+                    section = new Section(line);
+                    model.sections.add(section);
+                } else if (section == null) {
+                    model.sessionLines.add(line);
+                } else {
+                    section.lines.add(line);
+                }
+            }
+            start = end + 1;
+        }
+        // 只有标准格式(每行以 CRLF 结尾)的原文可以直接复用
+        model.text = sdp.endsWith(CRLF) && sdp.indexOf("\n\n") < 0 ? sdp : null;
+        if (model.text != null && model.computeLength() != sdp.length()) {
+            model.text = null;
+        }
+        return model;
+    }
+
+    private int computeLength() {
+        int length = 0;
+        for (String line : sessionLines) {
+            length += line.length() + CRLF.length();
+        }
+        for (Section section : sections) {
+            length += section.textLength();
+        }
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        if (text == null) {
+            StringBuilder builder = new StringBuilder(computeLength());
+            for (String line : sessionLines) {
+                builder.append(line).append(CRLF);
+            }
+            for (Section section : sections) {
+                section.appendTo(builder);
+            }
+            text = builder.toString();
+        }
+        return text;
+    }
+
+    private SdpModel changed() {
+        text = null;
+        return this;
+    }
+
+    public List<String> getSessionLines() {
+        return Collections.unmodifiableList(sessionLines);
+    }
+
+    public List<Section> getSections() {
+        return Collections.unmodifiableList(sections);
+    }
+
+    public Section findByMid(String mid) {
+        for (Section section : sections) {
+            if (mid.equals(section.getMid())) {
+                return section;
+            }
+        }
+        return null;
+    }
+
+    private List<Section> sectionsOf(String mediaType) {
+        List<Section> found = new ArrayList<>(sections.size());
+        for (Section section : sections) {
+            if (mediaType.equals(section.mediaType)) {
+                found.add(section);
+            }
+        }
+        return found;
+    }
+
+    // 把 mediaType 段里 codecNames 列出的编码按给定顺序排到最前面, 其余 payload 保持原来的相对顺序
+    // 当前 WebRTC 版本没有 RtpTransceiver.setCodecPreferences, 编码偏好只能这样调整; 对端按 m-line 里的顺序选择编码
+    public SdpModel reorderCodecs(String mediaType, List<String> codecNames) {
+        for (Section section : sectionsOf(mediaType)) {
+            List<String> ordered = new ArrayList<>(section.payloads.size());
+            for (String codecName : codecNames) {
+                for (String payload : section.findPayloads(codecName)) {
+                    if (!ordered.contains(payload)) {
+                        ordered.add(payload);
+                    }
+                }
+            }
+            if (ordered.isEmpty()) {
+                continue;
+            }
+            for (String payload : section.payloads) {
+                if (!ordered.contains(payload)) {
+                    ordered.add(payload);
+                }
+            }
+            if (!ordered.equals(section.payloads)) {
+                section.payloads.clear();
+                section.payloads.addAll(ordered);
+                changed();
+            }
+        }
+        return this;
+    }
+
+    // 删除 mediaType 段里的这些编码和它们的 rtx; 不会删掉一个段里的所有编码
+    public SdpModel stripCodecs(String mediaType, List<String> codecNames) {
+        for (Section section : sectionsOf(mediaType)) {
+            Set<String> removed = new HashSet<>();
+            for (String codecName : codecNames) {
+                removed.addAll(section.findPayloads(codecName));
+            }
+            if (!removed.isEmpty() && section.removePayloads(removed)) {
+                changed();
+            }
+        }
+        return this;
+    }
+
+    // 设置 mediaType 段的 b=AS (kbps), 放在 c= 行之后; kbps <= 0 时去掉限制
+    public SdpModel setBandwidth(String mediaType, int kbps) {
+        for (Section section : sectionsOf(mediaType)) {
+            int existing = section.lastIndexOf("b=AS:");
+            if (existing >= 0) {
+                section.lines.remove(existing);
+            }
+            if (kbps > 0) {
+                int connection = section.lastIndexOf("c=");
+                section.lines.add(connection + 1, "b=AS:" + kbps);
+            }
+            changed();
+        }
+        return this;
+    }
+
+    // 关闭时删除 rtx 编码, 以及 ssrc-group:FID 和重传流的 a=ssrc 行; 打开时不做修改(由 WebRTC 默认生成)
+    public SdpModel setRtx(String mediaType, boolean enabled) {
+        if (enabled) {
+            return this;
+        }
+        for (Section section : sectionsOf(mediaType)) {
+            Set<String> rtx = new HashSet<>(section.findPayloads("rtx"));
+            boolean changed = !rtx.isEmpty() && section.removePayloads(rtx);
+            Set<String> rtxSsrcs = new HashSet<>();
+            for (int i = section.lines.size() - 1; i >= 0; i--) {
+                String line = section.lines.get(i);
+                if (line.startsWith("a=ssrc-group:FID ")) {
+                    String[] ssrcs = line.substring("a=ssrc-group:FID ".length()).split(" ");
+                    rtxSsrcs.addAll(Arrays.asList(ssrcs).subList(1, ssrcs.length));
+                    section.lines.remove(i);
+                    changed = true;
+                }
+            }
+            for (int i = section.lines.size() - 1; i >= 0 && !rtxSsrcs.isEmpty(); i--) {
+                String line = section.lines.get(i);
+                int space = line.indexOf(' ');
+                if (line.startsWith("a=ssrc:") && space > 0 && rtxSsrcs.contains(line.substring("a=ssrc:".length(), space))) {
+                    section.lines.remove(i);
+                }
+            }
+            if (changed) {
+                changed();
+            }
+        }
+        return this;
+    }
+
+    // 前向纠错: 视频删除/保留 red, ulpfec, flexfec; 音频设置 Opus 的带内 FEC
+    public SdpModel setFec(String mediaType, boolean enabled) {
+        if ("audio".equals(mediaType)) {
+            return setFmtpParameters(mediaType, "opus", Collections.singletonMap("useinbandfec", enabled ? "1" : "0"));
+        }
+        if (enabled) {
+            return this;
+        }
+        return stripCodecs(mediaType, Arrays.asList("red", "ulpfec", "flexfec-03"));
+    }
+
+    // 修改 mediaType 段里 codecName 的 a=fmtp 参数: params 中的值覆盖原有的同名参数, 没有 a=fmtp 行时紧跟在 rtpmap 后新增一行
+    public SdpModel setFmtpParameters(String mediaType, String codecName, Map<String, String> params) {
+        for (Section section : sectionsOf(mediaType)) {
+            for (String payload : section.findPayloads(codecName)) {
+                Map<String, String> merged = section.getFmtp(payload);
+                merged.putAll(params);
+                String prefix = FMTP + payload + " ";
+                StringBuilder builder = new StringBuilder(prefix);
+                for (Map.Entry<String, String> entry : merged.entrySet()) {
+                    if (builder.length() > prefix.length()) {
+                        builder.append(';');
+                    }
+                    builder.append(entry.getKey()).append('=').append(entry.getValue());
+                }
+                int fmtp = section.lastIndexOf(prefix);
+                if (fmtp >= 0) {
+                    section.lines.set(fmtp, builder.toString());
+                } else {
+                    section.lines.add(section.lastIndexOf(RTPMAP + payload + " ") + 1, builder.toString());
+                }
+                changed();
+            }
+        }
+        return this;
+    }
+
+    // 设置 mediaType 段的 a=ptime, 替换已有的值, 没有时加在段末尾
+    public SdpModel setPtime(String mediaType, int ptimeMs) {
+        for (Section section : sectionsOf(mediaType)) {
+            int ptime = section.lastIndexOf("a=ptime:");
+            if (ptime >= 0) {
+                section.lines.set(ptime, "a=ptime:" + ptimeMs);
+            } else {
+                section.lines.add("a=ptime:" + ptimeMs);
+            }
+            changed();
+        }
+        return this;
+    }
+
+    // 被拒绝(端口为 0)的媒体段只保留 mid 和方向, 去掉编码、ssrc、扩展头等不再使用的行
+    // m-line 本身不能删除: 之后每次协商 m-line 的个数和顺序必须保持不变
+    public SdpModel removeUnusedSections() {
+        for (Section section : sections) {
+            if (!section.isRejected()) {
+                continue;
+            }
+            String mid = section.getMid();
+            String connection = section.getAttribute("c=");
+            int before = section.lines.size() + section.payloads.size();
+            // m-line 里至少要有一个格式
+            String first = section.payloads.isEmpty() ? null : section.payloads.get(0);
+            section.payloads.clear();
+            if (first != null) {
+                section.payloads.add(first);
+            }
+            section.lines.clear();
+            if (connection != null) {
+                section.lines.add("c=" + connection);
+            }
+            if (mid != null) {
+                section.lines.add("a=mid:" + mid);
+            }
+            section.lines.add("a=inactive");
+            if (section.lines.size() + section.payloads.size() != before) {
+                changed();
+            }
+        }
+        return this;
+    }
+
+    // 与 other 内容相同的媒体段的位置, 优先同一位置; 没有时返回 -1
+    int findSameSection(Section section, int preferred) {
+        if (preferred < sections.size() && sections.get(preferred).sameAs(section)) {
+            return preferred;
+        }
+        for (int i = 0; i < sections.size(); i++) {
+            if (sections.get(i).sameAs(section)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    boolean sameSessionLines(SdpModel other) {
+        return sessionLines.equals(other.sessionLines);
+    }
+
+    // 供 SdpDelta 重建: 复制会话行或媒体段
+    static SdpModel empty() {
+        return new SdpModel();
+    }
+
+    void addSessionLines(List<String> lines) {
+        sessionLines.addAll(lines);
+        changed();
+    }
+
+    void addSection(Section section) {
+        Section copy = new Section(section.getMLine());
+        copy.lines.addAll(section.lines);
+        sections.add(copy);
+        changed();
+    }
+
+    void addSection(String mLine, List<String> lines) {
+        Section section = new Section(mLine);
+        section.lines.addAll(lines);
+        sections.add(section);
+        changed();
+    }
+}
@@ -2,27 +2,18 @@ package com.bo.webrtc_android;
 
 import android.util.Log;
 
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.webrtc.IceCandidate;
 import org.webrtc.SessionDescription;
 
-import java.net.URISyntaxException;
-import java.security.KeyManagementException;
-import java.security.NoSuchAlgorithmException;
-import java.security.cert.CertificateException;
-import java.security.cert.X509Certificate;
-import java.util.Arrays;
-
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509TrustManager;
-
-import io.socket.client.IO;
-import io.socket.client.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 // 单例模式
-public class SignalingClient {
+public class SignalingClient implements PeerNegotiator.Signaling {
     private static SignalingClient instance;
     private SignalingClient(){}
 
@@ -38,144 +29,203 @@ public class SignalingClient {
         return instance;
     }
 
-    // io.socket.client.Socket
-    private Socket socket;
+    private static final String SERVER_URL = "https://bocode.xyz";
+
+    // 信令传输层, 默认为 socket.io
+    private SignalingTransport transport;
     private String room = "OldPlace";
     // 自定义接口
     private Callback callback;
-    // new(){}匿名内部类
-    private final TrustManager[] trustAll = new TrustManager[]{
-        new X509TrustManager() {
-            @Override
-            public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
-
-            }
-
-            @Override
-            public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
-
-            }
-
-            @Override
-            public X509Certificate[] getAcceptedIssuers() {
-                return new X509Certificate[0];
-            }
-        }
-    };
+    // ICE候选合并发送的时间窗口(毫秒), <=0 表示每个候选单独发送
+    private long iceBatchWindowMs = 100;
+    // 按目标socketId暂存还未发送的ICE候选
+    private final HashMap<String, List<IceCandidate>> pendingCandidates = new HashMap<>();
+    private final ScheduledExecutorService iceBatchExecutor = Executors.newSingleThreadScheduledExecutor();
 
     public void setCallback(Callback callback){
         this.callback = callback;
     }
 
+    public void setIceBatchWindow(long windowMs){
+        this.iceBatchWindowMs = windowMs;
+    }
+
     public void init(Callback callback){
-        this.callback = callback;
-        try {
-            SSLContext sslContext = SSLContext.getInstance("TLS");
-            sslContext.init(null, trustAll, null);
-            IO.setDefaultHostnameVerifier((hostname, session) -> true);
-            IO.setDefaultSSLContext(sslContext);
+        // 断线后自动重连并以原来的身份回到房间
+        init(callback, new ReconnectingTransport(() -> new SocketIoTransport(SERVER_URL)));
+    }
 
-            socket = IO.socket("https://bocode.xyz");
-            socket.connect();
+    public void init(Callback callback, SignalingTransport transport){
+        this.callback = callback;
+        this.transport = transport;
+        transport.connect(room, new SignalingTransport.Listener() {
+            @Override
+            public void onConnected() {
+                Log.e("bo", "signaling connected");
+            }
 
-            socket.emit("create or join", room);
+            @Override
+            public void onDisconnected() {
+                // 重连期间发出的消息会排队, PeerConnection 保持不动
+                Log.e("bo", "signaling disconnected");
+            }
 
-            socket.on("created", args -> {
+            @Override
+            public void onCreated() {
                 Log.e("bo", "room created");
-                callback.onCreateRoom();
-            });
+                SignalingClient.this.callback.onCreateRoom();
+            }
 
-            socket.on("full", args -> {
+            @Override
+            public void onFull() {
                 Log.e("bo", "room full");
-            });
+            }
+
+            @Override
+            public void onSelfJoined() {
+                Log.e("bo", "self joined:" + transport.id());
+                SignalingClient.this.callback.onSelfJoined();
+            }
 
             // 另一位用户加入房间
-            socket.on("join", args -> {
-                Log.e("bo", "peer joined" + Arrays.toString(args));
-                //onPeerJoined(String socketId) 新加入用户的socketId
-                callback.onPeerJoined(String.valueOf(args[1]));
-            });
-
-            // 自己加入房间
-            socket.on("joined", args -> {
-                Log.e("bo", "self joined:" + socket.id());
-                callback.onSelfJoined();
-            });
-
-            // 接收日志
-            socket.on("log", args -> {
-                Log.e("bo", "log call " + Arrays.toString(args));
-            });
+            @Override
+            public void onPeerJoined(String socketId) {
+                Log.e("bo", "peer joined " + socketId);
+                SignalingClient.this.callback.onPeerJoined(socketId);
+            }
 
             // 对端离开
-            socket.on("bye", args -> {
-                Log.e("bo", "bye " + args[0]);
-                callback.onPeerLeave((String)args[0]);
-            });
-
-            socket.on("message", args -> {
-                Log.e("bo", "message " + Arrays.toString(args));
-                Object arg = args[0];
-                if (arg instanceof JSONObject){
-                    JSONObject data = (JSONObject) arg;
-                    String type = data.optString("type");
-                    if("offer".equals(type)) {
-                        callback.onOfferReceived(data);
-                    } else if("answer".equals(type)) {
-                        callback.onAnswerReceived(data);
-                    } else if("candidate".equals(type)) {
-                        callback.onIceCandidateReceived(data);
+            @Override
+            public void onPeerLeave(String socketId) {
+                Log.e("bo", "bye " + socketId);
+                SignalingClient.this.callback.onPeerLeave(socketId);
+            }
+
+            @Override
+            public void onMessage(SignalingMessage message) {
+                if (SignalingMessage.OFFER.equals(message.type)) {
+                    SignalingClient.this.callback.onOfferReceived(message);
+                } else if (SignalingMessage.ANSWER.equals(message.type)) {
+                    SignalingClient.this.callback.onAnswerReceived(message);
+                } else if (SignalingMessage.CANDIDATE.equals(message.type)) {
+                    // 单个候选和批量候选都交给同一个回调处理
+                    SignalingClient.this.callback.onIceCandidateReceived(message);
+                } else if (SignalingMessage.LAYER.equals(message.type)) {
+                    SignalingClient.this.callback.onLayerRequested(message);
+                } else if (SignalingMessage.NEGOTIATE.equals(message.type)) {
+                    SignalingClient.this.callback.onNegotiationRequested(message);
+                } else if (SignalingMessage.ICE_RESTART.equals(message.type)) {
+                    SignalingClient.this.callback.onIceRestartRequested(message);
+                } else if (SignalingMessage.RESYNC.equals(message.type)) {
+                    SignalingClient.this.callback.onResyncRequested(message);
+                } else if (SignalingMessage.ICE_CONFIG.equals(message.type)) {
+                    // 只接受带配置的下发, 空的多半是别的客户端的请求被转发了过来
+                    if (message.sdp == null || message.sdp.isEmpty()) {
+                        Log.w("bo", "ignore empty ice config from " + message.from);
+                        return;
                     }
+                    SignalingClient.this.callback.onIceConfig(message);
+                } else if (SignalingMessage.PUBLISH.equals(message.type)) {
+                    SignalingClient.this.callback.onPublished(message);
+                } else if (SignalingMessage.UNPUBLISH.equals(message.type)) {
+                    SignalingClient.this.callback.onUnpublished(message);
                 }
-            });
-
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        } catch (KeyManagementException e) {
-            e.printStackTrace();
-        } catch (URISyntaxException e) {
-            e.printStackTrace();
-        }
+            }
+        });
+    }
 
+    // 默认网络发生变化, 立即重建信令连接
+    public void onNetworkChanged() {
+        if (transport instanceof ReconnectingTransport) {
+            ((ReconnectingTransport) transport).reconnectNow();
+        }
     }
 
     public void destroy(){
-        socket.emit("bye", socket.id());
-        socket.disconnect();
-        socket.close();
+        iceBatchExecutor.shutdownNow();
+        transport.disconnect();
         instance = null;
     }
 
-    // 向指定目标to发送ice候选
+    // 向指定目标to发送ice候选, 在时间窗口内按目标合并, 窗口到期或收集完成时一次发出
     public void sendIceCandidate(IceCandidate iceCandidate, String to) {
-        JSONObject jo = new JSONObject();
-        try {
-            jo.put("type", "candidate");
-            jo.put("label", iceCandidate.sdpMLineIndex);
-            jo.put("id", iceCandidate.sdpMid);
-            jo.put("candidate", iceCandidate.sdp);
-            jo.put("from", socket.id());
-            jo.put("to", to);
-
-            socket.emit("message", jo);
-        } catch (JSONException e) {
-            e.printStackTrace();
+        if (iceBatchWindowMs <= 0) {
+            List<IceCandidate> single = new ArrayList<>(1);
+            single.add(iceCandidate);
+            sendIceCandidates(single, to);
+            return;
+        }
+        synchronized (pendingCandidates) {
+            List<IceCandidate> candidates = pendingCandidates.get(to);
+            if (candidates == null) {
+                candidates = new ArrayList<>();
+                pendingCandidates.put(to, candidates);
+                // 该目标的第一个候选开启一个新的窗口
+                iceBatchExecutor.schedule(() -> flushIceCandidates(to), iceBatchWindowMs, TimeUnit.MILLISECONDS);
+            }
+            candidates.add(iceCandidate);
+        }
+    }
+
+    // 立即发送发往to的所有暂存候选, onIceGatheringChange 为 COMPLETE 时调用
+    public void flushIceCandidates(String to) {
+        List<IceCandidate> candidates;
+        synchronized (pendingCandidates) {
+            candidates = pendingCandidates.remove(to);
         }
+        if (candidates != null && !candidates.isEmpty()) {
+            sendIceCandidates(candidates, to);
+        }
+    }
+
+    private void sendIceCandidates(List<IceCandidate> iceCandidates, String to) {
+        transport.send(SignalingMessage.candidates(iceCandidates, transport.id(), to));
+    }
+
+    // 本端的socketId
+    public String id() {
+        return transport.id();
     }
 
     // 发生sdp
+    @Override
     public void sendSessionDescription(SessionDescription sdp, String to) {
-        JSONObject jo = new JSONObject();
-        try {
-            jo.put("type", sdp.type.canonicalForm());
-            jo.put("sdp", sdp.description);
-            jo.put("from", socket.id());
-            jo.put("to", to);
-
-            socket.emit("message", jo);
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
+        transport.send(SignalingMessage.sessionDescription(sdp, transport.id(), to));
+    }
+
+    @Override
+    public void requestNegotiation(String to) {
+        transport.send(SignalingMessage.control(SignalingMessage.NEGOTIATE, transport.id(), to));
+    }
+
+    @Override
+    public void requestIceRestart(String to) {
+        transport.send(SignalingMessage.control(SignalingMessage.ICE_RESTART, transport.id(), to));
+    }
+
+    @Override
+    public void requestResync(String to) {
+        transport.send(SignalingMessage.control(SignalingMessage.RESYNC, transport.id(), to));
+    }
+
+    // 向服务器请求新的 STUN/TURN 配置, 服务器不支持时没有回应
+    public void requestIceConfig() {
+        transport.send(SignalingMessage.control(SignalingMessage.ICE_CONFIG_REQUEST, transport.id(), room));
+    }
+
+    // SFU 模式: 开始发布本地画面
+    public void publish() {
+        transport.send(SignalingMessage.control(SignalingMessage.PUBLISH, transport.id(), SignalingMessage.SFU_UPSTREAM));
+    }
+
+    // SFU 模式: 订阅房间内的所有发布端
+    public void subscribe() {
+        transport.send(SignalingMessage.control(SignalingMessage.SUBSCRIBE, transport.id(), SignalingMessage.SFU_DOWNSTREAM));
+    }
+
+    // 告诉发布端to本端显示它的画面大小
+    public void sendLayerRequest(int width, int height, String to) {
+        transport.send(SignalingMessage.layer(width, height, transport.id(), to));
     }
 
     public interface Callback {
@@ -184,8 +234,17 @@ public class SignalingClient {
         void onSelfJoined();
         void onPeerLeave(String msg);
 
-        void onOfferReceived(JSONObject data);
-        void onAnswerReceived(JSONObject data);
-        void onIceCandidateReceived(JSONObject data);
+        void onOfferReceived(SignalingMessage message);
+        void onAnswerReceived(SignalingMessage message);
+        void onIceCandidateReceived(SignalingMessage message);
+        void onLayerRequested(SignalingMessage message);
+        void onNegotiationRequested(SignalingMessage message);
+        void onIceRestartRequested(SignalingMessage message);
+        void onResyncRequested(SignalingMessage message);
+        // 服务器下发的 ICE 配置, message.sdp 为 JSON
+        void onIceConfig(SignalingMessage message);
+        // SFU 模式: message.from 开始/停止发布
+        void onPublished(SignalingMessage message);
+        void onUnpublished(SignalingMessage message);
     }
 }
@@ -0,0 +1,8 @@
+package com.bo.webrtc_android;
+
+// 信令消息的编解码, 解码失败时返回 null
+public interface SignalingCodec {
+    byte[] encode(SignalingMessage message);
+
+    SignalingMessage decode(byte[] data, int offset, int length);
+}
@@ -0,0 +1,93 @@
+package com.bo.webrtc_android;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 信令消息的分发器, 同一个socketId的任务按到达顺序串行执行, 不同socketId的任务在线程池里并行执行
+// 既不阻塞 socket 的读线程, 也不占用 UI 线程
+public class SignalingDispatcher {
+    private static class SerialQueue {
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        // 该队列当前是否已有任务提交到线程池
+        boolean running;
+    }
+
+    private final ExecutorService pool;
+    private final HashMap<String, SerialQueue> queues = new HashMap<>();
+    private boolean shutdown;
+
+    public SignalingDispatcher(int threads){
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> new Thread(runnable, "signaling-dispatch-" + count.incrementAndGet());
+        pool = Executors.newFixedThreadPool(threads, threadFactory);
+    }
+
+    public SignalingDispatcher(){
+        this(Math.max(2, Runtime.getRuntime().availableProcessors()));
+    }
+
+    public void execute(String socketId, Runnable task) {
+        synchronized (this) {
+            if (shutdown) {
+                return;
+            }
+            SerialQueue queue = queues.get(socketId);
+            if (queue == null) {
+                queue = new SerialQueue();
+                queues.put(socketId, queue);
+            }
+            queue.tasks.add(task);
+            if (queue.running) {
+                return;
+            }
+            queue.running = true;
+            submit(socketId, queue);
+        }
+    }
+
+    // 每次只执行队列里的一个任务, 再重新排队, 某个对端积压很多消息时其他对端也不会饿死
+    private void submit(String socketId, SerialQueue queue) {
+        pool.execute(() -> {
+            Runnable task;
+            synchronized (this) {
+                task = queue.tasks.poll();
+            }
+            try {
+                if (task != null) {
+                    task.run();
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            synchronized (this) {
+                if (shutdown) {
+                    return;
+                }
+                if (queue.tasks.isEmpty()) {
+                    queue.running = false;
+                    // 空闲的队列不保留, 离开的对端不会一直占着
+                    if (queues.get(socketId) == queue) {
+                        queues.remove(socketId);
+                    }
+                } else {
+                    submit(socketId, queue);
+                }
+            }
+        });
+    }
+
+    // 当前有任务待执行的对端个数
+    public synchronized int getQueueCount() {
+        return queues.size();
+    }
+
+    public synchronized void shutdown() {
+        shutdown = true;
+        queues.clear();
+        pool.shutdownNow();
+    }
+}
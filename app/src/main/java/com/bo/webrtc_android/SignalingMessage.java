@@ -0,0 +1,124 @@
+package com.bo.webrtc_android;
+
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// 信令消息, 与具体的传输方式和编码方式无关
+public class SignalingMessage {
+    public static final String OFFER = "offer";
+    public static final String ANSWER = "answer";
+    // 一条消息可以携带一个或多个ICE候选
+    public static final String CANDIDATE = "candidate";
+    // 订阅端告诉发布端自己显示该路视频的画面大小, sdp 字段为 "宽x高", 0x0 表示当前不可见
+    public static final String LAYER = "layer";
+    // polite 一方请求对端发起 offer
+    public static final String NEGOTIATE = "negotiate";
+    // 请求对端发起一次 ICE restart 的 offer
+    public static final String ICE_RESTART = "restart";
+    // 收到的 SDP 增量无法还原, 请求对端重发完整的 offer/answer
+    public static final String RESYNC = "resync";
+
+    // SFU 模式: 客户端只和 SFU 的两个端点建立连接, 上行连接发布本地画面, 下行连接接收其他人的画面
+    // 发给 SFU 的 offer/answer/candidate 的 to 为对应的端点, SFU 发来的消息 from 为对应的端点
+    public static final String SFU_UPSTREAM = "sfu-up";
+    public static final String SFU_DOWNSTREAM = "sfu-down";
+    // 客户端 -> SFU_UPSTREAM: 开始发布, 之后由客户端发起上行连接的 offer
+    // SFU -> 客户端: from 开始发布, 它的画面会出现在下行连接里, 流id为 from
+    public static final String PUBLISH = "publish";
+    // SFU -> 客户端: from 停止发布(离开房间)
+    public static final String UNPUBLISH = "unpublish";
+    // 客户端 -> SFU_DOWNSTREAM: 订阅房间内所有发布端, 下行连接由 SFU 发起 offer
+    public static final String SUBSCRIBE = "subscribe";
+
+    // 以下为房间控制消息, from 为相关客户端的socketId, to 为房间名
+    public static final String JOIN = "create or join";
+    public static final String CREATED = "created";
+    public static final String JOINED = "joined";
+    public static final String PEER_JOINED = "join";
+    public static final String FULL = "full";
+    public static final String BYE = "bye";
+    // 断线重连后以原来的 from 重新加入房间 to, 服务器不向房间内其他人发送 bye/join
+    public static final String RESUME = "resume";
+    // 服务器 -> 客户端: 确认 resume, from 为恢复的id; 不支持 resume 的服务器不回应, 客户端超时后按新客户端加入
+    public static final String RESUMED = "resumed";
+    // 服务器 -> 客户端: sdp 字段为 IceConfig 格式的 JSON, 其中的 TURN 凭证可能是临时的
+    public static final String ICE_CONFIG = "ice-config";
+    // 客户端 -> 服务器: 请求 ICE_CONFIG; 不认识它的服务器可能转发给房间里的人, 客户端收到时忽略
+    public static final String ICE_CONFIG_REQUEST = "ice-config-request";
+
+    public final String type;
+    public final String from;
+    public final String to;
+    // offer/answer 的 sdp, 其他类型为 null
+    public final String sdp;
+    public final List<IceCandidate> candidates;
+
+    public SignalingMessage(String type, String from, String to, String sdp, List<IceCandidate> candidates) {
+        this.type = type;
+        this.from = from;
+        this.to = to;
+        this.sdp = sdp;
+        this.candidates = candidates == null ? Collections.<IceCandidate>emptyList() : candidates;
+    }
+
+    public static SignalingMessage sessionDescription(SessionDescription sdp, String from, String to) {
+        return new SignalingMessage(sdp.type.canonicalForm(), from, to, sdp.description, null);
+    }
+
+    public static SignalingMessage candidates(List<IceCandidate> candidates, String from, String to) {
+        return new SignalingMessage(CANDIDATE, from, to, null, new ArrayList<>(candidates));
+    }
+
+    public static SignalingMessage layer(int width, int height, String from, String to) {
+        return new SignalingMessage(LAYER, from, to, width + "x" + height, null);
+    }
+
+    public static SignalingMessage control(String type, String from, String room) {
+        return new SignalingMessage(type, from, room, null, null);
+    }
+
+    // LAYER 消息的画面宽高
+    public int[] layerSize() {
+        int index = sdp == null ? -1 : sdp.indexOf('x');
+        if (index < 0) {
+            return new int[]{0, 0};
+        }
+        try {
+            return new int[]{Integer.parseInt(sdp.substring(0, index)), Integer.parseInt(sdp.substring(index + 1))};
+        } catch (NumberFormatException e) {
+            return new int[]{0, 0};
+        }
+    }
+
+    public SessionDescription toSessionDescription() {
+        return new SessionDescription(SessionDescription.Type.fromCanonicalForm(type), sdp);
+    }
+
+    // 把消息分发给传输层的监听者, 控制消息和普通消息走不同的回调
+    public void deliver(SignalingTransport.Listener listener) {
+        switch (type) {
+            case CREATED:
+                listener.onCreated();
+                break;
+            case JOINED:
+                listener.onSelfJoined();
+                break;
+            case PEER_JOINED:
+                listener.onPeerJoined(from);
+                break;
+            case FULL:
+                listener.onFull();
+                break;
+            case BYE:
+                listener.onPeerLeave(from);
+                break;
+            default:
+                listener.onMessage(this);
+                break;
+        }
+    }
+}
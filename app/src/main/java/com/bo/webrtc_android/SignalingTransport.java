@@ -0,0 +1,37 @@
+package com.bo.webrtc_android;
+
+// 信令传输层, SignalingClient 通过它收发消息
+public interface SignalingTransport {
+    // 连接服务器并加入(或创建)房间, 连接建立之后才发送加入房间的请求
+    void connect(String room, Listener listener);
+
+    // 断线重连: 建立新连接后以之前分配到的 id 重新加入房间, 房间内其他客户端看到的仍是同一个对端
+    // 服务器确认后通过 onMessage 送来 RESUMED; 服务器也可能按新客户端处理, 回应 created/joined
+    void resume(String room, String id, Listener listener);
+
+    // 本端在服务器上的socketId, 加入房间之前可能为 null; resume 在服务器确认之后才沿用原来的 id
+    String id();
+
+    void send(SignalingMessage message);
+
+    // 通知房间内的其他客户端并断开连接
+    void disconnect();
+
+    // 只关闭连接, 不通知房间, 用于放弃一条已经失效的连接
+    void close();
+
+    interface Listener {
+        // 连接已建立, 加入房间的请求已经发出, 之后发送的消息会排在它后面
+        void onConnected();
+
+        // 连接意外断开, 主动 disconnect/close 时不回调
+        void onDisconnected();
+
+        void onCreated();
+        void onFull();
+        void onSelfJoined();
+        void onPeerJoined(String socketId);
+        void onPeerLeave(String socketId);
+        void onMessage(SignalingMessage message);
+    }
+}
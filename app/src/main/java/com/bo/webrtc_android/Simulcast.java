@@ -0,0 +1,33 @@
+package com.bo.webrtc_android;
+
+import org.webrtc.RtpParameters;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// 联播(simulcast)发布用的三层编码, 从低到高依次为 q/h/f
+// 全网状连接中每个 PeerConnection 都有自己的编码器, 所以每个对端只保持一层处于激活状态,
+// 激活哪一层由 BitrateController 按对端的画面大小和带宽决定
+public class Simulcast {
+    public static final String[] RIDS = {"q", "h", "f"};
+    // 每一层相对采集分辨率的缩放
+    static final double[] SCALES = {4.0, 2.0, 1.0};
+
+    public static List<RtpParameters.Encoding> createSendEncodings() {
+        List<RtpParameters.Encoding> encodings = new ArrayList<>(RIDS.length);
+        for (int i = 0; i < RIDS.length; i++) {
+            encodings.add(new RtpParameters.Encoding(RIDS[i], true, SCALES[i]));
+        }
+        return encodings;
+    }
+
+    // 返回不高于目标分辨率的最高一层, scaleDownBy 为目标的缩放倍数
+    static String ridForScale(double scaleDownBy) {
+        for (int i = SCALES.length - 1; i >= 0; i--) {
+            if (SCALES[i] >= scaleDownBy) {
+                return RIDS[i];
+            }
+        }
+        return RIDS[0];
+    }
+}
@@ -0,0 +1,179 @@
+package com.bo.webrtc_android;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.net.URISyntaxException;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import io.socket.client.IO;
+import io.socket.client.Socket;
+import io.socket.emitter.Emitter;
+
+// 基于 socket.io 的信令传输, 消息使用 JSON 编码
+public class SocketIoTransport implements SignalingTransport {
+    private final String url;
+    // io.socket.client.Socket
+    private Socket socket;
+    private volatile String resumeId;
+    // 服务器确认了 resume, 之后按 resumeId 转发消息
+    private volatile boolean resumed;
+    // 主动关闭或已经通知过断开
+    private volatile boolean closed;
+    // new(){}匿名内部类
+    private final TrustManager[] trustAll = new TrustManager[]{
+        new X509TrustManager() {
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+
+            }
+
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+
+            }
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        }
+    };
+
+    public SocketIoTransport(String url){
+        this.url = url;
+    }
+
+    @Override
+    public void connect(String room, Listener listener) {
+        open(room, null, listener);
+    }
+
+    @Override
+    public void resume(String room, String id, Listener listener) {
+        open(room, id, listener);
+    }
+
+    // resumeId 为 null 时作为新客户端加入房间
+    private void open(String room, String resumeId, Listener listener) {
+        try {
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, trustAll, null);
+            IO.setDefaultHostnameVerifier((hostname, session) -> true);
+            IO.setDefaultSSLContext(sslContext);
+
+            IO.Options options = new IO.Options();
+            // 重连由 ReconnectingTransport 负责, socket.io 自己重连后会拿到新的id且不会重新加入房间
+            options.reconnection = false;
+            socket = IO.socket(url, options);
+            this.resumeId = resumeId;
+
+            // 连接建立后才加入房间, 否则请求可能在连接完成前丢失
+            socket.on(Socket.EVENT_CONNECT, args -> {
+                if (resumeId == null) {
+                    socket.emit(SignalingMessage.JOIN, room);
+                } else {
+                    socket.emit(SignalingMessage.RESUME, room, resumeId);
+                }
+                listener.onConnected();
+            });
+
+            Emitter.Listener lost = args -> {
+                if (!closed) {
+                    closed = true;
+                    listener.onDisconnected();
+                }
+            };
+            socket.on(Socket.EVENT_DISCONNECT, lost);
+            socket.on(Socket.EVENT_CONNECT_ERROR, lost);
+            socket.on(Socket.EVENT_CONNECT_TIMEOUT, lost);
+
+            socket.on(SignalingMessage.RESUMED, args -> {
+                resumed = true;
+                listener.onMessage(SignalingMessage.control(SignalingMessage.RESUMED, resumeId, room));
+            });
+
+            socket.on(SignalingMessage.CREATED, args -> listener.onCreated());
+
+            socket.on(SignalingMessage.FULL, args -> listener.onFull());
+
+            // 另一位用户加入房间, args[1] 为新加入用户的socketId
+            socket.on(SignalingMessage.PEER_JOINED, args -> listener.onPeerJoined(String.valueOf(args[1])));
+
+            // 自己加入房间
+            socket.on(SignalingMessage.JOINED, args -> listener.onSelfJoined());
+
+            // 接收日志
+            socket.on("log", args -> {
+                Log.e("bo", "log call " + Arrays.toString(args));
+            });
+
+            // 对端离开
+            socket.on(SignalingMessage.BYE, args -> listener.onPeerLeave((String) args[0]));
+
+            socket.on("message", args -> {
+                Object arg = args[0];
+                if (arg instanceof JSONObject){
+                    SignalingMessage message = JsonSignalingCodec.fromJson((JSONObject) arg);
+                    if (message != null) {
+                        listener.onMessage(message);
+                    }
+                }
+            });
+
+            socket.connect();
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+        } catch (KeyManagementException e) {
+            e.printStackTrace();
+        } catch (URISyntaxException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public String id() {
+        // 服务器确认恢复之后沿用原来的id, 否则服务器按新连接的 socket.id 转发消息
+        if (resumed) {
+            return resumeId;
+        }
+        return socket == null ? null : socket.id();
+    }
+
+    @Override
+    public void send(SignalingMessage message) {
+        try {
+            socket.emit("message", JsonSignalingCodec.toJson(message));
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void disconnect() {
+        if (socket == null) {
+            return;
+        }
+        socket.emit(SignalingMessage.BYE, id());
+        close();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (socket != null) {
+            socket.disconnect();
+            socket.close();
+        }
+    }
+}
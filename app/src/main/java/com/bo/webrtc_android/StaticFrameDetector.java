@@ -0,0 +1,85 @@
+package com.bo.webrtc_android;
+
+// 屏幕共享的帧率限制和静止画面检测: 每个时间槽最多检查一帧, 和上一次送出的帧比较缩小后的亮度,
+// 没有变化的帧不送给编码器, 但每隔 keepAliveMs 仍然送出一帧, 编码器可以继续提高静止画面的清晰度, 也能响应关键帧请求
+// 只在采集线程调用
+class StaticFrameDetector {
+    // 任意一个像素的亮度差超过它才算变化; 屏幕内容没有噪声, 只需要容忍缩放时的舍入误差
+    static final int LUMA_THRESHOLD = 2;
+
+    private final long minIntervalNs;
+    private final long keepAliveNs;
+    private byte[] last;
+    private int lastWidth;
+    private int lastHeight;
+    private long lastCheckedNs = -1;
+    private long lastSentNs = -1;
+    private long sentFrames;
+    private long skippedFrames;
+
+    StaticFrameDetector(int fps, long keepAliveMs){
+        minIntervalNs = 1_000_000_000L / Math.max(1, fps);
+        keepAliveNs = keepAliveMs * 1_000_000L;
+    }
+
+    // 距离下一个时间槽还有多久, 0 表示现在就可以检查
+    long delayNs(long nowNs) {
+        if (lastCheckedNs < 0) {
+            return 0;
+        }
+        return Math.max(0, lastCheckedNs + minIntervalNs - nowNs);
+    }
+
+    // luma 为 width*height 的亮度平面, 行之间没有填充; 返回 true 表示这一帧要送给编码器
+    boolean shouldSend(byte[] luma, int width, int height, long nowNs) {
+        lastCheckedNs = nowNs;
+        boolean changed = last == null || width != lastWidth || height != lastHeight
+                || differs(last, luma, width * height);
+        boolean keepAlive = lastSentNs < 0 || nowNs - lastSentNs >= keepAliveNs;
+        if (!changed && !keepAlive) {
+            skippedFrames++;
+            return false;
+        }
+        if (last == null || last.length < width * height) {
+            last = new byte[width * height];
+        }
+        System.arraycopy(luma, 0, last, 0, width * height);
+        lastWidth = width;
+        lastHeight = height;
+        lastSentNs = nowNs;
+        sentFrames++;
+        return true;
+    }
+
+    // 距离下一次保活还有多久, 还没有送出过帧时返回 -1
+    long keepAliveDelayNs(long nowNs) {
+        if (lastSentNs < 0) {
+            return -1;
+        }
+        return Math.max(0, lastSentNs + keepAliveNs - nowNs);
+    }
+
+    // 画面一直没有新的帧, 调用者重新送出了上一帧; 它也占用一个时间槽
+    void onKeepAliveSent(long nowNs) {
+        lastCheckedNs = nowNs;
+        lastSentNs = nowNs;
+        sentFrames++;
+    }
+
+    private static boolean differs(byte[] a, byte[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (Math.abs((a[i] & 0xff) - (b[i] & 0xff)) > LUMA_THRESHOLD) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    long getSentFrames() {
+        return sentFrames;
+    }
+
+    long getSkippedFrames() {
+        return skippedFrames;
+    }
+}
@@ -0,0 +1,371 @@
+package com.bo.webrtc_android;
+
+import android.util.Log;
+
+import org.webrtc.RTCStats;
+import org.webrtc.RTCStatsReport;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// 从每一轮 getStats 计算连接质量: 收发码率, 帧率, 卡顿次数, 抖动, RTT, 选中的候选对类型, 每帧编解码耗时
+// 结果写进无锁环形缓冲区, 可以显示在画面上, 也可以导出为每行一个 JSON 的文件(NDJSON)供运维分析哪些通话走了 TURN 中继、为什么质量下降
+public class StatsCollector implements StatsPoller.Listener {
+    private static final String TAG = "boStats";
+    // 2 秒一次, 8 个对端时约 17 分钟
+    static final int CAPACITY = 4096;
+
+    public interface Listener {
+        // 在 WebRTC 的信令线程回调
+        void onSample(Sample sample);
+    }
+
+    // 一轮统计里的累计值, 没有对应统计时为 -1 或 null
+    static class Counters {
+        double timestampUs;
+        double bytesSent;
+        double bytesReceived;
+        double framesEncoded = -1;
+        double framesDecoded = -1;
+        // 秒
+        double totalEncodeTime = -1;
+        double totalDecodeTime = -1;
+        // 新版本的 inbound-rtp 直接给出卡顿次数
+        double freezeCount = -1;
+        double packetsReceived;
+        double packetsLost;
+        // 秒
+        double jitter = -1;
+        double rtt = -1;
+        double availableOutgoingBitrate = -1;
+        String localCandidateType;
+        String remoteCandidateType;
+        String relayProtocol;
+        String relayUrl;
+        String qualityLimitationReason;
+    }
+
+    public static class Sample {
+        public final String socketId;
+        public final long wallTimeMs;
+        public final double sendBitrateBps;
+        public final double recvBitrateBps;
+        public final double sendFps;
+        public final double recvFps;
+        public final int freezeCount;
+        public final double jitterMs;
+        public final double rttMs;
+        // 上一个区间的丢包率
+        public final double packetLoss;
+        public final double availableOutgoingBitrateBps;
+        // 每帧编码/解码耗时(毫秒), 没有统计时为 -1
+        public final double encodeMsPerFrame;
+        public final double decodeMsPerFrame;
+        // host/srflx/prflx/relay
+        public final String localCandidateType;
+        public final String remoteCandidateType;
+        // 走中继时本端连接 TURN 服务器的地址和协议
+        public final String relayUrl;
+        public final String relayProtocol;
+        // 发送端降低画质的原因: cpu/bandwidth/other/none
+        public final String qualityLimitationReason;
+
+        Sample(String socketId, long wallTimeMs, double sendBitrateBps, double recvBitrateBps, double sendFps,
+               double recvFps, int freezeCount, double jitterMs, double rttMs, double packetLoss,
+               double availableOutgoingBitrateBps, double encodeMsPerFrame, double decodeMsPerFrame, Counters counters){
+            this.socketId = socketId;
+            this.wallTimeMs = wallTimeMs;
+            this.sendBitrateBps = sendBitrateBps;
+            this.recvBitrateBps = recvBitrateBps;
+            this.sendFps = sendFps;
+            this.recvFps = recvFps;
+            this.freezeCount = freezeCount;
+            this.jitterMs = jitterMs;
+            this.rttMs = rttMs;
+            this.packetLoss = packetLoss;
+            this.availableOutgoingBitrateBps = availableOutgoingBitrateBps;
+            this.encodeMsPerFrame = encodeMsPerFrame;
+            this.decodeMsPerFrame = decodeMsPerFrame;
+            this.localCandidateType = counters.localCandidateType;
+            this.remoteCandidateType = counters.remoteCandidateType;
+            this.relayUrl = counters.relayUrl;
+            this.relayProtocol = counters.relayProtocol;
+            this.qualityLimitationReason = counters.qualityLimitationReason;
+        }
+
+        public boolean isRelayed() {
+            return "relay".equals(localCandidateType) || "relay".equals(remoteCandidateType);
+        }
+
+        // 显示在画面上的一行
+        public String toDisplayString() {
+            return String.format(Locale.US, "%s %s/%s ↑%.0fk %.0ffps ↓%.0fk %.0ffps rtt=%.0fms jitter=%.0fms loss=%.1f%% freeze=%d enc=%.1fms dec=%.1fms%s",
+                    socketId, localCandidateType, remoteCandidateType, sendBitrateBps / 1000, sendFps,
+                    recvBitrateBps / 1000, recvFps, rttMs, jitterMs, packetLoss * 100, freezeCount,
+                    encodeMsPerFrame, decodeMsPerFrame,
+                    qualityLimitationReason != null && !"none".equals(qualityLimitationReason) ? " limit=" + qualityLimitationReason : "");
+        }
+
+        // NDJSON 的一行, 不含换行符
+        public String toJson() {
+            StringBuilder builder = new StringBuilder(384);
+            builder.append('{');
+            appendString(builder, "peer", socketId).append(',');
+            builder.append("\"ts\":").append(wallTimeMs).append(',');
+            appendNumber(builder, "sendBitrate", sendBitrateBps).append(',');
+            appendNumber(builder, "recvBitrate", recvBitrateBps).append(',');
+            appendNumber(builder, "sendFps", sendFps).append(',');
+            appendNumber(builder, "recvFps", recvFps).append(',');
+            builder.append("\"freezeCount\":").append(freezeCount).append(',');
+            appendNumber(builder, "jitterMs", jitterMs).append(',');
+            appendNumber(builder, "rttMs", rttMs).append(',');
+            appendNumber(builder, "packetLoss", packetLoss).append(',');
+            appendNumber(builder, "availableOutgoingBitrate", availableOutgoingBitrateBps).append(',');
+            appendNumber(builder, "encodeMsPerFrame", encodeMsPerFrame).append(',');
+            appendNumber(builder, "decodeMsPerFrame", decodeMsPerFrame).append(',');
+            appendString(builder, "localCandidateType", localCandidateType).append(',');
+            appendString(builder, "remoteCandidateType", remoteCandidateType).append(',');
+            builder.append("\"relayed\":").append(isRelayed()).append(',');
+            appendString(builder, "relayUrl", relayUrl).append(',');
+            appendString(builder, "relayProtocol", relayProtocol).append(',');
+            appendString(builder, "qualityLimitationReason", qualityLimitationReason);
+            return builder.append('}').toString();
+        }
+
+        private static StringBuilder appendNumber(StringBuilder builder, String name, double value) {
+            builder.append('"').append(name).append("\":");
+            // 保留 3 位小数, 去掉末尾的 0
+            long scaled = Math.round(value * 1000);
+            if (scaled % 1000 == 0) {
+                return builder.append(scaled / 1000);
+            }
+            return builder.append(String.format(Locale.US, "%.3f", value).replaceAll("0+$", ""));
+        }
+
+        private static StringBuilder appendString(StringBuilder builder, String name, String value) {
+            builder.append('"').append(name).append("\":");
+            if (value == null) {
+                return builder.append("null");
+            }
+            builder.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    builder.append('\\').append(c);
+                } else if (c < 0x20) {
+                    builder.append(String.format("\\u%04x", (int) c));
+                } else {
+                    builder.append(c);
+                }
+            }
+            return builder.append('"');
+        }
+    }
+
+    // 每个对端上一轮的累计值和已统计的卡顿次数
+    private static class PeerState {
+        Counters last;
+        int freezeCount;
+        // 上一个区间有新解码的帧
+        boolean receiving;
+    }
+
+    private final StatsRingBuffer<Sample> samples = new StatsRingBuffer<>(CAPACITY);
+    private final ConcurrentHashMap<String, PeerState> peers = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+    private volatile boolean logEnabled;
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // 打开后每个采样都输出一条日志
+    public void setLogEnabled(boolean logEnabled) {
+        this.logEnabled = logEnabled;
+    }
+
+    public StatsRingBuffer<Sample> getSamples() {
+        return samples;
+    }
+
+    @Override
+    public void onStats(String socketId, RTCStatsReport report) {
+        Sample sample = update(socketId, System.currentTimeMillis(), read(report));
+        if (sample == null) {
+            return;
+        }
+        samples.add(sample);
+        if (logEnabled) {
+            Log.d(TAG, sample.toDisplayString());
+        }
+        for (Listener listener : listeners) {
+            listener.onSample(sample);
+        }
+    }
+
+    static Counters read(RTCStatsReport report) {
+        Counters counters = new Counters();
+        counters.timestampUs = report.getTimestampUs();
+        Map<String, RTCStats> statsMap = report.getStatsMap();
+        RTCStats selectedPair = null;
+        for (RTCStats stats : statsMap.values()) {
+            Map<String, Object> members = stats.getMembers();
+            String type = stats.getType();
+            Object kind = members.containsKey("kind") ? members.get("kind") : members.get("mediaType");
+            if ("outbound-rtp".equals(type)) {
+                counters.bytesSent += number(members.get("bytesSent"), 0);
+                if ("video".equals(kind)) {
+                    counters.framesEncoded = sum(counters.framesEncoded, members.get("framesEncoded"));
+                    counters.totalEncodeTime = sum(counters.totalEncodeTime, members.get("totalEncodeTime"));
+                    Object reason = members.get("qualityLimitationReason");
+                    if (reason != null && (counters.qualityLimitationReason == null || "none".equals(counters.qualityLimitationReason))) {
+                        counters.qualityLimitationReason = reason.toString();
+                    }
+                }
+            } else if ("inbound-rtp".equals(type)) {
+                counters.bytesReceived += number(members.get("bytesReceived"), 0);
+                counters.packetsReceived += number(members.get("packetsReceived"), 0);
+                counters.packetsLost += number(members.get("packetsLost"), 0);
+                counters.jitter = Math.max(counters.jitter, number(members.get("jitter"), -1));
+                if ("video".equals(kind)) {
+                    counters.framesDecoded = sum(counters.framesDecoded, members.get("framesDecoded"));
+                    counters.totalDecodeTime = sum(counters.totalDecodeTime, members.get("totalDecodeTime"));
+                    counters.freezeCount = sum(counters.freezeCount, members.get("freezeCount"));
+                }
+            } else if ("transport".equals(type)) {
+                Object pairId = members.get("selectedCandidatePairId");
+                if (pairId != null) {
+                    selectedPair = statsMap.get(pairId.toString());
+                }
+            } else if ("candidate-pair".equals(type) && selectedPair == null
+                    && Boolean.TRUE.equals(members.get("nominated")) && "succeeded".equals(members.get("state"))) {
+                // 没有 transport 统计时退而用提名成功的候选对, transport 统计会覆盖它
+                selectedPair = stats;
+            }
+        }
+        if (selectedPair != null) {
+            Map<String, Object> members = selectedPair.getMembers();
+            counters.rtt = number(members.get("currentRoundTripTime"), -1);
+            counters.availableOutgoingBitrate = number(members.get("availableOutgoingBitrate"), -1);
+            RTCStats local = statsMap.get(String.valueOf(members.get("localCandidateId")));
+            RTCStats remote = statsMap.get(String.valueOf(members.get("remoteCandidateId")));
+            if (local != null) {
+                Map<String, Object> candidate = local.getMembers();
+                counters.localCandidateType = (String) candidate.get("candidateType");
+                if ("relay".equals(counters.localCandidateType)) {
+                    counters.relayProtocol = (String) candidate.get("relayProtocol");
+                    counters.relayUrl = (String) candidate.get("url");
+                }
+            }
+            if (remote != null) {
+                counters.remoteCandidateType = (String) remote.getMembers().get("candidateType");
+            }
+        }
+        return counters;
+    }
+
+    // uint64 的统计值是 BigInteger, uint32 是 Long, 统一按 double 处理
+    private static double number(Object value, double fallback) {
+        return value instanceof Number ? ((Number) value).doubleValue() : fallback;
+    }
+
+    private static double sum(double total, Object value) {
+        if (!(value instanceof Number)) {
+            return total;
+        }
+        return Math.max(total, 0) + ((Number) value).doubleValue();
+    }
+
+    // 由两轮累计值的差计算这一区间的指标, 第一轮只记录起点
+    Sample update(String socketId, long wallTimeMs, Counters counters) {
+        PeerState state = peers.get(socketId);
+        if (state == null) {
+            PeerState created = new PeerState();
+            state = peers.putIfAbsent(socketId, created);
+            if (state == null) {
+                state = created;
+            }
+        }
+        synchronized (state) {
+            Counters last = state.last;
+            state.last = counters;
+            double seconds = last == null ? 0 : (counters.timestampUs - last.timestampUs) / 1e6;
+            if (seconds <= 0) {
+                return null;
+            }
+            double sendBitrate = positive(counters.bytesSent - last.bytesSent) * 8 / seconds;
+            double recvBitrate = positive(counters.bytesReceived - last.bytesReceived) * 8 / seconds;
+            double framesEncoded = delta(counters.framesEncoded, last.framesEncoded);
+            double framesDecoded = delta(counters.framesDecoded, last.framesDecoded);
+            double encodeMs = framesEncoded > 0 && counters.totalEncodeTime >= 0 && last.totalEncodeTime >= 0
+                    ? (counters.totalEncodeTime - last.totalEncodeTime) * 1000 / framesEncoded : -1;
+            double decodeMs = framesDecoded > 0 && counters.totalDecodeTime >= 0 && last.totalDecodeTime >= 0
+                    ? (counters.totalDecodeTime - last.totalDecodeTime) * 1000 / framesDecoded : -1;
+            // 有 freezeCount 时直接使用; 否则之前在出画面、这一整个区间没有新解码的帧记为一次卡顿
+            if (counters.freezeCount >= 0) {
+                state.freezeCount = (int) counters.freezeCount;
+            } else if (counters.framesDecoded >= 0) {
+                if (state.receiving && framesDecoded == 0) {
+                    state.freezeCount++;
+                }
+            }
+            state.receiving = framesDecoded > 0;
+            double received = positive(counters.packetsReceived - last.packetsReceived);
+            double lost = positive(counters.packetsLost - last.packetsLost);
+            double packetLoss = received + lost > 0 ? lost / (received + lost) : 0;
+            return new Sample(socketId, wallTimeMs, sendBitrate, recvBitrate,
+                    framesEncoded > 0 ? framesEncoded / seconds : 0, framesDecoded > 0 ? framesDecoded / seconds : 0,
+                    state.freezeCount, counters.jitter >= 0 ? counters.jitter * 1000 : -1,
+                    counters.rtt >= 0 ? counters.rtt * 1000 : -1, packetLoss,
+                    counters.availableOutgoingBitrate, encodeMs, decodeMs, counters);
+        }
+    }
+
+    private static double positive(double value) {
+        return Math.max(0, value);
+    }
+
+    // 计数器重置(例如轨道重建)时返回 0
+    private static double delta(double current, double last) {
+        return current >= 0 && last >= 0 ? positive(current - last) : 0;
+    }
+
+    public void removePeer(String socketId) {
+        peers.remove(socketId);
+    }
+
+    // 把缓冲区里的所有采样写成 NDJSON 文件, 在后台线程写
+    public void export(File file) {
+        List<Sample> snapshot = samples.snapshot();
+        writer.execute(() -> write(file, snapshot));
+    }
+
+    static void write(File file, List<Sample> snapshot) {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            return;
+        }
+        try (Writer out = new FileWriter(file)) {
+            for (Sample sample : snapshot) {
+                out.write(sample.toJson());
+                out.write('\n');
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
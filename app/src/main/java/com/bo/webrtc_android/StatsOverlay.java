@@ -0,0 +1,77 @@
+package com.bo.webrtc_android;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.View;
+import android.widget.TextView;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+// 在画面上显示每个对端最新一次的连接质量, 隐藏时不更新界面
+public class StatsOverlay implements StatsCollector.Listener {
+    private final TextView textView;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // 按socketId排序, 每次刷新时各行的位置不变
+    private final TreeMap<String, StatsCollector.Sample> latest = new TreeMap<>();
+    private volatile boolean visible;
+    private boolean refreshPosted;
+
+    public StatsOverlay(TextView textView){
+        this.textView = textView;
+        visible = textView.getVisibility() == View.VISIBLE;
+    }
+
+    public boolean isVisible() {
+        return visible;
+    }
+
+    // 在主线程调用
+    public void setVisible(boolean visible) {
+        this.visible = visible;
+        textView.setVisibility(visible ? View.VISIBLE : View.GONE);
+        if (visible) {
+            refresh();
+        }
+    }
+
+    public void toggle() {
+        setVisible(!visible);
+    }
+
+    @Override
+    public void onSample(StatsCollector.Sample sample) {
+        synchronized (latest) {
+            latest.put(sample.socketId, sample);
+            if (!visible || refreshPosted) {
+                return;
+            }
+            // 同一轮所有对端的采样合并成一次刷新
+            refreshPosted = true;
+        }
+        mainHandler.post(this::refresh);
+    }
+
+    public void removePeer(String socketId) {
+        synchronized (latest) {
+            latest.remove(socketId);
+        }
+        if (visible) {
+            mainHandler.post(this::refresh);
+        }
+    }
+
+    private void refresh() {
+        StringBuilder builder = new StringBuilder();
+        synchronized (latest) {
+            refreshPosted = false;
+            for (Map.Entry<String, StatsCollector.Sample> entry : latest.entrySet()) {
+                if (builder.length() > 0) {
+                    builder.append('\n');
+                }
+                builder.append(entry.getValue().toDisplayString());
+            }
+        }
+        textView.setText(builder);
+    }
+}
@@ -0,0 +1,65 @@
+package com.bo.webrtc_android;
+
+import org.webrtc.RTCStatsReport;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// 定时对每个对端的 PeerConnection 调用 getStats, 把结果分发给各个监听者
+// 同一轮只请求一次 getStats, 码率控制等模块共用这一份报告
+public class StatsPoller {
+    public interface Listener {
+        // 在 WebRTC 的信令线程回调, 不要在这里做耗时操作
+        // 回调时 forEachPeer 的任务已经结束, 连接可能正在被释放, 要访问 PeerConnection 的监听者通过 sessionManager.execute
+        void onStats(String socketId, RTCStatsReport report);
+    }
+
+    private final PeerSessionManager sessionManager;
+    private final long intervalMs;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private ScheduledFuture<?> future;
+
+    public StatsPoller(PeerSessionManager sessionManager, long intervalMs){
+        this.sessionManager = sessionManager;
+        this.intervalMs = intervalMs;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public synchronized void start() {
+        if (future == null) {
+            future = scheduler.scheduleWithFixedDelay(this::poll, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+        }
+        scheduler.shutdown();
+    }
+
+    private void poll() {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        sessionManager.forEachPeer((socketId, peerConnection) ->
+                peerConnection.getStats(report -> {
+                    for (Listener listener : listeners) {
+                        listener.onStats(socketId, report);
+                    }
+                }));
+    }
+}
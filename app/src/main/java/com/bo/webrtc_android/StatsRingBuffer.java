@@ -0,0 +1,66 @@
+package com.bo.webrtc_android;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// 固定容量的无锁环形缓冲区, 写满后覆盖最旧的数据
+// 写入只做一次原子自增和一次数组写, 可以在 WebRTC 回调线程里直接调用; 读取不阻塞写入, 读到正在被覆盖的槽位时跳过
+public class StatsRingBuffer<T> {
+    private static class Slot<T> {
+        final long sequence;
+        final T value;
+
+        Slot(long sequence, T value){
+            this.sequence = sequence;
+            this.value = value;
+        }
+    }
+
+    private final AtomicReferenceArray<Slot<T>> slots;
+    private final int mask;
+    // 下一个写入的序号, 也是累计写入的个数
+    private final AtomicLong next = new AtomicLong();
+
+    // capacity 向上取整到 2 的幂
+    public StatsRingBuffer(int capacity){
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        slots = new AtomicReferenceArray<>(capacity <= 1 ? 1 : size);
+        mask = slots.length() - 1;
+    }
+
+    public int capacity() {
+        return slots.length();
+    }
+
+    public void add(T value) {
+        long sequence = next.getAndIncrement();
+        slots.set((int) (sequence & mask), new Slot<>(sequence, value));
+    }
+
+    // 累计写入的个数, 包括已被覆盖的
+    public long getWrittenCount() {
+        return next.get();
+    }
+
+    // 从旧到新返回还在缓冲区里的数据
+    public List<T> snapshot() {
+        return since(0);
+    }
+
+    // 返回序号不小于 sequence 的数据, 用 getWrittenCount() 的返回值做下一次的起点可以增量读取
+    public List<T> since(long sequence) {
+        long end = next.get();
+        long start = Math.max(sequence, end - slots.length());
+        List<T> values = new ArrayList<>((int) Math.max(0, end - start));
+        for (long i = start; i < end; i++) {
+            Slot<T> slot = slots.get((int) (i & mask));
+            // 槽位还没写完(旧序号)或已被更新的数据覆盖(新序号)
+            if (slot != null && slot.sequence == i) {
+                values.add(slot.value);
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,369 @@
+package com.bo.webrtc_android;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.opengl.GLES20;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.view.Surface;
+
+import org.webrtc.EglBase;
+import org.webrtc.GlRectDrawer;
+import org.webrtc.VideoFrame;
+import org.webrtc.VideoFrameDrawer;
+import org.webrtc.VideoSink;
+import org.webrtc.VideoTrack;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 把一路 VideoTrack 录成分段的 MP4: 作为 VideoSink 挂在本地或远端轨道上, 在 GPU 上把纹理帧画到硬件编码器的输入 Surface,
+// 不经过 CPU 拷贝; 画帧在录像线程, 编码器的输出通过 MediaCodec.Callback 在单独的写文件线程写进 MP4
+// onFrame 只做 retain 和 post: 排队的帧超过 maxPendingFrames 时直接丢弃, 超过录像帧率的帧也不排队;
+// 摄像头的纹理帧在 release 之前 SurfaceTextureHelper 不会送出下一帧, 所以帧画到编码器的 Surface 上就立即释放,
+// 不等编码和写文件; 队列也必须比 FrameProcessingPipeline 的输出纹理池小, 否则录像会占满它, 让通话丢帧
+public class VideoRecorder implements VideoSink {
+    private static final String TAG = "boRecorder";
+    private static final String MIME = MediaFormat.MIMETYPE_VIDEO_AVC;
+    // 结束时等待编码器吐完剩余数据的最长时间
+    private static final long DRAIN_TIMEOUT_MS = 1000;
+
+    public static class Config {
+        // 编码尺寸, 画面按比例缩放居中, 两边补黑
+        public int width = 640;
+        public int height = 480;
+        public int bitrateBps = 1_000_000;
+        // 录像帧率, 更高帧率的轨道会被抽帧
+        public int fps = 15;
+        public int keyFrameIntervalSeconds = 2;
+        // 每个文件的时长, <= 0 表示不切分
+        public long segmentMs = 60_000;
+        public int maxPendingFrames = 1;
+    }
+
+    public interface Listener {
+        // 在录像线程回调
+        void onSegmentFinished(File file);
+    }
+
+    private final EglBase.Context sharedContext;
+    private final File dir;
+    private final String name;
+    private final Config config;
+    private final Listener listener;
+    private final long minFrameIntervalNs;
+    private final HandlerThread thread;
+    private final Handler handler;
+    // 写文件的线程, 编码器的回调也在这里
+    private final HandlerThread muxThread;
+    private final Handler muxHandler;
+    // 编码器输出了结束标记
+    private final CountDownLatch drained = new CountDownLatch(1);
+    private final AtomicInteger pendingFrames = new AtomicInteger();
+    private final AtomicLong recordedFrames = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private volatile boolean running;
+    private volatile long lastQueuedNs = -1;
+    private VideoTrack track;
+
+    // 以下只在录像线程访问; codec 在录像线程创建, 在写文件线程释放
+    private volatile MediaCodec codec;
+    private Surface inputSurface;
+    private EglBase eglBase;
+    private GlRectDrawer drawer;
+    private VideoFrameDrawer frameDrawer;
+    // 在 setup 里创建, 两个线程都会访问
+    private RecordingSegmenter segmenter;
+    // 以下只在写文件线程访问
+    private final MediaCodec.BufferInfo sampleInfo = new MediaCodec.BufferInfo();
+    private MediaFormat outputFormat;
+    private MediaMuxer muxer;
+    private File segmentFile;
+    private int trackIndex = -1;
+
+    // 文件名为 name-000.mp4, name-001.mp4, ...
+    public VideoRecorder(EglBase.Context sharedContext, File dir, String name, Config config, Listener listener){
+        this.sharedContext = sharedContext;
+        this.dir = dir;
+        this.name = name;
+        this.config = config;
+        this.listener = listener;
+        minFrameIntervalNs = 1_000_000_000L / Math.max(1, config.fps);
+        thread = new HandlerThread("VideoRecorder-" + name);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        muxThread = new HandlerThread("VideoRecorderMux-" + name);
+        muxThread.start();
+        muxHandler = new Handler(muxThread.getLooper());
+    }
+
+    // 开始录制并挂到 track 上
+    public void start(VideoTrack track) {
+        running = true;
+        handler.post(this::setup);
+        synchronized (this) {
+            this.track = track;
+        }
+        track.addSink(this);
+    }
+
+    // 从轨道上摘下, 已经排队的帧编码完之后关闭文件
+    public void stop() {
+        VideoTrack attached;
+        synchronized (this) {
+            attached = track;
+            track = null;
+        }
+        if (attached != null) {
+            attached.removeSink(this);
+        }
+        // setup 失败时 running 已经是 false, 同样需要结束线程
+        running = false;
+        handler.post(this::teardown);
+        thread.quitSafely();
+    }
+
+    public long getRecordedFrames() {
+        return recordedFrames.get();
+    }
+
+    // 因为队列已满丢弃的帧, 按录像帧率抽掉的不算
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    @Override
+    public void onFrame(VideoFrame frame) {
+        if (!running) {
+            return;
+        }
+        long timestampNs = frame.getTimestampNs();
+        long last = lastQueuedNs;
+        if (last >= 0 && timestampNs - last < minFrameIntervalNs && timestampNs >= last) {
+            return;
+        }
+        if (pendingFrames.incrementAndGet() > config.maxPendingFrames) {
+            pendingFrames.decrementAndGet();
+            droppedFrames.incrementAndGet();
+            return;
+        }
+        lastQueuedNs = timestampNs;
+        frame.retain();
+        boolean posted = handler.post(() -> {
+            try {
+                encodeFrame(frame);
+            } finally {
+                frame.release();
+                pendingFrames.decrementAndGet();
+            }
+        });
+        if (!posted) {
+            frame.release();
+            pendingFrames.decrementAndGet();
+        }
+    }
+
+    private void setup() {
+        segmenter = new RecordingSegmenter(config.segmentMs);
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.e(TAG, "cannot create " + dir);
+            running = false;
+            return;
+        }
+        MediaFormat format = MediaFormat.createVideoFormat(MIME, config.width, config.height);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, config.bitrateBps);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, config.fps);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, config.keyFrameIntervalSeconds);
+        try {
+            codec = MediaCodec.createEncoderByType(MIME);
+            // 必须在 configure 之前设置
+            codec.setCallback(codecCallback, muxHandler);
+            codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            inputSurface = codec.createInputSurface();
+            codec.start();
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            running = false;
+            releaseCodec();
+            return;
+        }
+        // 与 WebRTC 共享 EGL 上下文, 纹理帧可以直接画到编码器的 Surface 上
+        eglBase = EglBase.create(sharedContext, EglBase.CONFIG_RECORDABLE);
+        eglBase.createSurface(inputSurface);
+        eglBase.makeCurrent();
+        drawer = new GlRectDrawer();
+        frameDrawer = new VideoFrameDrawer();
+    }
+
+    private void encodeFrame(VideoFrame frame) {
+        if (eglBase == null) {
+            return;
+        }
+        // 按比例缩放到编码尺寸内, 居中
+        int rotatedWidth = frame.getRotatedWidth();
+        int rotatedHeight = frame.getRotatedHeight();
+        float scale = Math.min((float) config.width / rotatedWidth, (float) config.height / rotatedHeight);
+        int viewportWidth = Math.round(rotatedWidth * scale);
+        int viewportHeight = Math.round(rotatedHeight * scale);
+        GLES20.glClearColor(0, 0, 0, 1);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        frameDrawer.drawFrame(frame, drawer, null, (config.width - viewportWidth) / 2,
+                (config.height - viewportHeight) / 2, viewportWidth, viewportHeight);
+        if (segmenter.needsKeyFrame(frame.getTimestampNs() / 1000)) {
+            Bundle params = new Bundle();
+            params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+            codec.setParameters(params);
+        }
+        // 时间戳作为编码器的 presentationTime; 之后调用者立即释放这一帧, 编码器的输出在写文件线程处理
+        eglBase.swapBuffers(frame.getTimestampNs());
+        recordedFrames.incrementAndGet();
+    }
+
+    // 在写文件线程回调
+    private final MediaCodec.Callback codecCallback = new MediaCodec.Callback() {
+        @Override
+        public void onInputBufferAvailable(MediaCodec mediaCodec, int index) {
+            // 输入来自 Surface
+        }
+
+        @Override
+        public void onOutputBufferAvailable(MediaCodec mediaCodec, int index, MediaCodec.BufferInfo info) {
+            ByteBuffer buffer = mediaCodec.getOutputBuffer(index);
+            boolean codecConfig = (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+            if (buffer != null && !codecConfig && info.size > 0) {
+                writeSample(buffer, info);
+            }
+            mediaCodec.releaseOutputBuffer(index, false);
+            if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                drained.countDown();
+            }
+        }
+
+        @Override
+        public void onError(MediaCodec mediaCodec, MediaCodec.CodecException e) {
+            e.printStackTrace();
+            running = false;
+            drained.countDown();
+        }
+
+        @Override
+        public void onOutputFormatChanged(MediaCodec mediaCodec, MediaFormat format) {
+            // 带有 SPS/PPS, 之后每个文件都用它添加轨道
+            outputFormat = format;
+        }
+    };
+
+    private void writeSample(ByteBuffer buffer, MediaCodec.BufferInfo bufferInfo) {
+        boolean keyFrame = (bufferInfo.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+        if (segmenter.onSample(bufferInfo.presentationTimeUs, keyFrame)) {
+            startSegment();
+        }
+        if (muxer == null) {
+            return;
+        }
+        sampleInfo.set(bufferInfo.offset, bufferInfo.size, segmenter.rebase(bufferInfo.presentationTimeUs),
+                bufferInfo.flags & ~MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+        buffer.position(bufferInfo.offset);
+        buffer.limit(bufferInfo.offset + bufferInfo.size);
+        muxer.writeSampleData(trackIndex, buffer, sampleInfo);
+    }
+
+    private void startSegment() {
+        finishSegment();
+        if (outputFormat == null) {
+            return;
+        }
+        segmentFile = new File(dir, segmentFileName(name, segmenter.getIndex()));
+        try {
+            muxer = new MediaMuxer(segmentFile.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            trackIndex = muxer.addTrack(outputFormat);
+            muxer.start();
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            muxer = null;
+        }
+    }
+
+    // name 可能带有路径分隔符 (屏幕共享的 tileId 是 socketId/screen), 文件都放在 dir 下, 不建子目录
+    static String segmentFileName(String name, int index) {
+        return String.format(Locale.US, "%s-%03d.mp4", name.replace('/', '_'), index);
+    }
+
+    private void finishSegment() {
+        if (muxer == null) {
+            return;
+        }
+        try {
+            muxer.stop();
+        } catch (RuntimeException e) {
+            // 没有写入任何数据时 stop 会失败
+            e.printStackTrace();
+        }
+        muxer.release();
+        muxer = null;
+        Log.d(TAG, "segment finished " + segmentFile);
+        if (listener != null) {
+            listener.onSegmentFinished(segmentFile);
+        }
+    }
+
+    private void teardown() {
+        if (codec != null) {
+            try {
+                codec.signalEndOfInputStream();
+                // 等编码器把剩余的帧输出到写文件线程
+                if (!drained.await(DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    Log.w(TAG, name + " encoder did not reach end of stream");
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // 文件和编码器只在写文件线程访问, 排在已经到达的输出之后关闭
+        muxHandler.post(() -> {
+            finishSegment();
+            releaseCodec();
+        });
+        muxThread.quitSafely();
+        if (frameDrawer != null) {
+            frameDrawer.release();
+            drawer.release();
+            frameDrawer = null;
+        }
+        if (eglBase != null) {
+            eglBase.release();
+            eglBase = null;
+        }
+        if (inputSurface != null) {
+            inputSurface.release();
+            inputSurface = null;
+        }
+        Log.d(TAG, name + " recorded " + recordedFrames.get() + " frames, dropped " + droppedFrames.get());
+    }
+
+    private void releaseCodec() {
+        if (codec == null) {
+            return;
+        }
+        try {
+            codec.stop();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        codec.release();
+        codec = null;
+    }
+}
@@ -0,0 +1,12 @@
+package com.bo.webrtc_android;
+
+import android.app.Application;
+
+public class WebRTCApplication extends Application {
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // 进程启动时就在后台初始化 EGL 和 PeerConnectionFactory, 打开 Activity 时多半已经就绪
+        MediaEngine.get(this).prewarm();
+    }
+}
@@ -0,0 +1,355 @@
+package com.bo.webrtc_android;
+
+import android.util.Log;
+
+import org.webrtc.IceCandidate;
+import org.webrtc.MediaStream;
+import org.webrtc.PeerConnection;
+import org.webrtc.PeerConnectionFactory;
+import org.webrtc.RtpReceiver;
+import org.webrtc.RtpSender;
+import org.webrtc.SessionDescription;
+import org.webrtc.VideoTrack;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// 进程内的最小 SFU, 挂在 LoopbackSignalingServer 上, 用于测试 SFU 模式的客户端
+// 以 SFU_UPSTREAM/SFU_DOWNSTREAM 两个固定id加入房间: 每个发布端一个只收的上行 PeerConnection,
+// 每个订阅端一个只发的下行 PeerConnection, 把其他发布端的远端轨道加到下行连接上, 流id为发布端的id
+// 真正的 SFU 直接转发 RTP 包; 这里借用 libwebrtc 的轨道转发(解码后重新编码), 只用来验证信令和客户端逻辑, 不打进 apk
+public class LocalSfu {
+    private static final String TAG = "boLocalSfu";
+
+    private static class Upstream {
+        PeerConnection peerConnection;
+        PeerNegotiator negotiator;
+        volatile VideoTrack track;
+    }
+
+    private static class Downstream {
+        PeerConnection peerConnection;
+        PeerNegotiator negotiator;
+        // 发布端id -> 转发它的画面的 sender, 在 forwardLock 内访问
+        final HashMap<String, RtpSender> senders = new HashMap<>();
+    }
+
+    private final PeerConnectionFactory factory;
+    private final String room;
+    private final SignalingTransport upTransport;
+    private final SignalingTransport downTransport;
+    private final SfuRoom sfuRoom = new SfuRoom();
+    // 上行和下行按 "up/id", "down/id" 分别串行
+    private final SignalingDispatcher dispatcher = new SignalingDispatcher();
+    private final ConcurrentHashMap<String, Upstream> upstreams = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Downstream> downstreams = new ConcurrentHashMap<>();
+    // 添加/移除转发和释放上行连接互斥, 避免把已经释放的轨道加到下行连接上; WebRTC 的回调里不拿这个锁
+    private final Object forwardLock = new Object();
+
+    public LocalSfu(LoopbackSignalingServer server, String room, PeerConnectionFactory factory){
+        this.factory = factory;
+        this.room = room;
+        this.upTransport = server.newTransport(SignalingMessage.SFU_UPSTREAM);
+        this.downTransport = server.newTransport(SignalingMessage.SFU_DOWNSTREAM);
+    }
+
+    public void start() {
+        upTransport.connect(room, new Endpoint(true));
+        downTransport.connect(room, new Endpoint(false));
+    }
+
+    public SfuRoom getRoom() {
+        return sfuRoom;
+    }
+
+    public void stop() {
+        dispatcher.shutdown();
+        upTransport.disconnect();
+        downTransport.disconnect();
+        synchronized (forwardLock) {
+            // 先释放下行连接, 它们引用着上行连接收到的轨道
+            for (Downstream downstream : downstreams.values()) {
+                downstream.peerConnection.dispose();
+            }
+            downstreams.clear();
+            for (Upstream upstream : upstreams.values()) {
+                upstream.peerConnection.dispose();
+            }
+            upstreams.clear();
+        }
+    }
+
+    private void onMessage(boolean up, SignalingMessage message) {
+        String from = message.from;
+        if (up) {
+            dispatcher.execute("up/" + from, () -> {
+                if (SignalingMessage.PUBLISH.equals(message.type)) {
+                    publish(from);
+                    return;
+                }
+                if (SignalingMessage.OFFER.equals(message.type)) {
+                    getOrCreateUpstream(from).negotiator.onRemoteDescription(message.toSessionDescription());
+                    return;
+                }
+                // 只有 publish 和 offer 会创建上行连接, 迟到的候选等消息直接丢弃
+                Upstream upstream = upstreams.get(from);
+                if (upstream == null) {
+                    return;
+                }
+                if (SignalingMessage.CANDIDATE.equals(message.type)) {
+                    addIceCandidates(upstream.negotiator, message.candidates);
+                } else if (SignalingMessage.RESYNC.equals(message.type)) {
+                    upstream.negotiator.onResyncRequested();
+                }
+            });
+        } else {
+            dispatcher.execute("down/" + from, () -> {
+                if (SignalingMessage.SUBSCRIBE.equals(message.type)) {
+                    subscribe(from);
+                    return;
+                }
+                Downstream downstream = downstreams.get(from);
+                if (downstream == null) {
+                    return;
+                }
+                if (SignalingMessage.ANSWER.equals(message.type)) {
+                    downstream.negotiator.onRemoteDescription(message.toSessionDescription());
+                } else if (SignalingMessage.CANDIDATE.equals(message.type)) {
+                    addIceCandidates(downstream.negotiator, message.candidates);
+                } else if (SignalingMessage.NEGOTIATE.equals(message.type)) {
+                    downstream.negotiator.onNegotiationRequested();
+                } else if (SignalingMessage.ICE_RESTART.equals(message.type)) {
+                    downstream.negotiator.onIceRestartRequested();
+                } else if (SignalingMessage.RESYNC.equals(message.type)) {
+                    downstream.negotiator.onResyncRequested();
+                }
+            });
+        }
+    }
+
+    private static void addIceCandidates(PeerNegotiator negotiator, List<IceCandidate> candidates) {
+        for (IceCandidate iceCandidate : candidates) {
+            negotiator.addIceCandidate(iceCandidate);
+        }
+    }
+
+    private void publish(String publisherId) {
+        getOrCreateUpstream(publisherId);
+        for (String subscriberId : sfuRoom.publish(publisherId)) {
+            downTransport.send(SignalingMessage.control(SignalingMessage.PUBLISH, publisherId, subscriberId));
+        }
+        Log.d(TAG, publisherId + " published, publishers=" + sfuRoom.getPublisherCount());
+    }
+
+    private void subscribe(String subscriberId) {
+        getOrCreateDownstream(subscriberId);
+        for (String publisherId : sfuRoom.subscribe(subscriberId)) {
+            downTransport.send(SignalingMessage.control(SignalingMessage.PUBLISH, publisherId, subscriberId));
+            forward(publisherId, subscriberId);
+        }
+        Log.d(TAG, subscriberId + " subscribed, subscribers=" + sfuRoom.getSubscriberCount());
+    }
+
+    // 客户端离开: 从所有下行连接上摘掉它的画面, 再释放它的上行和下行连接
+    private void leave(String id) {
+        List<String> subscribers = sfuRoom.leave(id);
+        synchronized (forwardLock) {
+            for (String subscriberId : subscribers) {
+                downTransport.send(SignalingMessage.control(SignalingMessage.UNPUBLISH, id, subscriberId));
+                Downstream downstream = downstreams.get(subscriberId);
+                RtpSender sender = downstream == null ? null : downstream.senders.remove(id);
+                if (sender != null) {
+                    // 触发该订阅端的重协商, 对应的 m-line 变为 inactive
+                    downstream.peerConnection.removeTrack(sender);
+                }
+            }
+            Downstream downstream = downstreams.remove(id);
+            if (downstream != null) {
+                downstream.peerConnection.dispose();
+            }
+            Upstream upstream = upstreams.remove(id);
+            if (upstream != null) {
+                upstream.peerConnection.dispose();
+            }
+        }
+        Log.d(TAG, id + " left");
+    }
+
+    // 把发布端的画面加到订阅端的下行连接上, 上行轨道还没到时等 onAddTrack 再调用
+    private void forward(String publisherId, String subscriberId) {
+        synchronized (forwardLock) {
+            Upstream upstream = upstreams.get(publisherId);
+            Downstream downstream = downstreams.get(subscriberId);
+            if (upstream == null || upstream.track == null || downstream == null
+                    || downstream.senders.containsKey(publisherId)) {
+                return;
+            }
+            RtpSender sender = PeerNegotiator.attachTrack(downstream.peerConnection, upstream.track,
+                    Collections.singletonList(publisherId));
+            downstream.senders.put(publisherId, sender);
+        }
+    }
+
+    private PeerConnection.RTCConfiguration createConfiguration() {
+        PeerConnection.RTCConfiguration rtcConfig = new PeerConnection.RTCConfiguration(new ArrayList<>());
+        rtcConfig.sdpSemantics = PeerConnection.SdpSemantics.UNIFIED_PLAN;
+        return rtcConfig;
+    }
+
+    private Upstream getOrCreateUpstream(String publisherId) {
+        Upstream upstream = upstreams.get(publisherId);
+        if (upstream != null) {
+            return upstream;
+        }
+        Upstream created = new Upstream();
+        // 上行连接的 offer 总是由客户端发起
+        created.negotiator = new PeerNegotiator(publisherId, true, new EndpointSignaling(upTransport));
+        created.peerConnection = factory.createPeerConnection(createConfiguration(),
+                new EndpointObserver("SfuUp" + publisherId, created.negotiator, upTransport, publisherId) {
+            @Override
+            public void onAddTrack(RtpReceiver rtpReceiver, MediaStream[] mediaStreams) {
+                super.onAddTrack(rtpReceiver, mediaStreams);
+                if (!(rtpReceiver.track() instanceof VideoTrack)) {
+                    return;
+                }
+                created.track = (VideoTrack) rtpReceiver.track();
+                for (String subscriberId : sfuRoom.getSubscribersFor(publisherId)) {
+                    dispatcher.execute("down/" + subscriberId, () -> forward(publisherId, subscriberId));
+                }
+            }
+        });
+        upstreams.put(publisherId, created);
+        created.negotiator.setPeerConnection(created.peerConnection);
+        return created;
+    }
+
+    private Downstream getOrCreateDownstream(String subscriberId) {
+        Downstream downstream = downstreams.get(subscriberId);
+        if (downstream != null) {
+            return downstream;
+        }
+        Downstream created = new Downstream();
+        // 下行连接的 offer 总是由 SFU 发起, 每次增减转发的画面都会触发重协商
+        created.negotiator = new PeerNegotiator(subscriberId, false, new EndpointSignaling(downTransport));
+        created.peerConnection = factory.createPeerConnection(createConfiguration(),
+                new EndpointObserver("SfuDown" + subscriberId, created.negotiator, downTransport, subscriberId));
+        downstreams.put(subscriberId, created);
+        created.negotiator.setPeerConnection(created.peerConnection);
+        return created;
+    }
+
+    // 通过某个端点给客户端发 SDP 和控制消息
+    private static class EndpointSignaling implements PeerNegotiator.Signaling {
+        private final SignalingTransport transport;
+
+        EndpointSignaling(SignalingTransport transport){
+            this.transport = transport;
+        }
+
+        @Override
+        public void sendSessionDescription(SessionDescription sdp, String to) {
+            transport.send(SignalingMessage.sessionDescription(sdp, transport.id(), to));
+        }
+
+        @Override
+        public void requestNegotiation(String to) {
+            transport.send(SignalingMessage.control(SignalingMessage.NEGOTIATE, transport.id(), to));
+        }
+
+        @Override
+        public void requestIceRestart(String to) {
+            transport.send(SignalingMessage.control(SignalingMessage.ICE_RESTART, transport.id(), to));
+        }
+
+        @Override
+        public void requestResync(String to) {
+            transport.send(SignalingMessage.control(SignalingMessage.RESYNC, transport.id(), to));
+        }
+    }
+
+    private static class EndpointObserver extends PeerConnectionAdapter {
+        private final PeerNegotiator negotiator;
+        private final SignalingTransport transport;
+        private final String clientId;
+
+        EndpointObserver(String tag, PeerNegotiator negotiator, SignalingTransport transport, String clientId){
+            super(tag);
+            this.negotiator = negotiator;
+            this.transport = transport;
+            this.clientId = clientId;
+        }
+
+        @Override
+        public void onSignalingChange(PeerConnection.SignalingState signalingState) {
+            super.onSignalingChange(signalingState);
+            negotiator.onSignalingChange(signalingState);
+        }
+
+        @Override
+        public void onRenegotiationNeeded() {
+            super.onRenegotiationNeeded();
+            negotiator.onRenegotiationNeeded();
+        }
+
+        @Override
+        public void onIceConnectionChange(PeerConnection.IceConnectionState iceConnectionState) {
+            super.onIceConnectionChange(iceConnectionState);
+            negotiator.onIceConnectionChange(iceConnectionState);
+        }
+
+        @Override
+        public void onIceCandidate(IceCandidate iceCandidate) {
+            super.onIceCandidate(iceCandidate);
+            transport.send(SignalingMessage.candidates(Collections.singletonList(iceCandidate), transport.id(), clientId));
+        }
+    }
+
+    private class Endpoint implements SignalingTransport.Listener {
+        private final boolean up;
+
+        Endpoint(boolean up){
+            this.up = up;
+        }
+
+        @Override
+        public void onConnected() {
+        }
+
+        @Override
+        public void onDisconnected() {
+        }
+
+        @Override
+        public void onCreated() {
+        }
+
+        @Override
+        public void onFull() {
+            Log.e(TAG, "room full");
+        }
+
+        @Override
+        public void onSelfJoined() {
+        }
+
+        @Override
+        public void onPeerJoined(String socketId) {
+        }
+
+        @Override
+        public void onPeerLeave(String socketId) {
+            // 两个端点都会收到房间事件, 只处理一次
+            if (up) {
+                dispatcher.execute("up/" + socketId, () -> leave(socketId));
+            }
+        }
+
+        @Override
+        public void onMessage(SignalingMessage message) {
+            LocalSfu.this.onMessage(up, message);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.bo.webrtc_android;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 进程内的信令服务器, 房间规则与线上服务器一致, 用于离线测试
+// 每条消息都会经过 codec 编码再解码, 以便统计线上传输的字节数
+public class LoopbackSignalingServer {
+    private final SignalingCodec codec;
+    private final int maxClients;
+    // 所有消息在同一个线程按顺序投递, 模拟服务器的事件循环
+    private final ExecutorService deliveryExecutor = Executors.newSingleThreadExecutor();
+    private final HashMap<String, List<LoopbackTransport>> rooms = new HashMap<>();
+    private final HashMap<String, LoopbackTransport> clients = new HashMap<>();
+    private final AtomicLong bytesOnWire = new AtomicLong();
+    private final AtomicLong messageCount = new AtomicLong();
+    private int nextId = 0;
+    // 设置后回应客户端的 ice-config 请求
+    private volatile String iceConfig;
+    // 关闭后和线上服务器一样: 不回应 resume, 断线的客户端直接离开房间
+    private volatile boolean resumeSupported = true;
+
+    public LoopbackSignalingServer(){
+        this(new BinarySignalingCodec(), 4);
+    }
+
+    public LoopbackSignalingServer(SignalingCodec codec, int maxClients){
+        this.codec = codec;
+        this.maxClients = maxClients;
+    }
+
+    public SignalingTransport newTransport() {
+        return new LoopbackTransport();
+    }
+
+    // 使用固定id的客户端, 例如 SFU 的端点
+    public SignalingTransport newTransport(String id) {
+        return new LoopbackTransport(id);
+    }
+
+    public void setIceConfig(String iceConfig) {
+        this.iceConfig = iceConfig;
+    }
+
+    public void setResumeSupported(boolean resumeSupported) {
+        this.resumeSupported = resumeSupported;
+    }
+
+    public long getBytesOnWire() {
+        return bytesOnWire.get();
+    }
+
+    public long getMessageCount() {
+        return messageCount.get();
+    }
+
+    // 模拟网络中断: 服务器这边断开该客户端的连接, 但保留它在房间里的位置, 等它用 resume 回来
+    // 不支持 resume 时客户端离开房间, 其他人收到 bye
+    public void dropConnection(String id) {
+        deliveryExecutor.execute(() -> {
+            LoopbackTransport client = clients.get(id);
+            if (client != null && client.connected) {
+                if (!resumeSupported) {
+                    leave(client);
+                }
+                client.connected = false;
+                client.listener.onDisconnected();
+            }
+        });
+    }
+
+    public void shutdown() {
+        deliveryExecutor.shutdownNow();
+    }
+
+    private void join(LoopbackTransport client, String room) {
+        List<LoopbackTransport> members = rooms.get(room);
+        if (members == null) {
+            members = new ArrayList<>();
+            rooms.put(room, members);
+        }
+        if (members.size() >= maxClients) {
+            client.receive(SignalingMessage.control(SignalingMessage.FULL, client.id, room));
+            return;
+        }
+        client.room = room;
+        clients.put(client.id, client);
+        if (members.isEmpty()) {
+            members.add(client);
+            client.receive(SignalingMessage.control(SignalingMessage.CREATED, client.id, room));
+            return;
+        }
+        for (LoopbackTransport member : members) {
+            member.receive(SignalingMessage.control(SignalingMessage.PEER_JOINED, client.id, room));
+        }
+        members.add(client);
+        client.receive(SignalingMessage.control(SignalingMessage.JOINED, client.id, room));
+    }
+
+    // 用新连接替换房间里原来的客户端, 其他人收不到任何通知
+    private void resume(LoopbackTransport client, String room) {
+        if (!resumeSupported) {
+            return;
+        }
+        List<LoopbackTransport> members = rooms.get(room);
+        LoopbackTransport previous = clients.get(client.id);
+        if (members == null || previous == null || !members.contains(previous)) {
+            // 原来的会话已经不在了, 按新客户端加入
+            join(client, room);
+            return;
+        }
+        members.set(members.indexOf(previous), client);
+        previous.connected = false;
+        client.room = room;
+        clients.put(client.id, client);
+        client.receive(SignalingMessage.control(SignalingMessage.RESUMED, client.id, room));
+    }
+
+    private void leave(LoopbackTransport client) {
+        List<LoopbackTransport> members = rooms.get(client.room);
+        clients.remove(client.id);
+        if (members == null || !members.remove(client)) {
+            return;
+        }
+        for (LoopbackTransport member : members) {
+            member.receive(SignalingMessage.control(SignalingMessage.BYE, client.id, client.room));
+        }
+    }
+
+    private void route(SignalingMessage message) {
+        if (message == null) {
+            return;
+        }
+        if (SignalingMessage.ICE_CONFIG_REQUEST.equals(message.type)) {
+            LoopbackTransport client = clients.get(message.from);
+            String config = iceConfig;
+            if (client != null && config != null) {
+                client.receive(new SignalingMessage(SignalingMessage.ICE_CONFIG, message.to, client.id, config, null));
+            }
+            return;
+        }
+        LoopbackTransport target = clients.get(message.to);
+        // 断线期间发给它的消息丢失, 与真实服务器一致
+        if (target != null && target.connected) {
+            target.receive(message);
+        }
+    }
+
+    private class LoopbackTransport implements SignalingTransport {
+        private volatile String id;
+        private String room;
+        private Listener listener;
+        // 只在 deliveryExecutor 上修改
+        private volatile boolean connected;
+
+        LoopbackTransport(){
+            synchronized (LoopbackSignalingServer.this) {
+                id = "loopback" + (nextId++);
+            }
+        }
+
+        LoopbackTransport(String id){
+            this.id = id;
+        }
+
+        @Override
+        public void connect(String room, Listener listener) {
+            this.listener = listener;
+            deliveryExecutor.execute(() -> {
+                connected = true;
+                listener.onConnected();
+                join(this, room);
+            });
+        }
+
+        @Override
+        public void resume(String room, String id, Listener listener) {
+            this.id = id;
+            this.listener = listener;
+            deliveryExecutor.execute(() -> {
+                connected = true;
+                listener.onConnected();
+                LoopbackSignalingServer.this.resume(this, room);
+            });
+        }
+
+        @Override
+        public String id() {
+            return id;
+        }
+
+        @Override
+        public void send(SignalingMessage message) {
+            // 连接已经断开, 消息发不出去
+            if (!connected) {
+                return;
+            }
+            byte[] data = codec.encode(message);
+            if (data == null) {
+                return;
+            }
+            bytesOnWire.addAndGet(data.length);
+            messageCount.incrementAndGet();
+            deliveryExecutor.execute(() -> route(codec.decode(data, 0, data.length)));
+        }
+
+        @Override
+        public void disconnect() {
+            deliveryExecutor.execute(() -> leave(this));
+        }
+
+        @Override
+        public void close() {
+            deliveryExecutor.execute(() -> connected = false);
+        }
+
+        private void receive(SignalingMessage message) {
+            if (listener != null && connected) {
+                message.deliver(listener);
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.bo.webrtc_android;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+// SFU 一个房间的发布/订阅关系, 只做记账, 返回每次变化后需要通知或重新协商的客户端, 媒体转发由调用者完成
+// 每个客户端只订阅别人的画面, 不会收到自己的
+public class SfuRoom {
+    private final LinkedHashSet<String> publishers = new LinkedHashSet<>();
+    private final LinkedHashSet<String> subscribers = new LinkedHashSet<>();
+
+    // 返回需要开始接收 id 的画面的订阅端, 重复发布返回空列表
+    public synchronized List<String> publish(String id) {
+        if (!publishers.add(id)) {
+            return new ArrayList<>();
+        }
+        return others(subscribers, id);
+    }
+
+    // 返回新订阅端需要接收的发布端, 重复订阅返回空列表
+    public synchronized List<String> subscribe(String id) {
+        if (!subscribers.add(id)) {
+            return new ArrayList<>();
+        }
+        return others(publishers, id);
+    }
+
+    // 客户端离开, 返回之前在接收它的画面的订阅端
+    public synchronized List<String> leave(String id) {
+        subscribers.remove(id);
+        if (!publishers.remove(id)) {
+            return new ArrayList<>();
+        }
+        return others(subscribers, id);
+    }
+
+    // 订阅端 id 当前应该接收的发布端
+    public synchronized List<String> getPublishersFor(String id) {
+        return subscribers.contains(id) ? others(publishers, id) : new ArrayList<>();
+    }
+
+    // 应该接收发布端 id 的画面的订阅端
+    public synchronized List<String> getSubscribersFor(String id) {
+        return publishers.contains(id) ? others(subscribers, id) : new ArrayList<>();
+    }
+
+    public synchronized boolean isPublishing(String id) {
+        return publishers.contains(id);
+    }
+
+    public synchronized int getPublisherCount() {
+        return publishers.size();
+    }
+
+    public synchronized int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    private static List<String> others(LinkedHashSet<String> ids, String self) {
+        List<String> result = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            if (!id.equals(self)) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,36 @@
+package com.bo.webrtc_android;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AudioLatencyMonitorTest {
+    private static final double DELTA = 1e-6;
+
+    @Test
+    public void jitterBufferDelayUsesDeltaBetweenPolls() {
+        AudioLatencyMonitor monitor = new AudioLatencyMonitor(null);
+        // 每个样本累加一次延迟, 第一次只有累计值, 按累计平均: 4800s / 96000 样本 = 50ms
+        AudioLatencyMonitor.Estimate first = monitor.update("a", 4800, 96000, 0.1, 20, 10);
+        assertEquals(50, first.jitterBufferMs, DELTA);
+        assertEquals(100, first.rttMs, DELTA);
+        // 10 + 20 + 100/2 + 50 + 10
+        assertEquals(140, first.mouthToEarMs, DELTA);
+        // 之后按增量: 2400s / 96000 样本 = 25ms
+        AudioLatencyMonitor.Estimate second = monitor.update("a", 7200, 192000, 0.1, 20, 10);
+        assertEquals(25, second.jitterBufferMs, DELTA);
+        assertSame(second, monitor.getEstimate("a"));
+    }
+
+    @Test
+    public void missingStatsKeepPreviousValues() {
+        AudioLatencyMonitor monitor = new AudioLatencyMonitor(null);
+        assertNull(monitor.update("a", -1, -1, -1, 20, 10));
+        monitor.update("a", 4800, 96000, 0.2, 20, 10);
+        AudioLatencyMonitor.Estimate estimate = monitor.update("a", -1, -1, -1, 20, 10);
+        assertEquals(50, estimate.jitterBufferMs, DELTA);
+        assertEquals(200, estimate.rttMs, DELTA);
+        monitor.removePeer("a");
+        assertNull(monitor.getEstimate("a"));
+    }
+}
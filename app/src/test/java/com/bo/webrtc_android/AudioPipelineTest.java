@@ -0,0 +1,41 @@
+package com.bo.webrtc_android;
+
+import org.junit.Test;
+import org.webrtc.MediaConstraints;
+
+import static org.junit.Assert.*;
+
+public class AudioPipelineTest {
+    private static String value(MediaConstraints constraints, String key) {
+        for (MediaConstraints.KeyValuePair pair : constraints.mandatory) {
+            if (pair.getKey().equals(key)) {
+                return pair.getValue();
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void lowCpuPresetSkipsSoftwareProcessingDoneInHardware() {
+        MediaConstraints voice = AudioPipeline.createConstraints(AudioPipeline.Preset.VOICE, true, true);
+        assertEquals("true", value(voice, "googEchoCancellation"));
+        assertEquals("true", value(voice, "googNoiseSuppression"));
+        MediaConstraints lowCpu = AudioPipeline.createConstraints(AudioPipeline.Preset.LOW_CPU, true, false);
+        assertEquals("false", value(lowCpu, "googEchoCancellation"));
+        assertEquals("true", value(lowCpu, "googNoiseSuppression"));
+        MediaConstraints music = AudioPipeline.createConstraints(AudioPipeline.Preset.MUSIC, false, false);
+        assertEquals("false", value(music, "googAutoGainControl"));
+    }
+
+    @Test
+    public void opusSettingsGoIntoAudioFmtpAndPtime() {
+        AudioPipeline.OpusSettings settings = new AudioPipeline.OpusSettings();
+        settings.ptimeMs = 40;
+        settings.maxAverageBitrate = 24000;
+        String sdp = AudioPipeline.applyTo(SdpModel.parse(SignalingSamples.OFFER_SDP), settings).toString();
+        assertTrue(sdp.contains("a=fmtp:111 minptime=10;useinbandfec=1;usedtx=1;stereo=0;maxaveragebitrate=24000\r\n"));
+        assertTrue(sdp.contains("a=ptime:40\r\n"));
+        // 再次应用不会重复
+        assertEquals(sdp, AudioPipeline.applyTo(SdpModel.parse(sdp), settings).toString());
+    }
+}
@@ -0,0 +1,31 @@
+package com.bo.webrtc_android;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BackoffTest {
+    @Test
+    public void delay_growsWithJitterUpToMax() {
+        Backoff backoff = new Backoff(100, 1000, new Random(1));
+        long[] caps = {100, 200, 400, 800, 1000, 1000};
+        for (long cap : caps) {
+            long delay = backoff.nextDelayMs();
+            assertTrue(delay + " > " + cap, delay <= cap);
+            assertTrue(delay + " < " + cap / 2, delay >= cap / 2);
+        }
+        assertEquals(caps.length, backoff.getAttempts());
+    }
+
+    @Test
+    public void reset_startsOver() {
+        Backoff backoff = new Backoff(100, 1000, new Random(1));
+        for (int i = 0; i < 50; i++) {
+            backoff.nextDelayMs();
+        }
+        backoff.reset();
+        assertTrue(backoff.nextDelayMs() <= 100);
+    }
+}
@@ -0,0 +1,58 @@
+package com.bo.webrtc_android;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class CallSetupRecorderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void histogram_percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 10);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(505, histogram.getMean());
+        // 第 50 个值 500 落在 <=800 的桶里
+        assertEquals(800, histogram.getPercentile(50));
+        assertEquals(1000, histogram.getPercentile(95));
+    }
+
+    @Test
+    public void mark_recordsFirstOccurrenceOnly() throws InterruptedException {
+        CallSetupRecorder recorder = new CallSetupRecorder();
+        recorder.mark("a", CallSetupRecorder.Stage.JOIN);
+        assertEquals(-1, recorder.getStageMs("a", CallSetupRecorder.Stage.ICE_CONNECTED));
+        Thread.sleep(20);
+        recorder.mark("a", CallSetupRecorder.Stage.ICE_CONNECTED);
+        long first = recorder.getStageMs("a", CallSetupRecorder.Stage.ICE_CONNECTED);
+        assertTrue(first >= 20);
+        Thread.sleep(20);
+        recorder.mark("a", CallSetupRecorder.Stage.ICE_CONNECTED);
+        assertEquals(first, recorder.getStageMs("a", CallSetupRecorder.Stage.ICE_CONNECTED));
+        assertEquals(1, recorder.getHistogram(CallSetupRecorder.Stage.ICE_CONNECTED).getCount());
+    }
+
+    @Test
+    public void finish_writesTraceFile() throws InterruptedException {
+        File dir = new File(folder.getRoot(), "traces");
+        CallSetupRecorder recorder = new CallSetupRecorder();
+        recorder.setTraceDir(dir);
+        recorder.mark("a", CallSetupRecorder.Stage.JOIN);
+        recorder.finish("a");
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((dir.list() == null || dir.list().length == 0) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, dir.list().length);
+        assertTrue(dir.list()[0].startsWith("call-a-"));
+    }
+}
@@ -0,0 +1,39 @@
+package com.bo.webrtc_android;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CodecPolicyTest {
+    @Test
+    public void demotesOnlyAfterRepeatedFailures() {
+        List<Long> times = new ArrayList<>();
+        for (int i = 1; i < CodecPolicy.MAX_FAILURES; i++) {
+            assertFalse(CodecPolicy.recordFailure(times, i * 1000L));
+        }
+        assertTrue(CodecPolicy.recordFailure(times, CodecPolicy.MAX_FAILURES * 1000L));
+    }
+
+    @Test
+    public void oldFailuresLeaveTheWindow() {
+        List<Long> times = new ArrayList<>();
+        long now = 0;
+        for (int i = 0; i < CodecPolicy.MAX_FAILURES * 2; i++) {
+            now += CodecPolicy.FAILURE_WINDOW_MS;
+            assertFalse(CodecPolicy.recordFailure(times, now));
+        }
+    }
+
+    @Test
+    public void demotionExpires() {
+        long demotedAt = 1_000_000;
+        assertFalse(CodecPolicy.isDemoted(0, demotedAt));
+        assertTrue(CodecPolicy.isDemoted(demotedAt, demotedAt + 1));
+        assertFalse(CodecPolicy.isDemoted(demotedAt, demotedAt + CodecPolicy.DEMOTION_MS));
+        // 系统时间被调回去时不认为仍在降级
+        assertFalse(CodecPolicy.isDemoted(demotedAt, demotedAt - 1));
+    }
+}
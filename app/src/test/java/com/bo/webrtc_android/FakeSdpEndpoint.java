@@ -0,0 +1,186 @@
+package com.bo.webrtc_android;
+
+import org.webrtc.IceCandidate;
+import org.webrtc.MediaConstraints;
+import org.webrtc.PeerConnection;
+import org.webrtc.SdpObserver;
+import org.webrtc.SessionDescription;
+
+import java.util.concurrent.Executor;
+
+// 在 JVM 上模拟 PeerConnection 的信令状态机, 状态转换规则与 JSEP 一致, 非法的调用回调失败
+// 所有回调都在传入的"信令线程"上异步执行, 与 WebRTC 相同; 第一次设置本地描述后 trickle 出若干候选
+class FakeSdpEndpoint implements SdpEndpoint {
+    static final int CANDIDATES = 4;
+
+    interface Listener {
+        // 本地候选, 对应 PeerConnection.Observer.onIceCandidate
+        void onIceCandidate(String socketId, IceCandidate candidate);
+
+        // 双方描述都已生效并收到了对端的候选, 相当于 ICE 连通
+        void onConnected(String socketId);
+    }
+
+    private final String socketId;
+    private final PeerNegotiator negotiator;
+    private final Executor signalingThread;
+    private final Listener listener;
+
+    private PeerConnection.SignalingState state = PeerConnection.SignalingState.STABLE;
+    private SessionDescription localDescription;
+    private SessionDescription remoteDescription;
+    private int sessionVersion;
+    private int remoteCandidates;
+    private boolean gathered;
+    private boolean connected;
+
+    FakeSdpEndpoint(String socketId, PeerNegotiator negotiator, Executor signalingThread, Listener listener){
+        this.socketId = socketId;
+        this.negotiator = negotiator;
+        this.signalingThread = signalingThread;
+        this.listener = listener;
+    }
+
+    // 加入本地轨道之后 PeerConnection 会异步触发 onRenegotiationNeeded
+    void addLocalTrack() {
+        signalingThread.execute(negotiator::onRenegotiationNeeded);
+    }
+
+    @Override
+    public void createOffer(SdpObserver observer, MediaConstraints constraints) {
+        signalingThread.execute(() -> {
+            String sdp;
+            synchronized (this) {
+                if (state != PeerConnection.SignalingState.STABLE
+                        && state != PeerConnection.SignalingState.HAVE_LOCAL_OFFER) {
+                    sdp = null;
+                } else {
+                    sdp = createSdp();
+                }
+            }
+            if (sdp == null) {
+                observer.onCreateFailure("createOffer in " + state);
+            } else {
+                observer.onCreateSuccess(new SessionDescription(SessionDescription.Type.OFFER, sdp));
+            }
+        });
+    }
+
+    @Override
+    public void createAnswer(SdpObserver observer, MediaConstraints constraints) {
+        signalingThread.execute(() -> {
+            String sdp;
+            synchronized (this) {
+                sdp = state == PeerConnection.SignalingState.HAVE_REMOTE_OFFER ? createSdp() : null;
+            }
+            if (sdp == null) {
+                observer.onCreateFailure("createAnswer in " + state);
+            } else {
+                observer.onCreateSuccess(new SessionDescription(SessionDescription.Type.ANSWER, sdp));
+            }
+        });
+    }
+
+    // 与真实的 offer 大小相近, 每次的 o= 版本号递增
+    private String createSdp() {
+        sessionVersion++;
+        return SignalingSamples.OFFER_SDP.replace(" 2 IN IP4", " " + (sessionVersion + 1) + " IN IP4");
+    }
+
+    @Override
+    public void setLocalDescription(SdpObserver observer, SessionDescription sdp) {
+        signalingThread.execute(() -> {
+            PeerConnection.SignalingState next = null;
+            boolean gather = false;
+            synchronized (this) {
+                if (sdp.type == SessionDescription.Type.OFFER && state == PeerConnection.SignalingState.STABLE) {
+                    next = PeerConnection.SignalingState.HAVE_LOCAL_OFFER;
+                } else if (sdp.type == SessionDescription.Type.ANSWER
+                        && state == PeerConnection.SignalingState.HAVE_REMOTE_OFFER) {
+                    next = PeerConnection.SignalingState.STABLE;
+                }
+                if (next != null) {
+                    state = next;
+                    localDescription = sdp;
+                    gather = !gathered;
+                    gathered = true;
+                }
+            }
+            if (next == null) {
+                observer.onSetFailure("setLocalDescription " + sdp.type + " in " + state);
+                return;
+            }
+            negotiator.onSignalingChange(next);
+            observer.onSetSuccess();
+            if (gather) {
+                for (IceCandidate candidate : SignalingSamples.candidates(CANDIDATES)) {
+                    listener.onIceCandidate(socketId, candidate);
+                }
+            }
+            checkConnected();
+        });
+    }
+
+    @Override
+    public void setRemoteDescription(SdpObserver observer, SessionDescription sdp) {
+        signalingThread.execute(() -> {
+            PeerConnection.SignalingState next = null;
+            synchronized (this) {
+                if (sdp.type == SessionDescription.Type.OFFER && state == PeerConnection.SignalingState.STABLE) {
+                    next = PeerConnection.SignalingState.HAVE_REMOTE_OFFER;
+                } else if (sdp.type == SessionDescription.Type.ANSWER
+                        && state == PeerConnection.SignalingState.HAVE_LOCAL_OFFER) {
+                    next = PeerConnection.SignalingState.STABLE;
+                }
+                if (next != null) {
+                    state = next;
+                    remoteDescription = sdp;
+                }
+            }
+            if (next == null) {
+                observer.onSetFailure("setRemoteDescription " + sdp.type + " in " + state);
+                return;
+            }
+            negotiator.onSignalingChange(next);
+            observer.onSetSuccess();
+            checkConnected();
+        });
+    }
+
+    // 与 PeerConnection 一样同步返回, 没有远端描述时失败
+    @Override
+    public boolean addIceCandidate(IceCandidate candidate) {
+        synchronized (this) {
+            if (remoteDescription == null) {
+                return false;
+            }
+            remoteCandidates++;
+        }
+        signalingThread.execute(this::checkConnected);
+        return true;
+    }
+
+    private void checkConnected() {
+        synchronized (this) {
+            if (connected || localDescription == null || remoteDescription == null || remoteCandidates == 0
+                    || state != PeerConnection.SignalingState.STABLE) {
+                return;
+            }
+            connected = true;
+        }
+        listener.onConnected(socketId);
+    }
+
+    // 创建过的 offer/answer 个数
+    synchronized int getSessionVersion() {
+        return sessionVersion;
+    }
+
+    synchronized int getRemoteCandidateCount() {
+        return remoteCandidates;
+    }
+
+    synchronized boolean isConnected() {
+        return connected;
+    }
+}
@@ -0,0 +1,165 @@
+package com.bo.webrtc_android;
+
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// 不需要 Activity 和 native 库的客户端: 与 MainActivity 使用同一个 NegotiationController 和 PeerNegotiator,
+// 连接换成 FakeSdpEndpoint, 信令走 LoopbackSignalingServer
+class HeadlessPeer implements SignalingTransport.Listener, PeerNegotiator.Signaling,
+        NegotiationController.PeerHost, FakeSdpEndpoint.Listener {
+    final SignalingTransport transport;
+    final NegotiationController negotiation = new NegotiationController(this, new SignalingDispatcher(2));
+    // 相当于 PeerConnectionFactory 的信令线程, 所有连接共用
+    private final ExecutorService signalingThread = Executors.newSingleThreadExecutor();
+    private final ConcurrentHashMap<String, FakeSdpEndpoint> endpoints = new ConcurrentHashMap<>();
+    private final Set<String> connected = new HashSet<>();
+    private volatile boolean joined;
+
+    HeadlessPeer(LoopbackSignalingServer server){
+        transport = server.newTransport();
+    }
+
+    void join(String room) {
+        transport.connect(room, this);
+    }
+
+    String id() {
+        return transport.id();
+    }
+
+    FakeSdpEndpoint getEndpoint(String socketId) {
+        return endpoints.get(socketId);
+    }
+
+    synchronized Set<String> getConnected() {
+        return new HashSet<>(connected);
+    }
+
+    // 等到与 expected 个对端连通, 超时返回 false
+    synchronized boolean awaitConnected(int expected, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (connected.size() < expected) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    boolean isJoined() {
+        return joined;
+    }
+
+    void leave() {
+        transport.disconnect();
+        close();
+    }
+
+    void close() {
+        negotiation.getDispatcher().shutdown();
+        signalingThread.shutdownNow();
+    }
+
+    @Override
+    public PeerNegotiator createNegotiator(String socketId) {
+        PeerNegotiator negotiator = new PeerNegotiator(socketId, transport.id(), this);
+        // 与 MainActivity 的网状模式一致, 重协商只发送 SDP 增量
+        negotiator.setSdpDeltas(true);
+        return negotiator;
+    }
+
+    @Override
+    public SdpEndpoint createPeer(String socketId, PeerNegotiator negotiator) {
+        FakeSdpEndpoint endpoint = new FakeSdpEndpoint(socketId, negotiator, signalingThread, this);
+        endpoints.put(socketId, endpoint);
+        endpoint.addLocalTrack();
+        return endpoint;
+    }
+
+    @Override
+    public void disposePeer(String socketId) {
+        endpoints.remove(socketId);
+        synchronized (this) {
+            connected.remove(socketId);
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void onIceCandidate(String socketId, IceCandidate candidate) {
+        transport.send(SignalingMessage.candidates(Collections.singletonList(candidate), transport.id(), socketId));
+    }
+
+    @Override
+    public synchronized void onConnected(String socketId) {
+        connected.add(socketId);
+        notifyAll();
+    }
+
+    @Override
+    public void sendSessionDescription(SessionDescription sdp, String to) {
+        transport.send(SignalingMessage.sessionDescription(sdp, transport.id(), to));
+    }
+
+    @Override
+    public void requestNegotiation(String to) {
+        transport.send(SignalingMessage.control(SignalingMessage.NEGOTIATE, transport.id(), to));
+    }
+
+    @Override
+    public void requestIceRestart(String to) {
+        transport.send(SignalingMessage.control(SignalingMessage.ICE_RESTART, transport.id(), to));
+    }
+
+    @Override
+    public void requestResync(String to) {
+        transport.send(SignalingMessage.control(SignalingMessage.RESYNC, transport.id(), to));
+    }
+
+    @Override
+    public void onConnected() {
+    }
+
+    @Override
+    public void onDisconnected() {
+    }
+
+    @Override
+    public void onCreated() {
+        joined = true;
+    }
+
+    @Override
+    public void onFull() {
+    }
+
+    @Override
+    public void onSelfJoined() {
+        joined = true;
+    }
+
+    @Override
+    public void onPeerJoined(String socketId) {
+        negotiation.connect(socketId);
+    }
+
+    @Override
+    public void onPeerLeave(String socketId) {
+        negotiation.disconnect(socketId);
+    }
+
+    @Override
+    public void onMessage(SignalingMessage message) {
+        negotiation.onMessage(message);
+    }
+}
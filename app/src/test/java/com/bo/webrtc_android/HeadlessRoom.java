@@ -0,0 +1,46 @@
+package com.bo.webrtc_android;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// N 个 HeadlessPeer 依次加入同一个 LoopbackSignalingServer 房间, 两两建立连接
+class HeadlessRoom {
+    static final String ROOM = "headless";
+
+    final LoopbackSignalingServer server;
+    final List<HeadlessPeer> peers = new ArrayList<>();
+
+    HeadlessRoom(int capacity){
+        server = new LoopbackSignalingServer(new BinarySignalingCodec(), capacity);
+    }
+
+    // 加入一个新客户端, 等服务器确认之后再返回, 保证加入顺序
+    HeadlessPeer join() throws InterruptedException {
+        HeadlessPeer peer = new HeadlessPeer(server);
+        peers.add(peer);
+        peer.join(ROOM);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!peer.isJoined() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        return peer;
+    }
+
+    // 每个客户端都与其他所有人连通
+    boolean awaitFullMesh(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        for (HeadlessPeer peer : peers) {
+            if (!peer.awaitConnected(peers.size() - 1, Math.max(1, deadline - System.currentTimeMillis()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void close() {
+        for (HeadlessPeer peer : peers) {
+            peer.close();
+        }
+        server.shutdown();
+    }
+}
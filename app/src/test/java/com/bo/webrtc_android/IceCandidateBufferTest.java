@@ -0,0 +1,48 @@
+package com.bo.webrtc_android;
+
+import org.junit.Test;
+import org.webrtc.IceCandidate;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class IceCandidateBufferTest {
+    @Test
+    public void buffersUntilRemoteDescriptionSet() {
+        IceCandidateBuffer buffer = new IceCandidateBuffer();
+        List<IceCandidate> candidates = SignalingSamples.candidates(3);
+        for (IceCandidate candidate : candidates) {
+            assertTrue(buffer.offer(candidate));
+        }
+        assertEquals(3, buffer.getPendingCount());
+        buffer.onRemoteDescriptionPending();
+        assertEquals(candidates, buffer.onRemoteDescriptionSet());
+        assertEquals(0, buffer.getPendingCount());
+        assertEquals(3, buffer.getBufferedCount());
+        // 远端描述生效后不再缓冲
+        assertFalse(buffer.offer(candidates.get(0)));
+    }
+
+    @Test
+    public void buffersWhileRenegotiationPending() {
+        IceCandidateBuffer buffer = new IceCandidateBuffer();
+        buffer.onRemoteDescriptionPending();
+        buffer.onRemoteDescriptionSet();
+        // 重协商 (例如 ICE restart) 的远端描述还没生效时到达的候选也要等
+        buffer.onRemoteDescriptionPending();
+        assertTrue(buffer.offer(SignalingSamples.candidates(1).get(0)));
+        assertEquals(1, buffer.onRemoteDescriptionSet().size());
+    }
+
+    @Test
+    public void keepsCandidatesWhenSetFails() {
+        IceCandidateBuffer buffer = new IceCandidateBuffer();
+        buffer.onRemoteDescriptionPending();
+        assertTrue(buffer.offer(SignalingSamples.candidates(1).get(0)));
+        buffer.onRemoteDescriptionFailed();
+        // 还没有生效过的远端描述, 继续缓冲
+        assertTrue(buffer.offer(SignalingSamples.candidates(1).get(0)));
+        assertEquals(2, buffer.getPendingCount());
+    }
+}
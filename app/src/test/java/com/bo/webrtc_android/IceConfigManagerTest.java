@@ -0,0 +1,73 @@
+package com.bo.webrtc_android;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class IceConfigManagerTest {
+    private static final String CONFIG = "{\"iceServers\":[{\"urls\":\"turn:bocode.xyz:3478\","
+            + "\"username\":\"1700000000:bo\",\"credential\":\"c2VjcmV0\"}],\"ttl\":600}";
+
+    @Test
+    public void refreshDelay_isFractionOfRemainingLifetime() {
+        IceConfig config = IceConfig.parse(CONFIG, 0);
+        assertEquals(480000, IceConfigManager.refreshDelayMs(config, 0));
+        assertEquals(0, IceConfigManager.refreshDelayMs(config, 700000));
+    }
+
+    @Test
+    public void signalingConfig_replacesCurrentAndNotifies() {
+        IceConfig initial = new IceConfig(Collections.<IceConfig.Server>emptyList(), false, 2, 0);
+        IceConfigManager manager = new IceConfigManager(initial, () -> { });
+        AtomicReference<IceConfig> changed = new AtomicReference<>();
+        manager.addListener(changed::set);
+        manager.onSignalingConfig("broken");
+        assertSame(initial, manager.getCurrent());
+        assertNull(changed.get());
+        manager.onSignalingConfig(CONFIG);
+        assertSame(manager.getCurrent(), changed.get());
+        assertEquals("1700000000:bo", manager.getCurrent().getServers().get(0).username);
+        // 已有连接的候选池大小不能变
+        manager.onSignalingConfig("{\"iceServers\":[],\"iceCandidatePoolSize\":5}");
+        assertEquals(5, manager.getCurrent().getCandidatePoolSize());
+        assertEquals(2, manager.createRtcConfiguration().iceCandidatePoolSize);
+        manager.release();
+    }
+
+    @Test
+    public void refresh_requestsConfigFromLoopbackServer() throws InterruptedException {
+        LoopbackSignalingServer server = new LoopbackSignalingServer();
+        server.setIceConfig(CONFIG);
+        SignalingTransport transport = server.newTransport();
+        CountDownLatch joined = new CountDownLatch(1);
+        AtomicReference<IceConfigManager> manager = new AtomicReference<>();
+        transport.connect("room", new SignalingCodecTest.ListenerAdapter() {
+            @Override
+            public void onCreated() {
+                joined.countDown();
+            }
+
+            @Override
+            public void onMessage(SignalingMessage message) {
+                if (SignalingMessage.ICE_CONFIG.equals(message.type)) {
+                    manager.get().onSignalingConfig(message.sdp);
+                }
+            }
+        });
+        assertTrue(joined.await(5, TimeUnit.SECONDS));
+        manager.set(new IceConfigManager(new IceConfig(Collections.<IceConfig.Server>emptyList(), false, 2, 0),
+                () -> transport.send(SignalingMessage.control(SignalingMessage.ICE_CONFIG_REQUEST, transport.id(), "room"))));
+        CountDownLatch changed = new CountDownLatch(1);
+        manager.get().addListener(config -> changed.countDown());
+        manager.get().refresh();
+        assertTrue(changed.await(5, TimeUnit.SECONDS));
+        assertTrue(manager.get().getCurrent().getExpiresAtMs() > 0);
+        manager.get().release();
+        server.shutdown();
+    }
+}
@@ -0,0 +1,66 @@
+package com.bo.webrtc_android;
+
+import org.junit.Test;
+import org.webrtc.PeerConnection;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class IceConfigTest {
+    private static final String CONFIG = "{\"iceServers\":["
+            + "{\"urls\":\"stun:bocode.xyz:3478\"},"
+            + "{\"urls\":[\"turn:bocode.xyz:3478?transport=udp\",\"turn:bocode.xyz:3478?transport=tcp\"],"
+            + "\"username\":\"1700000000:bo\",\"credential\":\"c2VjcmV0\"}],"
+            + "\"iceTransportPolicy\":\"relay\",\"iceCandidatePoolSize\":4,\"ttl\":600}";
+
+    @Test
+    public void parse_readsServersPolicyAndTtl() {
+        IceConfig config = IceConfig.parse(CONFIG, 1000);
+        assertEquals(2, config.getServers().size());
+        IceConfig.Server stun = config.getServers().get(0);
+        assertEquals(Collections.singletonList("stun:bocode.xyz:3478"), stun.urls);
+        assertNull(stun.username);
+        assertFalse(stun.isTurn());
+        IceConfig.Server turn = config.getServers().get(1);
+        assertEquals(Arrays.asList("turn:bocode.xyz:3478?transport=udp", "turn:bocode.xyz:3478?transport=tcp"), turn.urls);
+        assertEquals("1700000000:bo", turn.username);
+        assertEquals("c2VjcmV0", turn.credential);
+        assertTrue(turn.isTurn());
+        assertTrue(config.isRelayOnly());
+        assertEquals(4, config.getCandidatePoolSize());
+        assertEquals(601000, config.getExpiresAtMs());
+        assertFalse(config.isExpired(600999));
+        assertTrue(config.isExpired(601000));
+    }
+
+    @Test
+    public void parse_defaultsAndErrors() {
+        IceConfig config = IceConfig.parse("{\"iceServers\":[]}", 1000);
+        assertFalse(config.isRelayOnly());
+        assertEquals(IceConfig.DEFAULT_CANDIDATE_POOL_SIZE, config.getCandidatePoolSize());
+        assertEquals(0, config.getExpiresAtMs());
+        assertFalse(config.isExpired(Long.MAX_VALUE));
+        assertNull(IceConfig.parse("{\"servers\":[]}", 0));
+        assertNull(IceConfig.parse("not json", 0));
+        assertNull(IceConfig.parse(null, 0));
+        assertNull(IceConfig.parse("", 0));
+    }
+
+    @Test
+    public void tune_setsBundleMuxPoolAndGathering() {
+        IceConfig config = IceConfig.parse("{\"iceServers\":[],\"iceCandidatePoolSize\":3}", 0);
+        PeerConnection.RTCConfiguration rtcConfig = new PeerConnection.RTCConfiguration(Collections.emptyList());
+        config.tune(rtcConfig, false);
+        assertEquals(PeerConnection.SdpSemantics.UNIFIED_PLAN, rtcConfig.sdpSemantics);
+        assertEquals(PeerConnection.IceTransportsType.ALL, rtcConfig.iceTransportsType);
+        assertEquals(PeerConnection.BundlePolicy.MAXBUNDLE, rtcConfig.bundlePolicy);
+        assertEquals(PeerConnection.RtcpMuxPolicy.REQUIRE, rtcConfig.rtcpMuxPolicy);
+        assertEquals(3, rtcConfig.iceCandidatePoolSize);
+        assertEquals(PeerConnection.ContinualGatheringPolicy.GATHER_CONTINUALLY, rtcConfig.continualGatheringPolicy);
+        // 本地的 relay-only 开关覆盖配置
+        config.tune(rtcConfig, true);
+        assertEquals(PeerConnection.IceTransportsType.RELAY, rtcConfig.iceTransportsType);
+    }
+}
@@ -0,0 +1,116 @@
+package com.bo.webrtc_android;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.webrtc.IceCandidate;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// 在 JVM 上测量协商逻辑: 房间从空到全连通的耗时随人数的变化, 以及收到候选消息的处理吞吐
+// 信令经过 LoopbackSignalingServer 的二进制编解码, 连接是 FakeSdpEndpoint, 测到的是本端代码的开销
+// 运行: 在 IDE 中直接运行 main, 或 java -cp <test classpath> com.bo.webrtc_android.NegotiationBenchmark
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NegotiationBenchmark {
+    private static final long TIMEOUT_MS = 30000;
+    private static final int BATCH = 256;
+
+    @State(Scope.Thread)
+    public static class RoomState {
+        @Param({"2", "4", "8", "12"})
+        public int roomSize;
+
+        HeadlessRoom room;
+
+        @Setup(Level.Invocation)
+        public void setup() {
+            room = new HeadlessRoom(roomSize);
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() {
+            room.close();
+        }
+    }
+
+    // 两个已经连通的客户端, A 不断给 B 发候选
+    @State(Scope.Thread)
+    public static class PairState {
+        HeadlessRoom room;
+        HeadlessPeer sender;
+        HeadlessPeer receiver;
+        FakeSdpEndpoint endpoint;
+        final List<IceCandidate> candidates = SignalingSamples.candidates(1);
+
+        @Setup(Level.Trial)
+        public void setup() throws InterruptedException {
+            room = new HeadlessRoom(2);
+            sender = room.join();
+            receiver = room.join();
+            if (!room.awaitFullMesh(TIMEOUT_MS)) {
+                throw new IllegalStateException("pair did not connect");
+            }
+            endpoint = receiver.getEndpoint(sender.id());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            room.close();
+        }
+    }
+
+    // N 个客户端依次加入, 直到两两之间都完成 offer/answer 和候选交换
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public boolean roomSetup(RoomState state) throws InterruptedException {
+        for (int i = 0; i < state.roomSize; i++) {
+            state.room.join();
+        }
+        if (!state.room.awaitFullMesh(TIMEOUT_MS)) {
+            throw new IllegalStateException("room of " + state.roomSize + " did not connect");
+        }
+        return true;
+    }
+
+    // 候选消息从发送到被 PeerNegotiator 加到连接上的吞吐, 包含编解码, 服务器转发和按对端串行派发
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @OperationsPerInvocation(BATCH)
+    public int candidateThroughput(PairState state) {
+        int target = state.endpoint.getRemoteCandidateCount() + BATCH;
+        String from = state.sender.id();
+        String to = state.receiver.id();
+        for (int i = 0; i < BATCH; i++) {
+            state.sender.transport.send(SignalingMessage.candidates(state.candidates, from, to));
+        }
+        int count;
+        while ((count = state.endpoint.getRemoteCandidateCount()) < target) {
+            LockSupport.parkNanos(10000);
+        }
+        return count;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(NegotiationBenchmark.class.getSimpleName()).build()).run();
+    }
+}
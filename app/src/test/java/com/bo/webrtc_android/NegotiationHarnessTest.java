@@ -0,0 +1,153 @@
+package com.bo.webrtc_android;
+
+import org.junit.After;
+import org.junit.Test;
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+// 在 JVM 上跑完整的 加入 -> offer/answer -> trickle 流程, 不需要设备和网络
+public class NegotiationHarnessTest {
+    private static final long TIMEOUT_MS = 10000;
+
+    private HeadlessRoom room;
+
+    @After
+    public void tearDown() {
+        if (room != null) {
+            room.close();
+        }
+    }
+
+    @Test
+    public void everyPeerConnectsToEveryOther() throws InterruptedException {
+        int size = 6;
+        room = new HeadlessRoom(size);
+        for (int i = 0; i < size; i++) {
+            room.join();
+        }
+        assertTrue(room.awaitFullMesh(TIMEOUT_MS));
+        for (HeadlessPeer peer : room.peers) {
+            Set<String> expected = new HashSet<>();
+            for (HeadlessPeer other : room.peers) {
+                if (other != peer) {
+                    expected.add(other.id());
+                }
+            }
+            assertEquals(expected, peer.getConnected());
+            for (String socketId : expected) {
+                // 连通只需要第一个候选, 其余的可能还在路上
+                FakeSdpEndpoint endpoint = peer.getEndpoint(socketId);
+                long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+                while (endpoint.getRemoteCandidateCount() < FakeSdpEndpoint.CANDIDATES
+                        && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(5);
+                }
+                // 对端 trickle 的候选全部加上, 没有丢在缓冲区里
+                assertEquals(FakeSdpEndpoint.CANDIDATES, endpoint.getRemoteCandidateCount());
+                assertEquals(0, peer.negotiation.get(socketId).getCandidateBuffer().getPendingCount());
+            }
+        }
+    }
+
+    @Test
+    public void renegotiationKeepsPeersConnected() throws InterruptedException {
+        room = new HeadlessRoom(3);
+        for (int i = 0; i < 3; i++) {
+            room.join();
+        }
+        assertTrue(room.awaitFullMesh(TIMEOUT_MS));
+        int before = totalSessionVersions();
+        // polite 和 impolite 两边同时要求重协商, 不能出现 offer 冲突
+        for (HeadlessPeer peer : room.peers) {
+            peer.negotiation.renegotiateAll();
+        }
+        // 三对连接每对至少一轮 offer/answer
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (totalSessionVersions() - before < 6 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(totalSessionVersions() - before >= 6);
+        for (HeadlessPeer peer : room.peers) {
+            assertEquals(2, peer.getConnected().size());
+            for (String socketId : peer.negotiation.getPeerIds()) {
+                assertFalse(peer.negotiation.get(socketId).needsIceRestart());
+            }
+        }
+        // 重协商走的是 SDP 增量, 还原出的远端描述与对端最后发出的一致
+        for (HeadlessPeer peer : room.peers) {
+            for (HeadlessPeer other : room.peers) {
+                if (other == peer) {
+                    continue;
+                }
+                PeerNegotiator receiving = peer.negotiation.get(other.id());
+                PeerNegotiator sending = other.negotiation.get(peer.id());
+                deadline = System.currentTimeMillis() + TIMEOUT_MS;
+                while (!String.valueOf(sending.getLocalDescription()).equals(String.valueOf(receiving.getRemoteDescription()))
+                        && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(5);
+                }
+                assertEquals(String.valueOf(sending.getLocalDescription()), String.valueOf(receiving.getRemoteDescription()));
+            }
+        }
+    }
+
+    private int totalSessionVersions() {
+        int total = 0;
+        for (HeadlessPeer peer : room.peers) {
+            for (String socketId : peer.negotiation.getPeerIds()) {
+                total += peer.getEndpoint(socketId).getSessionVersion();
+            }
+        }
+        return total;
+    }
+
+    @Test
+    public void leavingPeerIsDisposedEverywhere() throws InterruptedException {
+        room = new HeadlessRoom(3);
+        for (int i = 0; i < 3; i++) {
+            room.join();
+        }
+        assertTrue(room.awaitFullMesh(TIMEOUT_MS));
+        HeadlessPeer leaving = room.peers.remove(2);
+        leaving.leave();
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        for (HeadlessPeer peer : room.peers) {
+            while (peer.negotiation.get(leaving.id()) != null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertNull(peer.negotiation.get(leaving.id()));
+            assertNull(peer.getEndpoint(leaving.id()));
+            assertEquals(1, peer.negotiation.getPeerCount());
+        }
+    }
+
+    @Test
+    public void strayMessagesDoNotCreatePeers() throws InterruptedException {
+        room = new HeadlessRoom(2);
+        HeadlessPeer peer = room.join();
+        room.join();
+        assertTrue(room.awaitFullMesh(TIMEOUT_MS));
+        String ghost = "ghost";
+        peer.negotiation.onMessage(SignalingMessage.candidates(
+                Collections.singletonList(new IceCandidate("0", 0, "candidate:1 1 udp 1 10.0.0.1 9 typ host")), ghost, peer.id()));
+        peer.negotiation.onMessage(SignalingMessage.sessionDescription(
+                new SessionDescription(SessionDescription.Type.ANSWER, "v=0\r\n"), ghost, peer.id()));
+        // 离开房间之后迟到的连接请求
+        peer.negotiation.disconnect(ghost);
+        peer.negotiation.onMessage(SignalingMessage.control(SignalingMessage.NEGOTIATE, ghost, peer.id()));
+        CountDownLatch handled = new CountDownLatch(1);
+        peer.negotiation.getDispatcher().execute(ghost, handled::countDown);
+        assertTrue(handled.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertNull(peer.negotiation.get(ghost));
+        assertNull(peer.getEndpoint(ghost));
+        assertEquals(1, peer.negotiation.getPeerCount());
+    }
+}
@@ -0,0 +1,202 @@
+package com.bo.webrtc_android;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ReconnectingTransportTest {
+    @Test
+    public void dropConnection_resumesWithSameIdAndFlushesQueue() throws InterruptedException {
+        LoopbackSignalingServer server = new LoopbackSignalingServer();
+        ReconnectingTransport first = new ReconnectingTransport(server::newTransport, new Backoff(20, 100));
+        SignalingTransport second = server.newTransport();
+        CountDownLatch created = new CountDownLatch(1);
+        CountDownLatch disconnected = new CountDownLatch(1);
+        CountDownLatch reconnected = new CountDownLatch(2);
+        CountDownLatch secondJoined = new CountDownLatch(1);
+        CountDownLatch firstReceived = new CountDownLatch(1);
+        CountDownLatch secondReceived = new CountDownLatch(3);
+        List<SignalingMessage> messages = Collections.synchronizedList(new ArrayList<>());
+        List<String> roomEvents = Collections.synchronizedList(new ArrayList<>());
+
+        first.connect("room", new SignalingCodecTest.ListenerAdapter() {
+            @Override
+            public void onConnected() {
+                reconnected.countDown();
+            }
+
+            @Override
+            public void onDisconnected() {
+                disconnected.countDown();
+            }
+
+            @Override
+            public void onCreated() {
+                created.countDown();
+            }
+
+            @Override
+            public void onMessage(SignalingMessage message) {
+                firstReceived.countDown();
+            }
+        });
+        assertTrue(created.await(5, TimeUnit.SECONDS));
+        second.connect("room", new SignalingCodecTest.ListenerAdapter() {
+            @Override
+            public void onSelfJoined() {
+                secondJoined.countDown();
+            }
+
+            @Override
+            public void onPeerJoined(String socketId) {
+                roomEvents.add("join " + socketId);
+            }
+
+            @Override
+            public void onPeerLeave(String socketId) {
+                roomEvents.add("bye " + socketId);
+            }
+
+            @Override
+            public void onMessage(SignalingMessage message) {
+                messages.add(message);
+                secondReceived.countDown();
+            }
+        });
+        assertTrue(secondJoined.await(5, TimeUnit.SECONDS));
+        String id = first.id();
+
+        server.dropConnection(id);
+        assertTrue(disconnected.await(5, TimeUnit.SECONDS));
+        // 断线期间发出的消息排队, 重连后按顺序送达
+        for (int i = 1; i <= 3; i++) {
+            first.send(SignalingMessage.layer(i, i, first.id(), second.id()));
+        }
+        assertTrue(reconnected.await(5, TimeUnit.SECONDS));
+        assertTrue(secondReceived.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(id, messages.get(i).from);
+            assertEquals(i + 1, messages.get(i).layerSize()[0]);
+        }
+        assertEquals(id, first.id());
+        assertTrue(first.getReconnectCount() >= 1);
+        // 对端没有看到离开和重新加入
+        assertTrue(roomEvents.toString(), roomEvents.isEmpty());
+
+        // 恢复后对端仍能按原来的id发消息过来
+        second.send(SignalingMessage.control(SignalingMessage.ICE_RESTART, second.id(), id));
+        assertTrue(firstReceived.await(5, TimeUnit.SECONDS));
+        first.disconnect();
+        server.shutdown();
+    }
+
+    @Test
+    public void resumeNotConfirmed_joinsWithNewId() throws InterruptedException {
+        LoopbackSignalingServer server = new LoopbackSignalingServer();
+        server.setResumeSupported(false);
+        ReconnectingTransport first = new ReconnectingTransport(server::newTransport, new Backoff(20, 100), 200);
+        SignalingTransport second = server.newTransport();
+        CountDownLatch created = new CountDownLatch(1);
+        CountDownLatch rejoined = new CountDownLatch(1);
+        CountDownLatch secondJoined = new CountDownLatch(1);
+        CountDownLatch secondSawNewId = new CountDownLatch(1);
+        List<String> roomEvents = Collections.synchronizedList(new ArrayList<>());
+
+        first.connect("room", new SignalingCodecTest.ListenerAdapter() {
+            @Override
+            public void onCreated() {
+                created.countDown();
+            }
+
+            @Override
+            public void onSelfJoined() {
+                rejoined.countDown();
+            }
+        });
+        assertTrue(created.await(5, TimeUnit.SECONDS));
+        second.connect("room", new SignalingCodecTest.ListenerAdapter() {
+            @Override
+            public void onSelfJoined() {
+                secondJoined.countDown();
+            }
+
+            @Override
+            public void onPeerJoined(String socketId) {
+                roomEvents.add("join " + socketId);
+                secondSawNewId.countDown();
+            }
+
+            @Override
+            public void onPeerLeave(String socketId) {
+                roomEvents.add("bye " + socketId);
+            }
+        });
+        assertTrue(secondJoined.await(5, TimeUnit.SECONDS));
+        String id = first.id();
+
+        server.dropConnection(id);
+        // 以旧身份排队的消息在换成新身份时丢弃
+        first.send(SignalingMessage.layer(1, 1, id, second.id()));
+        assertTrue(rejoined.await(5, TimeUnit.SECONDS));
+        assertTrue(secondSawNewId.await(5, TimeUnit.SECONDS));
+        String newId = first.id();
+        assertNotEquals(id, newId);
+        assertEquals("[bye " + id + ", join " + newId + "]", roomEvents.toString());
+        assertEquals(0, first.getQueuedCount());
+        assertTrue(first.isConnected());
+        first.disconnect();
+        server.shutdown();
+    }
+
+    @Test
+    public void droppedBeforeJoin_keepsBackingOff() throws InterruptedException {
+        // 服务器接受连接之后立即断开, 一直没有加入房间
+        CountDownLatch attempts = new CountDownLatch(4);
+        ReconnectingTransport.Factory factory = () -> {
+            attempts.countDown();
+            return new DroppingTransport();
+        };
+        Backoff backoff = new Backoff(1, 4);
+        ReconnectingTransport transport = new ReconnectingTransport(factory, backoff);
+        transport.connect("room", new SignalingCodecTest.ListenerAdapter());
+        assertTrue(attempts.await(5, TimeUnit.SECONDS));
+        assertTrue(String.valueOf(backoff.getAttempts()), backoff.getAttempts() >= 3);
+        transport.disconnect();
+    }
+
+    private static class DroppingTransport implements SignalingTransport {
+        @Override
+        public void connect(String room, Listener listener) {
+            listener.onConnected();
+            listener.onDisconnected();
+        }
+
+        @Override
+        public void resume(String room, String id, Listener listener) {
+            connect(room, listener);
+        }
+
+        @Override
+        public String id() {
+            return null;
+        }
+
+        @Override
+        public void send(SignalingMessage message) {
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.bo.webrtc_android;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RecordingSegmenterTest {
+    @Test
+    public void firstSegmentStartsAtFirstKeyFrame() {
+        RecordingSegmenter segmenter = new RecordingSegmenter(10_000);
+        assertFalse(segmenter.onSample(1_000_000, false));
+        assertFalse(segmenter.isStarted());
+        assertTrue(segmenter.onSample(1_100_000, true));
+        assertEquals(0, segmenter.getIndex());
+        assertEquals(0, segmenter.rebase(1_100_000));
+        assertEquals(400_000, segmenter.rebase(1_500_000));
+        // 文件内的周期关键帧不切分
+        assertFalse(segmenter.onSample(3_100_000, true));
+    }
+
+    @Test
+    public void requestsKeyFrameOnceAndRollsOnIt() {
+        RecordingSegmenter segmenter = new RecordingSegmenter(10_000);
+        segmenter.onSample(0, true);
+        assertFalse(segmenter.needsKeyFrame(9_999_999));
+        assertTrue(segmenter.needsKeyFrame(10_000_000));
+        assertFalse(segmenter.needsKeyFrame(10_066_000));
+        // 关键帧到达之前的帧还写在当前文件
+        assertFalse(segmenter.onSample(10_033_000, false));
+        assertTrue(segmenter.onSample(10_066_000, true));
+        assertEquals(1, segmenter.getIndex());
+        assertEquals(0, segmenter.rebase(10_066_000));
+        assertFalse(segmenter.needsKeyFrame(10_100_000));
+        assertTrue(segmenter.needsKeyFrame(20_066_000));
+    }
+
+    @Test
+    public void zeroDurationNeverSplits() {
+        RecordingSegmenter segmenter = new RecordingSegmenter(0);
+        assertTrue(segmenter.onSample(0, true));
+        assertFalse(segmenter.needsKeyFrame(Long.MAX_VALUE / 2));
+        assertFalse(segmenter.onSample(3_600_000_000L, true));
+        assertEquals(0, segmenter.getIndex());
+    }
+}
@@ -0,0 +1,90 @@
+package com.bo.webrtc_android;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// SDP 的解析/序列化吞吐, 以及一次解析后应用全部本地变换与逐个变换各自解析一遍的对比
+// 运行: 在 IDE 中直接运行 main, 或 java -cp <test classpath> com.bo.webrtc_android.SdpBenchmark
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SdpBenchmark {
+    private static final List<String> RANK = Arrays.asList("H264", "VP8", "VP9");
+
+    private String offer;
+    private String renegotiated;
+    private SdpModel base;
+    private SdpModel next;
+    private String delta;
+    private final AudioPipeline.OpusSettings opus = new AudioPipeline.OpusSettings();
+
+    @Setup
+    public void setup() {
+        offer = SignalingSamples.OFFER_SDP;
+        renegotiated = offer.replace(" 2 IN IP4", " 3 IN IP4");
+        base = SdpModel.parse(offer);
+        next = SdpModel.parse(renegotiated);
+        delta = SdpDelta.encode(base, next);
+    }
+
+    @Benchmark
+    public SdpModel parse() {
+        return SdpModel.parse(offer);
+    }
+
+    // 修改后的序列化, 不能直接返回原始文本
+    @Benchmark
+    public String parseModifySerialize() {
+        return SdpModel.parse(offer).setBandwidth("video", 1500).toString();
+    }
+
+    // PeerNegotiator 现在的做法: 解析一次, 所有变换共用
+    @Benchmark
+    public String transformChainOnce() {
+        SdpModel sdp = SdpModel.parse(offer).reorderCodecs("video", RANK);
+        return AudioPipeline.applyTo(sdp, opus).toString();
+    }
+
+    // 对比: 每个变换各自解析和拼接字符串
+    @Benchmark
+    public String transformChainPerString() {
+        String sdp = SdpModel.parse(offer).reorderCodecs("video", RANK).toString();
+        return AudioPipeline.applyTo(SdpModel.parse(sdp), opus).toString();
+    }
+
+    @Benchmark
+    public String encodeDelta() {
+        return SdpDelta.encode(base, next);
+    }
+
+    @Benchmark
+    public SdpModel decodeDelta() {
+        return SdpDelta.decode(base, delta);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        SdpModel base = SdpModel.parse(SignalingSamples.OFFER_SDP);
+        SdpModel next = SdpModel.parse(SignalingSamples.OFFER_SDP.replace(" 2 IN IP4", " 3 IN IP4"));
+        System.out.println("renegotiation bytes: full=" + next.toString().length()
+                + " delta=" + SdpDelta.encode(base, next).length());
+        new Runner(new OptionsBuilder().include(SdpBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,37 @@
+package com.bo.webrtc_android;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SdpDeltaTest {
+    @Test
+    public void encode_sendsOnlyChangedParts() {
+        SdpModel base = SdpModel.parse(SignalingSamples.OFFER_SDP);
+        // 重协商: 版本号递增, 视频加了带宽限制, 音频段不变
+        SdpModel next = SdpModel.parse(SignalingSamples.OFFER_SDP.replace(" 2 IN IP4", " 3 IN IP4"))
+                .setBandwidth("video", 800);
+        String delta = SdpDelta.encode(base, next);
+        assertNotNull(delta);
+        assertTrue(SdpDelta.isDelta(delta));
+        assertTrue(delta.length() < next.toString().length() * 2 / 3);
+        assertEquals(next.toString(), SdpDelta.decode(base, delta).toString());
+    }
+
+    @Test
+    public void encode_unchangedDescriptionIsTiny() {
+        SdpModel base = SdpModel.parse(SignalingSamples.OFFER_SDP);
+        String delta = SdpDelta.encode(base, SdpModel.parse(SignalingSamples.OFFER_SDP));
+        assertEquals(4, delta.split("\r\n").length);
+        assertEquals(SignalingSamples.OFFER_SDP, SdpDelta.decode(base, delta).toString());
+    }
+
+    @Test
+    public void decode_wrongBaseFails() {
+        SdpModel base = SdpModel.parse(SignalingSamples.OFFER_SDP);
+        String delta = SdpDelta.encode(base, SdpModel.parse(SignalingSamples.OFFER_SDP).setBandwidth("video", 800));
+        SdpModel other = SdpModel.parse(SignalingSamples.OFFER_SDP).setBandwidth("audio", 64);
+        assertNull(SdpDelta.decode(other, delta));
+        assertNull(SdpDelta.decode(base, SdpDelta.MARKER + "0\r\n=s\r\n"));
+    }
+}
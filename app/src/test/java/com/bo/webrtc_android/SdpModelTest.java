@@ -0,0 +1,129 @@
+package com.bo.webrtc_android;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SdpModelTest {
+    private static SdpModel sample() {
+        return SdpModel.parse(SignalingSamples.OFFER_SDP);
+    }
+
+    private static String line(String sdp, String prefix) {
+        for (String line : sdp.split("\r\n")) {
+            if (line.startsWith(prefix)) {
+                return line;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void parse_roundTripsUnchanged() {
+        SdpModel sdp = sample();
+        assertEquals(SignalingSamples.OFFER_SDP, sdp.toString());
+        assertEquals(2, sdp.getSections().size());
+        assertEquals("1", sdp.getSections().get(1).getMid());
+        assertEquals(Arrays.asList("96", "97", "98", "99", "100", "101", "127", "124", "125"),
+                sdp.findByMid("1").getPayloads());
+    }
+
+    @Test
+    public void stripCodecs_removesRtxPointingToStrippedCodec() {
+        SdpModel.Section video = sample().stripCodecs("video", Arrays.asList("VP9")).findByMid("1");
+        assertEquals(Arrays.asList("96", "97", "100", "101", "127", "124", "125"), video.getPayloads());
+        assertNull(video.getCodecName("99"));
+        assertFalse(video.getLines().contains("a=fmtp:99 apt=98"));
+    }
+
+    @Test
+    public void setBandwidth_placesLimitAfterConnectionLine() {
+        SdpModel sdp = sample().setBandwidth("video", 1500);
+        String text = sdp.toString();
+        assertTrue(text.contains("m=video 9 UDP/TLS/RTP/SAVPF 96 97 98 99 100 101 127 124 125\r\nc=IN IP4 0.0.0.0\r\nb=AS:1500\r\n"));
+        // 音频段不变, 再次设置替换而不是追加
+        assertFalse(sdp.findByMid("0").getLines().contains("b=AS:1500"));
+        assertEquals(1, text.split("b=AS:").length - 1);
+        assertEquals(SignalingSamples.OFFER_SDP, sdp.setBandwidth("video", 0).toString());
+    }
+
+    @Test
+    public void setRtx_disabledRemovesRtxPayloadsAndSsrcs() {
+        SdpModel.Section video = sample().setRtx("video", false).findByMid("1");
+        assertEquals(Arrays.asList("96", "98", "100", "127", "125"), video.getPayloads());
+        for (String line : video.getLines()) {
+            assertFalse(line, line.startsWith("a=ssrc-group:FID"));
+            assertFalse(line, line.startsWith("a=ssrc:3497587327"));
+        }
+        assertTrue(video.getLines().contains("a=ssrc:1882434318 msid:mediaStream 100"));
+    }
+
+    @Test
+    public void setFec_disabledStripsRedAndUlpfec() {
+        SdpModel sdp = sample().setFec("video", false).setFec("audio", false);
+        assertEquals(Arrays.asList("96", "97", "98", "99", "100", "101"), sdp.findByMid("1").getPayloads());
+        assertEquals("0", sdp.findByMid("0").getFmtp("111").get("useinbandfec"));
+    }
+
+    @Test
+    public void removeUnusedSections_collapsesRejectedSection() {
+        SdpModel sdp = SdpModel.parse(SignalingSamples.OFFER_SDP.replace("m=video 9 ", "m=video 0 ")).removeUnusedSections();
+        SdpModel.Section video = sdp.findByMid("1");
+        assertTrue(video.isRejected());
+        assertEquals("m=video 0 UDP/TLS/RTP/SAVPF 96", video.getMLine());
+        assertEquals(Arrays.asList("c=IN IP4 0.0.0.0", "a=mid:1", "a=inactive"), video.getLines());
+        // 被接受的段不受影响
+        assertEquals(sample().findByMid("0").getLines(), sdp.findByMid("0").getLines());
+    }
+
+    @Test
+    public void reorderCodecs_movesPreferredVideoCodecsFirst() {
+        String sdp = sample().reorderCodecs("video", Arrays.asList("H264", "VP8")).toString();
+        assertEquals("m=video 9 UDP/TLS/RTP/SAVPF 100 96 97 98 99 101 127 124 125", line(sdp, "m=video "));
+        // 其他媒体段不变
+        assertEquals(line(SignalingSamples.OFFER_SDP, "m=audio "), line(sdp, "m=audio "));
+    }
+
+    @Test
+    public void reorderCodecs_ignoresUnknownCodecs() {
+        assertEquals(SignalingSamples.OFFER_SDP, sample().reorderCodecs("video", Arrays.asList("AV1")).toString());
+    }
+
+    @Test
+    public void setFmtpParameters_overridesAndAppends() {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("useinbandfec", "0");
+        params.put("usedtx", "1");
+        String sdp = sample().setFmtpParameters("audio", "opus", params).toString();
+        assertEquals("a=fmtp:111 minptime=10;useinbandfec=0;usedtx=1", line(sdp, "a=fmtp:111 "));
+        // 视频段不受影响
+        assertEquals(SignalingSamples.OFFER_SDP.substring(SignalingSamples.OFFER_SDP.indexOf("m=video")),
+                sdp.substring(sdp.indexOf("m=video")));
+    }
+
+    @Test
+    public void setFmtpParameters_insertsMissingLineAfterRtpmap() {
+        String sdp = sample().setFmtpParameters("audio", "ISAC", Collections.singletonMap("foo", "1")).toString();
+        String[] lines = sdp.split("\r\n");
+        int rtpmap = Arrays.asList(lines).indexOf("a=rtpmap:103 ISAC/16000");
+        assertTrue(rtpmap > 0);
+        assertEquals("a=fmtp:103 foo=1", lines[rtpmap + 1]);
+        assertEquals("a=rtpmap:104 ISAC/32000", lines[rtpmap + 2]);
+        assertEquals("a=fmtp:104 foo=1", lines[rtpmap + 3]);
+    }
+
+    @Test
+    public void setPtime_addsOnceToAudioSection() {
+        String sdp = sample().setPtime("audio", 40).setPtime("audio", 60).toString();
+        assertEquals(sdp.indexOf("a=ptime:"), sdp.lastIndexOf("a=ptime:"));
+        String[] lines = sdp.split("\r\n");
+        int ptime = Arrays.asList(lines).indexOf("a=ptime:60");
+        assertTrue(ptime > 0);
+        assertTrue(lines[ptime + 1].startsWith("m=video"));
+    }
+}
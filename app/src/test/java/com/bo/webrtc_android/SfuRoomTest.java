@@ -0,0 +1,47 @@
+package com.bo.webrtc_android;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class SfuRoomTest {
+    @Test
+    public void publishAndSubscribe_neverIncludeSelf() {
+        SfuRoom room = new SfuRoom();
+        assertEquals(Collections.emptyList(), room.subscribe("a"));
+        assertEquals(Collections.emptyList(), room.publish("a"));
+        assertEquals(Collections.singletonList("a"), room.subscribe("b"));
+        assertEquals(Collections.singletonList("a"), room.publish("b"));
+        assertEquals(Arrays.asList("a", "b"), room.subscribe("c"));
+        assertEquals(Arrays.asList("b", "c"), room.getSubscribersFor("a"));
+        assertEquals(Collections.singletonList("b"), room.getPublishersFor("a"));
+    }
+
+    @Test
+    public void repeatedRequests_areIgnored() {
+        SfuRoom room = new SfuRoom();
+        room.subscribe("a");
+        assertEquals(Collections.singletonList("a"), room.publish("b"));
+        assertEquals(Collections.emptyList(), room.publish("b"));
+        assertEquals(Collections.emptyList(), room.subscribe("a"));
+        assertEquals(1, room.getPublisherCount());
+    }
+
+    @Test
+    public void leave_returnsAffectedSubscribers() {
+        SfuRoom room = new SfuRoom();
+        room.publish("a");
+        room.subscribe("a");
+        room.subscribe("b");
+        room.subscribe("c");
+        // 只订阅不发布的客户端离开不影响别人
+        assertEquals(Collections.emptyList(), room.leave("c"));
+        assertEquals(Collections.singletonList("b"), room.leave("a"));
+        assertFalse(room.isPublishing("a"));
+        assertEquals(Collections.emptyList(), room.getPublishersFor("b"));
+        assertEquals(1, room.getSubscriberCount());
+    }
+}
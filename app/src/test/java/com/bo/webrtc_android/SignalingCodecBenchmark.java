@@ -0,0 +1,81 @@
+package com.bo.webrtc_android;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+// 比较 socket.io JSON 帧和二进制编码的编解码耗时, main 中同时打印每条消息的线上字节数
+// 运行: 在 IDE 中直接运行 main, 或 java -cp <test classpath> com.bo.webrtc_android.SignalingCodecBenchmark
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SignalingCodecBenchmark {
+    @Param({"offer", "candidate", "candidates8"})
+    public String kind;
+
+    private SignalingMessage message;
+    private final JsonSignalingCodec json = new JsonSignalingCodec();
+    private final BinarySignalingCodec binary = new BinarySignalingCodec();
+    private byte[] jsonData;
+    private byte[] binaryData;
+
+    @Setup
+    public void setup() {
+        message = sample(kind);
+        jsonData = json.encode(message);
+        binaryData = binary.encode(message);
+    }
+
+    private static SignalingMessage sample(String kind) {
+        if ("offer".equals(kind)) {
+            return SignalingMessage.sessionDescription(SignalingSamples.offer(), "MiL3tJ0cq9hZpXiHAAAB", "Ab4cpEXBq1hC8XkYAAAC");
+        }
+        int count = "candidate".equals(kind) ? 1 : 8;
+        return SignalingMessage.candidates(SignalingSamples.candidates(count), "MiL3tJ0cq9hZpXiHAAAB", "Ab4cpEXBq1hC8XkYAAAC");
+    }
+
+    @Benchmark
+    public byte[] encodeJson() {
+        return json.encode(message);
+    }
+
+    @Benchmark
+    public SignalingMessage decodeJson() {
+        return json.decode(jsonData, 0, jsonData.length);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return binary.encode(message);
+    }
+
+    @Benchmark
+    public SignalingMessage decodeBinary() {
+        return binary.decode(binaryData, 0, binaryData.length);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (String kind : new String[]{"offer", "candidate", "candidates8"}) {
+            SignalingMessage message = sample(kind);
+            System.out.println(kind + " bytes on wire: json=" + new JsonSignalingCodec().encode(message).length
+                    + " binary=" + new BinarySignalingCodec().encode(message).length);
+        }
+        new Runner(new OptionsBuilder().include(SignalingCodecBenchmark.class.getSimpleName()).build()).run();
+    }
+}
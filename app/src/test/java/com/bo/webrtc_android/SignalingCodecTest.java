@@ -0,0 +1,133 @@
+package com.bo.webrtc_android;
+
+import org.junit.Test;
+import org.webrtc.IceCandidate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SignalingCodecTest {
+    private static void assertRoundTrip(SignalingCodec codec, SignalingMessage message) {
+        byte[] data = codec.encode(message);
+        SignalingMessage decoded = codec.decode(data, 0, data.length);
+        assertNotNull(decoded);
+        assertEquals(message.type, decoded.type);
+        assertEquals(message.from, decoded.from);
+        assertEquals(message.to, decoded.to);
+        assertEquals(message.sdp, decoded.sdp);
+        assertEquals(message.candidates.size(), decoded.candidates.size());
+        for (int i = 0; i < message.candidates.size(); i++) {
+            IceCandidate expected = message.candidates.get(i);
+            IceCandidate actual = decoded.candidates.get(i);
+            assertEquals(expected.sdpMid, actual.sdpMid);
+            assertEquals(expected.sdpMLineIndex, actual.sdpMLineIndex);
+            assertEquals(expected.sdp, actual.sdp);
+        }
+    }
+
+    @Test
+    public void binaryCodec_roundTrip() {
+        BinarySignalingCodec codec = new BinarySignalingCodec();
+        assertRoundTrip(codec, SignalingMessage.sessionDescription(SignalingSamples.offer(), "a", "b"));
+        assertRoundTrip(codec, SignalingMessage.candidates(SignalingSamples.candidates(1), "a", "b"));
+        assertRoundTrip(codec, SignalingMessage.candidates(SignalingSamples.candidates(8), "a", "b"));
+        assertRoundTrip(codec, SignalingMessage.control(SignalingMessage.JOIN, null, "OldPlace"));
+        assertRoundTrip(codec, SignalingMessage.layer(360, 480, "a", "b"));
+        assertRoundTrip(codec, SignalingMessage.control(SignalingMessage.NEGOTIATE, "a", "b"));
+        assertRoundTrip(codec, SignalingMessage.control(SignalingMessage.PUBLISH, "a", SignalingMessage.SFU_UPSTREAM));
+        assertRoundTrip(codec, SignalingMessage.control(SignalingMessage.SUBSCRIBE, "a", SignalingMessage.SFU_DOWNSTREAM));
+    }
+
+    @Test
+    public void jsonCodec_roundTrip() {
+        JsonSignalingCodec codec = new JsonSignalingCodec();
+        assertRoundTrip(codec, SignalingMessage.sessionDescription(SignalingSamples.offer(), "a", "b"));
+        assertRoundTrip(codec, SignalingMessage.candidates(SignalingSamples.candidates(1), "a", "b"));
+        assertRoundTrip(codec, SignalingMessage.candidates(SignalingSamples.candidates(8), "a", "b"));
+        assertRoundTrip(codec, SignalingMessage.layer(360, 480, "a", "b"));
+    }
+
+    @Test
+    public void binaryCodec_smallerThanJson() {
+        SignalingMessage message = SignalingMessage.candidates(SignalingSamples.candidates(8), "a", "b");
+        assertTrue(new BinarySignalingCodec().encode(message).length < new JsonSignalingCodec().encode(message).length);
+    }
+
+    @Test
+    public void binaryCodec_rejectsTruncatedFrame() {
+        byte[] data = new BinarySignalingCodec().encode(SignalingMessage.sessionDescription(SignalingSamples.offer(), "a", "b"));
+        assertNull(new BinarySignalingCodec().decode(data, 0, data.length / 2));
+    }
+
+    @Test
+    public void loopbackServer_routesMessagesInRoom() throws InterruptedException {
+        LoopbackSignalingServer server = new LoopbackSignalingServer();
+        CountDownLatch joined = new CountDownLatch(1);
+        CountDownLatch received = new CountDownLatch(1);
+        List<SignalingMessage> messages = new ArrayList<>();
+        SignalingTransport first = server.newTransport();
+        SignalingTransport second = server.newTransport();
+        first.connect("room", new ListenerAdapter() {
+            @Override
+            public void onPeerJoined(String socketId) {
+                first.send(SignalingMessage.sessionDescription(SignalingSamples.offer(), first.id(), socketId));
+            }
+        });
+        second.connect("room", new ListenerAdapter() {
+            @Override
+            public void onSelfJoined() {
+                joined.countDown();
+            }
+
+            @Override
+            public void onMessage(SignalingMessage message) {
+                messages.add(message);
+                received.countDown();
+            }
+        });
+        assertTrue(joined.await(5, TimeUnit.SECONDS));
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        assertEquals(SignalingMessage.OFFER, messages.get(0).type);
+        assertEquals(first.id(), messages.get(0).from);
+        assertEquals(1, server.getMessageCount());
+        server.shutdown();
+    }
+
+    static class ListenerAdapter implements SignalingTransport.Listener {
+        @Override
+        public void onConnected() {
+        }
+
+        @Override
+        public void onDisconnected() {
+        }
+
+        @Override
+        public void onCreated() {
+        }
+
+        @Override
+        public void onFull() {
+        }
+
+        @Override
+        public void onSelfJoined() {
+        }
+
+        @Override
+        public void onPeerJoined(String socketId) {
+        }
+
+        @Override
+        public void onPeerLeave(String socketId) {
+        }
+
+        @Override
+        public void onMessage(SignalingMessage message) {
+        }
+    }
+}
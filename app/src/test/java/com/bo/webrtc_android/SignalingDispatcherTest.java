@@ -0,0 +1,65 @@
+package com.bo.webrtc_android;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SignalingDispatcherTest {
+    @Test
+    public void samePeer_runsInOrder() throws InterruptedException {
+        SignalingDispatcher dispatcher = new SignalingDispatcher(4);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            int index = i;
+            dispatcher.execute("a", () -> {
+                order.add(index);
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void differentPeers_runInParallel() throws InterruptedException {
+        SignalingDispatcher dispatcher = new SignalingDispatcher(2);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch other = new CountDownLatch(1);
+        // a 的任务一直阻塞, b 的任务仍然能执行
+        dispatcher.execute("a", () -> {
+            try {
+                blocked.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        dispatcher.execute("b", other::countDown);
+        assertTrue(other.await(5, TimeUnit.SECONDS));
+        blocked.countDown();
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void idleQueue_isRemoved() throws InterruptedException {
+        SignalingDispatcher dispatcher = new SignalingDispatcher(2);
+        CountDownLatch done = new CountDownLatch(1);
+        dispatcher.execute("a", done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (dispatcher.getQueueCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, dispatcher.getQueueCount());
+        dispatcher.shutdown();
+    }
+}
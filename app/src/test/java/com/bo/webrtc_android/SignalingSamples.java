@@ -0,0 +1,117 @@
+package com.bo.webrtc_android;
+
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// 测试和基准测试共用的信令样本数据, 与客户端实际产生的 offer 和候选相近
+public class SignalingSamples {
+    public static final String OFFER_SDP = "v=0\r\n"
+            + "o=- 4611731400430051336 2 IN IP4 127.0.0.1\r\n"
+            + "s=-\r\n"
+            + "t=0 0\r\n"
+            + "a=group:BUNDLE 0 1\r\n"
+            + "a=msid-semantic: WMS mediaStream\r\n"
+            + "m=audio 9 UDP/TLS/RTP/SAVPF 111 103 104 9 102 0 8 106 105 13 110 112 113 126\r\n"
+            + "c=IN IP4 0.0.0.0\r\n"
+            + "a=rtcp:9 IN IP4 0.0.0.0\r\n"
+            + "a=ice-ufrag:Xn4B\r\n"
+            + "a=ice-pwd:0dW1PPNQb0jrN3eNlp8Hq2hY\r\n"
+            + "a=ice-options:trickle renomination\r\n"
+            + "a=fingerprint:sha-256 8C:71:B3:8D:A5:38:FD:8F:A4:2E:A2:65:6C:86:52:BC:E0:6E:94:F2:9F:7C:4D:B5:DF:AF:AA:6F:44:90:8D:F4\r\n"
+            + "a=setup:actpass\r\n"
+            + "a=mid:0\r\n"
+            + "a=extmap:1 urn:ietf:params:rtp-hdrext:ssrc-audio-level\r\n"
+            + "a=extmap:2 http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time\r\n"
+            + "a=extmap:3 http://www.ietf.org/id/draft-holmer-rmcat-transport-wide-cc-extensions-01\r\n"
+            + "a=sendrecv\r\n"
+            + "a=rtcp-mux\r\n"
+            + "a=rtpmap:111 opus/48000/2\r\n"
+            + "a=rtcp-fb:111 transport-cc\r\n"
+            + "a=fmtp:111 minptime=10;useinbandfec=1\r\n"
+            + "a=rtpmap:103 ISAC/16000\r\n"
+            + "a=rtpmap:104 ISAC/32000\r\n"
+            + "a=rtpmap:9 G722/8000\r\n"
+            + "a=rtpmap:102 ILBC/8000\r\n"
+            + "a=rtpmap:0 PCMU/8000\r\n"
+            + "a=rtpmap:8 PCMA/8000\r\n"
+            + "a=rtpmap:106 CN/32000\r\n"
+            + "a=rtpmap:105 CN/16000\r\n"
+            + "a=rtpmap:13 CN/8000\r\n"
+            + "a=rtpmap:110 telephone-event/48000\r\n"
+            + "a=rtpmap:112 telephone-event/32000\r\n"
+            + "a=rtpmap:113 telephone-event/16000\r\n"
+            + "a=rtpmap:126 telephone-event/8000\r\n"
+            + "a=ssrc:3015385539 cname:8cJ+GAH7JBsxgXv1\r\n"
+            + "a=ssrc:3015385539 msid:mediaStream 101\r\n"
+            + "m=video 9 UDP/TLS/RTP/SAVPF 96 97 98 99 100 101 127 124 125\r\n"
+            + "c=IN IP4 0.0.0.0\r\n"
+            + "a=rtcp:9 IN IP4 0.0.0.0\r\n"
+            + "a=ice-ufrag:Xn4B\r\n"
+            + "a=ice-pwd:0dW1PPNQb0jrN3eNlp8Hq2hY\r\n"
+            + "a=ice-options:trickle renomination\r\n"
+            + "a=fingerprint:sha-256 8C:71:B3:8D:A5:38:FD:8F:A4:2E:A2:65:6C:86:52:BC:E0:6E:94:F2:9F:7C:4D:B5:DF:AF:AA:6F:44:90:8D:F4\r\n"
+            + "a=setup:actpass\r\n"
+            + "a=mid:1\r\n"
+            + "a=extmap:14 urn:ietf:params:rtp-hdrext:toffset\r\n"
+            + "a=extmap:2 http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time\r\n"
+            + "a=extmap:13 urn:3gpp:video-orientation\r\n"
+            + "a=extmap:3 http://www.ietf.org/id/draft-holmer-rmcat-transport-wide-cc-extensions-01\r\n"
+            + "a=extmap:12 http://www.webrtc.org/experiments/rtp-hdrext/playout-delay\r\n"
+            + "a=sendrecv\r\n"
+            + "a=rtcp-mux\r\n"
+            + "a=rtcp-rsize\r\n"
+            + "a=rtpmap:96 VP8/90000\r\n"
+            + "a=rtcp-fb:96 goog-remb\r\n"
+            + "a=rtcp-fb:96 transport-cc\r\n"
+            + "a=rtcp-fb:96 ccm fir\r\n"
+            + "a=rtcp-fb:96 nack\r\n"
+            + "a=rtcp-fb:96 nack pli\r\n"
+            + "a=rtpmap:97 rtx/90000\r\n"
+            + "a=fmtp:97 apt=96\r\n"
+            + "a=rtpmap:98 VP9/90000\r\n"
+            + "a=rtcp-fb:98 goog-remb\r\n"
+            + "a=rtcp-fb:98 transport-cc\r\n"
+            + "a=rtcp-fb:98 ccm fir\r\n"
+            + "a=rtcp-fb:98 nack\r\n"
+            + "a=rtcp-fb:98 nack pli\r\n"
+            + "a=rtpmap:99 rtx/90000\r\n"
+            + "a=fmtp:99 apt=98\r\n"
+            + "a=rtpmap:100 H264/90000\r\n"
+            + "a=rtcp-fb:100 goog-remb\r\n"
+            + "a=rtcp-fb:100 transport-cc\r\n"
+            + "a=rtcp-fb:100 ccm fir\r\n"
+            + "a=rtcp-fb:100 nack\r\n"
+            + "a=rtcp-fb:100 nack pli\r\n"
+            + "a=fmtp:100 level-asymmetry-allowed=1;packetization-mode=1;profile-level-id=640c1f\r\n"
+            + "a=rtpmap:101 rtx/90000\r\n"
+            + "a=fmtp:101 apt=100\r\n"
+            + "a=rtpmap:127 red/90000\r\n"
+            + "a=rtpmap:124 rtx/90000\r\n"
+            + "a=fmtp:124 apt=127\r\n"
+            + "a=rtpmap:125 ulpfec/90000\r\n"
+            + "a=ssrc-group:FID 1882434318 3497587327\r\n"
+            + "a=ssrc:1882434318 cname:8cJ+GAH7JBsxgXv1\r\n"
+            + "a=ssrc:1882434318 msid:mediaStream 100\r\n"
+            + "a=ssrc:3497587327 cname:8cJ+GAH7JBsxgXv1\r\n"
+            + "a=ssrc:3497587327 msid:mediaStream 100\r\n";
+
+    public static SessionDescription offer() {
+        return new SessionDescription(SessionDescription.Type.OFFER, OFFER_SDP);
+    }
+
+    // count 个候选, 依次为 host/srflx/relay
+    public static List<IceCandidate> candidates(int count) {
+        List<IceCandidate> candidates = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String type = i % 3 == 0 ? "host" : (i % 3 == 1 ? "srflx raddr 192.168.1.23 rport 40123" : "relay raddr 203.0.113.7 rport 51234");
+            candidates.add(new IceCandidate(String.valueOf(i % 2), i % 2,
+                    "candidate:" + (842163049 + i) + " 1 udp " + (2122260223 - i * 1000)
+                            + " 192.168.1." + (23 + i) + " " + (40123 + i) + " typ " + type
+                            + " generation 0 ufrag Xn4B network-id 3 network-cost 10"));
+        }
+        return candidates;
+    }
+}
@@ -0,0 +1,73 @@
+package com.bo.webrtc_android;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class StaticFrameDetectorTest {
+    private static final long MS = 1_000_000L;
+
+    private static byte[] frame(int value) {
+        byte[] luma = new byte[16 * 9];
+        Arrays.fill(luma, (byte) value);
+        return luma;
+    }
+
+    @Test
+    public void throttlesToFps() {
+        StaticFrameDetector detector = new StaticFrameDetector(5, 1000);
+        assertEquals(0, detector.delayNs(0));
+        assertTrue(detector.shouldSend(frame(10), 16, 9, 0));
+        assertEquals(150 * MS, detector.delayNs(50 * MS));
+        assertEquals(0, detector.delayNs(200 * MS));
+    }
+
+    @Test
+    public void skipsStaticFramesUntilKeepAlive() {
+        StaticFrameDetector detector = new StaticFrameDetector(5, 1000);
+        assertTrue(detector.shouldSend(frame(10), 16, 9, 0));
+        // 缩放的舍入误差不算变化
+        assertFalse(detector.shouldSend(frame(10 + StaticFrameDetector.LUMA_THRESHOLD), 16, 9, 200 * MS));
+        assertFalse(detector.shouldSend(frame(10), 16, 9, 400 * MS));
+        // 跳过的帧也占用时间槽
+        assertEquals(100 * MS, detector.delayNs(500 * MS));
+        assertTrue(detector.shouldSend(frame(10), 16, 9, 1000 * MS));
+        assertEquals(2, detector.getSentFrames());
+        assertEquals(2, detector.getSkippedFrames());
+    }
+
+    @Test
+    public void sendsSinglePixelChange() {
+        StaticFrameDetector detector = new StaticFrameDetector(5, 1000);
+        assertTrue(detector.shouldSend(frame(10), 16, 9, 0));
+        byte[] changed = frame(10);
+        changed[77] = (byte) 200;
+        assertTrue(detector.shouldSend(changed, 16, 9, 200 * MS));
+        // 和上一次送出的帧比较, 不是和最初的一帧
+        assertFalse(detector.shouldSend(changed.clone(), 16, 9, 400 * MS));
+    }
+
+    @Test
+    public void sizeChangeCountsAsChange() {
+        StaticFrameDetector detector = new StaticFrameDetector(5, 1000);
+        assertTrue(detector.shouldSend(frame(10), 16, 9, 0));
+        assertTrue(detector.shouldSend(Arrays.copyOf(frame(10), 9 * 16), 9, 16, 200 * MS));
+    }
+
+    @Test
+    public void keepAliveWithoutNewFrames() {
+        StaticFrameDetector detector = new StaticFrameDetector(5, 1000);
+        assertEquals(-1, detector.keepAliveDelayNs(0));
+        assertTrue(detector.shouldSend(frame(10), 16, 9, 0));
+        assertEquals(600 * MS, detector.keepAliveDelayNs(400 * MS));
+        assertEquals(0, detector.keepAliveDelayNs(1000 * MS));
+        detector.onKeepAliveSent(1000 * MS);
+        assertEquals(1000 * MS, detector.keepAliveDelayNs(1000 * MS));
+        // 保活帧占用时间槽, 之后的静止帧照样跳过
+        assertEquals(100 * MS, detector.delayNs(1100 * MS));
+        assertFalse(detector.shouldSend(frame(10), 16, 9, 1200 * MS));
+        assertEquals(2, detector.getSentFrames());
+    }
+}
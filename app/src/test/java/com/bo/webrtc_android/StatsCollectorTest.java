@@ -0,0 +1,88 @@
+package com.bo.webrtc_android;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StatsCollectorTest {
+    private static StatsCollector.Counters counters(double seconds, double bytesSent, double bytesReceived,
+                                                    double framesEncoded, double framesDecoded) {
+        StatsCollector.Counters counters = new StatsCollector.Counters();
+        counters.timestampUs = seconds * 1e6;
+        counters.bytesSent = bytesSent;
+        counters.bytesReceived = bytesReceived;
+        counters.framesEncoded = framesEncoded;
+        counters.framesDecoded = framesDecoded;
+        return counters;
+    }
+
+    @Test
+    public void update_firstReportOnlyRecordsBaseline() {
+        assertNull(new StatsCollector().update("a", 0, counters(1, 1000, 1000, 10, 10)));
+    }
+
+    @Test
+    public void update_derivesRatesFromDeltas() {
+        StatsCollector collector = new StatsCollector();
+        StatsCollector.Counters first = counters(10, 100000, 50000, 300, 290);
+        first.totalEncodeTime = 3;
+        first.totalDecodeTime = 1;
+        first.packetsReceived = 1000;
+        first.packetsLost = 10;
+        collector.update("a", 0, first);
+        // 2 秒内发送 250000 字节 = 1Mbps, 编码 60 帧共 0.3 秒
+        StatsCollector.Counters second = counters(12, 350000, 100000, 360, 346);
+        second.totalEncodeTime = 3.3;
+        second.totalDecodeTime = 1.112;
+        second.packetsReceived = 1095;
+        second.packetsLost = 15;
+        second.jitter = 0.012;
+        second.rtt = 0.08;
+        second.localCandidateType = "relay";
+        second.remoteCandidateType = "srflx";
+        second.relayUrl = "turn:bocode.xyz:3478?transport=udp";
+        second.relayProtocol = "udp";
+        StatsCollector.Sample sample = collector.update("a", 0, second);
+        assertEquals(1_000_000, sample.sendBitrateBps, 1e-6);
+        assertEquals(200_000, sample.recvBitrateBps, 1e-6);
+        assertEquals(30, sample.sendFps, 1e-9);
+        assertEquals(28, sample.recvFps, 1e-9);
+        assertEquals(5, sample.encodeMsPerFrame, 1e-9);
+        assertEquals(2, sample.decodeMsPerFrame, 1e-9);
+        assertEquals(0.05, sample.packetLoss, 1e-9);
+        assertEquals(12, sample.jitterMs, 1e-9);
+        assertEquals(80, sample.rttMs, 1e-9);
+        assertTrue(sample.isRelayed());
+    }
+
+    @Test
+    public void update_countsStallAfterFramesAsFreeze() {
+        StatsCollector collector = new StatsCollector();
+        collector.update("a", 0, counters(0, 0, 0, -1, 0));
+        assertEquals(0, collector.update("a", 0, counters(2, 0, 0, -1, 60)).freezeCount);
+        // 连续两个区间没有新帧只算一次卡顿, 恢复后再停算第二次
+        assertEquals(1, collector.update("a", 0, counters(4, 0, 0, -1, 60)).freezeCount);
+        assertEquals(1, collector.update("a", 0, counters(6, 0, 0, -1, 60)).freezeCount);
+        assertEquals(1, collector.update("a", 0, counters(8, 0, 0, -1, 90)).freezeCount);
+        assertEquals(2, collector.update("a", 0, counters(10, 0, 0, -1, 90)).freezeCount);
+        // 有 freezeCount 统计时以它为准
+        StatsCollector.Counters reported = counters(12, 0, 0, -1, 120);
+        reported.freezeCount = 7;
+        assertEquals(7, collector.update("a", 0, reported).freezeCount);
+    }
+
+    @Test
+    public void toJson_writesOneLineWithRelayInfo() {
+        StatsCollector collector = new StatsCollector();
+        collector.update("peer\"1", 0, counters(0, 0, 0, 0, 0));
+        StatsCollector.Counters second = counters(1, 1000, 0, 0, 0);
+        second.localCandidateType = "relay";
+        second.relayUrl = "turn:bocode.xyz:3478";
+        String json = collector.update("peer\"1", 1234, second).toJson();
+        assertFalse(json.contains("\n"));
+        assertTrue(json, json.startsWith("{\"peer\":\"peer\\\"1\",\"ts\":1234,\"sendBitrate\":8000,"));
+        assertTrue(json, json.contains("\"relayed\":true,\"relayUrl\":\"turn:bocode.xyz:3478\""));
+        assertTrue(json, json.contains("\"encodeMsPerFrame\":-1,"));
+        assertTrue(json, json.endsWith("\"qualityLimitationReason\":null}"));
+    }
+}
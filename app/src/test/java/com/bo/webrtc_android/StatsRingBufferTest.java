@@ -0,0 +1,69 @@
+package com.bo.webrtc_android;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class StatsRingBufferTest {
+    @Test
+    public void capacityRoundsUpToPowerOfTwo() {
+        assertEquals(8, new StatsRingBuffer<Integer>(5).capacity());
+        assertEquals(4096, new StatsRingBuffer<Integer>(4096).capacity());
+        assertEquals(1, new StatsRingBuffer<Integer>(1).capacity());
+    }
+
+    @Test
+    public void snapshot_keepsNewestInOrderAfterWrapping() {
+        StatsRingBuffer<Integer> buffer = new StatsRingBuffer<>(4);
+        assertTrue(buffer.snapshot().isEmpty());
+        for (int i = 0; i < 10; i++) {
+            buffer.add(i);
+        }
+        assertEquals(Arrays.asList(6, 7, 8, 9), buffer.snapshot());
+        assertEquals(10, buffer.getWrittenCount());
+    }
+
+    @Test
+    public void since_readsIncrementally() {
+        StatsRingBuffer<Integer> buffer = new StatsRingBuffer<>(8);
+        buffer.add(1);
+        buffer.add(2);
+        long cursor = buffer.getWrittenCount();
+        buffer.add(3);
+        assertEquals(Collections.singletonList(3), buffer.since(cursor));
+        // 起点已被覆盖时从最旧的一个开始
+        for (int i = 4; i <= 20; i++) {
+            buffer.add(i);
+        }
+        assertEquals(13, (int) buffer.since(cursor).get(0));
+    }
+
+    @Test
+    public void concurrentWritersDoNotLoseSlots() throws InterruptedException {
+        StatsRingBuffer<Integer> buffer = new StatsRingBuffer<>(4096);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int base = t * 1000;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    buffer.add(base + i);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Set<Integer> values = new HashSet<>(buffer.snapshot());
+        assertEquals(4000, values.size());
+    }
+}
@@ -0,0 +1,21 @@
+package com.bo.webrtc_android;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class VideoRecorderTest {
+    @Test
+    public void segmentFileNameNumbersSegments() {
+        assertEquals("local-1700000000000-000.mp4", VideoRecorder.segmentFileName("local-1700000000000", 0));
+        assertEquals("local-1700000000000-012.mp4", VideoRecorder.segmentFileName("local-1700000000000", 12));
+    }
+
+    @Test
+    public void segmentFileNameStaysInRecordingDir() {
+        String name = ScreenShare.tileId("abc") + "-1700000000000";
+        String file = VideoRecorder.segmentFileName(name, 0);
+        assertEquals("abc_screen-1700000000000-000.mp4", file);
+        assertFalse(file.contains("/"));
+    }
+}